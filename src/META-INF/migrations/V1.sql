@@ -0,0 +1,5 @@
+-- Initial schema, as hbm2ddl.auto=update created it
+create table guide (id bigint not null, name varchar(255), salary integer, staff_id varchar(255) not null, primary key (id));
+create table Student (id bigint not null, enrollment_id varchar(255) not null, name varchar(255), guide_id bigint, primary key (id));
+alter table Student add constraint fk_student_guide foreign key (guide_id) references guide (id);
+create table id_generator (sequence_name varchar(255) not null, next_val bigint, primary key (sequence_name));
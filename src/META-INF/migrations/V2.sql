@@ -0,0 +1,4 @@
+-- Optimistic locking: @Version of Guide and Student
+-- The existing rows get version 0
+alter table guide add column version bigint not null default 0;
+alter table Student add column version bigint not null default 0;
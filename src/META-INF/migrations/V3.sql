@@ -0,0 +1,9 @@
+-- Indexes of the registered queries and unique natural keys
+-- The unique constraints fail if there are duplicates already. Find them with:
+--		select staff_id, count(*) from guide group by staff_id having count(*) > 1;
+--		select enrollment_id, count(*) from Student group by enrollment_id having count(*) > 1;
+create index idx_guide_name on guide (name);
+create index idx_guide_salary on guide (salary);
+alter table guide add constraint uk_guide_staff_id unique (staff_id);
+create index idx_student_guide_id on Student (guide_id);
+alter table Student add constraint uk_student_enrollment_id unique (enrollment_id);
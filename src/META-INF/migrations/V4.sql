@@ -0,0 +1,9 @@
+-- Id generator rows above the existing ids
+-- Tables filled by GenerationType.AUTO/IDENTITY have ids 1..max(id) and no id_generator row: the table generator would start at 1
+-- The pooled optimizer (increment_size 50 in Guide.java and Student.java) hands out [next_val - 50, next_val), so next_val = max(id) + 50 + 1
+-- Rows already above that are left as they are. Baselined databases that never ran with the table generator have no id_generator table yet
+create table if not exists id_generator (sequence_name varchar(255) not null, next_val bigint, primary key (sequence_name));
+update id_generator set next_val = (select coalesce(max(id), 0) + 51 from guide) where sequence_name = 'guide' and next_val < (select coalesce(max(id), 0) + 51 from guide);
+insert into id_generator (sequence_name, next_val) select 'guide', coalesce(max(id), 0) + 51 from guide where not exists (select 1 from id_generator where sequence_name = 'guide');
+update id_generator set next_val = (select coalesce(max(id), 0) + 51 from Student) where sequence_name = 'student' and next_val < (select coalesce(max(id), 0) + 51 from Student);
+insert into id_generator (sequence_name, next_val) select 'student', coalesce(max(id), 0) + 51 from Student where not exists (select 1 from id_generator where sequence_name = 'student');
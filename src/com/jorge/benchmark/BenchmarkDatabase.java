@@ -0,0 +1,104 @@
+package com.jorge.benchmark;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.apache.log4j.Logger;
+
+import com.jorge.entity.Guide;
+import com.jorge.entity.Student;
+import com.jorge.ingest.BulkLoader;
+import com.jorge.ingest.GuideRecordMapper;
+import com.jorge.ingest.StudentRecordMapper;
+
+/**
+ * Database of the benchmarks: the "helloworld" persistence unit pointed to an embedded H2 database in MySQL mode,
+ * so no MySQL server is needed. The H2 jar (com.h2database:h2) must be in the classpath
+ *
+ * Every setting can be changed with system properties, e.g. to run against the real MySQL server:
+ * 		-Dbenchmark.url=jdbc:mysql://localhost:3306/benchmark -Dbenchmark.driver=com.mysql.jdbc.Driver -Dbenchmark.dialect=org.hibernate.dialect.MySQLDialect
+ * 		-Dbenchmark.user=user1 -Dbenchmark.password=user1pass
+ *
+ * Data: 'guides' guides and 'studentsPerGuide' students per guide. Guide names are "Guide <n>", every 10th one "Marge <n>" (wildcard query),
+ * 		 and guide 0 is "Homer Simpson" with salary 1200 (single result queries of Main)
+ */
+public class BenchmarkDatabase {
+
+	private static final Logger logger = Logger.getLogger(BenchmarkDatabase.class.getName());
+
+	private BenchmarkDatabase() {}
+
+	public static EntityManagerFactory open() {
+		Map<String, String> properties = properties();
+		properties.put("hibernate.hbm2ddl.auto", "create"); // Always the same data
+		return Persistence.createEntityManagerFactory("helloworld", properties); // Same mappings, batching and cache settings than the application
+	}
+
+	// Overrides of the "helloworld" persistence unit for the benchmark database
+	public static Map<String, String> properties() {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("javax.persistence.jdbc.url", System.getProperty("benchmark.url", "jdbc:h2:mem:benchmark;MODE=MySQL;DB_CLOSE_DELAY=-1"));
+		properties.put("javax.persistence.jdbc.driver", System.getProperty("benchmark.driver", "org.h2.Driver"));
+		properties.put("javax.persistence.jdbc.user", System.getProperty("benchmark.user", "sa"));
+		properties.put("javax.persistence.jdbc.password", System.getProperty("benchmark.password", ""));
+		properties.put("hibernate.dialect", System.getProperty("benchmark.dialect", "org.hibernate.dialect.H2Dialect"));
+		properties.put("hibernate.migrations.enabled", "false"); // Tables created by hbm2ddl.auto, from the mapping (QueryPlanCheck.java runs the migrations)
+		return properties;
+	}
+
+	public static void seed(EntityManagerFactory emf, final int guides, final int studentsPerGuide) {
+		logger.info("seeding " + guides + " guides and " + (long) guides * studentsPerGuide + " students");
+
+		new BulkLoader<Guide>(emf, new GuideRecordMapper()).load(new Generator(guides) {
+			@Override
+			String[] record(long n) {
+				String name = n == 0 ? "Homer Simpson" : (n % 10 == 0 ? "Marge " : "Guide ") + n;
+				String salary = n == 0 ? "1200" : Long.toString(1000 + n % 1000);
+				return new String[] { "GD" + n, name, salary };
+			}
+		});
+
+		new BulkLoader<Student>(emf, new StudentRecordMapper()).load(new Generator((long) guides * studentsPerGuide) {
+			@Override
+			String[] record(long n) {
+				String guide = n % 100 == 99 ? "" : "GD" + n % guides; // 1% of the students without guide (left/right join)
+				return new String[] { "ST" + n, "Student " + n, guide };
+			}
+		});
+	}
+
+	private abstract static class Generator implements Iterator<String[]> {
+
+		private final long count;
+		private long next;
+
+		Generator(long count) {
+			this.count = count;
+		}
+
+		abstract String[] record(long n);
+
+		@Override
+		public boolean hasNext() {
+			return next < count;
+		}
+
+		@Override
+		public String[] next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			return record(next++);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
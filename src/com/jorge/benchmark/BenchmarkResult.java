@@ -0,0 +1,67 @@
+package com.jorge.benchmark;
+
+/**
+ * Measurement of one Operation: throughput, latency percentiles and allocated bytes per operation
+ */
+public class BenchmarkResult {
+
+	private final String name;
+	private final long operations;
+	private final double throughput; // Operations per second
+	private final long p50, p90, p99, max; // Latency in nanoseconds
+	private final long bytesPerOperation; // -1 if the JVM can't measure allocations
+
+	public BenchmarkResult(String name, long operations, double throughput, long p50, long p90, long p99, long max, long bytesPerOperation) {
+		this.name = name;
+		this.operations = operations;
+		this.throughput = throughput;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.max = max;
+		this.bytesPerOperation = bytesPerOperation;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getOperations() {
+		return operations;
+	}
+
+	public double getThroughput() {
+		return throughput;
+	}
+
+	public long getP50() {
+		return p50;
+	}
+
+	public long getP90() {
+		return p90;
+	}
+
+	public long getP99() {
+		return p99;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public long getBytesPerOperation() {
+		return bytesPerOperation;
+	}
+
+	// One line, aligned with header()
+	@Override
+	public String toString() {
+		return String.format("%-40s %12.1f %10.1f %10.1f %10.1f %10.1f %14d", name, throughput, p50 / 1e3, p90 / 1e3, p99 / 1e3, max / 1e3, bytesPerOperation);
+	}
+
+	public static String header() {
+		return String.format("%-40s %12s %10s %10s %10s %10s %14s", "BENCHMARK", "OPS/S", "P50 us", "P90 us", "P99 us", "MAX us", "BYTES/OP");
+	}
+
+}
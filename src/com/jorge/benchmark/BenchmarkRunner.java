@@ -0,0 +1,66 @@
+package com.jorge.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Minimal benchmark harness: warmup iterations (not measured), then measured iterations on the current thread
+ *
+ * For every operation it records the latency, so percentiles are exact, and the bytes allocated by the current thread
+ * (com.sun.management.ThreadMXBean, the same counter used by JMH -prof gc)
+ *
+ * Usage:
+ * 		BenchmarkRunner runner = new BenchmarkRunner(1000, 5000);
+ * 		System.out.println(runner.run("count", new Operation() {
+ * 			public void run() { em.createQuery("select count(guide) from Guide guide").getSingleResult(); }
+ * 		}));
+ */
+public class BenchmarkRunner {
+
+	private final int warmupOperations;
+	private final int measuredOperations;
+
+	public BenchmarkRunner(int warmupOperations, int measuredOperations) {
+		if (measuredOperations <= 0) {
+			throw new IllegalArgumentException("measuredOperations must be > 0: " + measuredOperations);
+		}
+		this.warmupOperations = warmupOperations;
+		this.measuredOperations = measuredOperations;
+	}
+
+	public BenchmarkResult run(String name, Operation operation) throws Exception {
+		for (int i = 0; i < warmupOperations; i++)
+			operation.run(); // JIT compilation, connection and statement caches...
+
+		long[] latencies = new long[measuredOperations];
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < measuredOperations; i++) {
+			long operationStart = System.nanoTime();
+			operation.run();
+			latencies[i] = System.nanoTime() - operationStart;
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocatedAfter = allocatedBytes();
+
+		Arrays.sort(latencies);
+		long bytesPerOperation = allocatedBefore < 0 ? -1 : (allocatedAfter - allocatedBefore) / measuredOperations;
+		return new BenchmarkResult(name, measuredOperations, measuredOperations / (elapsed / 1e9),
+				percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99), latencies[latencies.length - 1], bytesPerOperation);
+	}
+
+	private static long percentile(long[] sorted, double percentile) {
+		return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+	}
+
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) { // HotSpot/OpenJDK
+			com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+			if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled())
+				return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,167 @@
+package com.jorge.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import com.jorge.entity.Guide;
+import com.jorge.entity.Student;
+import com.jorge.ingest.EnrollmentBuffer;
+import com.jorge.metrics.LatencyHistogram;
+import com.jorge.query.QueryRegistry;
+
+/**
+ * Enrollment events, each one a new student: one transaction per event against EnrollmentBuffer
+ *
+ * Arguments: [producers] [events per producer] [max latency ms] (default: 8 1000 10)
+ *
+ * Every producer thread enrolls its events one after the other, with enrollment ids unique across rounds (uk_student_enrollment_id). 1 event in 500 has an unknown guide: it must fail, alone.
+ * ACK is the time from the event to its committed acknowledgement, in microseconds. The write-behind producers don't wait for
+ * one event before the next, so it includes the time spent behind the others in the buffer. Runs on the embedded database of
+ * BenchmarkDatabase.java, whose commits don't fsync: against MySQL (-Dbenchmark.url=...) the difference in COMMITS is what counts
+ */
+public class EnrollmentBenchmark {
+
+	private static final long UNKNOWN_GUIDE = -1;
+
+	public static void main(String[] args) throws Exception {
+		BasicConfigurator.configure(); // Necessary for configure log4j. It must be the first line in main method
+	       					           // log4j.properties must be in /src directory
+
+		Logger  logger = Logger.getLogger(EnrollmentBenchmark.class.getName());
+		logger.debug("log4j configured correctly and logger set");
+
+		int producers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int events = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int maxLatency = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		EntityManagerFactory emf = BenchmarkDatabase.open();
+		BenchmarkDatabase.seed(emf, 100, 0);
+		try {
+			EntityManager em = emf.createEntityManager();
+			List<Guide> guides = new QueryRegistry(emf).createQuery(em, "Guide.findAll", Guide.class).getResultList();
+			em.close();
+			long[] guideIds = new long[guides.size()];
+			for (int i = 0; i < guideIds.length; i++)
+				guideIds[i] = guides.get(i).getId();
+
+			System.out.println(String.format("%-28s %10s %10s %8s %12s %12s", "ENROLLMENTS (" + producers * events + ")", "EVENTS/S", "COMMITS", "FAILED", "ACK P50 us", "ACK P99 us"));
+			for (int round = 0; round < 2; round++) { // The first round warms up
+				transactionPerEvent(emf, producers, events, guideIds, "TX" + round + "-", round == 1);
+				buffered(emf, producers, events, guideIds, maxLatency, "WB" + round + "-", round == 1);
+			}
+		} finally {
+			emf.close();
+		}
+	}
+
+	// Like MainJoiningAssociations.java: begin, persist, commit for every event, on the producer thread
+	private static void transactionPerEvent(final EntityManagerFactory emf, int producers, final int events, final long[] guideIds, final String prefix, boolean print) throws Exception {
+		final LatencyHistogram ack = new LatencyHistogram();
+		final AtomicInteger commits = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		long nanos = run(producers, new Producer() {
+			@Override
+			public void produce(int producer) {
+				for (int i = 0; i < events; i++) {
+					int n = producer * events + i;
+					long submitted = System.nanoTime();
+					EntityManager em = emf.createEntityManager();
+					EntityTransaction txn = em.getTransaction();
+					try {
+						txn.begin();
+						em.persist(new Student(prefix + n, "Student " + prefix + n, em.getReference(Guide.class, guideId(guideIds, n))));
+						txn.commit();
+						commits.incrementAndGet();
+					} catch (RuntimeException e) {
+						if (txn.isActive()) txn.rollback();
+						failed.incrementAndGet();
+					} finally {
+						em.close();
+					}
+					ack.record(System.nanoTime() - submitted);
+				}
+			}
+		});
+		if (print) print("transaction per event", producers * events, nanos, commits.get(), failed.get(), ack);
+	}
+
+	// Every producer enrolls its events, then waits for their acknowledgements
+	private static void buffered(EntityManagerFactory emf, int producers, final int events, final long[] guideIds, int maxLatency, final String prefix, boolean print) throws Exception {
+		final LatencyHistogram ack = new LatencyHistogram();
+		final AtomicInteger failed = new AtomicInteger();
+		final EnrollmentBuffer buffer = new EnrollmentBuffer(emf).setMaxLatency(maxLatency, TimeUnit.MILLISECONDS).start();
+		long nanos = run(producers, new Producer() {
+			@Override
+			public void produce(int producer) {
+				List<CompletableFuture<Long>> acknowledgements = new ArrayList<CompletableFuture<Long>>(events);
+				for (int i = 0; i < events; i++) {
+					int n = producer * events + i;
+					final long submitted = System.nanoTime();
+					CompletableFuture<Long> acknowledgement = buffer.enroll(prefix + n, "Student " + prefix + n, guideId(guideIds, n));
+					acknowledgement.whenComplete(new BiConsumer<Long, Throwable>() {
+						@Override
+						public void accept(Long id, Throwable failure) {
+							ack.record(System.nanoTime() - submitted);
+							if (failure != null) failed.incrementAndGet();
+						}
+					});
+					acknowledgements.add(acknowledgement);
+				}
+				for (CompletableFuture<Long> acknowledgement : acknowledgements) {
+					try {
+						acknowledgement.get();
+					} catch (Exception e) {
+						// Counted above
+					}
+				}
+			}
+		});
+		buffer.close();
+		if (print) print("write-behind (" + maxLatency + " ms)", producers * events, nanos, buffer.getCommits(), failed.get(), ack);
+	}
+
+	private interface Producer {
+		void produce(int producer);
+	}
+
+	// Runs 'producers' threads, returns the nanoseconds until the last one finished
+	private static long run(int producers, final Producer producer) throws InterruptedException {
+		List<Thread> threads = new ArrayList<Thread>();
+		long start = System.nanoTime();
+		for (int p = 0; p < producers; p++) {
+			final int number = p;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					producer.produce(number);
+				}
+			}, "producer-" + p);
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		return System.nanoTime() - start;
+	}
+
+	private static long guideId(long[] guideIds, int n) {
+		return n % 500 == 499 ? UNKNOWN_GUIDE : guideIds[n % guideIds.length];
+	}
+
+	private static void print(String mode, int events, long nanos, long commits, int failed, LatencyHistogram ack) {
+		System.out.println(String.format("%-28s %10.0f %10d %8d %12d %12d", mode, events * 1e9 / nanos, commits, failed,
+				ack.getPercentile(0.5) / 1000, ack.getPercentile(0.99) / 1000));
+	}
+
+}
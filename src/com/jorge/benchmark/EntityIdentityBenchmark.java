@@ -0,0 +1,147 @@
+package com.jorge.benchmark;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import com.jorge.entity.Guide;
+import com.jorge.entity.Student;
+
+/**
+ * Set operations on a large Guide.students-like HashSet, and toString(): Student against the same entity with the previous
+ * equals()/hashCode() (commons-lang EqualsBuilder/HashCodeBuilder) and toString() (concatenation, guide included)
+ *
+ * Arguments: [students] [warmup] [operations] (default: 100000 200 1000)
+ *
+ * Every operation does 1000 contains(), or 1000 remove() + add(), with new instances equal to students of the set, or 100 toString().
+ * No database: the entities are plain objects, like the ones of a loaded collection. remove() + add() still allocates the
+ * HashMap entry of every add
+ *
+ */
+public class EntityIdentityBenchmark {
+
+	private static final int PROBES = 1000;
+
+	public static void main(String[] args) throws Exception {
+		BasicConfigurator.configure(); // Necessary for configure log4j. It must be the first line in main method
+	       					           // log4j.properties must be in /src directory
+
+		Logger  logger = Logger.getLogger(EntityIdentityBenchmark.class.getName());
+		logger.debug("log4j configured correctly and logger set");
+
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int warmup = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int operations = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		BenchmarkRunner runner = new BenchmarkRunner(warmup, operations);
+
+		Guide guide = new Guide("GD1", "Homer Simpson", 1200);
+		final Set<Student> students = new HashSet<Student>();
+		final Set<Student> legacyStudents = new HashSet<Student>();
+		final Student[] probes = new Student[PROBES];
+		final Student[] legacyProbes = new Student[PROBES];
+		for (int i = 0; i < size; i++) {
+			students.add(new Student("ST" + i, "Student " + i, guide));
+			legacyStudents.add(new LegacyStudent("ST" + i, "Student " + i, guide));
+		}
+		for (int i = 0; i < PROBES; i++) {
+			int n = i * 7919 % size; // Spread over the set
+			probes[i] = new Student("ST" + n, "Student " + n, guide);
+			legacyProbes[i] = new LegacyStudent("ST" + n, "Student " + n, guide);
+		}
+
+		System.out.println(BenchmarkResult.header());
+
+		System.out.println(runner.run("contains, builders", new Operation() {
+			int found;
+
+			@Override
+			public void run() {
+				for (Student probe : legacyProbes)
+					if (legacyStudents.contains(probe)) found++;
+			}
+		}));
+
+		System.out.println(runner.run("contains, cached hash", new Operation() {
+			int found;
+
+			@Override
+			public void run() {
+				for (Student probe : probes)
+					if (students.contains(probe)) found++;
+			}
+		}));
+
+		System.out.println(runner.run("remove + add, builders", new Operation() {
+			@Override
+			public void run() {
+				for (Student probe : legacyProbes) {
+					legacyStudents.remove(probe);
+					legacyStudents.add(probe);
+				}
+			}
+		}));
+
+		System.out.println(runner.run("remove + add, cached hash", new Operation() {
+			@Override
+			public void run() {
+				for (Student probe : probes) {
+					students.remove(probe);
+					students.add(probe);
+				}
+			}
+		}));
+
+		System.out.println(runner.run("toString x100, with guide", new Operation() {
+			int length;
+
+			@Override
+			public void run() {
+				for (int i = 0; i < 100; i++)
+					length += legacyProbes[i].toString().length();
+			}
+		}));
+
+		System.out.println(runner.run("toString x100, guide id", new Operation() {
+			int length;
+
+			@Override
+			public void run() {
+				for (int i = 0; i < 100; i++)
+					length += probes[i].toString().length();
+			}
+		}));
+	}
+
+	// Student as it was: a builder per hashCode()/equals(), the guide in toString()
+	private static class LegacyStudent extends Student {
+
+		LegacyStudent(String enrollmentId, String name, Guide guide) {
+			super(enrollmentId, name, guide);
+		}
+
+		@Override
+		public int hashCode() {
+			return new HashCodeBuilder().append(getEnrollmentId()).toHashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Student)) return false;
+			Student other = (Student) obj;
+			return new EqualsBuilder().append(getEnrollmentId(), other.getEnrollmentId()).isEquals();
+		}
+
+		@Override
+		public String toString() {
+			Guide guide = getGuide();
+			return "Student [id=" + getId() + ", enrollmentId=" + getEnrollmentId() + ", name=" + getName() + ", guide="
+					+ "Guide [id=" + guide.getId() + ", staffId=" + guide.getStaffId() + ", name=" + guide.getName() + ", salary=" + guide.getSalary() + "]" + "]";
+		}
+
+	}
+
+}
@@ -0,0 +1,93 @@
+package com.jorge.benchmark;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import com.jorge.entity.Guide;
+import com.jorge.query.QueryRegistry;
+import com.jorge.snapshot.GuideSnapshot;
+
+/**
+ * Salary and name lookups by id: managed Guide entities against the columns of GuideSnapshot
+ *
+ * Arguments: [guides] [warmup] [operations] (default: 10000 200 1000)
+ *
+ * Every operation looks up 1000 guides by id. Runs on the embedded database of BenchmarkDatabase.java.
+ * BYTES/OP of the snapshot lookups should be 0
+ *
+ */
+public class GuideSnapshotBenchmark {
+
+	private static final int LOOKUPS = 1000;
+
+	public static void main(String[] args) throws Exception {
+		BasicConfigurator.configure(); // Necessary for configure log4j. It must be the first line in main method
+	       					           // log4j.properties must be in /src directory
+
+		Logger  logger = Logger.getLogger(GuideSnapshotBenchmark.class.getName());
+		logger.debug("log4j configured correctly and logger set");
+
+		int guides = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int warmup = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int operations = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+		EntityManagerFactory emf = BenchmarkDatabase.open();
+		BenchmarkDatabase.seed(emf, guides, 0);
+		final EntityManager em = emf.createEntityManager();
+		BenchmarkRunner runner = new BenchmarkRunner(warmup, operations);
+
+		try {
+			QueryRegistry queries = new QueryRegistry(emf);
+			final List<Guide> loaded = queries.createQuery(em, "Guide.findAll", Guide.class).getResultList(); // Managed: lookups by em.find hit the persistence context
+			final long[] ids = new long[LOOKUPS];
+			for (int i = 0; i < LOOKUPS; i++)
+				ids[i] = loaded.get(i * 7919 % loaded.size()).getId(); // Spread over the table
+
+			final GuideSnapshot snapshot = new GuideSnapshot();
+			snapshot.load(em, queries);
+			System.out.println("SNAPSHOT: " + snapshot + ", " + snapshot.getMemoryBytes() + " bytes for " + snapshot.size() + " guides");
+
+			System.out.println(BenchmarkResult.header());
+
+			System.out.println(runner.run("em.find (persistence context)", new Operation() {
+				long total;
+
+				@Override
+				public void run() {
+					for (long id : ids) {
+						Guide guide = em.find(Guide.class, id);
+						total += guide.getSalary() + guide.getName().length();
+					}
+				}
+			}));
+
+			System.out.println(runner.run("GuideSnapshot", new Operation() {
+				long total;
+
+				@Override
+				public void run() {
+					for (long id : ids)
+						total += snapshot.getSalary(id) + snapshot.getName(id).length();
+				}
+			}));
+
+			System.out.println(runner.run("GuideSnapshot salary range", new Operation() {
+				long total;
+
+				@Override
+				public void run() {
+					total += snapshot.countSalaryBetween(1100, 1200);
+				}
+			}));
+		} finally {
+			em.close();
+			emf.close();
+		}
+	}
+
+}
@@ -0,0 +1,141 @@
+package com.jorge.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.LockModeType;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import com.jorge.entity.Guide;
+import com.jorge.query.QueryRegistry;
+import com.jorge.query.SalaryDeltas;
+import com.jorge.work.RetryPolicy;
+import com.jorge.work.UnitOfWork;
+import com.jorge.work.UnitOfWorkExecutor;
+
+/**
+ * Many writers adding 1 to the salary of a few "hot" guides, three ways:
+ * 		- pessimistic		em.find(Guide.class, id, PESSIMISTIC_WRITE) + setSalary(): select ... for update, row locked until the commit
+ * 		- optimistic		em.find() + setSalary(), @Version conflicts retried by RetryPolicy.optimistic()
+ * 		- delta				SalaryDeltas.add(): update ... set salary = salary + 1, no select
+ *
+ * Arguments: [writers] [operations per writer] [hot guides] (default: 8 200 4)
+ *
+ * Each writer is a unit of work of UnitOfWorkExecutor (one transaction per addition). LOST must be 0: the salaries of the hot
+ * guides grow by exactly the number of additions. Runs on the embedded database of BenchmarkDatabase.java, which serializes
+ * commits more than MySQL: compare the modes with each other, and try -Dbenchmark.url=... against MySQL
+ */
+public class HotGuideBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		BasicConfigurator.configure(); // Necessary for configure log4j. It must be the first line in main method
+	       					           // log4j.properties must be in /src directory
+
+		Logger  logger = Logger.getLogger(HotGuideBenchmark.class.getName());
+		logger.debug("log4j configured correctly and logger set");
+
+		int writers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int operations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int hot = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+		EntityManagerFactory emf = BenchmarkDatabase.open();
+		BenchmarkDatabase.seed(emf, 1000, 0);
+		try {
+			QueryRegistry queries = new QueryRegistry(emf);
+			EntityManager em = emf.createEntityManager();
+			List<Guide> guides = queries.createQuery(em, "Guide.findAll", Guide.class).setMaxResults(hot).getResultList();
+			em.close();
+			final long[] ids = new long[guides.size()];
+			for (int i = 0; i < ids.length; i++)
+				ids[i] = guides.get(i).getId();
+			final SalaryDeltas deltas = new SalaryDeltas(emf);
+
+			System.out.println(String.format("%-14s %8s %10s %10s %10s %6s", "HOT GUIDES (" + ids.length + ")", "WRITERS", "OPS/S", "CONFLICTS", "FAILED", "LOST"));
+			for (int round = 0; round < 2; round++) { // The first round warms up
+				for (int w = 1; w <= writers; w *= 2) {
+					run(emf, "pessimistic", w, operations, ids, RetryPolicy.NONE, new Writer() {
+						@Override
+						public void add(EntityManager em, long id) {
+							Guide guide = em.find(Guide.class, id, LockModeType.PESSIMISTIC_WRITE);
+							guide.setSalary(guide.getSalary() + 1);
+						}
+					}, round == 1);
+					run(emf, "optimistic", w, operations, ids, RetryPolicy.optimistic(), new Writer() {
+						@Override
+						public void add(EntityManager em, long id) {
+							Guide guide = em.find(Guide.class, id);
+							guide.setSalary(guide.getSalary() + 1);
+						}
+					}, round == 1);
+					run(emf, "delta", w, operations, ids, RetryPolicy.NONE, new Writer() {
+						@Override
+						public void add(EntityManager em, long id) {
+							deltas.add(em, id, 1);
+						}
+					}, round == 1);
+					if (w < writers && w * 2 > writers) w = writers / 2; // Always ends with 'writers'
+				}
+			}
+		} finally {
+			emf.close();
+		}
+	}
+
+	private interface Writer {
+		void add(EntityManager em, long id);
+	}
+
+	private static void run(EntityManagerFactory emf, String mode, int writers, int operations, final long[] ids, RetryPolicy retry, final Writer writer,
+			boolean print) throws Exception {
+		long before = total(emf, ids);
+		UnitOfWorkExecutor executor = new UnitOfWorkExecutor(emf, writers);
+		int additions = writers * operations;
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(additions);
+		long start = System.nanoTime();
+		for (int i = 0; i < additions; i++) {
+			futures.add(executor.submit(new UnitOfWork<Void>() {
+				@Override
+				public Void execute(EntityManager em) {
+					writer.add(em, ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+					return null;
+				}
+			}, retry));
+		}
+		int failed = 0;
+		for (Future<Void> future : futures) {
+			try {
+				future.get();
+			} catch (Exception e) {
+				failed++;
+			}
+		}
+		long nanos = System.nanoTime() - start;
+		executor.close();
+		long lost = before + (additions - failed) - total(emf, ids);
+		if (print) {
+			System.out.println(String.format("%-14s %8d %10.0f %10d %10d %6d", mode, writers, (additions - failed) * 1e9 / nanos, executor.getConflicts(), failed, lost));
+		}
+	}
+
+	// Sum of the salaries of the hot guides, read from the database (not from the second-level cache)
+	private static long total(EntityManagerFactory emf, long[] ids) {
+		EntityManager em = emf.createEntityManager();
+		try {
+			long total = 0;
+			for (long id : ids) {
+				Number salary = (Number) em.createNativeQuery("select salary from guide where id = ?").setParameter(1, id).getSingleResult();
+				total += salary.longValue();
+			}
+			return total;
+		} finally {
+			em.close();
+		}
+	}
+
+}
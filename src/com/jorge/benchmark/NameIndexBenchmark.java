@@ -0,0 +1,91 @@
+package com.jorge.benchmark;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import com.jorge.entity.Guide;
+import com.jorge.query.QueryRegistry;
+import com.jorge.search.NameIndex;
+
+/**
+ * Name searches: 'like' queries against the words and trigrams of NameIndex
+ *
+ * Arguments: [guides] [warmup] [operations] (default: 10000 200 1000)
+ *
+ * Every operation is one search. Runs on the embedded database of BenchmarkDatabase.java, where every 10th guide is "Marge <n>"
+ *
+ */
+public class NameIndexBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		BasicConfigurator.configure(); // Necessary for configure log4j. It must be the first line in main method
+	       					           // log4j.properties must be in /src directory
+
+		Logger  logger = Logger.getLogger(NameIndexBenchmark.class.getName());
+		logger.debug("log4j configured correctly and logger set");
+
+		int guides = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int warmup = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int operations = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+		EntityManagerFactory emf = BenchmarkDatabase.open();
+		BenchmarkDatabase.seed(emf, guides, 0);
+		final EntityManager em = emf.createEntityManager();
+		BenchmarkRunner runner = new BenchmarkRunner(warmup, operations);
+
+		try {
+			final QueryRegistry queries = new QueryRegistry(emf);
+			final NameIndex index = new NameIndex(Guide.class);
+			index.rebuild(em, queries);
+			System.out.println("INDEX: " + index);
+			System.out.println("SEARCH 'marhe 12': " + index.search("marhe 12", 3));
+			System.out.println("CONTAINS 'rge 12': " + index.contains("rge 12", 3));
+
+			System.out.println(BenchmarkResult.header());
+
+			System.out.println(runner.run("like '%rge 12%' (database)", new Operation() {
+				long total;
+
+				@Override
+				public void run() {
+					total += queries.createQuery(em, "Guide.findByNameLike").setParameter("pattern", "%rge 12%").getResultList().size();
+					em.clear();
+				}
+			}));
+
+			System.out.println(runner.run("NameIndex.contains", new Operation() {
+				long total;
+
+				@Override
+				public void run() {
+					total += index.contains("rge 12", 100).size();
+				}
+			}));
+
+			System.out.println(runner.run("NameIndex.prefix", new Operation() {
+				long total;
+
+				@Override
+				public void run() {
+					total += index.prefix("marge 12", 10).size();
+				}
+			}));
+
+			System.out.println(runner.run("NameIndex.search (typo)", new Operation() {
+				long total;
+
+				@Override
+				public void run() {
+					total += index.search("marhe 120", 10).size();
+				}
+			}));
+		} finally {
+			em.close();
+			emf.close();
+		}
+	}
+
+}
@@ -0,0 +1,10 @@
+package com.jorge.benchmark;
+
+/**
+ * One execution of the code being measured by BenchmarkRunner
+ */
+public interface Operation {
+
+	void run() throws Exception;
+
+}
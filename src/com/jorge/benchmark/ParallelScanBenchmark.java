@@ -0,0 +1,85 @@
+package com.jorge.benchmark;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import com.jorge.entity.Student;
+import com.jorge.query.ParallelScan;
+import com.jorge.query.RowHandler;
+
+/**
+ * Full scan of 'select student from Student student join student.guide guide' on one thread against ParallelScan.java
+ * with growing parallelism, against the embedded benchmark database (BenchmarkDatabase.java)
+ *
+ * Arguments: [guides] [studentsPerGuide] [warmup] [operations] [partitionSize] [parallelism...] (default: 1000 100 2 10 10000 1 2 4 8)
+ *
+ * OPS/S is full scans per second. It should grow with the parallelism until the cores of the machine or the database are busy.
+ * BYTES/OP only counts the caller's thread, the partitions allocate on the scan threads
+ *
+ */
+public class ParallelScanBenchmark {
+
+	private static final String JPQL = "select student from Student student join student.guide guide";
+
+	public static void main(String[] args) throws Exception {
+		BasicConfigurator.configure(); // Necessary for configure log4j. It must be the first line in main method
+	       					           // log4j.properties must be in /src directory
+
+		Logger  logger = Logger.getLogger(ParallelScanBenchmark.class.getName());
+		logger.debug("log4j configured correctly and logger set");
+
+		int guides = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int studentsPerGuide = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int warmup = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+		int operations = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		final int partitionSize = args.length > 4 ? Integer.parseInt(args[4]) : 10000;
+		int[] parallelisms = args.length > 5 ? new int[args.length - 5] : new int[] { 1, 2, 4, 8 };
+		for (int i = 5; i < args.length; i++)
+			parallelisms[i - 5] = Integer.parseInt(args[i]);
+
+		final EntityManagerFactory emf = BenchmarkDatabase.open();
+		BenchmarkDatabase.seed(emf, guides, studentsPerGuide);
+
+		final RowHandler<Student> handler = new RowHandler<Student>() {
+			@Override
+			public void handle(Student student) {
+				student.getEnrollmentId();
+			}
+		};
+
+		BenchmarkRunner runner = new BenchmarkRunner(warmup, operations);
+		try {
+			System.out.println(BenchmarkResult.header());
+
+			System.out.println(runner.run("single query", new Operation() {
+				@Override
+				public void run() {
+					EntityManager em = emf.createEntityManager();
+					try {
+						em.createQuery(JPQL).setHint("org.hibernate.readOnly", true).getResultList();
+					} finally {
+						em.close();
+					}
+				}
+			}));
+
+			for (final int parallelism : parallelisms) {
+				System.out.println(runner.run("parallel scan x" + parallelism, new Operation() {
+					@Override
+					public void run() {
+						new ParallelScan<Student>(emf, Student.class, JPQL, "student")
+								.setParallelism(parallelism)
+								.setPartitionSize(partitionSize)
+								.stream(handler);
+					}
+				}));
+			}
+		} finally {
+			emf.close();
+		}
+	}
+
+}
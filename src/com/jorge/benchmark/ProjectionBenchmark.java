@@ -0,0 +1,88 @@
+package com.jorge.benchmark;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import com.jorge.dto.GuideSummary;
+import com.jorge.entity.Guide;
+
+/**
+ * Entity queries against DTO projections for report-style reads of every guide
+ *
+ * Arguments: [warmup] [operations] (default: 200 1000)
+ *
+ * Every operation reads the whole guide table and clears the persistence context.
+ * BYTES/OP shows what the entity hydration costs: managed Guide objects, their dirty-checking snapshots and persistence context entries
+ *
+ */
+public class ProjectionBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		BasicConfigurator.configure(); // Necessary for configure log4j. It must be the first line in main method
+	       					           // log4j.properties must be in /src directory
+
+		Logger  logger = Logger.getLogger(ProjectionBenchmark.class.getName());
+		logger.debug("log4j configured correctly and logger set");
+
+		int warmup = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int operations = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+		EntityManagerFactory emf = Persistence.createEntityManagerFactory("helloworld");
+		final EntityManager em = emf.createEntityManager();
+		BenchmarkRunner runner = new BenchmarkRunner(warmup, operations);
+
+		try {
+			System.out.println(BenchmarkResult.header());
+
+			System.out.println(runner.run("entity", new Operation() {
+				@Override
+				public void run() {
+					em.createQuery("select guide from Guide guide", Guide.class).getResultList();
+					em.clear();
+				}
+			}));
+
+			System.out.println(runner.run("entity read-only", new Operation() {
+				@Override
+				public void run() {
+					em.createQuery("select guide from Guide guide", Guide.class)
+					  .setHint("org.hibernate.readOnly", true) // Managed, but without dirty-checking snapshots
+					  .getResultList();
+					em.clear();
+				}
+			}));
+
+			System.out.println(runner.run("Object[] projection", new Operation() {
+				@Override
+				public void run() {
+					em.createQuery("select guide.name, guide.salary from Guide guide", Object[].class).getResultList();
+					em.clear();
+				}
+			}));
+
+			System.out.println(runner.run("DTO constructor expression", new Operation() {
+				@Override
+				public void run() {
+					em.createNamedQuery("GuideSummary.findAll", GuideSummary.class).getResultList();
+					em.clear();
+				}
+			}));
+
+			System.out.println(runner.run("DTO native SQL mapping", new Operation() {
+				@Override
+				public void run() {
+					em.createNativeQuery("select name, salary from guide", "GuideSummary").getResultList();
+					em.clear();
+				}
+			}));
+		} finally {
+			em.close();
+			emf.close();
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+package com.jorge.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import com.jorge.entity.Guide;
+import com.jorge.query.QueryRegistry;
+
+/**
+ * Every query pattern of Main.java, measured against the embedded benchmark database (BenchmarkDatabase.java)
+ *
+ * Arguments: [guides] [studentsPerGuide] [warmup] [operations] [pattern...] (default: 1000 10 100 500, every pattern)
+ * 		QueryPatternBenchmark 100000 20 50 200 "count" "max"		=> only COUNT and MAX on 100000 guides and 2000000 students
+ *
+ * Output, one line per pattern: throughput, latency percentiles (microseconds) and bytes allocated per operation
+ * 		BENCHMARK                                       OPS/S     P50 us     P90 us     P99 us     MAX us       BYTES/OP
+ * 		count                                        12034.2       78.1       95.3      160.2      402.7          11840
+ *
+ * The persistence context is cleared after every operation, so every one of them really reads the database.
+ * The dynamic queries use a different guide name in every operation, like real requests do
+ *
+ */
+public class QueryPatternBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		BasicConfigurator.configure(); // Necessary for configure log4j. It must be the first line in main method
+	       					           // log4j.properties must be in /src directory
+
+		Logger  logger = Logger.getLogger(QueryPatternBenchmark.class.getName());
+		logger.debug("log4j configured correctly and logger set");
+
+		final int guides = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int studentsPerGuide = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int warmup = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		int operations = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+		List<String> selected = new ArrayList<String>();
+		for (int i = 4; i < args.length; i++)
+			selected.add(args[i]);
+
+		EntityManagerFactory emf = BenchmarkDatabase.open();
+		BenchmarkDatabase.seed(emf, guides, studentsPerGuide);
+		final EntityManager em = emf.createEntityManager();
+
+		Map<String, Operation> patterns = new LinkedHashMap<String, Operation>();
+
+		patterns.put("select all", new Operation() {
+			@Override
+			public void run() {
+				em.createQuery("select guide from Guide as guide").getResultList();
+			}
+		});
+		patterns.put("select name", new Operation() {
+			@Override
+			public void run() {
+				em.createQuery("select guide.name from Guide as guide").getResultList();
+			}
+		});
+		patterns.put("filter salary literal", new Operation() {
+			@Override
+			public void run() {
+				em.createQuery("select guide from Guide guide where guide.salary = 1200").getResultList();
+			}
+		});
+		patterns.put("projection Object[]", new Operation() {
+			@Override
+			public void run() {
+				em.createQuery("select guide.name, guide.salary from Guide guide").getResultList();
+			}
+		});
+		patterns.put("dynamic concatenated", new Operation() {
+			private int n;
+
+			@Override
+			public void run() {
+				String name = "Guide " + (1 + n++ % Math.max(1, guides - 1));
+				em.createQuery("select guide from Guide guide where guide.name = '" + name + "'").getResultList(); // A new JPQL string every time: parsed and planned again
+			}
+		});
+		patterns.put("dynamic parameter", new Operation() {
+			private int n;
+
+			@Override
+			public void run() {
+				em.createQuery("select guide from Guide guide where guide.name = :name")
+				  .setParameter("name", "Guide " + (1 + n++ % Math.max(1, guides - 1)))
+				  .getResultList();
+			}
+		});
+		final QueryRegistry queries = new QueryRegistry(emf);
+		patterns.put("registry parameter", new Operation() {
+			private int n;
+
+			@Override
+			public void run() {
+				queries.createQuery(em, "findByGuide") // Compiled at startup, the plan is only looked up
+					   .setParameter("name", "Guide " + (1 + n++ % Math.max(1, guides - 1)))
+					   .getResultList();
+			}
+		});
+		patterns.put("like wildcard", new Operation() {
+			@Override
+			public void run() {
+				em.createQuery("select guide from Guide guide where guide.name like 'M%'").getResultList();
+			}
+		});
+		patterns.put("native sql", new Operation() {
+			@Override
+			public void run() {
+				em.createNativeQuery("select * from guide", Guide.class).getResultList();
+			}
+		});
+		patterns.put("named query", new Operation() {
+			@Override
+			public void run() {
+				em.createNamedQuery("findByGuide").setParameter("name", "Homer Simpson").getResultList();
+			}
+		});
+		patterns.put("count by list size", new Operation() {
+			@Override
+			public void run() {
+				em.createQuery("select guide from Guide guide").getResultList().size();
+			}
+		});
+		patterns.put("count", new Operation() {
+			@Override
+			public void run() {
+				em.createQuery("select count(guide) from Guide guide").getSingleResult();
+			}
+		});
+		patterns.put("max", new Operation() {
+			@Override
+			public void run() {
+				em.createQuery("select max(guide.salary) from Guide guide").getSingleResult();
+			}
+		});
+		patterns.put("inner join", new Operation() {
+			@Override
+			public void run() {
+				em.createQuery("select student from Student student join student.guide guide").getResultList();
+			}
+		});
+		patterns.put("left join", new Operation() {
+			@Override
+			public void run() {
+				em.createQuery("select student from Student student left join student.guide guide").getResultList();
+			}
+		});
+		patterns.put("right join", new Operation() {
+			@Override
+			public void run() {
+				em.createQuery("select student from Student student right join student.guide guide").getResultList();
+			}
+		});
+		patterns.put("join fetch", new Operation() {
+			@Override
+			public void run() {
+				em.createQuery("select guide from Guide guide join fetch guide.students student").getResultList();
+			}
+		});
+
+		BenchmarkRunner runner = new BenchmarkRunner(warmup, operations);
+		try {
+			System.out.println(BenchmarkResult.header());
+			for (Map.Entry<String, Operation> pattern : patterns.entrySet()) {
+				if (!selected.isEmpty() && !selected.contains(pattern.getKey())) continue;
+
+				final Operation operation = pattern.getValue();
+				System.out.println(runner.run(pattern.getKey(), new Operation() {
+					@Override
+					public void run() throws Exception {
+						operation.run();
+						em.clear();
+					}
+				}));
+			}
+			System.out.println("QUERY PLANS: " + queries.getStatistics()); // Misses: plans compiled again because the plan cache was full
+		} finally {
+			em.close();
+			emf.close();
+		}
+	}
+
+}
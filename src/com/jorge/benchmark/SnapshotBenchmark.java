@@ -0,0 +1,158 @@
+package com.jorge.benchmark;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import com.jorge.entity.Guide;
+import com.jorge.entity.Student;
+import com.jorge.ingest.BulkLoader;
+import com.jorge.ingest.GuideRecordMapper;
+import com.jorge.ingest.StudentRecordMapper;
+import com.jorge.query.QueryRegistry;
+import com.jorge.query.RowHandler;
+import com.jorge.query.StreamingQuery;
+import com.jorge.snapshot.GuideSnapshot;
+import com.jorge.snapshot.SnapshotExporter;
+import com.jorge.snapshot.SnapshotFile;
+import com.jorge.snapshot.SnapshotImporter;
+
+/**
+ * Copy of every guide and student to another database: the JPA round trip against a snapshot file
+ *
+ * Arguments: [guides] [students per guide] [parallelism] (default: 1000 100 4)
+ *
+ * 		JPA				entities streamed from the source (StreamingQuery.java), records persisted into the target (BulkLoader.java)
+ * 		snapshot		SnapshotExporter.java to a file, SnapshotImporter.java from it
+ * 		read model		GuideSnapshot.load() from the source database against the snapshot file
+ *
+ * The source is the database of BenchmarkDatabase.java, every copy goes to a new empty target (embedded H2, another one
+ * with -Dbenchmark.target_url=...). The first round warms up. Times in ms
+ */
+public class SnapshotBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		BasicConfigurator.configure(); // Necessary for configure log4j. It must be the first line in main method
+	       					           // log4j.properties must be in /src directory
+
+		Logger  logger = Logger.getLogger(SnapshotBenchmark.class.getName());
+		logger.debug("log4j configured correctly and logger set");
+
+		int guides = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int studentsPerGuide = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+		EntityManagerFactory source = BenchmarkDatabase.open();
+		BenchmarkDatabase.seed(source, guides, studentsPerGuide);
+		QueryRegistry queries = new QueryRegistry(source);
+		Path file = Files.createTempFile("helloworld", ".snapshot");
+		try {
+			System.out.println(String.format("%-28s %10s %10s %10s %12s", "COPY (" + (guides + (long) guides * studentsPerGuide) + " rows)", "EXPORT", "IMPORT", "TOTAL", "ROWS COPIED"));
+			for (int round = 0; round < 2; round++) { // The first round warms up
+				jpa(source, queries, round, round == 1);
+				snapshot(source, queries, file, parallelism, round, round == 1);
+			}
+
+			System.out.println(String.format("%n%-28s %10s", "READ MODEL (" + guides + " guides)", "LOAD"));
+			for (int round = 0; round < 2; round++) {
+				GuideSnapshot readModel = new GuideSnapshot();
+				EntityManager em = source.createEntityManager();
+				long start = System.nanoTime();
+				readModel.load(em, queries);
+				long database = System.nanoTime() - start;
+				em.close();
+
+				SnapshotFile snapshot = SnapshotFile.open(file);
+				start = System.nanoTime();
+				readModel.load(snapshot);
+				long mapped = System.nanoTime() - start;
+				snapshot.close();
+				if (round == 1) {
+					System.out.println(String.format("%-28s %10.1f", "database", database / 1e6));
+					System.out.println(String.format("%-28s %10.1f", "snapshot file", mapped / 1e6));
+				}
+			}
+			System.out.println(String.format("%nSNAPSHOT FILE: %d bytes", Files.size(file)));
+		} finally {
+			Files.deleteIfExists(file);
+			source.close();
+		}
+	}
+
+	// Entities out, records in, as rebuilding an environment works without snapshots
+	private static void jpa(EntityManagerFactory source, QueryRegistry queries, int round, boolean print) {
+		final List<String[]> guides = new ArrayList<String[]>();
+		final List<String[]> students = new ArrayList<String[]>();
+		long start = System.nanoTime();
+		EntityManager em = source.createEntityManager();
+		try {
+			new StreamingQuery<Guide>(em, queries.getQueryString("Guide.findAll")).stream(new RowHandler<Guide>() {
+				@Override
+				public void handle(Guide guide) {
+					guides.add(new String[] { guide.getStaffId(), guide.getName(), guide.getSalary() == null ? "" : guide.getSalary().toString() });
+				}
+			});
+			new StreamingQuery<Student>(em, queries.getQueryString("Student.findAll")).stream(new RowHandler<Student>() {
+				@Override
+				public void handle(Student student) {
+					Guide guide = student.getGuide(); // Lazy: batch fetched, hibernate.default_batch_fetch_size
+					students.add(new String[] { student.getEnrollmentId(), student.getName(), guide == null ? "" : guide.getStaffId() });
+				}
+			});
+		} finally {
+			em.close();
+		}
+		long exported = System.nanoTime() - start;
+
+		EntityManagerFactory target = target("jpa" + round);
+		try {
+			start = System.nanoTime();
+			long rows = new BulkLoader<Guide>(target, new GuideRecordMapper()).load(guides.iterator());
+			rows += new BulkLoader<Student>(target, new StudentRecordMapper()).load(students.iterator());
+			long imported = System.nanoTime() - start;
+			if (print) print("JPA round trip", exported, imported, rows);
+		} finally {
+			target.close();
+		}
+	}
+
+	private static void snapshot(EntityManagerFactory source, QueryRegistry queries, Path file, int parallelism, int round, boolean print) throws Exception {
+		long start = System.nanoTime();
+		new SnapshotExporter(source, queries).setParallelism(parallelism).export(file);
+		long exported = System.nanoTime() - start;
+
+		EntityManagerFactory target = target("snapshot" + round);
+		SnapshotFile snapshot = SnapshotFile.open(file);
+		try {
+			start = System.nanoTime();
+			long rows = new SnapshotImporter(target).setParallelism(parallelism).load(snapshot);
+			long imported = System.nanoTime() - start;
+			if (print) print("snapshot (parallelism " + parallelism + ")", exported, imported, rows);
+		} finally {
+			snapshot.close();
+			target.close();
+		}
+	}
+
+	// A new empty database
+	private static EntityManagerFactory target(String name) {
+		Map<String, String> properties = BenchmarkDatabase.properties();
+		properties.put("javax.persistence.jdbc.url", System.getProperty("benchmark.target_url", "jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1"));
+		properties.put("hibernate.hbm2ddl.auto", "create");
+		return Persistence.createEntityManagerFactory("helloworld", properties);
+	}
+
+	private static void print(String mode, long exported, long imported, long rows) {
+		System.out.println(String.format("%-28s %10.1f %10.1f %10.1f %12d", mode, exported / 1e6, imported / 1e6, (exported + imported) / 1e6, rows));
+	}
+
+}
@@ -0,0 +1,149 @@
+package com.jorge.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import com.jorge.bootstrap.Bootstrap;
+import com.jorge.bootstrap.MetadataIndexer;
+
+/**
+ * Cold start of the "helloworld" persistence unit: classpath scan and hbm2ddl.auto=update against the metadata index of
+ * MetadataIndexer.java, with and without the schema update
+ *
+ * Arguments: [runs] (default 5)
+ *
+ * Every run is a new JVM (same classpath and JVM options), like a batch job, on an H2 database file whose tables already exist.
+ * Columns are the phases of StartupTimings.java in ms (median of the runs). JVM is the time from the start of the JVM
+ * to the factory being ready, class loading included
+ *
+ */
+public class StartupBenchmark {
+
+	private static final String[] MODES = { "scan", "index", "index-no-schema-update" };
+	private static final String[] DESCRIPTIONS = { "classpath scan + hbm2ddl update", "metadata index + hbm2ddl update", "metadata index, no schema update" };
+	private static final String[] COLUMNS = { "index", "persistence.xml", "scan", "mapping", "session factory", "entity manager factory", "total", "jvm" };
+	private static final String RESULT = "STARTUP ";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 3 && args[0].equals("--start")) { // One run, in the new JVM
+			start(args[1], args[2]);
+			return;
+		}
+
+		BasicConfigurator.configure(); // Necessary for configure log4j. It must be the first line in main method
+	       					           // log4j.properties must be in /src directory
+
+		Logger  logger = Logger.getLogger(StartupBenchmark.class.getName());
+		logger.debug("log4j configured correctly and logger set");
+
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+		File work = Files.createTempDirectory("startup-benchmark").toFile();
+		String url = "jdbc:h2:file:" + new File(work, "db").getAbsolutePath() + ";MODE=MySQL";
+		Map<String, String> properties = BenchmarkDatabase.properties();
+		properties.put("javax.persistence.jdbc.url", url);
+		properties.put("hibernate.hbm2ddl.auto", "create"); // Tables created once, like a deployed application
+		Persistence.createEntityManagerFactory("helloworld", properties).close();
+
+		// Index of the compiled classes, in a directory of its own: only the runs with the index have it in the classpath
+		File classes = new File(StartupBenchmark.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		File indexRoot = new File(work, "index");
+		MetadataIndexer.write(classes, new File(indexRoot, Bootstrap.INDEX_RESOURCE));
+
+		StringBuilder header = new StringBuilder(String.format("%-36s", "STARTUP (ms, median of " + runs + ")"));
+		for (String column : COLUMNS)
+			header.append(String.format(" %10s", column.length() > 10 ? column.substring(0, 10) : column));
+		System.out.println(header);
+
+		for (int mode = 0; mode < MODES.length; mode++) {
+			String classpath = (mode == 0 ? "" : indexRoot.getAbsolutePath() + File.pathSeparator) + System.getProperty("java.class.path");
+			Map<String, long[]> results = new LinkedHashMap<String, long[]>();
+			for (String column : COLUMNS)
+				results.put(column, new long[runs]);
+			for (int run = 0; run < runs; run++) {
+				for (Map.Entry<String, Long> phase : run(classpath, MODES[mode], url).entrySet()) {
+					if (results.containsKey(phase.getKey())) results.get(phase.getKey())[run] = phase.getValue();
+				}
+			}
+
+			StringBuilder line = new StringBuilder(String.format("%-36s", DESCRIPTIONS[mode]));
+			for (long[] values : results.values()) {
+				Arrays.sort(values);
+				line.append(String.format(" %10d", values[runs / 2]));
+			}
+			System.out.println(line);
+		}
+	}
+
+	// Starts a JVM that builds the factory once, returns its phases
+	private static Map<String, Long> run(String classpath, String mode, String url) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments()); // Same heap, --add-opens...
+		command.add("-cp");
+		command.add(classpath);
+		command.add(StartupBenchmark.class.getName());
+		command.add("--start");
+		command.add(mode);
+		command.add(url);
+
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		String result = null;
+		StringBuilder output = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(RESULT)) result = line.substring(RESULT.length());
+				output.append(line).append('\n');
+			}
+		} finally {
+			reader.close();
+		}
+		if (process.waitFor() != 0 || result == null) throw new IllegalStateException("startup run '" + mode + "' failed:\n" + output);
+
+		Map<String, Long> phases = new LinkedHashMap<String, Long>();
+		for (String phase : result.split(";")) {
+			int equals = phase.indexOf('=');
+			phases.put(phase.substring(0, equals), Long.parseLong(phase.substring(equals + 1)));
+		}
+		return phases;
+	}
+
+	private static void start(String mode, String url) {
+		Map<String, String> properties = BenchmarkDatabase.properties();
+		properties.put("javax.persistence.jdbc.url", url);
+		properties.put("hibernate.hbm2ddl.auto", "update"); // The introspection of every table, as validate of persistence.xml
+
+		Bootstrap bootstrap = new Bootstrap("helloworld")
+				.setProperties(properties)
+				.setUseIndex(!mode.equals("scan"))
+				.setSchemaUpdate(!mode.equals("index-no-schema-update"));
+		EntityManagerFactory emf = bootstrap.build();
+		long sinceJvmStart = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+		emf.close();
+
+		StringBuilder result = new StringBuilder(RESULT);
+		for (Map.Entry<String, Long> phase : bootstrap.getTimings().getPhaseMillis().entrySet())
+			result.append(phase.getKey()).append('=').append(phase.getValue()).append(';');
+		result.append("total=").append(bootstrap.getTimings().getTotalMillis()).append(";jvm=").append(sinceJvmStart);
+		System.out.println(result);
+	}
+
+}
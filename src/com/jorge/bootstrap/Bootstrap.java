@@ -0,0 +1,142 @@
+package com.jorge.bootstrap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
+
+import org.apache.log4j.Logger;
+import org.hibernate.jpa.AvailableSettings;
+import org.jboss.jandex.Index;
+import org.jboss.jandex.IndexReader;
+
+import com.jorge.schema.MigrationIntegrator;
+
+/**
+ * Persistence.createEntityManagerFactory() for short-lived jobs: the entities come from the index written at build time
+ * (MetadataIndexer.java), hbm2ddl.auto can be skipped, and every phase of the start is timed (StartupTimings.java)
+ *
+ * 		Bootstrap bootstrap = new Bootstrap("helloworld")
+ * 				.setSchemaUpdate(false);				The schema is up to date: no introspection of every table of MySQL
+ * 		EntityManagerFactory emf = bootstrap.build();
+ * 		bootstrap.getTimings();							StartupTimings [index=2 ms, persistence.xml=85 ms, scan=0 ms, mapping=610 ms, ...]
+ *
+ * Without the index (META-INF/jandex.idx not in the classpath) the classpath root is scanned, as usual.
+ * The index replaces two reads of every class file: the scan for @Entity classes and the Jandex index Hibernate builds
+ * from the scanned ones (hibernate.jandex_index). The mapping itself is still bound at every start: Hibernate 4.3 has no way
+ * to load a prebuilt one through JPA
+ *
+ * Long-running applications (Main.java) keep the migrations and hbm2ddl.auto=validate of persistence.xml: they run once per
+ * deployment, not once per job
+ */
+public class Bootstrap {
+
+	public static final String INDEX_RESOURCE = "META-INF/jandex.idx";
+
+	private static final Logger logger = Logger.getLogger(Bootstrap.class.getName());
+	private static final String JANDEX_INDEX = "hibernate.jandex_index"; // EntityManagerFactoryBuilderImpl.JANDEX_INDEX
+	private static final ThreadLocal<StartupTimings> building = new ThreadLocal<StartupTimings>(); // Timings of the factory this thread is building
+
+	private final String persistenceUnit;
+	private final Map<String, Object> properties = new HashMap<String, Object>();
+	private boolean useIndex = true;
+	private StartupTimings timings;
+
+	public Bootstrap(String persistenceUnit) {
+		this.persistenceUnit = persistenceUnit;
+	}
+
+	// Overrides a property of persistence.xml, like the map of Persistence.createEntityManagerFactory(name, map)
+	public Bootstrap setProperty(String name, Object value) {
+		properties.put(name, value);
+		return this;
+	}
+
+	public Bootstrap setProperties(Map<String, ?> properties) {
+		this.properties.putAll(properties);
+		return this;
+	}
+
+	/**
+	 * false: the migrations (MigrationIntegrator.java) and hbm2ddl.auto of persistence.xml are skipped, the tables are used as
+	 * they are. Mapping errors (a missing column...) then show up in the first statement instead of at startup
+	 */
+	public Bootstrap setSchemaUpdate(boolean schemaUpdate) {
+		if (schemaUpdate) {
+			properties.remove(org.hibernate.cfg.AvailableSettings.HBM2DDL_AUTO);
+			properties.remove(MigrationIntegrator.PREFIX + "enabled");
+		} else {
+			properties.put(org.hibernate.cfg.AvailableSettings.HBM2DDL_AUTO, "none"); // Neither create, update nor validate
+			properties.put(MigrationIntegrator.PREFIX + "enabled", "false");
+		}
+		return this;
+	}
+
+	// false: the classpath root is scanned even if there is an index (default true)
+	public Bootstrap setUseIndex(boolean useIndex) {
+		this.useIndex = useIndex;
+		return this;
+	}
+
+	public EntityManagerFactory build() {
+		StartupTimings timings = new StartupTimings();
+		Map<String, Object> settings = new HashMap<String, Object>(properties);
+		Index index = useIndex ? readIndex() : null;
+		timings.mark("index");
+		settings.put(AvailableSettings.SCANNER, new IndexedScanner(index));
+		if (index != null) settings.put(JANDEX_INDEX, index);
+
+		building.set(timings);
+		EntityManagerFactory emf;
+		try {
+			emf = Persistence.createEntityManagerFactory(persistenceUnit, settings);
+			timings.mark("entity manager factory");
+		} finally {
+			building.remove();
+		}
+		this.timings = timings;
+		logger.info("persistence unit " + persistenceUnit + " started " + (index == null ? "scanning the classpath" : "from the metadata index")
+				+ ": " + timings);
+		return emf;
+	}
+
+	// Timings of the last build(), null before
+	public StartupTimings getTimings() {
+		return timings;
+	}
+
+	// End of a phase of the factory being built by this thread, if it is built by a Bootstrap
+	static void mark(String phase) {
+		StartupTimings timings = building.get();
+		if (timings != null) timings.mark(phase);
+	}
+
+	static boolean isBuilding() {
+		return building.get() != null;
+	}
+
+	private static Index readIndex() {
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		InputStream stream = classLoader.getResourceAsStream(INDEX_RESOURCE);
+		if (stream == null) {
+			logger.warn(INDEX_RESOURCE + " not found, scanning the classpath. Run com.jorge.bootstrap.MetadataIndexer after compiling");
+			return null;
+		}
+		try {
+			return new IndexReader(stream).read();
+		} catch (IOException e) {
+			throw new PersistenceException("can't read " + INDEX_RESOURCE, e);
+		} finally {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				logger.warn("can't close " + INDEX_RESOURCE, e);
+			}
+		}
+	}
+
+}
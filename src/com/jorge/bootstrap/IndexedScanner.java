@@ -0,0 +1,175 @@
+package com.jorge.bootstrap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.persistence.PersistenceException;
+
+import org.hibernate.jpa.boot.internal.ClassDescriptorImpl;
+import org.hibernate.jpa.boot.internal.MappingFileDescriptorImpl;
+import org.hibernate.jpa.boot.internal.PackageDescriptorImpl;
+import org.hibernate.jpa.boot.scan.internal.StandardScanner;
+import org.hibernate.jpa.boot.scan.spi.ScanOptions;
+import org.hibernate.jpa.boot.scan.spi.ScanResult;
+import org.hibernate.jpa.boot.scan.spi.Scanner;
+import org.hibernate.jpa.boot.spi.ClassDescriptor;
+import org.hibernate.jpa.boot.spi.InputStreamAccess;
+import org.hibernate.jpa.boot.spi.MappingFileDescriptor;
+import org.hibernate.jpa.boot.spi.PackageDescriptor;
+import org.hibernate.jpa.boot.spi.PersistenceUnitDescriptor;
+import org.jboss.jandex.AnnotationInstance;
+import org.jboss.jandex.ClassInfo;
+import org.jboss.jandex.DotName;
+import org.jboss.jandex.IndexView;
+
+/**
+ * Scanner of the persistence unit (hibernate.ejb.resource_scanner) that takes the entities from the index written at build time
+ * by MetadataIndexer.java, instead of opening every class file of the classpath root
+ *
+ * The classes are the ones the standard scanner looks for: annotated with @Entity, @MappedSuperclass, @Embeddable or @Converter,
+ * plus the annotated package-info classes. The only mapping file is META-INF/orm.xml of the persistence unit root (*.hbm.xml files
+ * are not looked for, this project has none). Without an index (null) it scans like the standard scanner
+ */
+public class IndexedScanner implements Scanner {
+
+	private static final String ORM_XML = "META-INF/orm.xml";
+	private static final DotName[] MANAGED = {
+		DotName.createSimple("javax.persistence.Entity"),
+		DotName.createSimple("javax.persistence.MappedSuperclass"),
+		DotName.createSimple("javax.persistence.Embeddable"),
+		DotName.createSimple("javax.persistence.Converter")
+	};
+
+	private final IndexView index;
+
+	public IndexedScanner(IndexView index) {
+		this.index = index;
+	}
+
+	@Override
+	public ScanResult scan(PersistenceUnitDescriptor persistenceUnit, ScanOptions options) {
+		Bootstrap.mark("persistence.xml"); // Everything since the previous phase: reading persistence.xml, creating the provider
+		try {
+			if (index == null) return new StandardScanner().scan(persistenceUnit, options);
+
+			Set<ClassDescriptor> classes = new HashSet<ClassDescriptor>();
+			Set<PackageDescriptor> packages = new HashSet<PackageDescriptor>();
+			if (options.canDetectUnlistedClassesInRoot()) { // false with <exclude-unlisted-classes>: only the <class> elements
+				ClassLoader classLoader = persistenceUnit.getClassLoader() != null ? persistenceUnit.getClassLoader() : Thread.currentThread().getContextClassLoader();
+				for (DotName annotation : MANAGED) {
+					for (AnnotationInstance instance : index.getAnnotations(annotation)) {
+						if (!(instance.target() instanceof ClassInfo)) continue;
+						String name = ((ClassInfo) instance.target()).name().toString();
+						classes.add(new ClassDescriptorImpl(name, classFile(classLoader, name)));
+					}
+				}
+				for (ClassInfo info : index.getKnownClasses()) {
+					String name = info.name().toString();
+					if (name.endsWith(".package-info") && !info.annotations().isEmpty()) {
+						String packageName = name.substring(0, name.length() - ".package-info".length());
+						packages.add(new PackageDescriptorImpl(packageName, classFile(classLoader, name)));
+					}
+				}
+			}
+
+			Set<MappingFileDescriptor> mappingFiles = new HashSet<MappingFileDescriptor>();
+			URL ormXml = rootResource(persistenceUnit.getPersistenceUnitRootUrl(), ORM_XML);
+			if (ormXml != null) mappingFiles.add(new MappingFileDescriptorImpl(ORM_XML, new ResourceAccess(ORM_XML, ormXml)));
+			return new IndexScanResult(packages, classes, mappingFiles);
+		} finally {
+			Bootstrap.mark("scan");
+		}
+	}
+
+	// Only opened if Hibernate has no Jandex index (Bootstrap passes the same index as hibernate.jandex_index)
+	private static ResourceAccess classFile(ClassLoader classLoader, String className) {
+		String resource = className.replace('.', '/') + ".class";
+		URL url = classLoader.getResource(resource);
+		if (url == null) throw new PersistenceException(className + " is in the metadata index but not in the classpath: run MetadataIndexer again");
+		return new ResourceAccess(resource, url);
+	}
+
+	// A file of the persistence unit root (a directory or a jar), null if it has no such file
+	private static URL rootResource(URL root, String name) {
+		if (root == null) return null;
+		try {
+			String base = root.toExternalForm();
+			URL url = new URL(base.endsWith(".jar") ? "jar:" + base + "!/" + name : (base.endsWith("/") ? base : base + "/") + name);
+			url.openStream().close(); // Exists?
+			return url;
+		} catch (IOException e) { // MalformedURLException too
+			return null;
+		}
+	}
+
+	private static class ResourceAccess implements InputStreamAccess {
+
+		private final String name;
+		private final URL url;
+
+		ResourceAccess(String name, URL url) {
+			this.name = name;
+			this.url = url;
+		}
+
+		@Override
+		public String getStreamName() {
+			return name;
+		}
+
+		@Override
+		public InputStream accessInputStream() {
+			try {
+				return url.openStream();
+			} catch (IOException e) {
+				throw new PersistenceException("can't read " + url, e);
+			}
+		}
+
+		@Override
+		@SuppressWarnings("deprecation") // Still part of the interface in 4.3
+		public org.hibernate.jpa.boot.spi.NamedInputStream asNamedInputStream() {
+			return new org.hibernate.jpa.boot.spi.NamedInputStream(name, accessInputStream());
+		}
+
+		@Override
+		public String toString() {
+			return url.toString();
+		}
+
+	}
+
+	private static class IndexScanResult implements ScanResult {
+
+		private final Set<PackageDescriptor> packages;
+		private final Set<ClassDescriptor> classes;
+		private final Set<MappingFileDescriptor> mappingFiles;
+
+		IndexScanResult(Set<PackageDescriptor> packages, Set<ClassDescriptor> classes, Set<MappingFileDescriptor> mappingFiles) {
+			this.packages = Collections.unmodifiableSet(packages);
+			this.classes = Collections.unmodifiableSet(classes);
+			this.mappingFiles = Collections.unmodifiableSet(mappingFiles);
+		}
+
+		@Override
+		public Set<PackageDescriptor> getLocatedPackages() {
+			return packages;
+		}
+
+		@Override
+		public Set<ClassDescriptor> getLocatedClasses() {
+			return classes;
+		}
+
+		@Override
+		public Set<MappingFileDescriptor> getLocatedMappingFiles() {
+			return mappingFiles;
+		}
+
+	}
+
+}
@@ -0,0 +1,90 @@
+package com.jorge.bootstrap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+import org.jboss.jandex.DotName;
+import org.jboss.jandex.Index;
+import org.jboss.jandex.IndexWriter;
+import org.jboss.jandex.Indexer;
+
+/**
+ * Build step: writes the annotations of every compiled class to <classes directory>/META-INF/jandex.idx (Jandex format),
+ * so Bootstrap.java doesn't read the class files at every start
+ *
+ * Arguments: <classes directory>, e.g. after compiling to bin/:
+ * 		java -cp "bin:lib/*" com.jorge.bootstrap.MetadataIndexer bin
+ *
+ * Run it after every compilation, before packaging. A stale index doesn't know the entities added since: Hibernate then
+ * says "Unknown entity" for them. Bootstrap falls back to scanning when there is no index at all
+ */
+public class MetadataIndexer {
+
+	private static final Logger logger = Logger.getLogger(MetadataIndexer.class.getName());
+
+	public static void main(String[] args) throws IOException {
+		BasicConfigurator.configure(); // Necessary for configure log4j. It must be the first line in main method
+	       					           // log4j.properties must be in /src directory
+
+		if (args.length != 1) {
+			System.out.println("Usage: MetadataIndexer <classes directory>");
+			return;
+		}
+		File index = write(new File(args[0]));
+		System.out.println("METADATA INDEX: " + index + " (" + index.length() + " bytes)");
+	}
+
+	/**
+	 * Indexes every class file under 'classes' and writes the index in it. Returns the index file
+	 */
+	public static File write(File classes) throws IOException {
+		return write(classes, new File(classes, Bootstrap.INDEX_RESOURCE));
+	}
+
+	// Same, but the index is written to 'file' (put its root directory in the classpath)
+	public static File write(File classes, File file) throws IOException {
+		if (!classes.isDirectory()) throw new IOException(classes + " is not a directory");
+		long start = System.nanoTime();
+		Indexer indexer = new Indexer();
+		int indexed = indexDirectory(indexer, classes);
+		Index index = indexer.complete();
+
+		if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) throw new IOException("can't create " + file.getParentFile());
+		OutputStream out = new FileOutputStream(file);
+		try {
+			new IndexWriter(out).write(index);
+		} finally {
+			out.close();
+		}
+		logger.info("metadata index " + file + ": " + indexed + " classes, " + index.getAnnotations(DotName.createSimple("javax.persistence.Entity")).size()
+				+ " entities in " + (System.nanoTime() - start) / 1000000 + " ms");
+		return file;
+	}
+
+	private static int indexDirectory(Indexer indexer, File directory) throws IOException {
+		int indexed = 0;
+		File[] files = directory.listFiles();
+		if (files == null) throw new IOException("can't list " + directory);
+		for (File file : files) {
+			if (file.isDirectory()) {
+				indexed += indexDirectory(indexer, file);
+			} else if (file.getName().endsWith(".class")) {
+				InputStream in = new FileInputStream(file);
+				try {
+					indexer.index(in);
+					indexed++;
+				} finally {
+					in.close();
+				}
+			}
+		}
+		return indexed;
+	}
+
+}
@@ -0,0 +1,51 @@
+package com.jorge.bootstrap;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.internal.SessionFactoryImpl;
+import org.hibernate.metamodel.source.MetadataImplementor;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+/**
+ * Marks the phases of a start inside Hibernate for Bootstrap.java: integrators run when the session factory starts being built
+ * (the mapping is bound), its observers when it is complete (persisters, named queries, hbm2ddl.auto)
+ *
+ * Hibernate finds it through META-INF/services/org.hibernate.integrator.spi.Integrator. Factories not built by a Bootstrap are left alone
+ */
+public class StartupTimingIntegrator implements Integrator {
+
+	@Override
+	public void integrate(Configuration configuration, SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+		if (!Bootstrap.isBuilding()) return;
+		Bootstrap.mark("mapping");
+		if (sessionFactory instanceof SessionFactoryImpl) {
+			((SessionFactoryImpl) sessionFactory).addObserver(new SessionFactoryObserver() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public void sessionFactoryCreated(SessionFactory factory) {
+					Bootstrap.mark("session factory");
+				}
+
+				@Override
+				public void sessionFactoryClosed(SessionFactory factory) {
+					// Nothing to do
+				}
+			});
+		}
+	}
+
+	@Override
+	public void integrate(MetadataImplementor metadata, SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+		// New metamodel, not used by Hibernate 4.3
+	}
+
+	@Override
+	public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+		// Nothing registered
+	}
+
+}
@@ -0,0 +1,52 @@
+package com.jorge.bootstrap;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long each phase of the start of a persistence unit took, in the order they ran (see Bootstrap.java):
+ * 		index					reading META-INF/jandex.idx
+ * 		persistence.xml			finding and parsing persistence.xml, creating the provider
+ * 		scan					finding the entities: the index, or every class file of the classpath root
+ * 		mapping					binding annotations and orm.xml to the Hibernate mapping, settings, services, JDBC metadata
+ * 		session factory			persisters, named queries (hibernate.query.startup_check), hbm2ddl.auto
+ * 		entity manager factory	JPA metamodel
+ *
+ * A phase is the time since the previous one ended. Written by the thread that builds the factory
+ */
+public class StartupTimings {
+
+	private final long start = System.nanoTime();
+	private long last = start;
+	private final Map<String, Long> phases = new LinkedHashMap<String, Long>(); // Nanoseconds
+
+	void mark(String phase) {
+		long now = System.nanoTime();
+		Long previous = phases.get(phase);
+		phases.put(phase, (previous == null ? 0 : previous) + now - last);
+		last = now;
+	}
+
+	// Phase => ms, in the order they ran
+	public Map<String, Long> getPhaseMillis() {
+		Map<String, Long> millis = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, Long> phase : phases.entrySet())
+			millis.put(phase.getKey(), TimeUnit.NANOSECONDS.toMillis(phase.getValue()));
+		return Collections.unmodifiableMap(millis);
+	}
+
+	public long getTotalMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(last - start);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder("StartupTimings [");
+		for (Map.Entry<String, Long> phase : getPhaseMillis().entrySet())
+			text.append(phase.getKey()).append('=').append(phase.getValue()).append(" ms, ");
+		return text.append("total=").append(getTotalMillis()).append(" ms]").toString();
+	}
+
+}
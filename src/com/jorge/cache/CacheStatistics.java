@@ -0,0 +1,70 @@
+package com.jorge.cache;
+
+/**
+ * Snapshot of the counters of a QueryResultCache
+ *
+ * hits + misses = lookups. A miss means the query went to the database
+ */
+public class CacheStatistics {
+
+	private final long hits;
+	private final long misses;
+	private final long puts;
+	private final long evictions;
+	private final long expirations;
+	private final long invalidations;
+	private final int size;
+
+	public CacheStatistics(long hits, long misses, long puts, long evictions, long expirations, long invalidations, int size) {
+		this.hits = hits;
+		this.misses = misses;
+		this.puts = puts;
+		this.evictions = evictions;
+		this.expirations = expirations;
+		this.invalidations = invalidations;
+		this.size = size;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getPuts() {
+		return puts;
+	}
+
+	// Entries removed because the cache was full (least recently used first)
+	public long getEvictions() {
+		return evictions;
+	}
+
+	// Entries removed because they were older than the time to live
+	public long getExpirations() {
+		return expirations;
+	}
+
+	// Entries removed because an entity of their query spaces was written
+	public long getInvalidations() {
+		return invalidations;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public double getHitRatio() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStatistics [hits=" + hits + ", misses=" + misses + ", hitRatio=" + String.format("%.2f", getHitRatio()) + ", puts=" + puts
+				+ ", evictions=" + evictions + ", expirations=" + expirations + ", invalidations=" + invalidations + ", size=" + size + "]";
+	}
+
+}
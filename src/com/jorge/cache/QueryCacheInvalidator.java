@@ -0,0 +1,42 @@
+package com.jorge.cache;
+
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Hibernate event listener that invalidates the QueryResultCache results of the written entity's tables
+ *
+ * QueryCacheIntegrator registers it for every entity of the persistence unit, so Guide and Student don't need an @EntityListeners
+ * annotation. It is a Hibernate listener, not a JPA one, because it needs the session: the tables are invalidated when the
+ * statement is flushed and again when the transaction completes (QueryResultCache.invalidateAllTables(session, tables))
+ */
+public class QueryCacheInvalidator implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public void onPostInsert(PostInsertEvent event) {
+		QueryResultCache.invalidateAll(event.getSession(), event.getPersister().getQuerySpaces());
+	}
+
+	@Override
+	public void onPostUpdate(PostUpdateEvent event) {
+		QueryResultCache.invalidateAll(event.getSession(), event.getPersister().getQuerySpaces());
+	}
+
+	@Override
+	public void onPostDelete(PostDeleteEvent event) {
+		QueryResultCache.invalidateAll(event.getSession(), event.getPersister().getQuerySpaces());
+	}
+
+	@Override
+	public boolean requiresPostCommitHanding(EntityPersister persister) {
+		return false; // The after completion invalidation is registered by QueryResultCache, committed or not
+	}
+
+}
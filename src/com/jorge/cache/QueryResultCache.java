@@ -0,0 +1,511 @@
+package com.jorge.cache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.FlushModeType;
+import javax.persistence.NoResultException;
+import javax.persistence.NonUniqueResultException;
+import javax.persistence.Parameter;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Query;
+
+import org.apache.log4j.Logger;
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.Status;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Query result cache
+ *
+ * Results of JPQL queries (named queries too) are kept in memory by query string + parameter values, e.g.:
+ * 		findByGuide {name=Homer Simpson}
+ * 		select count(guide) from Guide guide
+ * 		select max(guide.salary) from Guide guide
+ * so repeating them doesn't go to MySQL
+ *
+ * Size: at most 'maxEntries' results. When full, the least recently used one is evicted
+ * Time to live: results older than 'ttl' are queried again. 0 => no time limit
+ * Invalidation: every query has a set of query spaces (the tables it reads, e.g. guide and Student for a join).
+ * 				 When an entity is persisted, updated or removed through an EntityManager, QueryCacheInvalidator (QueryCacheIntegrator.java)
+ * 				 drops every cached result reading its table. Bulk JPQL updates/deletes go through BulkOperations, which calls invalidateAllTables(em, ...)
+ *
+ * Entities are never shared between EntityManagers: only their ids are cached, and they are loaded again when the result is
+ * read from the cache: the ones already in the EntityManager are taken from it, the others are loaded with one query per entity
+ * class (select e from Guide e where e.id in (:ids)), not one em.find(...) per row. Scalar values (String, Long, Integer...)
+ * are cached as they are
+ *
+ * Usage:
+ * 		QueryResultCache cache = new QueryResultCache(emf, 1000, 10, TimeUnit.MINUTES);
+ * 		Long numOfGuides = (Long) cache.getSingleResult(em, em.createQuery("select count(guide) from Guide guide"));
+ *
+ * Invalidation happens twice: when the write is flushed, and when its transaction completes (an AfterTransactionCompletionProcess,
+ * as SalaryDeltas.java does for the second-level cache). A query of another transaction running between the flush and the commit
+ * still reads the old rows and may cache them, the second invalidation drops them
+ */
+public class QueryResultCache {
+
+	private static final Logger logger = Logger.getLogger(QueryResultCache.class.getName());
+
+	private static final int MAX_IDS_PER_QUERY = 500; // Size of the 'in' lists of resolve()
+
+	private static final List<QueryResultCache> caches = new CopyOnWriteArrayList<QueryResultCache>(); // Open caches, invalidated by QueryCacheInvalidator
+	// Tables written by open transactions. Weak keys: a session closed without finishing its transaction is not kept
+	private static final Map<SessionImplementor, Set<String>> written = Collections.synchronizedMap(new WeakHashMap<SessionImplementor, Set<String>>());
+
+	private final SessionFactoryImplementor factory;
+	private final PersistenceUnitUtil persistenceUnitUtil;
+	private final int maxEntries;
+	private final long ttlNanos;
+	private final Map<String, Set<String>> querySpaces = new ConcurrentHashMap<String, Set<String>>(); // Query string => tables
+
+	// Guarded by 'this'
+	private final LinkedHashMap<Key, CachedResult> entries;
+	private final Map<String, Long> invalidatedAt = new HashMap<String, Long>(); // Table => 'sequence' value of its last write
+	private long sequence;
+	private long hits, misses, puts, evictions, expirations, invalidations;
+
+	public QueryResultCache(EntityManagerFactory emf, int maxEntries, long ttl, TimeUnit unit) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be > 0: " + maxEntries);
+		}
+		this.factory = emf.unwrap(SessionFactoryImplementor.class);
+		this.persistenceUnitUtil = emf.getPersistenceUnitUtil();
+		this.maxEntries = maxEntries;
+		this.ttlNanos = unit.toNanos(ttl);
+		this.entries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) { // true => access order, the eldest entry is the least recently used
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+				if (size() > QueryResultCache.this.maxEntries) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+		caches.add(this);
+	}
+
+	/**
+	 * Result of the query, from the cache if possible. Same result than query.getResultList()
+	 */
+	public List<?> getResultList(EntityManager em, Query query) {
+		String queryString = queryString(query);
+		Key key = new Key(queryString, parameters(query), query.getFirstResult(), query.getMaxResults());
+
+		List<Object> cached = lookup(key);
+		if (cached != null) {
+			List<Object> result = resolve(em, cached);
+			if (result != null) {
+				return result;
+			}
+			removeStale(key); // An entity of the result doesn't exist anymore
+		}
+
+		long start = tick(); // Writes after this point make the result stale
+		List<?> result = query.getResultList();
+		put(key, disassemble(result), querySpaces(queryString), start);
+		return result;
+	}
+
+	/**
+	 * Same result than query.getSingleResult()
+	 */
+	public Object getSingleResult(EntityManager em, Query query) {
+		List<?> result = getResultList(em, query);
+		if (result.isEmpty()) {
+			throw new NoResultException("no result for query " + queryString(query));
+		}
+		if (result.size() > 1) {
+			throw new NonUniqueResultException("more than one result for query " + queryString(query));
+		}
+		return result.get(0);
+	}
+
+	/**
+	 * Drops every result reading the tables of this entity
+	 */
+	public void invalidate(Class<?> entityClass) {
+		Serializable[] spaces = entitySpaces(entityClass);
+		if (spaces == null) return; // Not an entity of this persistence unit
+
+		Set<String> tables = new HashSet<String>();
+		for (Serializable space : spaces)
+			tables.add(space.toString());
+		invalidateTables(tables);
+	}
+
+	/**
+	 * Drops every result reading any of these tables (query spaces), e.g. the ones written by a bulk update or delete
+	 */
+	public void invalidateTables(Collection<String> tables) {
+		synchronized (this) {
+			long now = ++sequence;
+			for (String table : tables)
+				invalidatedAt.put(table, now);
+			for (Iterator<CachedResult> it = entries.values().iterator(); it.hasNext();) {
+				if (!Collections.disjoint(it.next().spaces, tables)) {
+					it.remove();
+					invalidations++;
+				}
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized CacheStatistics getStatistics() {
+		return new CacheStatistics(hits, misses, puts, evictions, expirations, invalidations, entries.size());
+	}
+
+	// The cache is not invalidated anymore after close()
+	public void close() {
+		caches.remove(this);
+		clear();
+	}
+
+	/**
+	 * Counters of every open cache of a persistence unit added together (size = entries of all of them)
+	 */
+	public static CacheStatistics getTotalStatistics(EntityManagerFactory emf) {
+		return getTotalStatistics(emf.unwrap(SessionFactoryImplementor.class));
+	}
+
+	public static CacheStatistics getTotalStatistics(SessionFactory factory) {
+		long hits = 0, misses = 0, puts = 0, evictions = 0, expirations = 0, invalidations = 0;
+		int size = 0;
+		for (QueryResultCache cache : caches) {
+			if (cache.factory != factory) continue;
+			CacheStatistics statistics = cache.getStatistics();
+			hits += statistics.getHits();
+			misses += statistics.getMisses();
+			puts += statistics.getPuts();
+			evictions += statistics.getEvictions();
+			expirations += statistics.getExpirations();
+			invalidations += statistics.getInvalidations();
+			size += statistics.getSize();
+		}
+		return new CacheStatistics(hits, misses, puts, evictions, expirations, invalidations, size);
+	}
+
+	/**
+	 * Called by QueryCacheInvalidator for every persisted, updated or removed entity, with the tables of the entity
+	 */
+	static void invalidateAll(EventSource session, Serializable[] spaces) {
+		List<String> tables = new ArrayList<String>(spaces.length);
+		for (Serializable space : spaces)
+			tables.add(space.toString());
+		invalidateAllTables(session, tables);
+	}
+
+	/**
+	 * Bulk JPQL updates and deletes (BulkOperations.java) and JDBC writes (SalaryDeltas.java) don't fire the entity events:
+	 * they invalidate their tables here, now and when the transaction of 'em' completes
+	 */
+	public static void invalidateAllTables(EntityManager em, Collection<String> tables) {
+		invalidateAllTables((EventSource) em.unwrap(Session.class), tables); // The session implementation is also the EventSource
+	}
+
+	/**
+	 * Drops the results reading these tables from every open cache, right now. Writes outside of a transaction (SnapshotImporter.java)
+	 */
+	public static void invalidateAllTables(Collection<String> tables) {
+		for (QueryResultCache cache : caches)
+			cache.invalidateTables(tables);
+	}
+
+	// Now, and again after the commit or rollback: one AfterTransactionCompletionProcess per transaction, with every table it wrote
+	private static void invalidateAllTables(EventSource session, Collection<String> tables) {
+		invalidateAllTables(tables);
+		Set<String> transactionTables = written.get(session);
+		if (transactionTables == null) {
+			transactionTables = new HashSet<String>();
+			written.put(session, transactionTables); // A session is used by one thread at a time
+			session.getActionQueue().registerProcess(new AfterTransactionCompletionProcess() {
+				@Override
+				public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+					Set<String> tables = written.remove(session);
+					if (tables != null) invalidateAllTables(tables); // Committed or not: whatever was cached since the flush may be wrong
+				}
+			});
+		}
+		transactionTables.addAll(tables);
+	}
+
+	private synchronized long tick() {
+		return ++sequence;
+	}
+
+	private synchronized List<Object> lookup(Key key) {
+		CachedResult entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		if (ttlNanos > 0 && System.nanoTime() - entry.created > ttlNanos) {
+			entries.remove(key);
+			expirations++;
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.rows;
+	}
+
+	private synchronized void removeStale(Key key) {
+		entries.remove(key);
+		hits--; // It was not a real hit, the query goes to the database
+		misses++;
+	}
+
+	private synchronized void put(Key key, List<Object> rows, Set<String> spaces, long start) {
+		for (String space : spaces) {
+			Long invalidated = invalidatedAt.get(space);
+			if (invalidated != null && invalidated > start) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("not caching " + key + ": table " + space + " was written while the query was running");
+				}
+				return;
+			}
+		}
+		entries.put(key, new CachedResult(rows, spaces, System.nanoTime()));
+		puts++;
+	}
+
+	private String queryString(Query query) {
+		org.hibernate.Query hibernateQuery = query.unwrap(org.hibernate.Query.class);
+		if (hibernateQuery instanceof SQLQuery) {
+			throw new IllegalArgumentException("native SQL queries can't be cached, their tables are unknown: " + hibernateQuery.getQueryString());
+		}
+		return hibernateQuery.getQueryString(); // Named queries => the JPQL of orm.xml
+	}
+
+	private Set<String> querySpaces(String queryString) {
+		Set<String> spaces = querySpaces.get(queryString);
+		if (spaces == null) {
+			spaces = new HashSet<String>();
+			for (Object space : factory.getQueryPlanCache().getHQLQueryPlan(queryString, false, Collections.emptyMap()).getQuerySpaces())
+				spaces.add(space.toString());
+			querySpaces.put(queryString, spaces);
+		}
+		return spaces;
+	}
+
+	private Serializable[] entitySpaces(Class<?> cls) {
+		Class<?> entityClass = entityClass(cls);
+		return entityClass == null ? null : factory.getEntityPersister(factory.getClassMetadata(entityClass).getEntityName()).getQuerySpaces();
+	}
+
+	// Mapped entity class of an entity or of its proxy (proxies are subclasses of the entity class). null if it is not an entity
+	private Class<?> entityClass(Class<?> cls) {
+		for (; cls != null; cls = cls.getSuperclass()) {
+			if (factory.getClassMetadata(cls) != null) return cls;
+		}
+		return null;
+	}
+
+	private Map<String, Object> parameters(Query query) {
+		Map<String, Object> parameters = new TreeMap<String, Object>();
+		for (Parameter<?> parameter : query.getParameters()) {
+			String name = parameter.getName() != null ? parameter.getName() : "?" + parameter.getPosition();
+			parameters.put(name, disassemble(query.getParameterValue(parameter)));
+		}
+		return parameters;
+	}
+
+	// Entities => EntityRef(class, id), Object[] rows element by element, other values as they are
+	private List<Object> disassemble(List<?> result) {
+		List<Object> rows = new ArrayList<Object>(result.size());
+		for (Object row : result) {
+			if (row instanceof Object[]) {
+				Object[] columns = ((Object[]) row).clone();
+				for (int i = 0; i < columns.length; i++)
+					columns[i] = disassemble(columns[i]);
+				rows.add(columns);
+			} else {
+				rows.add(disassemble(row));
+			}
+		}
+		return rows;
+	}
+
+	private Object disassemble(Object value) {
+		Class<?> entityClass = value == null ? null : entityClass(value.getClass());
+		if (entityClass == null) return value;
+		Object id = persistenceUnitUtil.getIdentifier(value);
+		return id == null ? value : new EntityRef(entityClass, id); // Transient entity (parameter value) => no id yet
+	}
+
+	// null if an entity was removed
+	private List<Object> resolve(EntityManager em, List<Object> rows) {
+		Map<EntityRef, Object> entities = load(em, rows);
+		if (entities == null) return null;
+		List<Object> result = new ArrayList<Object>(rows.size());
+		for (Object row : rows) { // In the cached order
+			if (row instanceof Object[]) {
+				Object[] columns = ((Object[]) row).clone();
+				for (int i = 0; i < columns.length; i++) {
+					if (columns[i] instanceof EntityRef) {
+						columns[i] = entities.get(columns[i]);
+						if (columns[i] == null) return null;
+					}
+				}
+				result.add(columns);
+			} else if (row instanceof EntityRef) {
+				Object entity = entities.get(row);
+				if (entity == null) return null;
+				result.add(entity);
+			} else {
+				result.add(row);
+			}
+		}
+		return result;
+	}
+
+	// Every entity of the rows: from the persistence context if it is there, else with one query per entity class (and MAX_IDS_PER_QUERY ids).
+	// null if one was removed in this EntityManager
+	private Map<EntityRef, Object> load(EntityManager em, List<Object> rows) {
+		SessionImplementor session = (SessionImplementor) em.unwrap(Session.class);
+		PersistenceContext persistenceContext = session.getPersistenceContext();
+		Map<EntityRef, Object> entities = new HashMap<EntityRef, Object>();
+		Map<Class<?>, Set<Object>> missing = new LinkedHashMap<Class<?>, Set<Object>>(); // Entity class => ids to load
+		for (Object row : rows) {
+			Object[] columns = row instanceof Object[] ? (Object[]) row : new Object[] { row };
+			for (Object column : columns) {
+				if (!(column instanceof EntityRef) || entities.containsKey(column)) continue;
+				EntityRef ref = (EntityRef) column;
+				EntityPersister persister = factory.getEntityPersister(ref.entityClass.getName());
+				Object entity = persistenceContext.getEntity(session.generateEntityKey((Serializable) ref.id, persister));
+				if (entity != null) {
+					EntityEntry entry = persistenceContext.getEntry(entity);
+					if (entry != null && (entry.getStatus() == Status.DELETED || entry.getStatus() == Status.GONE)) return null; // em.find() returns null too
+					entities.put(ref, entity);
+					continue;
+				}
+				Set<Object> ids = missing.get(ref.entityClass);
+				if (ids == null) missing.put(ref.entityClass, ids = new LinkedHashSet<Object>());
+				ids.add(ref.id);
+			}
+		}
+
+		for (Map.Entry<Class<?>, Set<Object>> entry : missing.entrySet()) {
+			Class<?> entityClass = entry.getKey();
+			String idAttribute = factory.getClassMetadata(entityClass).getIdentifierPropertyName();
+			List<Object> ids = new ArrayList<Object>(entry.getValue());
+			for (int from = 0; from < ids.size(); from += MAX_IDS_PER_QUERY) {
+				List<?> found = em.createQuery("select e from " + entityClass.getName() + " e where e." + idAttribute + " in (:ids)")
+						.setParameter("ids", ids.subList(from, Math.min(from + MAX_IDS_PER_QUERY, ids.size())))
+						.setFlushMode(FlushModeType.COMMIT) // Like em.find(): reading the cache doesn't flush
+						.getResultList();
+				for (Object entity : found)
+					entities.put(new EntityRef(entityClass, persistenceUnitUtil.getIdentifier(entity)), entity);
+			}
+		}
+		return entities;
+	}
+
+	private static class Key {
+
+		private final String queryString;
+		private final Map<String, Object> parameters;
+		private final int firstResult;
+		private final int maxResults;
+		private final int hash;
+
+		Key(String queryString, Map<String, Object> parameters, int firstResult, int maxResults) {
+			this.queryString = queryString;
+			this.parameters = parameters;
+			this.firstResult = firstResult;
+			this.maxResults = maxResults;
+			this.hash = Arrays.hashCode(new Object[] { queryString, parameters, firstResult, maxResults });
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return hash == other.hash && firstResult == other.firstResult && maxResults == other.maxResults
+					&& queryString.equals(other.queryString) && parameters.equals(other.parameters);
+		}
+
+		@Override
+		public String toString() {
+			return queryString.trim() + " " + parameters;
+		}
+
+	}
+
+	private static class CachedResult {
+
+		private final List<Object> rows;
+		private final Set<String> spaces;
+		private final long created;
+
+		CachedResult(List<Object> rows, Set<String> spaces, long created) {
+			this.rows = rows;
+			this.spaces = spaces;
+			this.created = created;
+		}
+
+	}
+
+	private static class EntityRef {
+
+		private final Class<?> entityClass;
+		private final Object id;
+
+		EntityRef(Class<?> entityClass, Object id) {
+			this.entityClass = entityClass;
+			this.id = id;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * entityClass.hashCode() + id.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof EntityRef)) return false;
+			EntityRef other = (EntityRef) obj;
+			return entityClass.equals(other.entityClass) && id.equals(other.id);
+		}
+
+	}
+
+}
@@ -0,0 +1,20 @@
+package com.jorge.cache.region;
+
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+
+class CollectionReadWriteAccess extends ReadWriteAccess implements CollectionRegionAccessStrategy {
+
+	private final LocalCollectionRegion region;
+
+	CollectionReadWriteAccess(LocalCollectionRegion region) {
+		super(region);
+		this.region = region;
+	}
+
+	@Override
+	public CollectionRegion getRegion() {
+		return region;
+	}
+
+}
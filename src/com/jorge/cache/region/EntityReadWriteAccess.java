@@ -0,0 +1,62 @@
+package com.jorge.cache.region;
+
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+
+class EntityReadWriteAccess extends ReadWriteAccess implements EntityRegionAccessStrategy {
+
+	private final LocalEntityRegion region;
+
+	EntityReadWriteAccess(LocalEntityRegion region) {
+		super(region);
+		this.region = region;
+	}
+
+	@Override
+	public EntityRegion getRegion() {
+		return region;
+	}
+
+	@Override
+	public boolean insert(Object key, Object value, Object version) {
+		return false; // Not visible to other transactions before the commit => afterInsert
+	}
+
+	@Override
+	public boolean afterInsert(Object key, Object value, Object version) {
+		synchronized (region) {
+			if (region.read(key) != null) return false;
+			region.write(key, new Item(value, version, region.nextTimestamp()));
+			region.put();
+			return true;
+		}
+	}
+
+	@Override
+	public boolean update(Object key, Object value, Object currentVersion, Object previousVersion) {
+		return false; // The entry stays locked (lockItem) until afterUpdate
+	}
+
+	@Override
+	public boolean afterUpdate(Object key, Object value, Object currentVersion, Object previousVersion, SoftLock softLock) {
+		synchronized (region) {
+			Object entry = region.read(key);
+			if (entry instanceof Lock && ((Lock) entry).isLockedBy(softLock)) {
+				Lock lock = (Lock) entry;
+				if (lock.wasLockedConcurrently()) {
+					// Another transaction updated it at the same time: we don't know which value is the last one
+					lock.unlock(region.nextTimestamp());
+					region.write(key, lock);
+					return false;
+				}
+				region.write(key, new Item(value, currentVersion, region.nextTimestamp()));
+				region.put();
+				return true;
+			}
+			lockExpired(key);
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,23 @@
+package com.jorge.cache.region;
+
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+
+/**
+ * Collection region, e.g. com.jorge.entity.Guide.students. It keeps the ids of the elements, not the elements
+ */
+class LocalCollectionRegion extends LocalTransactionalRegion implements CollectionRegion {
+
+	LocalCollectionRegion(String name, LocalRegionFactory factory, LocalStore store, CacheDataDescription metadata) {
+		super(name, factory, store, metadata);
+	}
+
+	@Override
+	public CollectionRegionAccessStrategy buildAccessStrategy(AccessType accessType) {
+		checkAccessType(accessType);
+		return new CollectionReadWriteAccess(this);
+	}
+
+}
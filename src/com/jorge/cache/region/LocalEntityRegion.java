@@ -0,0 +1,23 @@
+package com.jorge.cache.region;
+
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+
+/**
+ * Entity region, e.g. com.jorge.entity.Guide
+ */
+class LocalEntityRegion extends LocalTransactionalRegion implements EntityRegion {
+
+	LocalEntityRegion(String name, LocalRegionFactory factory, LocalStore store, CacheDataDescription metadata) {
+		super(name, factory, store, metadata);
+	}
+
+	@Override
+	public EntityRegionAccessStrategy buildAccessStrategy(AccessType accessType) {
+		checkAccessType(accessType);
+		return new EntityReadWriteAccess(this);
+	}
+
+}
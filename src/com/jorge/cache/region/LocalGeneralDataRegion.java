@@ -0,0 +1,38 @@
+package com.jorge.cache.region;
+
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.cache.spi.TimestampsRegion;
+
+/**
+ * Region of the Hibernate query cache (hibernate.cache.use_query_cache) and of its table update timestamps
+ */
+class LocalGeneralDataRegion extends LocalRegion implements QueryResultsRegion, TimestampsRegion {
+
+	LocalGeneralDataRegion(String name, LocalRegionFactory factory, LocalStore store) {
+		super(name, factory, store);
+	}
+
+	@Override
+	public Object get(Object key) {
+		Object value = read(key);
+		if (value == null) miss(); else hit();
+		return value;
+	}
+
+	@Override
+	public void put(Object key, Object value) {
+		write(key, value);
+		put();
+	}
+
+	@Override
+	public void evict(Object key) {
+		remove(key);
+	}
+
+	@Override
+	public void evictAll() {
+		removeAll();
+	}
+
+}
@@ -0,0 +1,115 @@
+package com.jorge.cache.region;
+
+import java.util.Map;
+
+import org.hibernate.cache.spi.Region;
+
+import com.jorge.cache.CacheStatistics;
+
+/**
+ * Base class of the regions built by LocalRegionFactory: one LocalStore plus hit/miss/put counters
+ *
+ * Every access to the store is synchronized on the region
+ */
+abstract class LocalRegion implements Region {
+
+	private final String name;
+	private final LocalRegionFactory factory;
+	private final LocalStore store;
+	private long hits, misses, puts, invalidations;
+
+	LocalRegion(String name, LocalRegionFactory factory, LocalStore store) {
+		this.name = name;
+		this.factory = factory;
+		this.store = store;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public synchronized void destroy() {
+		store.clear();
+	}
+
+	@Override
+	public synchronized boolean contains(Object key) {
+		return store.contains(key);
+	}
+
+	@Override
+	public synchronized long getSizeInMemory() {
+		return store.sizeInBytes();
+	}
+
+	@Override
+	public synchronized long getElementCountInMemory() {
+		return store.size();
+	}
+
+	@Override
+	public long getElementCountOnDisk() {
+		return 0;
+	}
+
+	@Override
+	public synchronized Map<Object, Object> toMap() {
+		return store.copy(); // Read by SecondLevelCacheStatistics.getEntries()
+	}
+
+	@Override
+	public long nextTimestamp() {
+		return factory.nextTimestamp();
+	}
+
+	@Override
+	public int getTimeout() {
+		return LocalRegionFactory.TIMEOUT;
+	}
+
+	public synchronized CacheStatistics getStatistics() {
+		return new CacheStatistics(hits, misses, puts, store.evictions(), 0, invalidations, store.size());
+	}
+
+	synchronized Object read(Object key) {
+		return store.get(key);
+	}
+
+	synchronized void write(Object key, Object value) {
+		store.put(key, value);
+	}
+
+	synchronized void remove(Object key) {
+		store.remove(key);
+		invalidations++;
+	}
+
+	synchronized void removeAll() {
+		invalidations += store.size();
+		store.clear();
+	}
+
+	synchronized void hit() {
+		hits++;
+	}
+
+	synchronized void miss() {
+		misses++;
+	}
+
+	synchronized void put() {
+		puts++;
+	}
+
+	LocalRegionFactory getFactory() {
+		return factory;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [name=" + name + "]";
+	}
+
+}
@@ -0,0 +1,148 @@
+package com.jorge.cache.region;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.log4j.Logger;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.NaturalIdRegion;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.cache.spi.Region;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cache.spi.TimestampsRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cfg.Settings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import com.jorge.cache.CacheStatistics;
+
+/**
+ * Second-level cache provider local to this JVM, with optional off-heap storage (LocalStore.java, OffHeapSlab.java)
+ *
+ * persistence.xml:
+ * 		<property name="hibernate.cache.use_second_level_cache" value="true" />
+ * 		<property name="hibernate.cache.region.factory_class" value="com.jorge.cache.region.LocalRegionFactory" />
+ *
+ * Region settings, for every region or for one region (the region name is the entity name or the collection role):
+ * 		hibernate.cache.local.max_entries								(default 10000)
+ * 		hibernate.cache.local.off_heap									(default false)
+ * 		hibernate.cache.local.off_heap_max_bytes						(default 64 MB, direct memory of each off-heap region)
+ * 		hibernate.cache.local.com.jorge.entity.Guide.max_entries
+ * 		hibernate.cache.local.com.jorge.entity.Guide.off_heap
+ *
+ * Region.getSizeInMemory() (Hibernate statistics) is the direct memory of an off-heap region, -1 on heap
+ *
+ * Entity and collection regions are read-write (@Cache(usage=CacheConcurrencyStrategy.READ_WRITE)). Natural id regions are not supported
+ *
+ * Metrics per region: LocalRegionFactory.getStatistics(emf, "com.jorge.entity.Guide")
+ */
+public class LocalRegionFactory implements RegionFactory {
+
+	public static final String PREFIX = "hibernate.cache.local.";
+	public static final String MAX_ENTRIES = "max_entries";
+	public static final String OFF_HEAP = "off_heap";
+	public static final String OFF_HEAP_MAX_BYTES = "off_heap_max_bytes";
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+	public static final long DEFAULT_OFF_HEAP_MAX_BYTES = 64L << 20;
+
+	// Timestamps are milliseconds << 12: up to 4096 different timestamps per millisecond
+	static final int TIMEOUT = 60000 << 12; // Locks expire after 60 seconds
+
+	private static final long serialVersionUID = 1L;
+	private static final Logger logger = Logger.getLogger(LocalRegionFactory.class.getName());
+
+	private final AtomicLong lastTimestamp = new AtomicLong();
+	private Properties properties = new Properties();
+
+	public LocalRegionFactory() {}
+
+	public LocalRegionFactory(Properties properties) { // Hibernate looks for this constructor first
+		this.properties = properties;
+	}
+
+	/**
+	 * Hit/miss/put counters of a region. null if the region doesn't exist or is not a local region
+	 */
+	public static CacheStatistics getStatistics(EntityManagerFactory emf, String regionName) {
+		Region region = emf.unwrap(SessionFactoryImplementor.class).getSecondLevelCacheRegion(regionName);
+		return region instanceof LocalRegion ? ((LocalRegion) region).getStatistics() : null;
+	}
+
+	@Override
+	public void start(Settings settings, Properties properties) {
+		this.properties = properties;
+		logger.debug("local second-level cache started");
+	}
+
+	@Override
+	public void stop() {
+		logger.debug("local second-level cache stopped");
+	}
+
+	@Override
+	public boolean isMinimalPutsEnabledByDefault() {
+		return false;
+	}
+
+	@Override
+	public AccessType getDefaultAccessType() {
+		return AccessType.READ_WRITE;
+	}
+
+	@Override
+	public long nextTimestamp() {
+		long now = System.currentTimeMillis() << 12;
+		while (true) {
+			long last = lastTimestamp.get();
+			long next = now > last ? now : last + 1; // Always increasing, even with clock adjustments
+			if (lastTimestamp.compareAndSet(last, next)) return next;
+		}
+	}
+
+	@Override
+	public EntityRegion buildEntityRegion(String regionName, Properties properties, CacheDataDescription metadata) {
+		return new LocalEntityRegion(regionName, this, store(regionName, properties), metadata);
+	}
+
+	@Override
+	public NaturalIdRegion buildNaturalIdRegion(String regionName, Properties properties, CacheDataDescription metadata) {
+		throw new CacheException("natural id caching is not supported by " + getClass().getSimpleName() + ": " + regionName);
+	}
+
+	@Override
+	public CollectionRegion buildCollectionRegion(String regionName, Properties properties, CacheDataDescription metadata) {
+		return new LocalCollectionRegion(regionName, this, store(regionName, properties), metadata);
+	}
+
+	@Override
+	public QueryResultsRegion buildQueryResultsRegion(String regionName, Properties properties) {
+		return new LocalGeneralDataRegion(regionName, this, store(regionName, properties));
+	}
+
+	@Override
+	public TimestampsRegion buildTimestampsRegion(String regionName, Properties properties) {
+		return new LocalGeneralDataRegion(regionName, this, new LocalStore(Integer.MAX_VALUE)); // Timestamps must never be evicted
+	}
+
+	private LocalStore store(String regionName, Properties properties) {
+		int maxEntries = Integer.parseInt(setting(properties, regionName, MAX_ENTRIES, Integer.toString(DEFAULT_MAX_ENTRIES)));
+		boolean offHeap = Boolean.parseBoolean(setting(properties, regionName, OFF_HEAP, "false"));
+		long offHeapMaxBytes = Long.parseLong(setting(properties, regionName, OFF_HEAP_MAX_BYTES, Long.toString(DEFAULT_OFF_HEAP_MAX_BYTES)));
+		logger.info("building region " + regionName + " (max entries " + maxEntries + (offHeap ? ", off-heap up to " + offHeapMaxBytes + " bytes)" : ", heap)"));
+		return new LocalStore(maxEntries, offHeap ? offHeapMaxBytes : 0);
+	}
+
+	// hibernate.cache.local.<region>.<name>, then hibernate.cache.local.<name>
+	private String setting(Properties properties, String regionName, String name, String defaultValue) {
+		String value = properties.getProperty(PREFIX + regionName + "." + name);
+		if (value == null) value = properties.getProperty(PREFIX + name);
+		if (value == null) value = this.properties.getProperty(PREFIX + name, defaultValue);
+		return value.trim();
+	}
+
+}
@@ -0,0 +1,173 @@
+package com.jorge.cache.region;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.hibernate.cache.CacheException;
+
+/**
+ * Size-bounded LRU storage of one cache region
+ *
+ * Heap mode: values are kept as they are
+ * Off-heap mode: values are serialized once, when they are put, into a chunk of an OffHeapSlab (direct memory allocated
+ * 				  in 1 MB pages, up to 'off_heap_max_bytes'). Only the key and its Slot (address, length) stay on the heap,
+ * 				  so a big region doesn't make old generation GCs longer. Reads deserialize straight from the chunk.
+ * 				  When the slab is full, least recently used entries are evicted until the new value fits.
+ * 				  Direct memory is limited by -XX:MaxDirectMemorySize too
+ *
+ * Not thread safe: LocalRegion synchronizes every access
+ */
+class LocalStore {
+
+	private static final Logger logger = Logger.getLogger(LocalStore.class.getName());
+
+	private final int maxEntries;
+	private final OffHeapSlab slab; // null on heap
+	private final OffHeapSlab.Buffer buffer; // Serialization buffer, reused by every put
+	private final LinkedHashMap<Object, Object> entries; // Key => value (heap) or Slot (off-heap)
+	private long evictions;
+
+	LocalStore(int maxEntries) {
+		this(maxEntries, 0);
+	}
+
+	// offHeapMaxBytes > 0 => off-heap mode
+	LocalStore(int maxEntries, long offHeapMaxBytes) {
+		this.maxEntries = maxEntries;
+		this.slab = offHeapMaxBytes > 0 ? new OffHeapSlab(offHeapMaxBytes) : null;
+		this.buffer = slab != null ? new OffHeapSlab.Buffer() : null;
+		this.entries = new LinkedHashMap<Object, Object>(16, 0.75f, true) { // true => access order, the eldest entry is the least recently used
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+				if (size() > LocalStore.this.maxEntries) {
+					released(eldest.getValue());
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	Object get(Object key) {
+		Object stored = entries.get(key);
+		return slab != null && stored != null ? deserialize((Slot) stored) : stored;
+	}
+
+	void put(Object key, Object value) {
+		if (slab == null) {
+			entries.put(key, value);
+			return;
+		}
+		released(entries.remove(key)); // Its chunk can take the new value
+		Slot slot = serialize(value);
+		if (slot != null) entries.put(key, slot);
+	}
+
+	void remove(Object key) {
+		released(entries.remove(key));
+	}
+
+	void clear() {
+		entries.clear();
+		if (slab != null) slab.clear();
+	}
+
+	boolean contains(Object key) {
+		return entries.containsKey(key);
+	}
+
+	// Copy of every entry. Walks entrySet(): entries.get() on an access-ordered map moves the entry, so a get() inside
+	// a loop over keySet() throws ConcurrentModificationException. The LRU order is left as it is
+	Map<Object, Object> copy() {
+		if (slab == null) return new HashMap<Object, Object>(entries); // HashMap(Map) iterates entrySet()
+		Map<Object, Object> copy = new HashMap<Object, Object>(entries.size() * 2);
+		for (Map.Entry<Object, Object> entry : entries.entrySet())
+			copy.put(entry.getKey(), deserialize((Slot) entry.getValue()));
+		return copy;
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	// Off-heap: direct memory allocated by the slab. -1 on heap: the size of a Java object graph is unknown
+	long sizeInBytes() {
+		return slab != null ? slab.getAllocatedBytes() : -1;
+	}
+
+	long evictions() {
+		return evictions;
+	}
+
+	private void released(Object stored) {
+		if (slab != null && stored != null) {
+			Slot slot = (Slot) stored;
+			slab.free(slot.address, slot.length);
+		}
+	}
+
+	// null if the value can't be stored: bigger than a page of the slab, or bigger than the whole slab once everything is evicted
+	private Slot serialize(Object value) {
+		buffer.reset();
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(buffer);
+			out.writeObject(value); // Hibernate cache entries (CacheEntry, CollectionCacheEntry) are Serializable
+			out.close();
+		} catch (IOException e) {
+			throw new CacheException("cannot serialize cache entry " + value.getClass().getName(), e);
+		}
+
+		int length = buffer.length();
+		long address = slab.allocate(length);
+		for (Iterator<Object> eldest = entries.values().iterator(); address == OffHeapSlab.NO_ADDRESS && eldest.hasNext(); ) {
+			released(eldest.next()); // Full: least recently used entries make room
+			eldest.remove();
+			evictions++;
+			address = slab.allocate(length);
+		}
+		if (address == OffHeapSlab.NO_ADDRESS) {
+			logger.warn("cache entry of " + length + " bytes doesn't fit in the off-heap store, not cached: " + slab);
+			return null;
+		}
+		slab.write(address, buffer.bytes(), length);
+		return new Slot(address, length);
+	}
+
+	private Object deserialize(Slot slot) {
+		try {
+			ObjectInputStream in = new ObjectInputStream(slab.in(slot.address, slot.length));
+			try {
+				return in.readObject();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new CacheException("cannot deserialize cache entry", e);
+		} catch (ClassNotFoundException e) {
+			throw new CacheException("cannot deserialize cache entry", e);
+		}
+	}
+
+	// Where an off-heap value is: the only part of it on the heap
+	private static final class Slot {
+
+		final long address;
+		final int length;
+
+		Slot(long address, int length) {
+			this.address = address;
+			this.length = length;
+		}
+
+	}
+
+}
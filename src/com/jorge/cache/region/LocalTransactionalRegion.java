@@ -0,0 +1,36 @@
+package com.jorge.cache.region;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.TransactionalDataRegion;
+import org.hibernate.cache.spi.access.AccessType;
+
+/**
+ * Base class of entity and collection regions. Only read-write access is supported
+ */
+abstract class LocalTransactionalRegion extends LocalRegion implements TransactionalDataRegion {
+
+	private final CacheDataDescription metadata;
+
+	LocalTransactionalRegion(String name, LocalRegionFactory factory, LocalStore store, CacheDataDescription metadata) {
+		super(name, factory, store);
+		this.metadata = metadata;
+	}
+
+	@Override
+	public boolean isTransactionAware() {
+		return false;
+	}
+
+	@Override
+	public CacheDataDescription getCacheDataDescription() {
+		return metadata;
+	}
+
+	void checkAccessType(AccessType accessType) {
+		if (accessType != AccessType.READ_WRITE) {
+			throw new CacheException("region " + getName() + " only supports " + AccessType.READ_WRITE + " access, not " + accessType);
+		}
+	}
+
+}
@@ -0,0 +1,237 @@
+package com.jorge.cache.region;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Direct memory of an off-heap LocalStore, carved into chunks the way memcached does it
+ *
+ * Memory is allocated in pages of PAGE_SIZE bytes (ByteBuffer.allocateDirect once per page, never per entry), up to 'maxBytes'.
+ * Every page is given to one size class and cut into chunks of that size: 64, 128, 256... PAGE_SIZE bytes. A value goes into
+ * a chunk of the smallest class it fits in, freed chunks go back to the free list of their class and are reused by the next
+ * value of that class. Wasted space is at most half a chunk per value. A page whose chunks are all free again goes to another
+ * size class when that class runs out of chunks and no page can be added
+ *
+ * An address is page << 32 | offset. Values are written with write() and read with in(): an InputStream over the chunk,
+ * nothing is copied to the heap but what the reader deserializes
+ *
+ * Not thread safe: LocalStore is only used under the lock of its region
+ */
+class OffHeapSlab {
+
+	static final int PAGE_SIZE = 1 << 20;
+	static final int MIN_CHUNK = 64;
+	static final long NO_ADDRESS = -1;
+
+	private static final int CLASSES = Integer.numberOfTrailingZeros(PAGE_SIZE) - Integer.numberOfTrailingZeros(MIN_CHUNK) + 1;
+
+	private final long maxBytes;
+	private final List<ByteBuffer> pages = new ArrayList<ByteBuffer>();
+	private final List<Integer> unassignedPages = new ArrayList<Integer>(); // Pages of no size class, after clear()
+	private int[] pageClass = new int[16]; // Size class of every page
+	private int[] pageUsed = new int[16]; // Chunks of every page holding a value
+	private final long[][] free = new long[CLASSES][]; // Free chunk addresses of every size class, used as stacks
+	private final int[] freeCount = new int[CLASSES];
+	private long usedBytes; // Chunks holding a value
+
+	OffHeapSlab(long maxBytes) {
+		if (maxBytes < PAGE_SIZE) {
+			throw new IllegalArgumentException("off-heap size must be at least one page (" + PAGE_SIZE + " bytes): " + maxBytes);
+		}
+		this.maxBytes = maxBytes;
+		for (int i = 0; i < CLASSES; i++)
+			free[i] = new long[16];
+	}
+
+	/**
+	 * Address of a free chunk for 'length' bytes, NO_ADDRESS if there is none and no page can be added
+	 * (the caller evicts and tries again) or if 'length' is above PAGE_SIZE
+	 */
+	long allocate(int length) {
+		if (length > PAGE_SIZE) return NO_ADDRESS;
+		int sizeClass = sizeClass(length);
+		if (freeCount[sizeClass] == 0 && !addPage(sizeClass)) return NO_ADDRESS;
+		usedBytes += chunkSize(sizeClass);
+		long address = free[sizeClass][--freeCount[sizeClass]];
+		pageUsed[page(address)]++;
+		return address;
+	}
+
+	void free(long address, int length) {
+		int sizeClass = sizeClass(length);
+		if (freeCount[sizeClass] == free[sizeClass].length) free[sizeClass] = Arrays.copyOf(free[sizeClass], freeCount[sizeClass] * 2);
+		free[sizeClass][freeCount[sizeClass]++] = address;
+		pageUsed[page(address)]--;
+		usedBytes -= chunkSize(sizeClass);
+	}
+
+	void write(long address, byte[] bytes, int length) {
+		ByteBuffer chunk = pages.get(page(address)).duplicate(); // duplicate(): the page position never changes
+		chunk.position(offset(address));
+		chunk.put(bytes, 0, length);
+	}
+
+	InputStream in(long address, int length) {
+		ByteBuffer chunk = pages.get(page(address)).duplicate();
+		chunk.position(offset(address));
+		chunk.limit(offset(address) + length);
+		return new ChunkInputStream(chunk);
+	}
+
+	// Every chunk is free again. The pages are kept (no new direct allocation) and can go to any size class
+	void clear() {
+		unassignedPages.clear();
+		for (int page = 0; page < pages.size(); page++)
+			unassignedPages.add(page);
+		Arrays.fill(freeCount, 0);
+		Arrays.fill(pageUsed, 0);
+		usedBytes = 0;
+	}
+
+	// Direct memory allocated, whether chunks hold values or not
+	long getAllocatedBytes() {
+		return (long) pages.size() * PAGE_SIZE;
+	}
+
+	long getUsedBytes() {
+		return usedBytes;
+	}
+
+	private boolean addPage(int sizeClass) {
+		int page;
+		if (!unassignedPages.isEmpty()) {
+			page = unassignedPages.remove(unassignedPages.size() - 1);
+		} else if (getAllocatedBytes() + PAGE_SIZE <= maxBytes) {
+			page = pages.size();
+			pages.add(ByteBuffer.allocateDirect(PAGE_SIZE));
+			if (page == pageClass.length) {
+				pageClass = Arrays.copyOf(pageClass, page * 2);
+				pageUsed = Arrays.copyOf(pageUsed, page * 2);
+			}
+		} else {
+			page = reclaimEmptyPage(sizeClass);
+			if (page < 0) return false; // Full: the caller evicts until a chunk or a page is free
+		}
+		pageClass[page] = sizeClass;
+		int chunk = chunkSize(sizeClass);
+		int chunks = PAGE_SIZE / chunk;
+		if (free[sizeClass].length < freeCount[sizeClass] + chunks) free[sizeClass] = Arrays.copyOf(free[sizeClass], freeCount[sizeClass] + chunks);
+		for (int i = chunks - 1; i >= 0; i--) // Lowest offset on top of the stack
+			free[sizeClass][freeCount[sizeClass]++] = (long) page << 32 | (long) i * chunk;
+		return true;
+	}
+
+	// An empty page of another size class, taken out of the free list of that class. -1 if there is none
+	private int reclaimEmptyPage(int sizeClass) {
+		for (int page = 0; page < pages.size(); page++) {
+			int owner = pageClass[page];
+			if (pageUsed[page] != 0 || owner == sizeClass) continue;
+			int kept = 0;
+			for (int i = 0; i < freeCount[owner]; i++) {
+				if (page(free[owner][i]) != page) free[owner][kept++] = free[owner][i];
+			}
+			freeCount[owner] = kept;
+			return page;
+		}
+		return -1;
+	}
+
+	private static int sizeClass(int length) {
+		int size = Math.max(length, MIN_CHUNK);
+		int power = 32 - Integer.numberOfLeadingZeros(size - 1); // Smallest power of 2 >= size
+		return power - Integer.numberOfTrailingZeros(MIN_CHUNK);
+	}
+
+	private static int chunkSize(int sizeClass) {
+		return MIN_CHUNK << sizeClass;
+	}
+
+	private static int page(long address) {
+		return (int) (address >>> 32);
+	}
+
+	private static int offset(long address) {
+		return (int) address;
+	}
+
+	@Override
+	public String toString() {
+		return "OffHeapSlab [allocated=" + getAllocatedBytes() + ", used=" + usedBytes + ", max=" + maxBytes + "]";
+	}
+
+	/**
+	 * Growable byte array the values are serialized into before they are copied to their chunk. Reused by every put
+	 */
+	static final class Buffer extends OutputStream {
+
+		private byte[] bytes = new byte[1024];
+		private int length;
+
+		@Override
+		public void write(int b) {
+			ensureCapacity(length + 1);
+			bytes[length++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			ensureCapacity(length + len);
+			System.arraycopy(b, off, bytes, length, len);
+			length += len;
+		}
+
+		byte[] bytes() {
+			return bytes;
+		}
+
+		int length() {
+			return length;
+		}
+
+		void reset() {
+			length = 0;
+			if (bytes.length > PAGE_SIZE) bytes = new byte[1024]; // Don't keep the array of an oversized value
+		}
+
+		private void ensureCapacity(int capacity) {
+			if (capacity > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+		}
+
+	}
+
+	// Reads a chunk in place
+	private static final class ChunkInputStream extends InputStream {
+
+		private final ByteBuffer chunk;
+
+		ChunkInputStream(ByteBuffer chunk) {
+			this.chunk = chunk;
+		}
+
+		@Override
+		public int read() {
+			return chunk.hasRemaining() ? chunk.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			if (!chunk.hasRemaining()) return -1;
+			int n = Math.min(len, chunk.remaining());
+			chunk.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return chunk.remaining();
+		}
+
+	}
+
+}
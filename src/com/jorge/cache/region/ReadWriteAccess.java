@@ -0,0 +1,199 @@
+package com.jorge.cache.region;
+
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.cache.spi.access.SoftLock;
+
+/**
+ * Read-write access strategy: a transaction never reads a value written by a transaction that is not committed yet
+ *
+ * 		- Loaded values are cached as Items stamped with the time they were cached. A transaction started before that time doesn't read them
+ * 		- Before an update/delete, Hibernate locks the entry (lockItem). A locked entry is never read, and loads don't overwrite it
+ * 		- After the commit the entry is unlocked: updates put the new value (afterUpdate), deletes leave the lock until a later load replaces it
+ * 		- Locks not released in LocalRegionFactory.TIMEOUT (a crashed transaction) expire
+ *
+ * Both Item and Lock are Serializable, so they can be stored off-heap. Locks are compared by id, not by instance
+ */
+abstract class ReadWriteAccess {
+
+	private static final AtomicLong nextLockId = new AtomicLong();
+
+	private final LocalTransactionalRegion region;
+	private final Comparator<Object> versionComparator;
+
+	@SuppressWarnings("unchecked")
+	ReadWriteAccess(LocalTransactionalRegion region) {
+		this.region = region;
+		this.versionComparator = region.getCacheDataDescription().isVersioned() ? region.getCacheDataDescription().getVersionComparator() : null;
+	}
+
+	public Object get(Object key, long txTimestamp) {
+		synchronized (region) {
+			Object entry = region.read(key);
+			if (entry instanceof Item && ((Item) entry).isReadable(txTimestamp)) {
+				region.hit();
+				return ((Item) entry).value;
+			}
+			region.miss();
+			return null;
+		}
+	}
+
+	public boolean putFromLoad(Object key, Object value, long txTimestamp, Object version) {
+		return putFromLoad(key, value, txTimestamp, version, region.getFactory().isMinimalPutsEnabledByDefault());
+	}
+
+	public boolean putFromLoad(Object key, Object value, long txTimestamp, Object version, boolean minimalPutOverride) {
+		synchronized (region) {
+			Object entry = region.read(key);
+			boolean writeable;
+			if (entry == null)
+				writeable = true;
+			else if (entry instanceof Item)
+				writeable = !minimalPutOverride && ((Item) entry).isWriteable(txTimestamp, version, versionComparator);
+			else
+				writeable = ((Lock) entry).isWriteable(txTimestamp, version, versionComparator);
+
+			if (writeable) {
+				region.write(key, new Item(value, version, region.nextTimestamp()));
+				region.put();
+			}
+			return writeable;
+		}
+	}
+
+	public SoftLock lockItem(Object key, Object version) {
+		synchronized (region) {
+			long timeout = region.nextTimestamp() + region.getTimeout();
+			Object entry = region.read(key);
+			Lock lock;
+			if (entry instanceof Lock) {
+				lock = (Lock) entry;
+				lock.lock(timeout); // Another transaction holds it too
+			} else {
+				lock = new Lock(nextLockId.incrementAndGet(), timeout, version);
+			}
+			region.write(key, lock);
+			return lock;
+		}
+	}
+
+	public void unlockItem(Object key, SoftLock softLock) {
+		synchronized (region) {
+			Object entry = region.read(key);
+			if (entry instanceof Lock && ((Lock) entry).isLockedBy(softLock)) {
+				Lock lock = (Lock) entry;
+				lock.unlock(region.nextTimestamp());
+				region.write(key, lock);
+			} else {
+				lockExpired(key);
+			}
+		}
+	}
+
+	public SoftLock lockRegion() {
+		return null;
+	}
+
+	public void unlockRegion(SoftLock lock) {
+		region.removeAll(); // After a bulk update/delete (em.createQuery("update Guide ...")) we don't know which entries changed
+	}
+
+	public void remove(Object key) {
+		// Nothing to do: the entry is locked until the transaction ends
+	}
+
+	public void removeAll() {
+		// Nothing to do: the region is cleared by unlockRegion
+	}
+
+	public void evict(Object key) {
+		region.remove(key);
+	}
+
+	public void evictAll() {
+		region.removeAll();
+	}
+
+	/**
+	 * Our lock was lost (timeout or LRU eviction): nobody can cache this key until the lock timeout,
+	 * because we don't know if our transaction's value or an older one would be cached
+	 */
+	void lockExpired(Object key) {
+		long now = region.nextTimestamp();
+		Lock lock = new Lock(nextLockId.incrementAndGet(), now + region.getTimeout(), null);
+		lock.unlock(now);
+		region.write(key, lock);
+	}
+
+	static class Item implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final Object value;
+		private final Object version;
+		private final long timestamp;
+
+		Item(Object value, Object version, long timestamp) {
+			this.value = value;
+			this.version = version;
+			this.timestamp = timestamp;
+		}
+
+		boolean isReadable(long txTimestamp) {
+			return txTimestamp > timestamp;
+		}
+
+		boolean isWriteable(long txTimestamp, Object newVersion, Comparator<Object> versionComparator) {
+			return version == null || versionComparator == null ? txTimestamp > timestamp : versionComparator.compare(version, newVersion) < 0;
+		}
+
+	}
+
+	static class Lock implements SoftLock, Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long id;
+		private final Object version;
+		private long timeout;
+		private long unlockTimestamp = -1;
+		private int holders = 1;
+		private boolean concurrent;
+
+		Lock(long id, long timeout, Object version) {
+			this.id = id;
+			this.timeout = timeout;
+			this.version = version;
+		}
+
+		void lock(long timeout) {
+			concurrent = true;
+			holders++;
+			this.timeout = timeout;
+		}
+
+		void unlock(long timestamp) {
+			if (--holders == 0)
+				unlockTimestamp = timestamp;
+		}
+
+		boolean isLockedBy(SoftLock softLock) {
+			return softLock instanceof Lock && ((Lock) softLock).id == id;
+		}
+
+		boolean wasLockedConcurrently() {
+			return concurrent;
+		}
+
+		boolean isWriteable(long txTimestamp, Object newVersion, Comparator<Object> versionComparator) {
+			if (txTimestamp > timeout) return true; // Expired lock
+			if (holders > 0) return false;
+			return version == null || versionComparator == null ? txTimestamp > unlockTimestamp : versionComparator.compare(version, newVersion) < 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.jorge.changes;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One committed change of an entity, as published by ChangeFeed
+ *
+ * 		INSERT	Every attribute with a value
+ * 		UPDATE	Only the attributes that changed, with their new values
+ * 		DELETE	Only the id
+ * 		BULK	A bulk JPQL update/delete (BulkOperations.java) wrote rows of this entity: neither ids nor values are known,
+ * 				whatever depends on this entity must be reloaded
+ *
+ * Associations carry the id of the associated entity (Student.guide => the guide id), one-to-many collections are not changes
+ * of their owner (Guide.students is written by the guide attribute of every Student)
+ */
+public class Change {
+
+	public enum Type { INSERT, UPDATE, DELETE, BULK }
+
+	private final long sequence;
+	private final Type type;
+	private final String entityName;
+	private final Serializable id;
+	private final String[] attributes;
+	private final Object[] values;
+
+	Change(long sequence, Type type, String entityName, Serializable id, String[] attributes, Object[] values) {
+		this.sequence = sequence;
+		this.type = type;
+		this.entityName = entityName;
+		this.id = id;
+		this.attributes = attributes;
+		this.values = values;
+	}
+
+	// Same change, numbered by the feed
+	Change withSequence(long sequence) {
+		return new Change(sequence, type, entityName, id, attributes, values);
+	}
+
+	// Position in the feed: increases by one with every published change
+	public long getSequence() {
+		return sequence;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	// Entity class name: "com.jorge.entity.Guide"
+	public String getEntityName() {
+		return entityName;
+	}
+
+	public boolean isOf(Class<?> entityClass) {
+		return entityName.equals(entityClass.getName());
+	}
+
+	// null for BULK
+	public Serializable getId() {
+		return id;
+	}
+
+	public List<String> getAttributes() {
+		return Collections.unmodifiableList(Arrays.asList(attributes));
+	}
+
+	public boolean isChanged(String attribute) {
+		for (String changed : attributes) {
+			if (changed.equals(attribute)) return true;
+		}
+		return false;
+	}
+
+	// New value of a changed attribute, null if it didn't change (see isChanged()) or its new value is null
+	public Object getValue(String attribute) {
+		for (int i = 0; i < attributes.length; i++) {
+			if (attributes[i].equals(attribute)) return values[i];
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder change = new StringBuilder("Change [sequence=").append(sequence).append(", type=").append(type)
+				.append(", entity=").append(entityName.substring(entityName.lastIndexOf('.') + 1)).append(", id=").append(id);
+		for (int i = 0; i < attributes.length; i++)
+			change.append(", ").append(attributes[i]).append('=').append(values[i]);
+		return change.append(']').toString();
+	}
+
+}
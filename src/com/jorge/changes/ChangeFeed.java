@@ -0,0 +1,367 @@
+package com.jorge.changes;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Ordered feed of the committed inserts, updates and deletes of the entities of a persistence unit
+ *
+ * ChangeFeedIntegrator listens to the post insert/update/delete events of every flush and keeps the changes of each transaction
+ * aside. When the transaction commits they are published together, in flush order; when it rolls back they are dropped.
+ * Read models (caches, GuideSnapshot.java...) subscribe and apply the deltas instead of reloading whole tables
+ *
+ * 		ChangeFeed.get(emf).subscribe(new ChangeListener() {
+ * 			public void onChanges(List<Change> changes) { ... }			Up to 'batchSize' changes per call
+ * 			public void onOverflow() { ... reload everything ... }
+ * 		}, 100);
+ *
+ * 		ChangeFeed.get(emf).subscribeLoaded(listener, 100);				onOverflow() loads the listener first, on the delivery thread
+ *
+ * persistence.xml:
+ * 		<property name="hibernate.changefeed.enabled" value="true" />				(default false)
+ * 		<property name="hibernate.changefeed.buffer_size" value="10000" />			(changes waiting per subscription, default 10000)
+ * 		<property name="hibernate.changefeed.publish_timeout" value="1000" />		(ms, default 1000)
+ *
+ * Backpressure: every subscription has a bounded buffer and its own delivery thread. When the buffer is full, the committing
+ * thread waits up to 'publish_timeout' for the listener to catch up, before it takes the publish lock: a slow listener delays
+ * the commits that find its buffer full, not every commit. Changes that still don't fit once the lock is held (nobody waits
+ * under it) overflow the subscription: its changes are dropped until its listener has been told with onOverflow(). Other
+ * subscriptions are not affected. If onOverflow() fails, the subscription stays overflowed and onOverflow() is called again
+ * RELOAD_RETRY_MILLIS later, until a reload succeeds
+ *
+ * Order: changes are numbered (Change.getSequence()) in the order their transactions finished committing, which for two
+ * transactions writing the same row is the order of their commits only if the second one waited for the row lock of the first.
+ * Listeners that need the exact database state of a row should reload it by id (GuideSnapshot.refresh())
+ */
+public class ChangeFeed {
+
+	public static final String PREFIX = "hibernate.changefeed.";
+
+	private static final Logger logger = Logger.getLogger(ChangeFeed.class.getName());
+	private static final Map<SessionFactory, ChangeFeed> feeds = new ConcurrentHashMap<SessionFactory, ChangeFeed>(); // Registered by ChangeFeedIntegrator
+	private static final AtomicInteger threads = new AtomicInteger();
+	private static final long RELOAD_RETRY_MILLIS = 1000; // Wait before onOverflow() is called again when it has failed
+
+	private final int bufferSize;
+	private final long publishTimeoutNanos;
+	private final ReentrantLock publishLock = new ReentrantLock(); // Not synchronized: committing virtual threads can wait here without pinning
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	// Changes of open transactions. Weak keys: a session closed without finishing its transaction is not kept
+	private final Map<SessionImplementor, List<Change>> pending = Collections.synchronizedMap(new WeakHashMap<SessionImplementor, List<Change>>());
+	private long sequence; // Guarded by publishLock
+	private final AtomicLong published = new AtomicLong();
+
+	ChangeFeed(int bufferSize, long publishTimeoutMillis) {
+		this.bufferSize = bufferSize;
+		this.publishTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(publishTimeoutMillis);
+	}
+
+	/**
+	 * Feed of a persistence unit, null if hibernate.changefeed.enabled is not true
+	 */
+	public static ChangeFeed get(EntityManagerFactory emf) {
+		return feeds.get(emf.unwrap(SessionFactoryImplementor.class));
+	}
+
+	static void register(SessionFactory factory, ChangeFeed feed) {
+		feeds.put(factory, feed);
+	}
+
+	static ChangeFeed unregister(SessionFactory factory) {
+		return feeds.remove(factory);
+	}
+
+	/**
+	 * Bulk JPQL statements don't fire entity events: BulkOperations.java reports the tables it wrote, and every entity
+	 * stored in them gets a BULK change when the transaction commits. Does nothing if the feed is disabled
+	 */
+	public static void bulkWritten(EntityManager em, Collection<String> tables) {
+		EventSource session = (EventSource) em.unwrap(Session.class); // The session implementation is also the EventSource
+		ChangeFeed feed = feeds.get(session.getFactory());
+		if (feed == null) return;
+		for (EntityPersister persister : session.getFactory().getEntityPersisters().values()) {
+			for (Serializable space : persister.getQuerySpaces()) {
+				if (tables.contains(space.toString())) {
+					feed.add(session, new Change(0, Change.Type.BULK, persister.getEntityName(), null, new String[0], new Object[0]));
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rows written with JDBC (SalaryDeltas.java) don't fire entity events either, but their new values are known: 'entityClass' 'id'
+	 * gets an UPDATE change with these attributes when the transaction commits. Does nothing if the feed is disabled
+	 */
+	public static void updated(EntityManager em, Class<?> entityClass, Serializable id, String[] attributes, Object[] values) {
+		EventSource session = (EventSource) em.unwrap(Session.class);
+		ChangeFeed feed = feeds.get(session.getFactory());
+		if (feed == null) return;
+		feed.add(session, new Change(0, Change.Type.UPDATE, entityClass.getName(), id, attributes.clone(), values.clone()));
+	}
+
+	// true if the changes of 'em' are published
+	public static boolean isEnabled(EntityManager em) {
+		return feeds.containsKey(((SessionImplementor) em.unwrap(Session.class)).getFactory());
+	}
+
+	/**
+	 * Changes published from now on are delivered to 'listener', at most 'batchSize' at a time
+	 */
+	public Subscription subscribe(ChangeListener listener, int batchSize) {
+		return subscribe(listener, batchSize, false);
+	}
+
+	/**
+	 * For listeners that keep a copy of the tables (GuideSnapshotUpdater.java, NameIndexUpdater.java): the subscription starts
+	 * overflowed, so the first call to 'listener' is onOverflow(), on the delivery thread, and it loads everything. Changes
+	 * committed during that load wait in the buffer and are applied after it, never under it (a load that swaps in new
+	 * arrays would throw them away). Returns when the load is done; if it fails, the subscription is closed and its exception thrown
+	 */
+	public Subscription subscribeLoaded(ChangeListener listener, int batchSize) {
+		Subscription subscription = subscribe(listener, batchSize, true);
+		try {
+			subscription.loaded.await();
+		} catch (InterruptedException e) {
+			subscription.close();
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while " + listener + " was loading", e);
+		}
+		if (subscription.loadFailure != null) {
+			subscription.close();
+			throw subscription.loadFailure;
+		}
+		return subscription;
+	}
+
+	// Changes published since the factory was created
+	public long getPublished() {
+		return published.get();
+	}
+
+	public int getSubscriptions() {
+		return subscriptions.size();
+	}
+
+	private Subscription subscribe(ChangeListener listener, int batchSize, boolean load) {
+		if (batchSize <= 0) throw new IllegalArgumentException("batchSize must be > 0: " + batchSize);
+		Subscription subscription = new Subscription(listener, batchSize, load);
+		subscriptions.add(subscription);
+		subscription.start();
+		return subscription;
+	}
+
+	// Called from the event listeners during the flush: published or dropped when the transaction finishes
+	void add(EventSource session, Change change) {
+		List<Change> changes = pending.get(session);
+		if (changes == null) {
+			changes = new ArrayList<Change>();
+			pending.put(session, changes); // A session is used by one thread at a time
+			final List<Change> transactionChanges = changes;
+			session.getActionQueue().registerProcess(new AfterTransactionCompletionProcess() {
+				@Override
+				public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+					pending.remove(session);
+					if (success) publish(transactionChanges);
+				}
+			});
+		}
+		changes.add(change);
+	}
+
+	void close() {
+		for (Subscription subscription : subscriptions)
+			subscription.close();
+		pending.clear();
+	}
+
+	private void publish(List<Change> changes) {
+		long deadline = System.nanoTime() + publishTimeoutNanos;
+		try {
+			for (Subscription subscription : subscriptions)
+				subscription.awaitRoom(changes.size(), deadline); // Outside publishLock: other commits go on meanwhile
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt(); // Published anyway, full subscriptions overflow
+		}
+		publishLock.lock(); // Every subscription sees the same order
+		try {
+			for (Change change : changes) {
+				Change numbered = change.withSequence(++sequence);
+				for (Subscription subscription : subscriptions)
+					subscription.offer(numbered);
+			}
+			published.addAndGet(changes.size());
+		} finally {
+			publishLock.unlock();
+		}
+	}
+
+	/**
+	 * One listener of the feed, with its buffer and delivery thread
+	 */
+	public class Subscription {
+
+		private final ChangeListener listener;
+		private final int batchSize;
+		private final BlockingQueue<Change> buffer = new ArrayBlockingQueue<Change>(bufferSize);
+		private final ReentrantLock roomLock = new ReentrantLock();
+		private final Condition room = roomLock.newCondition(); // Signalled by the delivery thread when it empties the buffer
+		private final Thread delivery;
+		private volatile boolean overflowed;
+		private volatile boolean closed;
+		private final AtomicLong delivered = new AtomicLong();
+		private final AtomicLong dropped = new AtomicLong();
+		private final CountDownLatch loaded; // subscribeLoaded(): the first onOverflow() has returned
+		private volatile RuntimeException loadFailure;
+
+		Subscription(ChangeListener listener, int batchSize, boolean load) {
+			this.listener = listener;
+			this.batchSize = batchSize;
+			this.overflowed = load; // Changes published before the delivery thread starts the load are in the load
+			this.loaded = new CountDownLatch(load ? 1 : 0);
+			this.delivery = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					deliver();
+				}
+			}, "change-feed-" + threads.incrementAndGet());
+			delivery.setDaemon(true);
+		}
+
+		public long getDelivered() {
+			return delivered.get();
+		}
+
+		public long getDropped() {
+			return dropped.get();
+		}
+
+		// Changes waiting to be delivered
+		public int getBacklog() {
+			return buffer.size();
+		}
+
+		// No more changes are delivered. The ones already in the buffer are dropped
+		public void close() {
+			closed = true;
+			subscriptions.remove(this);
+			delivery.interrupt();
+		}
+
+		void start() {
+			delivery.start();
+		}
+
+		// Publishing thread, before publishLock: waits until 'changes' fit in the buffer, or the deadline
+		void awaitRoom(int changes, long deadline) throws InterruptedException {
+			int needed = Math.min(changes, bufferSize);
+			if (overflowed || buffer.remainingCapacity() >= needed) return;
+			roomLock.lock();
+			try {
+				long nanos;
+				while (!overflowed && !closed && buffer.remainingCapacity() < needed && (nanos = deadline - System.nanoTime()) > 0)
+					room.awaitNanos(nanos);
+			} finally {
+				roomLock.unlock();
+			}
+		}
+
+		// Publishing thread, publishLock held: never waits
+		void offer(Change change) {
+			if (overflowed) {
+				dropped.incrementAndGet();
+				return;
+			}
+			if (buffer.offer(change)) return;
+			logger.warn("change feed listener " + listener + " is too slow: " + bufferSize + " changes waiting for " + publishTimeoutNanos / 1000000
+					+ " ms, dropping its changes until it reloads");
+			overflowed = true;
+			dropped.incrementAndGet();
+		}
+
+		// Delivery thread, after taking changes out of the buffer
+		private void signalRoom() {
+			roomLock.lock();
+			try {
+				room.signalAll();
+			} finally {
+				roomLock.unlock();
+			}
+		}
+
+		private void deliver() {
+			List<Change> batch = new ArrayList<Change>(batchSize);
+			while (!closed) {
+				try {
+					if (overflowed) {
+						reload();
+						continue;
+					}
+					Change first = buffer.poll(100, TimeUnit.MILLISECONDS); // Wakes up now and then to see 'overflowed'
+					if (first == null) continue;
+					batch.add(first);
+					buffer.drainTo(batch, batchSize - 1);
+					signalRoom();
+					listener.onChanges(batch);
+					delivered.addAndGet(batch.size());
+				} catch (InterruptedException e) {
+					return; // close()
+				} catch (RuntimeException e) {
+					logger.error("change feed listener " + listener + " failed, " + batch.size() + " changes lost", e);
+				} finally {
+					batch.clear();
+				}
+			}
+		}
+
+		// Delivery thread, overflowed
+		private void reload() throws InterruptedException {
+			buffer.clear();
+			signalRoom();
+			overflowed = false; // Before onOverflow(): what is committed after this point is delivered again, and it is in the reload too
+			try {
+				listener.onOverflow();
+			} catch (RuntimeException e) {
+				overflowed = true; // Still stale: the changes dropped so far are not in it, so it is reloaded again
+				if (loaded.getCount() > 0) { // subscribeLoaded() closes the subscription and throws 'e'
+					loadFailure = e;
+					closed = true;
+					return;
+				}
+				logger.error("change feed listener " + listener + " failed to reload, retrying in " + RELOAD_RETRY_MILLIS + " ms", e);
+				Thread.sleep(RELOAD_RETRY_MILLIS);
+			} finally {
+				loaded.countDown();
+			}
+		}
+
+	}
+
+}
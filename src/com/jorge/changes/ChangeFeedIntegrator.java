@@ -0,0 +1,139 @@
+package com.jorge.changes;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.metamodel.source.MetadataImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+
+/**
+ * Creates the ChangeFeed of every session factory that has it enabled (hibernate.changefeed.enabled=true) and feeds it
+ * from the post insert, update and delete events
+ *
+ * Hibernate finds it through META-INF/services/org.hibernate.integrator.spi.Integrator, like MetricsIntegrator.java.
+ * The listeners run inside the flush, after the SQL statement: they only copy the values, nothing is published before the commit
+ */
+public class ChangeFeedIntegrator implements Integrator {
+
+	@Override
+	public void integrate(Configuration configuration, SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+		Map<?, ?> settings = configuration.getProperties();
+		if (!Boolean.parseBoolean(setting(settings, "enabled", "false"))) return;
+
+		ChangeFeed feed = new ChangeFeed(Integer.parseInt(setting(settings, "buffer_size", "10000")),
+				Long.parseLong(setting(settings, "publish_timeout", "1000")));
+		ChangeFeed.register(sessionFactory, feed);
+
+		ChangeEventListener listener = new ChangeEventListener(feed);
+		EventListenerRegistry listeners = serviceRegistry.getService(EventListenerRegistry.class);
+		listeners.appendListeners(EventType.POST_INSERT, listener);
+		listeners.appendListeners(EventType.POST_UPDATE, listener);
+		listeners.appendListeners(EventType.POST_DELETE, listener);
+	}
+
+	@Override
+	public void integrate(MetadataImplementor metadata, SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+		// New metamodel, not used by Hibernate 4.3
+	}
+
+	@Override
+	public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+		ChangeFeed feed = ChangeFeed.unregister(sessionFactory);
+		if (feed != null) feed.close();
+	}
+
+	private static String setting(Map<?, ?> settings, String name, String defaultValue) {
+		Object value = settings.get(ChangeFeed.PREFIX + name);
+		return value == null ? defaultValue : value.toString().trim();
+	}
+
+	private static class ChangeEventListener implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient ChangeFeed feed;
+
+		ChangeEventListener(ChangeFeed feed) {
+			this.feed = feed;
+		}
+
+		@Override
+		public void onPostInsert(PostInsertEvent event) {
+			EntityPersister persister = event.getPersister();
+			Object[] state = event.getState();
+			List<Integer> properties = new ArrayList<Integer>();
+			for (int i = 0; i < state.length; i++) {
+				if (state[i] != null && !persister.getPropertyTypes()[i].isCollectionType()) properties.add(i);
+			}
+			add(event.getSession(), Change.Type.INSERT, persister, event.getId(), properties, state);
+		}
+
+		@Override
+		public void onPostUpdate(PostUpdateEvent event) {
+			EntityPersister persister = event.getPersister();
+			int[] dirty = event.getDirtyProperties(); // null when the old state is unknown (merge of a detached entity): every attribute
+			List<Integer> properties = new ArrayList<Integer>();
+			for (int i = 0; i < persister.getPropertyNames().length; i++) {
+				if (!persister.getPropertyTypes()[i].isCollectionType() && (dirty == null || contains(dirty, i))) properties.add(i);
+			}
+			if (properties.isEmpty()) return; // Only a collection changed: not a column of this table
+			add(event.getSession(), Change.Type.UPDATE, persister, event.getId(), properties, event.getState());
+		}
+
+		@Override
+		public void onPostDelete(PostDeleteEvent event) {
+			add(event.getSession(), Change.Type.DELETE, event.getPersister(), event.getId(), new ArrayList<Integer>(), null);
+		}
+
+		@Override
+		public boolean requiresPostCommitHanding(EntityPersister persister) {
+			return false; // ChangeFeed waits for the commit itself, with every change of the transaction
+		}
+
+		private void add(EventSource session, Change.Type type, EntityPersister persister, Serializable id, List<Integer> properties, Object[] state) {
+			String[] attributes = new String[properties.size()];
+			Object[] values = new Object[properties.size()];
+			for (int i = 0; i < attributes.length; i++) {
+				int property = properties.get(i);
+				attributes[i] = persister.getPropertyNames()[property];
+				values[i] = value(session, persister.getPropertyTypes()[property], state[property]);
+			}
+			feed.add(session, new Change(0, type, persister.getEntityName(), id, attributes, values));
+		}
+
+		// Associated entities => their id, so the change doesn't keep entities of a closed persistence context
+		private static Object value(SessionImplementor session, Type type, Object value) {
+			if (value == null || !(type instanceof EntityType)) return value;
+			if (value instanceof HibernateProxy) return ((HibernateProxy) value).getHibernateLazyInitializer().getIdentifier();
+			return session.getFactory().getEntityPersister(((EntityType) type).getAssociatedEntityName()).getIdentifier(value, session);
+		}
+
+		private static boolean contains(int[] values, int value) {
+			for (int v : values) {
+				if (v == value) return true;
+			}
+			return false;
+		}
+
+	}
+
+}
@@ -0,0 +1,18 @@
+package com.jorge.changes;
+
+import java.util.List;
+
+/**
+ * Receives the changes of a ChangeFeed subscription, on the delivery thread of the subscription
+ *
+ * Changes come in feed order, in batches of at most the batch size of the subscription. A slow listener slows down the
+ * transactions that publish (backpressure), up to the publish timeout of the feed. After that its changes are dropped
+ * and onOverflow() is called: the listener missed changes and must reload everything it keeps
+ */
+public interface ChangeListener {
+
+	void onChanges(List<Change> changes);
+
+	void onOverflow();
+
+}
@@ -1,6 +1,7 @@
 package com.jorge.client;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -10,9 +11,24 @@ import javax.persistence.Query;
 
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Logger;
+import org.hibernate.SessionFactory;
 
+import com.jorge.cache.QueryResultCache;
+import com.jorge.cache.region.LocalRegionFactory;
+import com.jorge.dto.GuideSummary;
 import com.jorge.entity.Guide;
 import com.jorge.entity.Student;
+import com.jorge.metrics.QueryMetrics;
+import com.jorge.metrics.StatementStatistics;
+import com.jorge.pool.PooledConnectionProvider;
+import com.jorge.query.FetchGraphs;
+import com.jorge.query.ParallelScan;
+import com.jorge.query.QueryRegistry;
+import com.jorge.query.RowHandler;
+import com.jorge.query.StreamingQuery;
+import com.jorge.report.Report;
+import com.jorge.report.ReportTable;
+import com.jorge.search.NameIndex;
 
 /**
  * Querying entities
@@ -47,20 +63,24 @@ public class Main {
 
 		Logger  logger = Logger.getLogger(Main.class.getName());
 		logger.debug("log4j configured correctly and logger set");
+		boolean debug = logger.isDebugEnabled(); // Checked once. When DEBUG is off, every "if (debug)" below is a test of a local variable
 
 		// How make the same things with JPA and Hibernate (commented)
-		logger.debug("creating entity manager factory");
+		if (debug) logger.debug("creating entity manager factory");
 		EntityManagerFactory emf = Persistence.createEntityManagerFactory("helloworld"); // => SessionFactory sf = HibernateUtil.getSessionFactory(); HibernateUtil is a class created by us.
 																						 // Persistence is imported from javax.persistence.Persistence package, it is not a class created by us
 																						 // "helloworld" persistence unit name is the same name than "<persistence-unit name="helloworld"...>" element in persistence.xml file 
-		logger.debug("creating entity manager");
+		if (debug) logger.debug("compiling queries");
+		QueryRegistry queries = new QueryRegistry(emf); // Every query of orm.xml is validated and translated to SQL once, here. Below they are used by name with parameters
+		
+		if (debug) logger.debug("creating entity manager");
 		EntityManager em = emf.createEntityManager(); // => Session session = sf.openSession();
 		
-		logger.debug("getting transaction");
+		if (debug) logger.debug("getting transaction");
 		EntityTransaction txn = em.getTransaction(); // => Transaction txn = session.getTransaction();
 		
 		try{
-			logger.debug("beginning transaction");
+			if (debug) logger.debug("beginning transaction");
 			txn.begin();
 			
 			
@@ -68,8 +88,8 @@ public class Main {
 			 * Querying
 			 */
 			
-			logger.debug("Selecting all fields from Guide");
-			Query query = em.createQuery("select guide from Guide as guide"); // JPQL query converted in SQL at Runtime. ...from Guide as guide == ...from Guide guide
+			if (debug) logger.debug("Selecting all fields from Guide");
+			Query query = queries.createQuery(em, "Guide.findAll"); // JPQL query of orm.xml, converted in SQL at startup. ...from Guide as guide == ...from Guide guide
 																			  // We are selecting all fields from Guide
 																			  // HQL: select guide from com.jorge.entity.Guide as guide
 																			  // SQL: select guide0_.id as id1_1_, guide0_.name as name2_1_, guide0_.salary as salary3_1_, guide0_.staff_id as staff_id4_1_ from guide guide0_
@@ -80,8 +100,8 @@ public class Main {
 			
 			// ***********************************
 			
-			logger.debug("Selecting name field from Guide");
-			query = em.createQuery("select guide.name from Guide as guide"); // JPQL query converted in SQL at Runtime
+			if (debug) logger.debug("Selecting name field from Guide");
+			query = queries.createQuery(em, "Guide.findNames"); // JPQL query of orm.xml, converted in SQL at startup
 																			 // We are selecting name field from Guide
 																			 // HQL: select guide.name from com.jorge.entity.Guide as guide
 																			 // SQL: select guide0_.name as col_0_0_ from guide guide0_
@@ -92,15 +112,50 @@ public class Main {
 			
 			
 			
+			/*******************************************
+			 * Streaming queries => one row at a time, for tables too big for getResultList()
+			 */
+			
+			if (debug) logger.debug("Streaming all fields from Guide");
+			long streamedGuides = new StreamingQuery<Guide>(em, queries.getQueryString("Guide.findAll")) // Same JPQL than above, but rows are read through a forward-only cursor
+					.setFetchSize(500) // Rows fetched from MySQL per round trip
+					.setClearInterval(1000) // em.clear() every 1000 rows, so handled guides can be garbage collected
+					.stream(new RowHandler<Guide>() {
+						@Override
+						public void handle(Guide guide) {
+							System.out.println("STREAMED ROW: " + guide);
+						}
+					});
+			
+			System.out.println("STREAMED GUIDES: " + streamedGuides);
+			
+			// ***********************************
+			
+			if (debug) logger.debug("Parallel scan of Student joined to Guide");
+			long scannedStudents = new ParallelScan<Student>(emf, Student.class, queries.getQueryString("Student.findWithGuide"), "s") // 's' is the alias of Student in orm.xml
+					.setParallelism(4) // 4 threads, 4 entity managers, 4 connections of the pool
+					.setPartitionSize(10000) // Student ids per select: ... where s.id >= :scanFrom and s.id < :scanTo
+					.stream(new RowHandler<Student>() {
+						@Override
+						public void handle(Student student) { // Called on this thread, the selects run on the other ones
+							System.out.println("SCANNED ROW: " + student.getEnrollmentId());
+						}
+					});
+			
+			System.out.println("SCANNED STUDENTS: " + scannedStudents);
+			
+			
+			
 			/*******************************************
 			 * Filtering queries
 			 */
 			
-			logger.debug("Selecting all fields from Guide where salary is 1200");
-			query = em.createQuery("select guide from Guide guide where guide.salary = 1200"); // JPQL query converted in SQL at Runtime
-																			 				   // We are selecting all field from Guide where salary is 1200
-																							   // HQL: select guide from com.jorge.entity.Guide guide where guide.salary = 1200
-																					           // SQL: select guide0_.id as id1_1_, guide0_.name as name2_1_, guide0_.salary as salary3_1_, guide0_.staff_id as staff_id4_1_ from guide guide0_ where guide0_.salary=1200	
+			if (debug) logger.debug("Selecting all fields from Guide where salary is 1200");
+			query = queries.createQuery(em, "Guide.findBySalary"); // JPQL query of orm.xml, converted in SQL at startup
+																	// We are selecting all field from Guide where salary is 1200
+																	// HQL: select g from com.jorge.entity.Guide g where g.salary = :salary
+																	// SQL: select guide0_.id as id1_1_, guide0_.name as name2_1_, guide0_.salary as salary3_1_, guide0_.staff_id as staff_id4_1_ from guide guide0_ where guide0_.salary=?
+			query.setParameter("salary", 1200); // A literal in the query (salary = 1200) would be a different query, and a different plan, for every salary
 			guides = query.getResultList();
 			
 			for(Guide guide : guides)
@@ -112,8 +167,8 @@ public class Main {
 			 * Reporting queries => setting results in objects
 			 */
 			
-			logger.debug("Setting results in objects");
-			query = em.createQuery("select guide.name, guide.salary from Guide guide"); // JPQL query converted in SQL at Runtime
+			if (debug) logger.debug("Setting results in objects");
+			query = queries.createQuery(em, "Guide.findNamesAndSalaries"); // JPQL query of orm.xml, converted in SQL at startup
 																			 			// We are selecting name and salary fields from Guide
 																						// HQL: select guide.name, guide.salary from com.jorge.entity.Guide guide
 																						// SQL: select guide0_.name as col_0_0_, guide0_.salary as col_1_0_ from guide guide0_
@@ -123,6 +178,20 @@ public class Main {
 				System.out.println("Object[] {objects[0]: " + objects[0] + ", objects[1]: " + objects[1] + "}"); // Object[] {objects[0]: Homer Simpson, objects[1]: 1200}
 																												 // Object[] {objects[0]: Marge Simpson, objects[1]: 1600}
 			
+			// ***********************************
+			
+			if (debug) logger.debug("Setting results in DTOs");
+			List<GuideSummary> summaries = queries.createQuery(em, "GuideSummary.findAll", GuideSummary.class) // Constructor expression (orm.xml): typed results instead of Object[]
+												  .getResultList(); // Same SQL than above. The objects are not entities: nothing is registered in the persistence context
+			
+			for(GuideSummary summary : summaries)
+				System.out.println("DTO: " + summary); // DTO: GuideSummary [name=Homer Simpson, salary=1200]
+			
+			summaries = queries.createQuery(em, "GuideSummary.findAllNative").getResultList(); // Native SQL columns mapped to the same DTO (@SqlResultSetMapping in Guide.java)
+			
+			for(GuideSummary summary : summaries)
+				System.out.println("DTO FROM NATIVE SQL: " + summary);
+			
 			
 			
 			/*******************************************
@@ -131,29 +200,20 @@ public class Main {
 			
 			String name = "Homer Simpson"; // Simulating dynamic parameter. This name must exist in DB
 			
-			logger.debug("Selecting row from Guide where name is set dynamically");
-			query = em.createQuery("select guide from Guide guide where guide.name = '" + name + "'"); // JPQL query converted in SQL at Runtime
-																			 				           // We are selecting row from Guide where name is set dynamically
-																									   // HQL: select guide from com.jorge.entity.Guide guide where guide.name = 'Homer Simpson'
-																									   // SQL: select guide0_.id as id1_1_, guide0_.name as name2_1_, guide0_.salary as salary3_1_, guide0_.staff_id as staff_id4_1_ from guide guide0_ where guide0_.name='Homer Simpson'
+			if (debug) logger.debug("Selecting row from Guide where name is set dynamically");
+			query = queries.createQuery(em, "findByGuide"); // JPQL query of orm.xml, converted in SQL at startup
+															// We are selecting row from Guide where name is set dynamically
+															// HQL: select g from com.jorge.entity.Guide g where g.name = :name
+															// SQL: select guide0_.id as id1_1_, guide0_.name as name2_1_, guide0_.salary as salary3_1_, guide0_.staff_id as staff_id4_1_ from guide guide0_ where guide0_.name=?
+															// Never concatenate the value into the query ("... where guide.name = '" + name + "'"): every name would be parsed as a new query,
+															// the plan cache would fill up with them, and a name like "x' or '1'='1" would change the query (SQL injection)
+			query.setParameter("name", name);
 			Guide guide = (Guide) query.getSingleResult();
 			
-			System.out.println("SINGLE RESULT: " + guide);
-			
-			// ***********************************
-			
-			logger.debug("Selecting row from Guide where name is set dynamically");
-			query = em.createQuery("select guide from Guide guide where guide.name = :name"); // JPQL query converted in SQL at Runtime
-																			 				  // We are selecting row from Guide where name is set dynamically
-																							  // HQL: select guide from com.jorge.entity.Guide guide where guide.name = :name
-																							  // SQL: select guide0_.id as id1_1_, guide0_.name as name2_1_, guide0_.salary as salary3_1_, guide0_.staff_id as staff_id4_1_ from guide guide0_ where guide0_.name=?
-			query.setParameter("name", "Homer Simpson"); // Simulating dynamic parameter. This name must exist in DB
-			guide = (Guide) query.getSingleResult();
-			
 			// Chaining methods
-			//guide = (Guide) em.createQuery("select guide from Guide guide where guide.name = :name").setParameter("name", "Homer Simpson").getSingleResult();
+			//guide = queries.createQuery(em, "findByGuide", Guide.class).setParameter("name", "Homer Simpson").getSingleResult();
 			
-			System.out.println("SINGLE RESULT AGAIN: " + guide);
+			System.out.println("SINGLE RESULT: " + guide);
 			
 			
 			
@@ -161,28 +221,35 @@ public class Main {
 			* Wildcards
 			*/
 			
-			logger.debug("Selecting row from Guide using wildcards");
-			query = em.createQuery("select guide from Guide guide where guide.name like 'M%'"); // JPQL query converted in SQL at Runtime
-				           																	    // We are selecting rows whose name starts with M
-																								// like: checks if a specified string matches with a specified pattern
-																								// %: wildcard (a substitute for zero or more characters)
-																								// HQL: select guide from com.jorge.entity.Guide guide where guide.name like 'M%'
-																								// SQL: select guide0_.id as id1_1_, guide0_.name as name2_1_, guide0_.salary as salary3_1_, guide0_.staff_id as staff_id4_1_ from guide guide0_ where guide0_.name like 'M%'
+			if (debug) logger.debug("Selecting row from Guide using wildcards");
+			query = queries.createQuery(em, "Guide.findByNameLike"); // JPQL query of orm.xml, converted in SQL at startup
+																	  // We are selecting rows whose name starts with M
+																	  // like: checks if a specified string matches with a specified pattern
+																	  // %: wildcard (a substitute for zero or more characters)
+																	  // HQL: select g from com.jorge.entity.Guide g where g.name like :pattern
+																	  // SQL: select guide0_.id as id1_1_, guide0_.name as name2_1_, guide0_.salary as salary3_1_, guide0_.staff_id as staff_id4_1_ from guide guide0_ where guide0_.name like ?
+			query.setParameter("pattern", "M%"); // The wildcard goes in the parameter
 			guides = query.getResultList();
 			
 			for(Guide guide2 : guides)
 				System.out.println("WILDCARD: " + guide2); // WILDCARD: Guide [id=2, staffId=GD200331, name=Marge Simpson, salary=1600]
-			
-			
-			
+
+			// like '%imps%' can't use an index on name. NameIndex searches the words and trigrams of the names in memory
+			if (debug) logger.debug("Searching guide names");
+			NameIndex guideNames = new NameIndex(Guide.class);
+			guideNames.rebuild(em, queries); // NameIndexUpdater.follow(emf, queries, guideNames) also keeps it up to date with the ChangeFeed
+			System.out.println("NAME SEARCH: " + guideNames.search("marje simpsn", 5)); // Typos: NAME SEARCH: [SearchHit [id=2, name=Marge Simpson, score=3.00]]
+			System.out.println("NAME CONTAINS: " + guideNames.contains("imps", 5)); // NAME CONTAINS: [SearchHit [id=1, name=Homer Simpson, score=1.31], ...]
+
+
 			
 			/*******************************************
 			* Native SQL Query
 			*/
 			
-			logger.debug("Using native SQL query");
-			query = em.createNativeQuery("select * from guide", Guide.class); // We are selecting all fields from Guide
-																			  // SQL: select * from guide
+			if (debug) logger.debug("Using native SQL query");
+			query = queries.createQuery(em, "Guide.findAllNative"); // <named-native-query> of orm.xml. We are selecting all fields from Guide
+																	 // SQL: select * from guide
 			guides = query.getResultList();
 			
 			for(Guide guide2 : guides)
@@ -195,8 +262,8 @@ public class Main {
 			* Named Query. We need a orm.xml file in /META-INF folder to do this. Query is defined in orm.xml
 			*/
 			
-			logger.debug("Named query");
-			guides = em.createNamedQuery("findByGuide") // Same name than in orm.xml file (<named-query name="findByGuide">)
+			if (debug) logger.debug("Named query");
+			guides = queries.createQuery(em, "findByGuide") // Same name than in orm.xml file (<named-query name="findByGuide">). Every query above is a named query too
 					 .setParameter("name",  "Homer Simpson") // Must be in DB
 					 .getResultList(); // SQL: select guide0_.id as id1_1_, guide0_.name as name2_1_, guide0_.salary as salary3_1_, guide0_.staff_id as staff_id4_1_ from guide guide0_ where guide0_.name=?
 			
@@ -210,8 +277,8 @@ public class Main {
 			* Aggregate Functions
 			*/
 			
-			logger.debug("Aggregate Functions - No aggregate function in this example");
-			int numOfGuides = em.createQuery("select guide from Guide guide").getResultList().size(); // JPQL query converted in SQL at Runtime
+			if (debug) logger.debug("Aggregate Functions - No aggregate function in this example");
+			int numOfGuides = queries.createQuery(em, "Guide.findAll").getResultList().size(); // JPQL query of orm.xml, converted in SQL at startup
 				           																	    	  // We are getting the number of guides in DB
 																									  // HQL: select guide from com.jorge.entity.Guide guide
 																									  // SQL: select guide0_.id as id1_1_, guide0_.name as name2_1_, guide0_.salary as salary3_1_, guide0_.staff_id as staff_id4_1_ from guide guide0_
@@ -221,8 +288,8 @@ public class Main {
 			// ***********************************
 			
 			// Better than above
-			logger.debug("Agregate Functions - COUNT");
-			query = em.createQuery("select count(guide) from Guide guide"); // JPQL query converted in SQL at Runtime
+			if (debug) logger.debug("Agregate Functions - COUNT");
+			query = queries.createQuery(em, "Guide.count"); // JPQL query of orm.xml, converted in SQL at startup
    																	    	// We are getting the number of guides in DB
 																			// HQL: select count(guide) from com.jorge.entity.Guide guide
 																			// SQL: select count(guide0_.id) as col_0_0_ from guide guide0_
@@ -234,8 +301,8 @@ public class Main {
 			// ***********************************
 			
 			// Getting maximum salary
-			logger.debug("Agregate Functions - MAX");
-			query = em.createQuery("select max(guide.salary) from Guide guide"); // JPQL query converted in SQL at Runtime
+			if (debug) logger.debug("Agregate Functions - MAX");
+			query = queries.createQuery(em, "Guide.maxSalary"); // JPQL query of orm.xml, converted in SQL at startup
    																	    	// We are getting the number of guides in DB
 																			// HQL: select max(guide.salary) from com.jorge.entity.Guide guide
 																		    // SQL: select max(guide0_.salary) as col_0_0_ from guide guide0_
@@ -244,6 +311,40 @@ public class Main {
 			
 			System.out.println("MAXIMUM SALARY USING MAX AGGREGATION FUNCTION: " + maximumSalary); // MAXIMUM SALARY USING MAX AGGREGATION FUNCTION: 1600
 			
+			// ***********************************
+			
+			// Aggregating per group in the database: students per guide, no Guide or Student entity is loaded
+			if (debug) logger.debug("Agregate Functions - GROUP BY report");
+			ReportTable studentsPerGuide = new Report(emf, Guide.class, "g")
+					.leftJoin("g.students", "s") // Left join: guides without students are in the report too, with 0
+					.groupBy("guide", "g.name")
+					.count("students", "s.id")
+					.avg("salary", "g.salary")
+					.orderBy("students", true) // .rank("position", "students", true) adds the position of every guide (MySQL 8.0 or later)
+					.execute(em); // SQL: select g.name as guide, count(s.id) as students, avg(g.salary) as salary from guide g left join Student s on s.guide_id = g.id group by g.name order by students desc
+			
+			System.out.println("STUDENTS PER GUIDE: " + studentsPerGuide); // STUDENTS PER GUIDE: [guide, students, salary] [Homer Simpson, 2, 1200.0] ...
+			
+			
+			
+			
+			/*******************************************
+			* Query result cache => repeated queries don't go to the database
+			*/
+			
+			if (debug) logger.debug("Query result cache");
+			QueryResultCache cache = new QueryResultCache(emf, 1000, 10, TimeUnit.MINUTES); // At most 1000 results, each one valid for 10 minutes
+			
+			for (int i = 0; i < 3; i++) { // Only the first iteration goes to the database
+				numOfGuides2 = (Long) cache.getSingleResult(em, queries.createQuery(em, "Guide.count"));
+				maximumSalary = (Integer) cache.getSingleResult(em, queries.createQuery(em, "Guide.maxSalary"));
+				guides = (List<Guide>) cache.getResultList(em, queries.createQuery(em, "findByGuide").setParameter("name", "Homer Simpson"));
+			}
+			
+			System.out.println("CACHED COUNT: " + numOfGuides2 + ", CACHED MAX: " + maximumSalary + ", CACHED NAMED QUERY: " + guides);
+			System.out.println("QUERY CACHE: " + cache.getStatistics()); // QUERY CACHE: CacheStatistics [hits=6, misses=3, hitRatio=0.67, puts=3, evictions=0, expirations=0, invalidations=0, size=3]
+			cache.close();
+			
 			
 			
 			
@@ -252,8 +353,8 @@ public class Main {
 			*/
 			
 			// Join (Inner Join)
-			logger.debug("Join (Inner Join)");
-			query = em.createQuery("select student from Student student join student.guide guide"); // JPQL query converted in SQL at Runtime
+			if (debug) logger.debug("Join (Inner Join)");
+			query = queries.createQuery(em, "Student.findWithGuide"); // JPQL query of orm.xml, converted in SQL at startup. select s from Student s join s.guide g
 																									// student.guide => this 'guide' of 'student.guide' is the name of the attribute in Student.java class @ManyToOne(cascade={CascadeType.PERSIST, CascadeType.REMOVE})
 																									//																			                           @JoinColumn(name="guide_id")
 																									//																			                           private Guide guide; <= refers to this 'guide'
@@ -272,8 +373,8 @@ public class Main {
 			// ***********************************
 			
 			// Left Join = Left Outer Join
-			logger.debug("Left Join = Left Outer Join");
-			query = em.createQuery("select student from Student student left join student.guide guide"); // JPQL query converted in SQL at Runtime
+			if (debug) logger.debug("Left Join = Left Outer Join");
+			query = queries.createQuery(em, "Student.findAllLeftJoinGuide"); // JPQL query of orm.xml, converted in SQL at startup. select s from Student s left join s.guide g
 																									     // student.guide => this 'guide' of 'student.guide' is the name of the attribute in Student.java class @ManyToOne(cascade={CascadeType.PERSIST, CascadeType.REMOVE})
 																										 //																			                            @JoinColumn(name="guide_id")
 																										 //																			                            private Guide guide; <= refers to this 'guide'
@@ -291,8 +392,8 @@ public class Main {
 			// ***********************************
 			
 			// Right Join = Right Outer Join
-			logger.debug("Right Join = Right Outer Join");
-			query = em.createQuery("select student from Student student right join student.guide guide"); // JPQL query converted in SQL at Runtime
+			if (debug) logger.debug("Right Join = Right Outer Join");
+			query = queries.createQuery(em, "Student.findAllRightJoinGuide"); // JPQL query of orm.xml, converted in SQL at startup. select s from Student s right join s.guide g
 																									      // student.guide => this 'guide' of 'student.guide' is the name of the attribute in Student.java class @ManyToOne(cascade={CascadeType.PERSIST, CascadeType.REMOVE})
 																										  //																			                            @JoinColumn(name="guide_id")
 																										  //																			                            private Guide guide; <= refers to this 'guide'
@@ -308,12 +409,22 @@ public class Main {
 			
 			// ***********************************
 			
+			// Entity graph => the caller chooses which associations are loaded with the query
+			if (debug) logger.debug("Entity graph - students with their guides");
+			students = FetchGraphs.load(em, queries.createQuery(em, "Student.findAll", Student.class), Student.WITH_GUIDE) // Student.guide is lazy, the graph loads it in the same select
+									.getResultList(); // SQL: select student0_.id as ..., guide1_.id as ... from Student student0_ left outer join guide guide1_ on student0_.guide_id=guide1_.id
+			
+			for(Student student : students)
+				System.out.println("STUDENT - ENTITY GRAPH: " + student); // No extra select per guide
+			
+			// ***********************************
+			
 			// Join Fetch = Inner Join Fetch
-			logger.debug("Join Fetch = Inner Join Fetch");
+			if (debug) logger.debug("Join Fetch = Inner Join Fetch");
 			
 			//query = em.createQuery("select guide from Guide guide join guide.students student"); // Without using 'fetch' in the query, it doesn't initialize the collection of students (the same action that assign fetch=FetchType.LAZY to 'private Set<Student> students' collection in Guide.java class)
 			
-			query = em.createQuery("select guide from Guide guide join fetch guide.students student"); // Using 'fetch' in the query initializes the collection of students (the same action that assign fetch=FetchType.EAGER to 'private Set<Student> students' collection in Guide.java class)
+			query = queries.createQuery(em, "Guide.findAllWithStudents"); // select g from Guide g join fetch g.students s. Using 'fetch' in the query initializes the collection of students (the same action that assign fetch=FetchType.EAGER to 'private Set<Student> students' collection in Guide.java class)
 																									   // HQL: select guide from com.jorge.entity.Guide guide join fetch guide.students student
 																									   // SQL: select guide0_.id as id1_1_0_, students1_.id as id1_0_1_, guide0_.name as name2_1_0_, guide0_.salary as salary3_1_0_, guide0_.staff_id as staff_id4_1_0_, students1_.enrollment_id as enrollme2_0_1_, students1_.guide_id as guide_id4_0_1_, students1_.name as name3_0_1_, students1_.guide_id as guide_id4_1_0__, students1_.id as id1_0_0__ from guide guide0_ inner join Student students1_ on guide0_.id=students1_.guide_id
 			
@@ -324,20 +435,44 @@ public class Main {
 																	 // GUIDE - JOIN FETCH: Guide [id=2, staffId=GD200332, name=Marge Simpson, salary=1600]
 			
 			
-			logger.debug("making commit");
+			
+			
+			/*******************************************
+			* Second-level cache => entities shared by every entity manager, read from memory instead of the database
+			*/
+			
+			if (debug) logger.debug("Second-level cache");
+			em.clear(); // Empty persistence context: em.find can't return the guide loaded above
+			
+			guide = em.find(Guide.class, guide.getId()); // Loaded from the "com.jorge.entity.Guide" region. No SQL
+			
+			System.out.println("CACHED GUIDE: " + guide);
+			System.out.println("GUIDE REGION: " + LocalRegionFactory.getStatistics(emf, Guide.class.getName())); // GUIDE REGION: CacheStatistics [hits=1, ...]
+			System.out.println("GUIDE REGION ENTRIES: " + emf.unwrap(SessionFactory.class).getStatistics().getSecondLevelCacheStatistics(Guide.class.getName()).getEntries().keySet()); // GUIDE REGION ENTRIES: [1, 2]. Hibernate statistics read the whole region (LocalRegion.toMap())
+			
+			
+			if (debug) logger.debug("making commit");
 			txn.commit();
 			
+			System.out.println("QUERY PLANS: " + queries.getStatistics()); // QUERY PLANS: PlanStatistics [queries=16, nativeQueries=2, hits=..., misses=0, hitRatio=1.00]
+			QueryMetrics metrics = QueryMetrics.get(emf); // null with hibernate.metrics.enabled=false or another connection provider
+			if (metrics != null) {
+				for (StatementStatistics statement : metrics.getStatements())
+					System.out.println("STATEMENT: " + statement); // STATEMENT: StatementStatistics [executions=4, failures=0, batchedStatements=0, meanMicros=310.2, p50Micros=250, ..., sql=select guide0_.id ...]
+			}
+			System.out.println("CONNECTION POOL: " + PooledConnectionProvider.getStatistics(emf)); // CONNECTION POOL: PoolStatistics [active=0, idle=2, waiting=0, ...]
+			
 			
 		}
 		catch (Exception e) {
-			if (txn != null) {
+			if (txn != null && txn.isActive()) { // Not after commit(): a failure after it has nothing to roll back
 				logger.error("something was wrong, making rollback of transactions");
 				txn.rollback(); // If something was wrong, we make rollback
 			}
 			logger.error("Exception: " + e.getMessage().toString());
 		} finally {
 			if (em != null) { // => if (session != null) {
-				logger.debug("close session");
+				if (debug) logger.debug("close session");
 				em.close(); // => session.close();
 			}
 		}
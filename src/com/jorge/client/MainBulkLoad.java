@@ -0,0 +1,81 @@
+package com.jorge.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import com.jorge.bootstrap.Bootstrap;
+import com.jorge.entity.Guide;
+import com.jorge.entity.Student;
+import com.jorge.ingest.BulkLoader;
+import com.jorge.ingest.CsvRecordReader;
+import com.jorge.ingest.GuideRecordMapper;
+import com.jorge.ingest.StudentRecordMapper;
+
+/**
+ * Bulk loading guides and students from CSV files
+ *
+ * Arguments: guides.csv students.csv
+ * 		guides.csv   => staffId,name,salary				(GD200331,Homer Simpson,1200)
+ * 		students.csv => enrollmentId,name,guideStaffId	(ST109883,Bart Simpson,GD200331)
+ *
+ * Guides are loaded first, students are linked to them by staffId.
+ * Every file has its own checkpoint (guides.csv.checkpoint, students.csv.checkpoint). Running this class again after a failure
+ * continues after the last committed chunk. Delete the checkpoint files to load new files
+ *
+ */
+public class MainBulkLoad {
+
+	public static void main(String[] args) throws Exception {
+		BasicConfigurator.configure(); // Necessary for configure log4j. It must be the first line in main method
+	       					           // log4j.properties must be in /src directory
+
+		Logger  logger = Logger.getLogger(MainBulkLoad.class.getName());
+		logger.debug("log4j configured correctly and logger set");
+
+		if (args.length != 2) {
+			System.out.println("Usage: MainBulkLoad guides.csv students.csv");
+			return;
+		}
+
+		logger.debug("creating entity manager factory");
+		Bootstrap bootstrap = new Bootstrap("helloworld") // Entities from META-INF/jandex.idx (MetadataIndexer.java), no classpath scan
+				.setSchemaUpdate(false); // Tables created by the application (migrations of persistence.xml), not introspected at every load
+		EntityManagerFactory emf = bootstrap.build();
+		logger.debug("started: " + bootstrap.getTimings());
+
+		try {
+			logger.debug("loading guides");
+			CsvRecordReader guides = new CsvRecordReader(new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8));
+			try {
+				long loaded = new BulkLoader<Guide>(emf, new GuideRecordMapper())
+						.setCheckpoint(new File(args[0] + ".checkpoint"))
+						.load(guides);
+				System.out.println("GUIDES LOADED: " + loaded);
+			} finally {
+				guides.close();
+			}
+
+			logger.debug("loading students");
+			CsvRecordReader students = new CsvRecordReader(new InputStreamReader(new FileInputStream(args[1]), StandardCharsets.UTF_8));
+			try {
+				long loaded = new BulkLoader<Student>(emf, new StudentRecordMapper())
+						.setCheckpoint(new File(args[1] + ".checkpoint"))
+						.load(students);
+				System.out.println("STUDENTS LOADED: " + loaded);
+			} finally {
+				students.close();
+			}
+		} finally {
+			logger.debug("close entity manager factory");
+			emf.close();
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.jorge.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import com.jorge.entity.Guide;
+import com.jorge.pool.PooledConnectionProvider;
+import com.jorge.query.QueryRegistry;
+import com.jorge.work.UnitOfWork;
+import com.jorge.work.UnitOfWorkExecutor;
+
+/**
+ * Many requests at the same time, every one in its own unit of work (entity manager + transaction), see UnitOfWorkExecutor.java
+ *
+ * Arguments: [requests] (default 10000)
+ *
+ * Every request looks up a guide by name. Only as many requests as connections in the pool are in the database at the same time,
+ * the others wait for a permit. On Java 21 or later each request has its own virtual thread
+ *
+ */
+public class MainConcurrent {
+
+	public static void main(String[] args) throws Exception {
+		BasicConfigurator.configure(); // Necessary for configure log4j. It must be the first line in main method
+	       					           // log4j.properties must be in /src directory
+
+		Logger  logger = Logger.getLogger(MainConcurrent.class.getName());
+		logger.debug("log4j configured correctly and logger set");
+
+		int requests = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+
+		logger.debug("creating entity manager factory");
+		EntityManagerFactory emf = Persistence.createEntityManagerFactory("helloworld");
+		final QueryRegistry queries = new QueryRegistry(emf);
+		UnitOfWorkExecutor executor = new UnitOfWorkExecutor(emf); // As many concurrent units as connections in the pool
+
+		try {
+			logger.debug("submitting " + requests + " units of work");
+			long start = System.nanoTime();
+			List<Future<Guide>> results = new ArrayList<Future<Guide>>(requests);
+			for (int i = 0; i < requests; i++) {
+				results.add(executor.submit(new UnitOfWork<Guide>() { // Never blocks: the unit waits for its permit on its own thread
+					@Override
+					public Guide execute(EntityManager em) {
+						List<Guide> guides = queries.createQuery(em, "findByGuide", Guide.class).setParameter("name", "Homer Simpson").getResultList();
+						return guides.isEmpty() ? null : guides.get(0); // Detached once the unit of work ends
+					}
+				}));
+			}
+
+			int found = 0, failed = 0;
+			for (Future<Guide> result : results) {
+				try {
+					if (result.get() != null) found++;
+				} catch (Exception e) {
+					failed++;
+					logger.error("unit of work failed: " + e.getMessage());
+				}
+			}
+			long millis = (System.nanoTime() - start) / 1000000;
+
+			System.out.println("UNITS OF WORK: " + requests + " in " + millis + " ms, " + found + " found the guide, " + failed + " failed, "
+					+ executor.getMaxConcurrency() + " concurrent, " + (executor.usesVirtualThreads() ? "virtual threads" : "platform threads"));
+			System.out.println("CONNECTION POOL: " + PooledConnectionProvider.getStatistics(emf)); // timeouts=0: nobody waited inside the pool
+		} finally {
+			executor.close();
+			logger.debug("close entity manager factory");
+			emf.close();
+		}
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.jorge.client;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import com.jorge.entity.Guide;
+import com.jorge.ingest.BulkLoader;
+import com.jorge.ingest.GuideRecordMapper;
+import com.jorge.query.KeysetPager;
+
+/**
+ * Offset paging (setFirstResult/setMaxResults => limit/offset) against keyset paging (KeysetPager.java)
+ *
+ * Arguments: [rows] [pageSize] (default: 5000000 100)
+ *
+ * If the guide table has less than 'rows' rows, synthetic guides are bulk loaded first (staffId BENCH0, BENCH1...).
+ * Then the same page is read at several depths (first page, middle, last page) with both methods,
+ * and the median time of 'REPEAT' executions is printed:
+ * 		PAGE AT 2500000 - OFFSET: 1450.20 ms, KEYSET BY ID: 0.61 ms, KEYSET BY (SALARY, ID): 0.74 ms
+ *
+ * Keyset paging by (salary, id) needs an index on guide(salary, id) to have flat times
+ *
+ */
+public class MainPagingBenchmark {
+
+	private static final int REPEAT = 7;
+
+	public static void main(String[] args) {
+		BasicConfigurator.configure(); // Necessary for configure log4j. It must be the first line in main method
+	       					           // log4j.properties must be in /src directory
+
+		Logger  logger = Logger.getLogger(MainPagingBenchmark.class.getName());
+		logger.debug("log4j configured correctly and logger set");
+
+		final long rows = args.length > 0 ? Long.parseLong(args[0]) : 5000000;
+		final int pageSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+		logger.debug("creating entity manager factory");
+		EntityManagerFactory emf = Persistence.createEntityManagerFactory("helloworld");
+		EntityManager em = emf.createEntityManager();
+
+		try {
+			final long existing = em.createQuery("select count(guide) from Guide guide", Long.class).getSingleResult();
+			if (existing < rows) {
+				logger.info("loading " + (rows - existing) + " synthetic guides");
+				new BulkLoader<Guide>(emf, new GuideRecordMapper()).load(new Iterator<String[]>() {
+					private long next = existing;
+
+					@Override
+					public boolean hasNext() {
+						return next < rows;
+					}
+
+					@Override
+					public String[] next() {
+						if (!hasNext()) throw new NoSuchElementException();
+						long n = next++;
+						return new String[] { "BENCH" + n, "Guide " + n, Long.toString(1000 + n % 1000) }; // 1000 different salaries
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				});
+			}
+
+			KeysetPager<Guide> byId = new KeysetPager<Guide>(em, Guide.class, "id").setPageSize(pageSize);
+			KeysetPager<Guide> bySalary = new KeysetPager<Guide>(em, Guide.class, "salary", "id").setPageSize(pageSize);
+
+			for (long offset : new long[] { 0, rows / 2, rows - pageSize }) {
+				// Key of the row before the page, so both methods read exactly the same page. Not timed
+				String idToken = null, salaryToken = null;
+				if (offset > 0) {
+					Long id = em.createQuery("select guide.id from Guide guide order by guide.id", Long.class)
+								.setFirstResult((int) offset - 1).setMaxResults(1).getSingleResult();
+					Object[] key = em.createQuery("select guide.salary, guide.id from Guide guide order by guide.salary, guide.id", Object[].class)
+									 .setFirstResult((int) offset - 1).setMaxResults(1).getSingleResult();
+					idToken = byId.tokenAfter(id);
+					salaryToken = bySalary.tokenAfter(key);
+				}
+
+				double[] offsetTimes = new double[REPEAT], idTimes = new double[REPEAT], salaryTimes = new double[REPEAT];
+				for (int i = 0; i < REPEAT; i++) {
+					long start = System.nanoTime();
+					List<Guide> page = em.createQuery("select guide from Guide guide order by guide.id", Guide.class)
+										 .setFirstResult((int) offset).setMaxResults(pageSize).getResultList();
+					offsetTimes[i] = (System.nanoTime() - start) / 1e6;
+
+					start = System.nanoTime();
+					List<Guide> keysetPage = (idToken == null ? byId.firstPage() : byId.nextPage(idToken)).getRows();
+					idTimes[i] = (System.nanoTime() - start) / 1e6;
+
+					start = System.nanoTime();
+					(salaryToken == null ? bySalary.firstPage() : bySalary.nextPage(salaryToken)).getRows();
+					salaryTimes[i] = (System.nanoTime() - start) / 1e6;
+
+					if (!page.equals(keysetPage)) {
+						throw new IllegalStateException("offset and keyset pages differ at " + offset);
+					}
+					em.clear(); // Every execution reads from the database, not from the persistence context
+				}
+
+				System.out.println(String.format("PAGE AT %d - OFFSET: %.2f ms, KEYSET BY ID: %.2f ms, KEYSET BY (SALARY, ID): %.2f ms",
+						offset, median(offsetTimes), median(idTimes), median(salaryTimes)));
+			}
+		} finally {
+			logger.debug("close entity manager");
+			em.close();
+			emf.close();
+		}
+	}
+
+	private static double median(double[] times) {
+		double[] sorted = times.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+}
@@ -0,0 +1,47 @@
+package com.jorge.dto;
+
+/**
+ * Read-only view of a guide: name and salary
+ *
+ * Created by a JPQL constructor expression or by a native query result mapping, never by the persistence context:
+ * no managed entity, no dirty-checking snapshot, no proxy
+ * 		JPQL:   select new com.jorge.dto.GuideSummary(guide.name, guide.salary) from Guide guide	(orm.xml => "GuideSummary.findAll")
+ * 		SQL:    select name, salary from guide													(Guide.java => @SqlResultSetMapping "GuideSummary")
+ */
+public final class GuideSummary {
+
+	private final String name;
+	private final Integer salary;
+
+	public GuideSummary(String name, Integer salary) {
+		this.name = name;
+		this.salary = salary;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Integer getSalary() {
+		return salary;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (name == null ? 0 : name.hashCode()) + (salary == null ? 0 : salary.hashCode());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof GuideSummary)) return false;
+		GuideSummary other = (GuideSummary) obj;
+		return (name == null ? other.name == null : name.equals(other.name))
+				&& (salary == null ? other.salary == null : salary.equals(other.salary));
+	}
+
+	@Override
+	public String toString() {
+		return "GuideSummary [name=" + name + ", salary=" + salary + "]";
+	}
+
+}
@@ -0,0 +1,52 @@
+package com.jorge.dto;
+
+/**
+ * Read-only view of a student and the name of the student's guide (null without guide)
+ *
+ * 		JPQL: select new com.jorge.dto.StudentSummary(student.enrollmentId, student.name, guide.name)
+ * 			  from Student student left join student.guide guide												(orm.xml => "StudentSummary.findAll")
+ */
+public final class StudentSummary {
+
+	private final String enrollmentId;
+	private final String name;
+	private final String guideName;
+
+	public StudentSummary(String enrollmentId, String name, String guideName) {
+		this.enrollmentId = enrollmentId;
+		this.name = name;
+		this.guideName = guideName;
+	}
+
+	public String getEnrollmentId() {
+		return enrollmentId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getGuideName() {
+		return guideName;
+	}
+
+	@Override
+	public int hashCode() {
+		return enrollmentId == null ? 0 : enrollmentId.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof StudentSummary)) return false;
+		StudentSummary other = (StudentSummary) obj;
+		return (enrollmentId == null ? other.enrollmentId == null : enrollmentId.equals(other.enrollmentId))
+				&& (name == null ? other.name == null : name.equals(other.name))
+				&& (guideName == null ? other.guideName == null : guideName.equals(other.guideName));
+	}
+
+	@Override
+	public String toString() {
+		return "StudentSummary [enrollmentId=" + enrollmentId + ", name=" + name + ", guideName=" + guideName + "]";
+	}
+
+}
@@ -3,23 +3,60 @@ package com.jorge.entity;
 import java.util.HashSet;
 import java.util.Set;
 
+import javax.persistence.Cacheable;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
+import javax.persistence.ColumnResult;
+import javax.persistence.ConstructorResult;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
 import javax.persistence.OneToMany;
+import javax.persistence.SqlResultSetMapping;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
+
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.OptimisticLock;
+import org.hibernate.annotations.Parameter;
+
+import com.jorge.dto.GuideSummary;
 
 // ONE SIDE entity => INVERSE END
 
 @Entity
-@Table(name="guide")
+@Table(name="guide",
+	   indexes={@Index(name="idx_guide_name", columnList="name"), // findByGuide, Guide.findByNameLike ('M%': a range of the index)
+				@Index(name="idx_guide_salary", columnList="salary")}, // Guide.findBySalary, Guide.maxSalary (read from the end of the index)
+	   uniqueConstraints=@UniqueConstraint(name="uk_guide_staff_id", columnNames="staff_id")) // Natural key (equals/hashCode), StudentRecordMapper lookups
+	   // The tables are created by the migrations of META-INF/migrations (SchemaMigrator.java): keep both in step, hbm2ddl.auto=validate checks them
+@Cacheable // Second-level cache (persistence.xml): em.find(Guide.class, id) and the guide of every Student are read from memory
+@Cache(usage=CacheConcurrencyStrategy.READ_WRITE) // Region "com.jorge.entity.Guide". READ_WRITE: a transaction never reads uncommitted changes
+@NamedEntityGraph(name=Guide.WITH_STUDENTS, attributeNodes=@NamedAttributeNode("students")) // Guides and their students in the same select (join): a row per student, FetchGraphs.load() returns every guide once
+@SqlResultSetMapping(name="GuideSummary", // Native query columns => GuideSummary constructor: em.createNativeQuery("select name, salary from guide", "GuideSummary")
+					 classes=@ConstructorResult(targetClass=GuideSummary.class, 
+							 					columns={@ColumnResult(name="name"), @ColumnResult(name="salary", type=Integer.class)}))
 public class Guide {
 
+	public static final String WITH_STUDENTS = "guide-with-students";
+
 	@Id
-	@GeneratedValue(strategy=GenerationType.AUTO)
+	@GeneratedValue(generator="guide_id") // GenerationType.AUTO/IDENTITY on MySQL needs one insert per row to get the id back, so JDBC batching is disabled
+	@GenericGenerator(name="guide_id", 
+					  strategy="org.hibernate.id.enhanced.TableGenerator", // Ids are taken from the 'id_generator' table, one row per entity ('segment_value')
+					  parameters={@Parameter(name="table_name", value="id_generator"),
+								  @Parameter(name="segment_value", value="guide"),
+								  @Parameter(name="increment_size", value="50"), // One id_generator round trip for every 50 inserts. Keep it >= hibernate.jdbc.batch_size
+								  @Parameter(name="optimizer", value="pooled")}) // pooled: other applications reading id_generator still get safe values
 	@Column(name="id")
 	private Long id;
 	
@@ -32,14 +69,26 @@ public class Guide {
 	@Column(name="salary")
 	private Integer salary;
 	
+	@Version // Optimistic locking: every update is "... where id=? and version=?" and increments it. If another transaction updated
+			 // the guide since it was read, no row matches and the commit fails with OptimisticLockException. See RetryPolicy.java
+	@Column(name="version", nullable=false) // META-INF/migrations/V2.sql adds it as 0 to the existing rows
+	private long version;
+	
 	// By default, @OneToMany and @ManyToMany associations are lazy
 	@OneToMany(mappedBy="guide", 
 			   cascade={CascadeType.PERSIST}) // 'guide' is the name of the private attribute in Student.java class => private Guide guide;
 			 							  	  // It tells Hibernate to get the set of students that are using the foreign key => guide_id in DB => private Guide guide;
 											  // CascadeType.PERSIST: Everything you change in guide row is save in its linked student rows automatically
 											  // 'mappedBy' attribute declares this class as not responsible for the relationship => inversed end
+	@Cache(usage=CacheConcurrencyStrategy.READ_WRITE) // Region "com.jorge.entity.Guide.students". It keeps student ids, students are read from their own region
+	@Fetch(FetchMode.SUBSELECT) // The first guide.getStudents() loads the students of every guide of the same query in one select:
+								// select ... from Student where guide_id in (select guide.id from guide where <the guide query>)
+	@OptimisticLock(excluded=true) // addStudent() doesn't increment the version of the guide: students are added to the same guide
+								   // concurrently without conflicts (the guide_id column is in the student row, which has its own version)
 	private Set<Student> students = new HashSet<Student>();
 	
+	private transient int hash; // hashCode() of staffId, 0 until computed. transient fields are not columns
+	
 	public Guide() {}
 	
 	public Guide(String staffId, String name, Integer salary) {
@@ -62,6 +111,7 @@ public class Guide {
 
 	public void setStaffId(String staffId) {
 		this.staffId = staffId;
+		this.hash = 0;
 	}
 
 	public String getName() {
@@ -72,6 +122,11 @@ public class Guide {
 		this.name = name;
 	}
 
+	// No setter: Hibernate sets it
+	public long getVersion() {
+		return version;
+	}
+
 	public Integer getSalary() {
 		return salary;
 	}
@@ -95,9 +150,33 @@ public class Guide {
 		student.setGuide(this);;
 	}
 
+	// Only this row: the students are never loaded by a log line, and the name is cut
 	@Override
 	public String toString() {
-		return "Guide [id=" + id + ", staffId=" + staffId + ", name=" + name + ", salary=" + salary +  "]";
+		return new StringBuilder(128)
+				.append("Guide [id=").append(id)
+				.append(", staffId=").append(staffId)
+				.append(", name=").append(StringUtils.abbreviate(name, Student.TO_STRING_MAX_NAME))
+				.append(", salary=").append(salary)
+				.append(']').toString();
+	}
+
+	// Same identity model as Student.java, on the natural key staffId: cached hash, equals() through the getter (proxies)
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0 && staffId != null) {
+			h = staffId.hashCode();
+			hash = h;
+		}
+		return h;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof Guide)) return false;
+		return staffId != null && staffId.equals(((Guide) obj).getStaffId());
 	}
 	
 }
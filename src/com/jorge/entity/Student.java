@@ -1,26 +1,53 @@
 package com.jorge.entity;
 
+import javax.persistence.Cacheable;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.ForeignKey;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.proxy.HibernateProxy;
 
 // MANY SIDE entity => OWNER of this bidirectional relationship
 // The owner of the relationship is responsible for the association column(s) update
 
 @Entity
 //@Table(name="student") // If we comment @Table annotation, Hibernate will create a table with the name of this calss => "Student" (CASE SENSITIVE!!!)
+@Table(indexes=@Index(name="idx_student_guide_id", columnList="guide_id"), // No name: the table is still "Student". Students of a guide, joins from guide
+	   uniqueConstraints=@UniqueConstraint(name="uk_student_enrollment_id", columnNames="enrollment_id")) // Natural key (equals/hashCode)
+@Cacheable // Needed by the Guide.students collection cache: without it, every cached student id would be loaded with one select
+@Cache(usage=CacheConcurrencyStrategy.READ_WRITE)
+@NamedEntityGraph(name=Student.WITH_GUIDE, attributeNodes=@NamedAttributeNode("guide")) // Students and their guides in the same select (join). See FetchGraphs.java
 public class Student {
 
+	public static final String WITH_GUIDE = "student-with-guide";
+
+	static final int TO_STRING_MAX_NAME = 64; // toString() shows at most this many characters of a name
+
 	@Id
-	@GeneratedValue(strategy=GenerationType.AUTO)
+	@GeneratedValue(generator="student_id") // GenerationType.AUTO/IDENTITY on MySQL needs one insert per row to get the id back, so JDBC batching is disabled
+	@GenericGenerator(name="student_id", 
+					  strategy="org.hibernate.id.enhanced.TableGenerator", // Ids are taken from the 'id_generator' table, one row per entity ('segment_value')
+					  parameters={@Parameter(name="table_name", value="id_generator"),
+								  @Parameter(name="segment_value", value="student"),
+								  @Parameter(name="increment_size", value="50"), // One id_generator round trip for every 50 inserts. Keep it >= hibernate.jdbc.batch_size
+								  @Parameter(name="optimizer", value="pooled")}) // pooled: other applications reading id_generator still get safe values
 	@Column(name="id")
 	private Long id;
 	
@@ -31,13 +58,22 @@ public class Student {
 	private String name;
 	
 	// By default, single point associations (@OneToOne and @ManyToOne) are eagerly fetched
-	@ManyToOne(cascade={CascadeType.PERSIST, CascadeType.REMOVE}) // Many students to one guide. 
+	// LAZY: 'select student from Student student' doesn't run one extra select per guide. Guides are loaded when used, up to
+	// hibernate.default_batch_fetch_size (persistence.xml) guides per select, or with the students when the query uses the Student.WITH_GUIDE graph
+	@ManyToOne(fetch=FetchType.LAZY, 
+			   cascade={CascadeType.PERSIST, CascadeType.REMOVE}) // Many students to one guide. 
 																  // CascadeType.PERSIST: Everything you change in student row is save in its linked guide row automatically
 																  // CascadeType.REMOVE: If you delete a student row, it will delete its linked guide row automatically
-	@JoinColumn(name="guide_id") // guide_id is the name of the field in student table, linked to id field in guide table
+	@JoinColumn(name="guide_id", foreignKey=@ForeignKey(name="fk_student_guide")) // guide_id is the name of the field in student table, linked to id field in guide table
 							     // You say with @JoinColumn annotation that this class is the owner of the relationship
 	private Guide guide;
 	
+	@Version // Optimistic locking, like Guide.version
+	@Column(name="version", nullable=false)
+	private long version;
+	
+	private transient int hash; // hashCode() of enrollmentId, 0 until computed. transient fields are not columns
+	
 	public Student() {}
 	
 	public Student(String enrollmentId, String name, Guide guide) {
@@ -60,6 +96,7 @@ public class Student {
 
 	public void setEnrollmentId(String enrollmentId) {
 		this.enrollmentId = enrollmentId;
+		this.hash = 0;
 	}
 
 	public String getName() {
@@ -78,9 +115,26 @@ public class Student {
 		this.guide = guide;
 	}
 
+	public long getVersion() {
+		return version;
+	}
+
+	// Only this row: the guide is shown by its id, so a lazy guide is never loaded by a log line, and the name is cut
 	@Override
 	public String toString() {
-		return "Student [id=" + id + ", enrollmentId=" + enrollmentId + ", name=" + name + ", guide=" + guide + "]";
+		return new StringBuilder(128)
+				.append("Student [id=").append(id)
+				.append(", enrollmentId=").append(enrollmentId)
+				.append(", name=").append(StringUtils.abbreviate(name, TO_STRING_MAX_NAME))
+				.append(", guide=").append(guideId())
+				.append(']').toString();
+	}
+	
+	// Id of the guide without initializing it: on an uninitialized proxy getId() would run the select
+	private Object guideId() {
+		if (guide == null) return null;
+		if (guide instanceof HibernateProxy) return ((HibernateProxy) guide).getHibernateLazyInitializer().getIdentifier();
+		return guide.getId();
 	}
 	
 	
@@ -106,19 +160,30 @@ public class Student {
 	 * 
 	 * If we don't override these methods, all results above would be false. Comment these methods to see what happens
 	 * 
-	 * We need commons-langX-X.X.X.jar
+	 * Both use the natural key (enrollmentId), not the id: a new student has no id until it is persisted, and it is already in a Set.
+	 * They are called for every add/contains/remove of Guide.students, so they allocate nothing:
+	 * 		- hashCode() is computed once and kept in 'hash' (setEnrollmentId() forgets it). Don't change the enrollmentId of a
+	 * 		  student that is inside a HashSet: it would be in the bucket of its old hash
+	 * 		- equals() reads the other enrollmentId through its getter: 'obj' can be a Hibernate proxy (a subclass of Student,
+	 * 		  so instanceof works), whose own fields are empty. The getter reads them from the real student
+	 * A student without enrollmentId is only equal to itself
 	 * 
 	 */
 	@Override
-	public int hashCode(){
-		return new HashCodeBuilder().append(enrollmentId).toHashCode();
+	public int hashCode() {
+		int h = hash;
+		if (h == 0 && enrollmentId != null) {
+			h = enrollmentId.hashCode();
+			hash = h; // Racy like String.hashCode(): every thread computes the same value
+		}
+		return h;
 	}
 	
 	@Override
-	public boolean equals(Object obj){
-		if(!(obj instanceof Student)) return false;
-		Student other = (Student) obj;
-		return new EqualsBuilder().append(enrollmentId, other.enrollmentId).isEquals();
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof Student)) return false;
+		return enrollmentId != null && enrollmentId.equals(((Student) obj).getEnrollmentId());
 	}
 
 }
@@ -0,0 +1,154 @@
+package com.jorge.ingest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Bulk ingest of Guide/Student records
+ *
+ * em.persist() of one entity per transaction (MainJoiningAssociations.java) costs one commit per row. Here:
+ * 		- Entities are flushed and the persistence context cleared every 'batchSize' records. With hibernate.jdbc.batch_size
+ * 		  and hibernate.order_inserts (persistence.xml) every flush is a single JDBC batch per table
+ * 		- Ids come from the pooled table generator (Guide.java/Student.java), so inserts don't need the id back from MySQL
+ * 		- The transaction is committed every 'chunkSize' records
+ *
+ * Restarting: with a checkpoint file, the number of committed records is saved after every commit. A new load with the
+ * same checkpoint file and the same input skips those records. A crash between a commit and the checkpoint write
+ * loads that chunk again (at-least-once), so use a fresh checkpoint file for every new input
+ *
+ * Usage:
+ * 		long loaded = new BulkLoader<Student>(emf, new StudentRecordMapper())
+ * 			.setCheckpoint(new File("students.checkpoint"))
+ * 			.load(new CsvRecordReader(new FileReader("students.csv")));
+ *
+ * @param <T> Entity class (Guide, Student)
+ */
+public class BulkLoader<T> {
+
+	public static final int DEFAULT_BATCH_SIZE = 50; // Same value than hibernate.jdbc.batch_size in persistence.xml
+	public static final int DEFAULT_CHUNK_SIZE = 10000;
+
+	private static final Logger logger = Logger.getLogger(BulkLoader.class.getName());
+
+	private final EntityManagerFactory emf;
+	private final RecordMapper<T> mapper;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private File checkpoint;
+
+	public BulkLoader(EntityManagerFactory emf, RecordMapper<T> mapper) {
+		this.emf = emf;
+		this.mapper = mapper;
+	}
+
+	public BulkLoader<T> setBatchSize(int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("batchSize must be > 0: " + batchSize);
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	// Records per transaction. It is rounded to a multiple of batchSize when the load starts
+	public BulkLoader<T> setChunkSize(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize must be > 0: " + chunkSize);
+		}
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	public BulkLoader<T> setCheckpoint(File checkpoint) {
+		this.checkpoint = checkpoint;
+		return this;
+	}
+
+	/**
+	 * Persists every record, committing every chunk
+	 *
+	 * @return number of records committed by this call (skipped records not included)
+	 */
+	public long load(Iterator<String[]> records) {
+		long committed = readCheckpoint();
+		for (long skipped = 0; skipped < committed && records.hasNext(); skipped++)
+			records.next();
+		if (committed > 0) {
+			logger.info("restarting load after " + committed + " committed records");
+		}
+
+		int recordsPerChunk = Math.max(batchSize, chunkSize / batchSize * batchSize); // Commits always happen after a flush
+		long loaded = 0;
+
+		EntityManager em = emf.createEntityManager();
+		em.setFlushMode(FlushModeType.COMMIT); // No automatic flush before the guide id queries of StudentRecordMapper
+		EntityTransaction txn = em.getTransaction();
+		try {
+			while (records.hasNext()) {
+				txn.begin();
+				int inChunk = 0;
+				while (inChunk < recordsPerChunk && records.hasNext()) {
+					em.persist(mapper.map(em, records.next()));
+					inChunk++;
+					if (inChunk % batchSize == 0) {
+						em.flush(); // => one JDBC batch
+						em.clear(); // Persisted entities are no longer needed, the persistence context stays small
+					}
+				}
+				txn.commit();
+				em.clear();
+
+				loaded += inChunk;
+				committed += inChunk;
+				writeCheckpoint(committed);
+				if (logger.isDebugEnabled()) {
+					logger.debug("committed " + committed + " records");
+				}
+			}
+		} catch (RuntimeException e) {
+			if (txn.isActive()) {
+				logger.error("load failed after " + committed + " committed records, making rollback of the current chunk");
+				txn.rollback();
+			}
+			throw e;
+		} finally {
+			em.close();
+		}
+
+		logger.info("loaded " + loaded + " records");
+		return loaded;
+	}
+
+	private long readCheckpoint() {
+		if (checkpoint == null || !checkpoint.exists()) return 0;
+		try {
+			return Long.parseLong(new String(Files.readAllBytes(checkpoint.toPath()), StandardCharsets.UTF_8).trim());
+		} catch (IOException e) {
+			throw new UncheckedIOException("cannot read checkpoint " + checkpoint, e);
+		}
+	}
+
+	private void writeCheckpoint(long committed) {
+		if (checkpoint == null) return;
+		try {
+			// Written to a temporary file and renamed, so a crash never leaves a half written checkpoint
+			File tmp = new File(checkpoint.getPath() + ".tmp");
+			Files.write(tmp.toPath(), Long.toString(committed).getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new UncheckedIOException("cannot write checkpoint " + checkpoint, e);
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+package com.jorge.ingest;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads CSV lines lazily, one record at a time, so a 10M rows file is never held in memory
+ *
+ * Fields are separated by ',' and trimmed. Quoted fields are not supported. Empty lines and lines starting with '#' are skipped
+ */
+public class CsvRecordReader implements Iterator<String[]>, Closeable {
+
+	private final BufferedReader reader;
+	private String nextLine;
+
+	public CsvRecordReader(Reader reader) {
+		this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+	}
+
+	@Override
+	public boolean hasNext() {
+		try {
+			while (nextLine == null) {
+				String line = reader.readLine();
+				if (line == null) return false;
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#"))
+					nextLine = line;
+			}
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public String[] next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		String[] fields = nextLine.split(",", -1); // -1 keeps trailing empty fields (student without guide)
+		for (int i = 0; i < fields.length; i++)
+			fields[i] = fields[i].trim();
+		nextLine = null;
+		return fields;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
@@ -0,0 +1,312 @@
+package com.jorge.ingest;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
+
+import org.apache.log4j.Logger;
+import org.hibernate.SessionFactory;
+
+import com.jorge.entity.Guide;
+import com.jorge.entity.Student;
+import com.jorge.work.RingBuffer;
+
+/**
+ * Write-behind buffer of student enrollments: many "create this student for guide X" events, one transaction per group
+ *
+ * One begin/persist/commit per event (MainJoiningAssociations.java) costs one commit, and so one redo log fsync in MySQL, per student.
+ * Here the calling thread only puts the event in a buffer and gets a future. One flusher thread persists the buffered events
+ * in a single transaction when 'maxBatch' of them are waiting, or when the oldest one has waited 'maxLatency'
+ *
+ * 		EnrollmentBuffer buffer = new EnrollmentBuffer(emf)
+ * 				.setMaxBatch(500)
+ * 				.setMaxLatency(10, TimeUnit.MILLISECONDS)
+ * 				.start();
+ * 		CompletableFuture<Long> enrolled = buffer.enroll("ST109883", "Bart Simpson", guideId);	null guideId: no guide
+ * 		enrolled.get();				Id of the student, once its transaction has committed
+ * 		...
+ * 		buffer.close();				Writes what is left
+ *
+ * Acknowledgements: the future of an event completes only after the commit of the transaction that inserted it (durable as far
+ * as the database says so), or exceptionally with the reason it was not inserted. When a group fails (an unknown guide id,
+ * a duplicate...), it is rolled back and written again in two halves, and so on, so only the bad events fail.
+ * Dependent stages (thenApply...) run on the flusher thread: use the ...Async variants for anything slow
+ *
+ * The buffer is a RingBuffer (com.jorge.work), like the one of AsyncFileAppender.java: producers claim a slot with a compare-and-set, the flusher frees it.
+ * When it is full, enroll() waits up to 'offerTimeout' for the flusher, then throws RejectedExecutionException (backpressure)
+ *
+ * Entities are inserted like BulkLoader.java does (JDBC batches, guides linked with em.getReference()), so the same persistence.xml
+ * settings apply. The Guide.students collection cache of every guide of a group is evicted after its commit
+ */
+public class EnrollmentBuffer implements AutoCloseable {
+
+	public static final int DEFAULT_CAPACITY = 8192;
+	public static final int DEFAULT_MAX_BATCH = 500;
+	public static final long DEFAULT_MAX_LATENCY_MILLIS = 10;
+
+	private static final Logger logger = Logger.getLogger(EnrollmentBuffer.class.getName());
+	private static final String STUDENTS = Guide.class.getName() + ".students"; // Collection cache region role
+
+	private final EntityManagerFactory emf;
+	private int capacity = DEFAULT_CAPACITY;
+	private int maxBatch = DEFAULT_MAX_BATCH;
+	private long maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_LATENCY_MILLIS);
+	private long offerTimeoutNanos = TimeUnit.SECONDS.toNanos(1);
+
+	private RingBuffer<Enrollment> events; // The flusher is the consumer
+
+	private volatile Thread flusher;
+	private volatile boolean closing;
+
+	private final AtomicLong enrolled = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong commits = new AtomicLong();
+
+	public EnrollmentBuffer(EntityManagerFactory emf) {
+		this.emf = emf;
+	}
+
+	// Events waiting at most, rounded up to a power of two (default 8192)
+	public EnrollmentBuffer setCapacity(int capacity) {
+		checkNotStarted();
+		if (capacity <= 0) throw new IllegalArgumentException("capacity must be > 0: " + capacity);
+		this.capacity = capacity;
+		return this;
+	}
+
+	// Events per transaction at most (default 500)
+	public EnrollmentBuffer setMaxBatch(int maxBatch) {
+		checkNotStarted();
+		if (maxBatch <= 0) throw new IllegalArgumentException("maxBatch must be > 0: " + maxBatch);
+		this.maxBatch = maxBatch;
+		return this;
+	}
+
+	/**
+	 * How long an event waits for others before its group is written (default 10 ms). Its future completes after that plus
+	 * the time of the transaction. 0: every event is written as soon as the flusher sees it
+	 */
+	public EnrollmentBuffer setMaxLatency(long maxLatency, TimeUnit unit) {
+		checkNotStarted();
+		if (maxLatency < 0) throw new IllegalArgumentException("maxLatency must be >= 0: " + maxLatency);
+		this.maxLatencyNanos = unit.toNanos(maxLatency);
+		return this;
+	}
+
+	// How long enroll() waits when the buffer is full (default 1 s)
+	public EnrollmentBuffer setOfferTimeout(long offerTimeout, TimeUnit unit) {
+		checkNotStarted();
+		this.offerTimeoutNanos = unit.toNanos(offerTimeout);
+		return this;
+	}
+
+	public EnrollmentBuffer start() {
+		checkNotStarted();
+		events = new RingBuffer<Enrollment>(capacity);
+
+		flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, "enrollment-flusher");
+		flusher.setDaemon(true); // close() writes what is left
+		flusher.start();
+		logger.info("enrollment buffer: " + events.capacity() + " events, " + maxBatch + " per transaction, max latency " + TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos) + " ms");
+		return this;
+	}
+
+	/**
+	 * Buffers a new student. The future completes with the id of the student when its transaction commits
+	 *
+	 * @throws RejectedExecutionException the buffer was full for 'offerTimeout'
+	 */
+	public CompletableFuture<Long> enroll(String enrollmentId, String name, Long guideId) {
+		if (flusher == null) throw new IllegalStateException("enrollment buffer not started");
+		if (closing) throw new IllegalStateException("enrollment buffer closed");
+		Enrollment enrollment = new Enrollment(enrollmentId, name, guideId);
+		long deadline = System.nanoTime() + offerTimeoutNanos;
+		long sequence;
+		while ((sequence = events.offer(enrollment)) < 0) {
+			if (closing) throw new IllegalStateException("enrollment buffer closed");
+			if (System.nanoTime() - deadline > 0) throw new RejectedExecutionException("enrollment buffer full for " + TimeUnit.NANOSECONDS.toMillis(offerTimeoutNanos) + " ms");
+			LockSupport.unpark(flusher);
+			events.awaitSpace(deadline - System.nanoTime()); // Full: the flusher wakes us up when it frees a slot
+		}
+		long waiting = sequence + 1 - events.consumed();
+		if (waiting == 1 || waiting == maxBatch || maxLatencyNanos == 0) LockSupport.unpark(flusher); // First event to wait for, or a full group
+		if (closing) { // close() started meanwhile: the flusher may have finished before seeing this event
+			awaitFlusher();
+			enrollment.acknowledgement.completeExceptionally(new IllegalStateException("enrollment buffer closed")); // Unless it was written
+		}
+		return enrollment.acknowledgement;
+	}
+
+	// Events written and committed
+	public long getEnrolled() {
+		return enrolled.get();
+	}
+
+	// Events not inserted (their future completed exceptionally)
+	public long getFailed() {
+		return failed.get();
+	}
+
+	// Transactions committed: enrolled / commits students per commit
+	public long getCommits() {
+		return commits.get();
+	}
+
+	// Events buffered, not written yet
+	public long getPending() {
+		return events.pending();
+	}
+
+	/**
+	 * No new events are accepted, waits for the flusher to write the buffered ones
+	 */
+	@Override
+	public void close() {
+		if (flusher == null || closing) return;
+		closing = true;
+		events.wakeProducers();
+		LockSupport.unpark(flusher);
+		awaitFlusher();
+		logger.info("enrollment buffer closed: " + enrolled.get() + " enrolled, " + failed.get() + " failed, " + commits.get() + " commits");
+	}
+
+	private void awaitFlusher() {
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void checkNotStarted() {
+		if (flusher != null) throw new IllegalStateException("enrollment buffer already started");
+	}
+
+	// Flusher thread
+	private void flush() {
+		List<Enrollment> group = new ArrayList<Enrollment>(maxBatch);
+		while (true) {
+			int ready = events.readable(maxBatch);
+
+			if (ready == 0) {
+				if (closing && events.isDrained()) return; // Nothing claimed and not yet published either
+				LockSupport.parkNanos(closing ? 10000 : Math.max(maxLatencyNanos, 10000)); // Woken up by the first event, at worst after maxLatency
+				continue;
+			}
+			if (ready < maxBatch && !closing) {
+				long wait = events.peek().enqueued + maxLatencyNanos - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(wait); // Woken up earlier when the group is full
+					continue;
+				}
+			}
+
+			for (int i = 0; i < ready; i++)
+				group.add(events.poll()); // Frees the slot
+			write(group);
+			group.clear();
+		}
+	}
+
+	// A group that fails is split in two halves, written separately: a bad event costs about 2 * log2(group size) transactions
+	private void write(List<Enrollment> group) {
+		try {
+			List<Long> ids = persist(group);
+			for (int i = 0; i < group.size(); i++)
+				group.get(i).acknowledgement.complete(ids.get(i));
+			enrolled.addAndGet(group.size());
+		} catch (RuntimeException e) {
+			if (group.size() == 1) {
+				fail(group.get(0), e);
+				return;
+			}
+			if (logger.isDebugEnabled()) {
+				logger.debug("enrollment group of " + group.size() + " failed, splitting it: " + e.getMessage());
+			}
+			write(group.subList(0, group.size() / 2));
+			write(group.subList(group.size() / 2, group.size()));
+		}
+	}
+
+	private void fail(Enrollment enrollment, RuntimeException e) {
+		failed.incrementAndGet();
+		enrollment.acknowledgement.completeExceptionally(e);
+		if (logger.isDebugEnabled()) {
+			logger.debug("enrollment " + enrollment.enrollmentId + " failed: " + e.getMessage());
+		}
+	}
+
+	// One transaction: the ids of the students once committed
+	private List<Long> persist(List<Enrollment> group) {
+		EntityManager em = emf.createEntityManager();
+		em.setFlushMode(FlushModeType.COMMIT); // One flush, at commit: one JDBC batch per hibernate.jdbc.batch_size students
+		EntityTransaction txn = em.getTransaction();
+		try {
+			txn.begin();
+			List<Student> students = new ArrayList<Student>(group.size());
+			Set<Long> guides = new HashSet<Long>();
+			for (Enrollment enrollment : group) {
+				Guide guide = enrollment.guideId == null ? null : em.getReference(Guide.class, enrollment.guideId); // No select of the guide
+				Student student = new Student(enrollment.enrollmentId, enrollment.name, guide);
+				em.persist(student);
+				students.add(student);
+				if (enrollment.guideId != null) guides.add(enrollment.guideId);
+			}
+			txn.commit();
+			commits.incrementAndGet();
+
+			SessionFactory factory = emf.unwrap(SessionFactory.class);
+			for (Long guide : guides)
+				factory.getCache().evictCollection(STUDENTS, guide); // Inverse side: the insert of a student doesn't evict it
+
+			List<Long> ids = new ArrayList<Long>(students.size());
+			for (Student student : students)
+				ids.add(student.getId());
+			return ids;
+		} catch (RuntimeException e) {
+			if (txn.isActive()) {
+				try {
+					txn.rollback();
+				} catch (RuntimeException rollbackFailure) {
+					logger.error("rollback failed: " + rollbackFailure.getMessage()); // The original exception is the one reported
+				}
+			}
+			throw e;
+		} finally {
+			em.close();
+		}
+	}
+
+	private static class Enrollment {
+
+		final String enrollmentId;
+		final String name;
+		final Long guideId;
+		final long enqueued = System.nanoTime();
+		final CompletableFuture<Long> acknowledgement = new CompletableFuture<Long>();
+
+		Enrollment(String enrollmentId, String name, Long guideId) {
+			this.enrollmentId = enrollmentId;
+			this.name = name;
+			this.guideId = guideId;
+		}
+
+	}
+
+}
@@ -0,0 +1,22 @@
+package com.jorge.ingest;
+
+import javax.persistence.EntityManager;
+
+import com.jorge.entity.Guide;
+
+/**
+ * Guide CSV record: staffId,name,salary
+ * 		GD200331,Homer Simpson,1200
+ */
+public class GuideRecordMapper implements RecordMapper<Guide> {
+
+	@Override
+	public Guide map(EntityManager em, String[] fields) {
+		if (fields.length != 3) {
+			throw new IllegalArgumentException("guide record must be staffId,name,salary but has " + fields.length + " fields");
+		}
+		Integer salary = fields[2].isEmpty() ? null : Integer.valueOf(fields[2]);
+		return new Guide(fields[0], fields[1], salary);
+	}
+
+}
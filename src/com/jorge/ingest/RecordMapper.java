@@ -0,0 +1,17 @@
+package com.jorge.ingest;
+
+import javax.persistence.EntityManager;
+
+/**
+ * Converts one input record (the fields of a CSV line) into a new entity ready to be persisted by BulkLoader
+ *
+ * The EntityManager is cleared every batch, so mappers must not keep managed entities between calls.
+ * Use em.getReference(...) with a cached id to link an associated entity (see StudentRecordMapper.java)
+ *
+ * @param <T> Entity class (Guide, Student)
+ */
+public interface RecordMapper<T> {
+
+	T map(EntityManager em, String[] fields);
+
+}
@@ -0,0 +1,48 @@
+package com.jorge.ingest;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import com.jorge.entity.Guide;
+import com.jorge.entity.Student;
+
+/**
+ * Student CSV record: enrollmentId,name,guideStaffId
+ * 		ST109883,Bart Simpson,GD200331
+ * 		1299384FFG,Sheldon Cooper,            <= No guide for this student (guide_id = null)
+ *
+ * The guide is linked through em.getReference(Guide.class, id), so no guide row is loaded per student.
+ * Guide ids are looked up once per staffId (named query Guide.findIdByStaffId of orm.xml) and cached for the whole load
+ */
+public class StudentRecordMapper implements RecordMapper<Student> {
+
+	private final Map<String, Long> guideIds = new HashMap<String, Long>(); // staffId => guide.id
+
+	@Override
+	public Student map(EntityManager em, String[] fields) {
+		if (fields.length != 3) {
+			throw new IllegalArgumentException("student record must be enrollmentId,name,guideStaffId but has " + fields.length + " fields");
+		}
+		Guide guide = fields[2].isEmpty() ? null : em.getReference(Guide.class, guideId(em, fields[2]));
+		return new Student(fields[0], fields[1], guide);
+	}
+
+	private Long guideId(EntityManager em, String staffId) {
+		Long id = guideIds.get(staffId);
+		if (id == null) {
+			List<Long> ids = em.createNamedQuery("Guide.findIdByStaffId", Long.class)
+							   .setParameter("staffId", staffId)
+							   .getResultList();
+			if (ids.isEmpty()) {
+				throw new IllegalArgumentException("no guide with staffId " + staffId);
+			}
+			id = ids.get(0);
+			guideIds.put(staffId, id);
+		}
+		return id;
+	}
+
+}
@@ -0,0 +1,254 @@
+package com.jorge.logging;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Layout;
+import org.apache.log4j.Level;
+import org.apache.log4j.RollingFileAppender;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+import com.jorge.work.RingBuffer;
+
+/**
+ * Asynchronous rolling file appender: the logging thread only puts the event in a ring buffer, one background thread
+ * formats the events and writes them to the file in batches
+ *
+ * With the synchronous RollingFileAppender every logger.debug() of a request waits for the formatting and the disk write,
+ * holding the appender lock. Here it waits for nothing (DROP, SAMPLE) or only when the buffer is full (BLOCK)
+ *
+ * log4j.properties:
+ * 		log4j.appender.async=com.jorge.logging.AsyncFileAppender
+ * 		log4j.appender.async.File=log_file.log
+ * 		log4j.appender.async.MaxFileSize=2MB
+ * 		log4j.appender.async.MaxBackupIndex=1
+ * 		log4j.appender.async.BufferSize=8192				(events, rounded up to a power of two. Default 8192)
+ * 		log4j.appender.async.OverflowPolicy=DROP			(BLOCK, DROP or SAMPLE. Default BLOCK)
+ * 		log4j.appender.async.SampleRate=10					(SAMPLE: 1 of every 10 events is kept. Default 10)
+ * 		log4j.appender.async.BatchSize=256					(events written between two flushes of the file. Default 256)
+ * 		log4j.appender.async.LocationInfo=false				(%L, %M, %F, %l in the pattern: costly, taken on the logging thread. Default false)
+ * 		log4j.appender.async.layout=org.apache.log4j.PatternLayout
+ *
+ * Overflow policies, when the buffer is full:
+ * 		BLOCK	The logging thread waits for a free slot. Nothing is lost
+ * 		DROP	Events below WARN are discarded. WARN, ERROR and FATAL wait
+ * 		SAMPLE	When the buffer is half full, only 1 of every SampleRate events below WARN is kept. When it is full, like DROP
+ * Discarded events are counted and reported in the file ("AsyncFileAppender dropped 1234 events")
+ *
+ * The buffer is a lock-free RingBuffer (com.jorge.work): logging threads claim a slot with a compare-and-set, the writer thread frees it.
+ * The writer sleeps (LockSupport.park()) while the buffer is empty, and the logging thread that publishes an event wakes it up only
+ * if it is sleeping. Logging threads that wait for a free slot (BLOCK) sleep until the writer frees one
+ */
+public class AsyncFileAppender extends AppenderSkeleton {
+
+	public static final String BLOCK = "BLOCK";
+	public static final String DROP = "DROP";
+	public static final String SAMPLE = "SAMPLE";
+
+	private static final long CLOSE_CHECK_NANOS = 100000000; // A logging thread waiting for a free slot sees close() after 100 ms at worst
+
+	private String file;
+	private String maxFileSize = "10MB";
+	private int maxBackupIndex = 1;
+	private int bufferSize = 8192;
+	private String overflowPolicy = BLOCK;
+	private int sampleRate = 10;
+	private int batchSize = 256;
+	private boolean locationInfo;
+
+	private RingBuffer<LoggingEvent> events; // The writer thread is the consumer
+
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong sampled = new AtomicLong();
+	private FileSink sink;
+	private Thread writer;
+	private volatile boolean writerParked; // Set by the writer before it parks: the next event unparks it
+	private volatile boolean closing;
+
+	// log4j.properties setters
+
+	public void setFile(String file) {
+		this.file = file;
+	}
+
+	public void setMaxFileSize(String maxFileSize) {
+		this.maxFileSize = maxFileSize;
+	}
+
+	public void setMaxBackupIndex(int maxBackupIndex) {
+		this.maxBackupIndex = maxBackupIndex;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public void setOverflowPolicy(String overflowPolicy) {
+		this.overflowPolicy = overflowPolicy.trim().toUpperCase(Locale.ROOT);
+	}
+
+	public void setSampleRate(int sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setLocationInfo(boolean locationInfo) {
+		this.locationInfo = locationInfo;
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	@Override
+	public void activateOptions() {
+		if (!BLOCK.equals(overflowPolicy) && !DROP.equals(overflowPolicy) && !SAMPLE.equals(overflowPolicy)) {
+			LogLog.error("unknown OverflowPolicy " + overflowPolicy + " for appender " + name + ", using " + BLOCK);
+			overflowPolicy = BLOCK;
+		}
+		events = new RingBuffer<LoggingEvent>(Math.max(1, bufferSize));
+
+		sink = new FileSink();
+		sink.setFile(file);
+		sink.setMaxFileSize(maxFileSize);
+		sink.setMaxBackupIndex(maxBackupIndex);
+		sink.setBufferedIO(true); // The writer flushes once per batch, not once per event
+		sink.setBufferSize(64 * 1024);
+		sink.setLayout(layout);
+		sink.setErrorHandler(errorHandler);
+		sink.activateOptions();
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "async-log-writer-" + name);
+		writer.setDaemon(true); // Never keeps the JVM alive: the shutdown hook writes what is left
+		writer.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				close();
+			}
+		}, "async-log-close-" + name));
+	}
+
+	// AppenderSkeleton.doAppend() is synchronized: every logging thread would queue on the appender lock
+	@Override
+	public void doAppend(LoggingEvent event) {
+		if (closed || !isAsSevereAsThreshold(event.getLevel())) return;
+		for (Filter filter = getFirstFilter(); filter != null; filter = filter.getNext()) {
+			int decision = filter.decide(event);
+			if (decision == Filter.DENY) return;
+			if (decision == Filter.ACCEPT) break;
+		}
+		append(event);
+	}
+
+	@Override
+	protected void append(LoggingEvent event) {
+		if (closing) return;
+
+		// What depends on the logging thread must be read now, the writer runs on another thread
+		event.getNDC();
+		event.getThreadName();
+		event.getMDCCopy();
+		event.getRenderedMessage();
+		event.getThrowableStrRep();
+		if (locationInfo) event.getLocationInformation();
+
+		boolean important = event.getLevel().isGreaterOrEqual(Level.WARN);
+		if (!important && SAMPLE.equals(overflowPolicy) && events.pending() > events.capacity() / 2
+				&& sampled.incrementAndGet() % sampleRate != 0) {
+			dropped.incrementAndGet();
+			return;
+		}
+
+		boolean mayWait = important || BLOCK.equals(overflowPolicy);
+		while (events.offer(event) < 0) {
+			if (!mayWait) {
+				dropped.incrementAndGet();
+				return;
+			}
+			events.awaitSpace(CLOSE_CHECK_NANOS); // Full: the writer wakes us up when it frees a slot
+			if (closing) return;
+		}
+		if (writerParked) LockSupport.unpark(writer); // After publishing: the writer sees the event, or its flag is seen here
+	}
+
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		closing = true;
+		if (writer != null) {
+			events.wakeProducers();
+			LockSupport.unpark(writer);
+			try {
+				writer.join(5000); // Writes the events already in the buffer
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	public boolean requiresLayout() {
+		return true;
+	}
+
+	// Writer thread
+	private void write() {
+		while (true) {
+			int written = 0;
+			LoggingEvent event;
+			while (written < batchSize && (event = events.poll()) != null) {
+				sink.write(event);
+				written++;
+			}
+
+			if (written > 0) {
+				long lost = dropped.getAndSet(0);
+				if (lost > 0)
+					sink.writeLine("AsyncFileAppender dropped " + lost + " events");
+				sink.flush();
+			} else if (closing) {
+				sink.close();
+				return;
+			} else {
+				writerParked = true;
+				if (events.peek() == null && !closing) LockSupport.park(this); // Checked again after the flag: an event published before it is seen here
+				writerParked = false;
+			}
+		}
+	}
+
+	// RollingFileAppender that only flushes when we ask it to
+	private static class FileSink extends RollingFileAppender {
+
+		void write(LoggingEvent event) {
+			doAppend(event);
+		}
+
+		void writeLine(String line) {
+			if (qw == null) return; // The file couldn't be opened, already reported
+			qw.write(line);
+			qw.write(Layout.LINE_SEP);
+		}
+
+		void flush() {
+			if (qw != null) qw.flush();
+		}
+
+	}
+
+}
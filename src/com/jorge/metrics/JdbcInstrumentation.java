@@ -0,0 +1,160 @@
+package com.jorge.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * JDBC proxies that time the statements of a connection and report them to QueryMetrics
+ *
+ * 		Connection.prepareStatement(sql)/prepareCall(sql)/createStatement()	=> statement proxy
+ * 		PreparedStatement.setXxx(index, value)								=> value kept for the slow query log (only if it is enabled),
+ * 																			   in an array allocated at the first setXxx() and reused
+ * 		Statement.execute*(...)												=> one round trip, timed
+ *
+ * Every other call goes straight to the driver. A proxy is only equal to itself, so the pool can use it as a map key
+ */
+class JdbcInstrumentation {
+
+	private JdbcInstrumentation() {}
+
+	static Connection wrap(Connection connection, QueryMetrics metrics) {
+		return (Connection) Proxy.newProxyInstance(JdbcInstrumentation.class.getClassLoader(), new Class<?>[] { Connection.class },
+				new ConnectionHandler(connection, metrics));
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause(); // The SQLException of the driver, not the reflection wrapper
+		}
+	}
+
+	private static class ConnectionHandler implements InvocationHandler {
+
+		private final Connection connection;
+		private final QueryMetrics metrics;
+
+		ConnectionHandler(Connection connection, QueryMetrics metrics) {
+			this.connection = connection;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("equals".equals(name)) return proxy == args[0];
+			if ("hashCode".equals(name)) return System.identityHashCode(proxy);
+			if ("toString".equals(name)) return "instrumented " + connection;
+
+			Object result = JdbcInstrumentation.invoke(connection, method, args);
+			if (result instanceof Statement && method.getReturnType().isInterface()) {
+				String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null; // null: createStatement()
+				return Proxy.newProxyInstance(JdbcInstrumentation.class.getClassLoader(), new Class<?>[] { method.getReturnType() },
+						new StatementHandler((Statement) result, sql, metrics));
+			}
+			return result;
+		}
+
+	}
+
+	private static class StatementHandler implements InvocationHandler {
+
+		private final Statement statement;
+		private final String sql;
+		private final QueryMetrics metrics;
+		private final boolean captureParameters; // false if the slow query log is disabled
+		private Parameters parameters; // Created by the first setXxx()
+		private int batched;
+
+		StatementHandler(Statement statement, String sql, QueryMetrics metrics) {
+			this.statement = statement;
+			this.sql = sql;
+			this.metrics = metrics;
+			this.captureParameters = metrics.capturesParameters();
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.startsWith("execute")) {
+				return execute(method, args);
+			}
+			if (captureParameters && name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+				if (parameters == null) parameters = new Parameters();
+				parameters.set((Integer) args[0], "setNull".equals(name) ? null : args[1]); // setNull(index, sqlType): the second argument is the type
+			} else if ("addBatch".equals(name)) {
+				batched++;
+			} else if ("clearParameters".equals(name) && parameters != null) {
+				parameters.clear();
+			} else if ("clearBatch".equals(name)) {
+				batched = 0;
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			}
+			return JdbcInstrumentation.invoke(statement, method, args);
+		}
+
+		private Object execute(Method method, Object[] args) throws Throwable {
+			String executedSql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql; // Statement.execute(sql)
+			int batchSize = method.getName().startsWith("executeBatch") || method.getName().startsWith("executeLargeBatch") ? batched : 0;
+			boolean failed = true;
+			long start = System.nanoTime();
+			try {
+				Object result = JdbcInstrumentation.invoke(statement, method, args);
+				failed = false;
+				return result;
+			} finally {
+				metrics.recordStatement(executedSql, System.nanoTime() - start, batchSize, failed, parameters);
+				if (batchSize > 0) batched = 0;
+			}
+		}
+
+	}
+
+	/**
+	 * Values of the parameters of a statement, by index. Only turned into a String (toString(), {1=..., 2=...}) for a slow query
+	 */
+	private static final class Parameters {
+
+		private Object[] values = new Object[8];
+		private boolean[] bound = new boolean[8];
+		private int max; // Highest index set
+
+		void set(int index, Object value) {
+			if (index >= values.length) {
+				values = Arrays.copyOf(values, Math.max(index + 1, values.length * 2));
+				bound = Arrays.copyOf(bound, values.length);
+			}
+			values[index] = value;
+			bound[index] = true;
+			max = Math.max(max, index);
+		}
+
+		void clear() {
+			Arrays.fill(values, 0, max + 1, null);
+			Arrays.fill(bound, 0, max + 1, false);
+			max = 0;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder("{");
+			for (int i = 0; i <= max; i++) {
+				if (!bound[i]) continue;
+				if (text.length() > 1) text.append(", ");
+				text.append(i).append('=').append(values[i]);
+			}
+			return text.append('}').toString();
+		}
+
+	}
+
+}
@@ -0,0 +1,92 @@
+package com.jorge.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram in nanoseconds, safe to record from many threads without locks
+ *
+ * Same idea than HdrHistogram: every power of two is split in 32 buckets, so a percentile is never more than 1/32 (3%) away
+ * from the real value, from 1 nanosecond to hours, with a fixed array of 1888 counters (15 KB). Recording is an index computation
+ * and an atomic increment, no allocation
+ *
+ * 		0..31 ns			=> one bucket per nanosecond
+ * 		32..63 ns			=> one bucket per nanosecond
+ * 		64..127 ns			=> one bucket per 2 nanoseconds
+ * 		2^n..2^(n+1)-1 ns	=> one bucket per 2^(n-5) nanoseconds
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0; // System.nanoTime() differences are never negative, but a clock may be
+		counts.incrementAndGet(index(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long currentMax;
+		while (nanos > (currentMax = max.get()) && !max.compareAndSet(currentMax, nanos)) {
+			// Another thread changed max, try again
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) total.get() / n;
+	}
+
+	/**
+	 * Smallest recorded value (within 3%) such as 'percentile' of the values are lower or equal. 0 if nothing was recorded
+	 *
+	 * @param percentile 0.5 for the median, 0.99 for the 99th percentile...
+	 */
+	public long getPercentile(double percentile) {
+		long n = count.get();
+		if (n == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile * n));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(highestValue(i), max.get());
+		}
+		return max.get(); // Values recorded while we were reading
+	}
+
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++)
+			counts.set(i, 0);
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS; // value >>> exponent is in [32, 64)
+		return exponent * SUB_BUCKETS + (int) (value >>> exponent);
+	}
+
+	// Highest value that goes to bucket 'index'
+	static long highestValue(int index) {
+		if (index < 2 * SUB_BUCKETS) return index; // One bucket per nanosecond
+		int exponent = index / SUB_BUCKETS - 1;
+		long mantissa = index - exponent * SUB_BUCKETS;
+		return ((mantissa + 1) << exponent) - 1;
+	}
+
+}
@@ -0,0 +1,75 @@
+package com.jorge.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Pull-style metrics endpoint: GET http://host:<hibernate.metrics.http_port>/metrics returns PersistenceMetrics.getReport()
+ *
+ * Uses the http server of the JDK (com.sun.net.httpserver), no extra jar. One daemon thread answers the requests
+ *
+ * There is no authentication and the report has SQL of the slow queries: MetricsIntegrator binds it to the loopback address
+ * unless hibernate.metrics.http_address says otherwise (e.g. the address a Prometheus server scrapes)
+ */
+public class MetricsHttpServer {
+
+	public static final String PATH = "/metrics";
+
+	private static final Logger logger = Logger.getLogger(MetricsHttpServer.class.getName());
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	public MetricsHttpServer(InetAddress address, int port, final PersistenceMetrics metrics) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(address, port), 0);
+		server.createContext(PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					byte[] body = metrics.getReport().getBytes(UTF_8);
+					exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+					exchange.sendResponseHeaders(200, body.length);
+					OutputStream out = exchange.getResponseBody();
+					out.write(body);
+					out.close();
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "metrics-http");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+		logger.info("metrics available at http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort() + PATH);
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+}
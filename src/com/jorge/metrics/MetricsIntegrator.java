@@ -0,0 +1,167 @@
+package com.jorge.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.AutoFlushEvent;
+import org.hibernate.event.spi.AutoFlushEventListener;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.FlushEvent;
+import org.hibernate.event.spi.FlushEventListener;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.metamodel.source.MetadataImplementor;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+import com.jorge.pool.PooledConnectionProvider;
+
+/**
+ * Plugs the metrics in every session factory that has them enabled (hibernate.metrics.enabled=true, see QueryMetrics.java):
+ * 		- Flush listeners: the first and the last listener of the flush and auto flush (before queries) events measure how long the flush takes
+ * 		- JMX: MBean com.jorge:type=PersistenceMetrics,name=<persistence unit>
+ * 		- Http: GET /metrics on hibernate.metrics.http_port, if it is set. Only from this machine (loopback address) unless
+ * 		  hibernate.metrics.http_address is set: a host name or IP address of this machine, 0.0.0.0 for every interface
+ *
+ * Hibernate finds it through META-INF/services/org.hibernate.integrator.spi.Integrator. Everything is removed when the factory is closed
+ */
+public class MetricsIntegrator implements Integrator {
+
+	private static final Logger logger = Logger.getLogger(MetricsIntegrator.class.getName());
+	private static final ThreadLocal<long[]> flushStart = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1]; // Reused by every flush of the thread
+		}
+	};
+
+	private final Map<SessionFactoryImplementor, Registration> registrations = new ConcurrentHashMap<SessionFactoryImplementor, Registration>();
+
+	@Override
+	public void integrate(Configuration configuration, SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+		ConnectionProvider provider = serviceRegistry.getService(ConnectionProvider.class);
+		final QueryMetrics metrics = provider instanceof PooledConnectionProvider ? ((PooledConnectionProvider) provider).getQueryMetrics() : null;
+		if (metrics == null) return; // Disabled
+
+		EventListenerRegistry listeners = serviceRegistry.getService(EventListenerRegistry.class);
+		FlushStartListener flushStartListener = new FlushStartListener();
+		FlushEndListener flushEndListener = new FlushEndListener(metrics);
+		listeners.prependListeners(EventType.FLUSH, flushStartListener);
+		listeners.appendListeners(EventType.FLUSH, flushEndListener);
+		listeners.prependListeners(EventType.AUTO_FLUSH, flushStartListener); // Before every query of a session with FlushModeType.AUTO
+		listeners.appendListeners(EventType.AUTO_FLUSH, flushEndListener);
+
+		Map<?, ?> settings = configuration.getProperties();
+		PersistenceMetrics persistenceMetrics = new PersistenceMetrics(sessionFactory, metrics);
+		Registration registration = new Registration();
+
+		if (Boolean.parseBoolean(QueryMetrics.setting(settings, "jmx", "true"))) {
+			Object unit = settings.get("hibernate.ejb.persistenceUnitName");
+			try {
+				ObjectName name = new ObjectName("com.jorge:type=PersistenceMetrics,name=" + ObjectName.quote(unit == null ? "default" : unit.toString()));
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				if (server.isRegistered(name)) {
+					logger.warn(name + " is already registered by another factory of the same persistence unit, not registered again");
+				} else {
+					server.registerMBean(persistenceMetrics, name);
+					registration.objectName = name;
+				}
+			} catch (JMException e) {
+				throw new HibernateException("cannot register the metrics MBean", e);
+			}
+		}
+
+		int port = Integer.parseInt(QueryMetrics.setting(settings, "http_port", "0"));
+		if (port > 0) {
+			String host = QueryMetrics.setting(settings, "http_address", "");
+			try {
+				InetAddress address = host.isEmpty() ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host);
+				registration.httpServer = new MetricsHttpServer(address, port, persistenceMetrics);
+			} catch (IOException e) {
+				throw new HibernateException("cannot start the metrics endpoint on " + (host.isEmpty() ? "the loopback address" : host) + ", port " + port, e);
+			}
+		}
+
+		registrations.put(sessionFactory, registration);
+	}
+
+	@Override
+	public void integrate(MetadataImplementor metadata, SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+		// New metamodel, not used by Hibernate 4.3
+	}
+
+	@Override
+	public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+		Registration registration = registrations.remove(sessionFactory);
+		if (registration == null) return;
+
+		if (registration.objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(registration.objectName);
+			} catch (JMException e) {
+				logger.warn("cannot unregister " + registration.objectName + ": " + e.getMessage());
+			}
+		}
+		if (registration.httpServer != null)
+			registration.httpServer.stop();
+	}
+
+	private static class Registration {
+
+		private ObjectName objectName;
+		private MetricsHttpServer httpServer;
+
+	}
+
+	private static class FlushStartListener implements FlushEventListener, AutoFlushEventListener {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void onFlush(FlushEvent event) {
+			flushStart.get()[0] = System.nanoTime();
+		}
+
+		@Override
+		public void onAutoFlush(AutoFlushEvent event) {
+			flushStart.get()[0] = System.nanoTime();
+		}
+
+	}
+
+	// Not called if the flush fails: failed flushes are not measured, their statements are.
+	// Auto flushes are measured even when they find nothing to write: the dirty check of the persistence context is their cost
+	private static class FlushEndListener implements FlushEventListener, AutoFlushEventListener {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient QueryMetrics metrics;
+
+		FlushEndListener(QueryMetrics metrics) {
+			this.metrics = metrics;
+		}
+
+		@Override
+		public void onFlush(FlushEvent event) {
+			metrics.recordFlush(System.nanoTime() - flushStart.get()[0]);
+		}
+
+		@Override
+		public void onAutoFlush(AutoFlushEvent event) {
+			metrics.recordFlush(System.nanoTime() - flushStart.get()[0]);
+		}
+
+	}
+
+}
@@ -0,0 +1,180 @@
+package com.jorge.metrics;
+
+import java.util.List;
+
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.Statistics;
+
+import com.jorge.cache.CacheStatistics;
+import com.jorge.cache.QueryResultCache;
+import com.jorge.pool.PoolStatistics;
+import com.jorge.pool.PooledConnectionProvider;
+
+/**
+ * Everything measured for a persistence unit in one place, for JMX (PersistenceMetricsMBean) and the http endpoint (MetricsHttpServer)
+ *
+ * 		- QueryMetrics: latency histograms per SQL statement and per flush, JDBC round trips, slow queries
+ * 		- Hibernate statistics (hibernate.generate_statistics=true): rows per JPQL query, entities loaded (hydrated),
+ * 		  second-level cache hits/misses
+ * 		- QueryResultCache hits/misses, connection pool
+ *
+ * getReport() is the Prometheus text format, so the endpoint can be scraped as it is
+ */
+public class PersistenceMetrics implements PersistenceMetricsMBean {
+
+	private final SessionFactoryImplementor factory;
+	private final QueryMetrics metrics;
+
+	public PersistenceMetrics(SessionFactoryImplementor factory, QueryMetrics metrics) {
+		this.factory = factory;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public long getJdbcRoundTrips() {
+		return metrics.getRoundTrips();
+	}
+
+	@Override
+	public String[] getStatements() {
+		List<StatementStatistics> statements = metrics.getStatements();
+		String[] lines = new String[statements.size()];
+		for (int i = 0; i < lines.length; i++)
+			lines[i] = statements.get(i).toString();
+		return lines;
+	}
+
+	@Override
+	public String[] getSlowQueries() {
+		List<SlowQuery> slowQueries = metrics.getSlowQueries();
+		String[] lines = new String[slowQueries.size()];
+		for (int i = 0; i < lines.length; i++)
+			lines[i] = slowQueries.get(i).toString();
+		return lines;
+	}
+
+	@Override
+	public String[] getQueries() {
+		Statistics statistics = factory.getStatistics();
+		String[] queries = statistics.getQueries();
+		String[] lines = new String[queries.length];
+		for (int i = 0; i < lines.length; i++) {
+			QueryStatistics query = statistics.getQueryStatistics(queries[i]);
+			lines[i] = "executions=" + query.getExecutionCount() + ", rows=" + query.getExecutionRowCount() + ", avgMillis=" + query.getExecutionAvgTime()
+					+ ", maxMillis=" + query.getExecutionMaxTime() + ", query=" + queries[i].trim();
+		}
+		return lines;
+	}
+
+	@Override
+	public String getFlushes() {
+		return metrics.getFlushes().toString();
+	}
+
+	@Override
+	public long getEntitiesLoaded() {
+		return factory.getStatistics().getEntityLoadCount();
+	}
+
+	@Override
+	public long getSecondLevelCacheHits() {
+		return factory.getStatistics().getSecondLevelCacheHitCount();
+	}
+
+	@Override
+	public long getSecondLevelCacheMisses() {
+		return factory.getStatistics().getSecondLevelCacheMissCount();
+	}
+
+	@Override
+	public long getQueryCacheHits() {
+		return QueryResultCache.getTotalStatistics(factory).getHits() + factory.getStatistics().getQueryCacheHitCount();
+	}
+
+	@Override
+	public long getQueryCacheMisses() {
+		return QueryResultCache.getTotalStatistics(factory).getMisses() + factory.getStatistics().getQueryCacheMissCount();
+	}
+
+	@Override
+	public void reset() {
+		metrics.reset();
+		factory.getStatistics().clear();
+	}
+
+	@Override
+	public String getReport() {
+		StringBuilder report = new StringBuilder(4096);
+		Statistics statistics = factory.getStatistics();
+
+		counter(report, "jdbc_round_trips_total", "Statements executed: one round trip each", metrics.getRoundTrips());
+		report.append("# HELP statement_latency_microseconds Latency of every SQL statement\n");
+		report.append("# TYPE statement_latency_microseconds summary\n");
+		for (StatementStatistics statement : metrics.getStatements())
+			summary(report, "statement_latency_microseconds", "sql", statement);
+		report.append("# TYPE statement_failures_total counter\n");
+		for (StatementStatistics statement : metrics.getStatements())
+			report.append("statement_failures_total{sql=\"").append(escape(statement.getSql())).append("\"} ").append(statement.getFailures()).append('\n');
+		report.append("# HELP flush_latency_microseconds Flushes of the persistence context\n");
+		report.append("# TYPE flush_latency_microseconds summary\n");
+		summary(report, "flush_latency_microseconds", null, metrics.getFlushes());
+		gauge(report, "slow_queries", "Slow queries kept in the log", metrics.getSlowQueries().size());
+
+		report.append("# HELP query_executions_total Executions of every JPQL/HQL query\n");
+		report.append("# TYPE query_executions_total counter\n");
+		for (String query : statistics.getQueries())
+			report.append("query_executions_total{query=\"").append(escape(query.trim())).append("\"} ").append(statistics.getQueryStatistics(query).getExecutionCount()).append('\n');
+		report.append("# HELP query_rows_total Rows returned by every JPQL/HQL query\n");
+		report.append("# TYPE query_rows_total counter\n");
+		for (String query : statistics.getQueries())
+			report.append("query_rows_total{query=\"").append(escape(query.trim())).append("\"} ").append(statistics.getQueryStatistics(query).getExecutionRowCount()).append('\n');
+
+		counter(report, "entities_loaded_total", "Entities hydrated from JDBC rows", statistics.getEntityLoadCount());
+		counter(report, "second_level_cache_hits_total", "Entities and collections read from the second-level cache", statistics.getSecondLevelCacheHitCount());
+		counter(report, "second_level_cache_misses_total", "Second-level cache lookups that went to the database", statistics.getSecondLevelCacheMissCount());
+		CacheStatistics queryCache = QueryResultCache.getTotalStatistics(factory);
+		counter(report, "query_cache_hits_total", "Query results read from QueryResultCache", queryCache.getHits() + statistics.getQueryCacheHitCount());
+		counter(report, "query_cache_misses_total", "QueryResultCache lookups that went to the database", queryCache.getMisses() + statistics.getQueryCacheMissCount());
+
+		ConnectionProvider provider = factory.getServiceRegistry().getService(ConnectionProvider.class);
+		if (provider instanceof PooledConnectionProvider) {
+			PoolStatistics pool = ((PooledConnectionProvider) provider).getStatistics();
+			gauge(report, "pool_active_connections", "Connections borrowed", pool.getActive());
+			gauge(report, "pool_idle_connections", "Connections ready to be borrowed", pool.getIdle());
+			gauge(report, "pool_waiting_threads", "Threads waiting for a connection", pool.getWaiting());
+			counter(report, "pool_timeouts_total", "Threads that gave up waiting for a connection", pool.getTimeouts());
+		}
+		return report.toString();
+	}
+
+	private static void counter(StringBuilder report, String name, String help, long value) {
+		report.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		report.append("# TYPE ").append(name).append(" counter\n");
+		report.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void gauge(StringBuilder report, String name, String help, long value) {
+		report.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		report.append("# TYPE ").append(name).append(" gauge\n");
+		report.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void summary(StringBuilder report, String name, String label, StatementStatistics statistics) {
+		String labels = label == null ? "" : label + "=\"" + escape(statistics.getSql()) + "\",";
+		report.append(name).append('{').append(labels).append("quantile=\"0.5\"} ").append(statistics.getP50Micros()).append('\n');
+		report.append(name).append('{').append(labels).append("quantile=\"0.9\"} ").append(statistics.getP90Micros()).append('\n');
+		report.append(name).append('{').append(labels).append("quantile=\"0.99\"} ").append(statistics.getP99Micros()).append('\n');
+		report.append(name).append('{').append(labels).append("quantile=\"1.0\"} ").append(statistics.getMaxMicros()).append('\n');
+		String count = label == null ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+		report.append(name).append("_count").append(count).append(' ').append(statistics.getExecutions()).append('\n');
+		report.append(name).append("_sum").append(count).append(' ').append(Math.round(statistics.getMeanMicros() * statistics.getExecutions())).append('\n');
+	}
+
+	// Label values: backslash, quote and new lines must be escaped. DDL and orm.xml queries span several lines
+	private static String escape(String value) {
+		return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", " ").replace("\r", " ");
+	}
+
+}
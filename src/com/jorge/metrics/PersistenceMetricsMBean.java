@@ -0,0 +1,36 @@
+package com.jorge.metrics;
+
+/**
+ * JMX view of PersistenceMetrics: jconsole/VisualVM => MBeans => com.jorge => PersistenceMetrics => helloworld
+ */
+public interface PersistenceMetricsMBean {
+
+	long getJdbcRoundTrips();
+
+	// One line per SQL statement, the most expensive first (StatementStatistics.toString())
+	String[] getStatements();
+
+	// Most recent first (SlowQuery.toString())
+	String[] getSlowQueries();
+
+	// One line per JPQL/HQL query: executions, rows returned, average and maximum time
+	String[] getQueries();
+
+	String getFlushes();
+
+	long getEntitiesLoaded();
+
+	long getSecondLevelCacheHits();
+
+	long getSecondLevelCacheMisses();
+
+	long getQueryCacheHits();
+
+	long getQueryCacheMisses();
+
+	// Same text than the http endpoint
+	String getReport();
+
+	void reset();
+
+}
@@ -0,0 +1,195 @@
+package com.jorge.metrics;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.log4j.Logger;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import com.jorge.pool.PooledConnectionProvider;
+
+/**
+ * Latency of every SQL statement and flush, JDBC round trips and slow queries with their parameters
+ *
+ * The connections of PooledConnectionProvider are wrapped (JdbcInstrumentation.java) so every execute is timed, whatever
+ * runs it: JPQL, native SQL, flushes, lazy loading... Statements are grouped by their SQL, which has '?' instead of values,
+ * so every query of orm.xml is one line whatever its parameters are
+ *
+ * persistence.xml:
+ * 		<property name="hibernate.metrics.enabled" value="true" />						(default false)
+ * 		<property name="hibernate.metrics.slow_query_threshold" value="100" />			(ms, default 100, 0 => no slow query log)
+ * 		<property name="hibernate.metrics.slow_query_log_size" value="100" />			(default 100, the most recent ones are kept)
+ * 		<property name="hibernate.metrics.jmx" value="true" />							(default true, see MetricsIntegrator.java)
+ * 		<property name="hibernate.metrics.http_port" value="9404" />					(default 0 => no http endpoint)
+ *
+ * Usage:
+ * 		QueryMetrics metrics = QueryMetrics.get(emf);
+ * 		for (StatementStatistics statement : metrics.getStatements()) System.out.println(statement); // Most expensive first
+ */
+public class QueryMetrics {
+
+	public static final String PREFIX = "hibernate.metrics.";
+	public static final String FLUSH = "flush"; // Name of the flush statistics
+	public static final int MAX_STATEMENTS = 1000; // Different SQL statements measured, the rest are counted together as "other"
+
+	private static final Logger logger = Logger.getLogger(QueryMetrics.class.getName());
+	private static final String OTHER = "other";
+
+	private final long slowQueryThresholdNanos;
+	private final int slowQueryLogSize;
+	private final ConcurrentMap<String, StatementMetrics> statements = new ConcurrentHashMap<String, StatementMetrics>();
+	private final LinkedBlockingDeque<SlowQuery> slowQueries = new LinkedBlockingDeque<SlowQuery>();
+	private final StatementMetrics flushes = new StatementMetrics();
+	private final AtomicLong roundTrips = new AtomicLong();
+
+	public QueryMetrics(long slowQueryThresholdMillis, int slowQueryLogSize) {
+		this.slowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryThresholdMillis);
+		this.slowQueryLogSize = slowQueryLogSize;
+	}
+
+	/**
+	 * Metrics of the hibernate.metrics.* settings, null if hibernate.metrics.enabled is not true
+	 */
+	public static QueryMetrics configure(Map<?, ?> settings) {
+		if (!Boolean.parseBoolean(setting(settings, "enabled", "false"))) return null;
+		return new QueryMetrics(Long.parseLong(setting(settings, "slow_query_threshold", "100")), Integer.parseInt(setting(settings, "slow_query_log_size", "100")));
+	}
+
+	/**
+	 * Metrics of a persistence unit. null if metrics are disabled or the unit doesn't use PooledConnectionProvider
+	 */
+	public static QueryMetrics get(EntityManagerFactory emf) {
+		ConnectionProvider provider = emf.unwrap(SessionFactoryImplementor.class).getServiceRegistry().getService(ConnectionProvider.class);
+		return provider instanceof PooledConnectionProvider ? ((PooledConnectionProvider) provider).getQueryMetrics() : null;
+	}
+
+	static String setting(Map<?, ?> settings, String name, String defaultValue) {
+		Object value = settings.get(PREFIX + name);
+		return value == null ? defaultValue : value.toString().trim();
+	}
+
+	// Connection whose statements are measured
+	public Connection instrument(Connection connection) {
+		return JdbcInstrumentation.wrap(connection, this);
+	}
+
+	/**
+	 * Every statement, the ones with the highest total time (executions * mean latency) first
+	 */
+	public List<StatementStatistics> getStatements() {
+		List<StatementStatistics> result = new ArrayList<StatementStatistics>(statements.size());
+		for (Map.Entry<String, StatementMetrics> statement : statements.entrySet())
+			result.add(statement.getValue().snapshot(statement.getKey()));
+		Collections.sort(result, new Comparator<StatementStatistics>() {
+			@Override
+			public int compare(StatementStatistics s1, StatementStatistics s2) {
+				return Double.compare(s2.getTotalMillis(), s1.getTotalMillis());
+			}
+		});
+		return result;
+	}
+
+	// Most recent first
+	public List<SlowQuery> getSlowQueries() {
+		return new ArrayList<SlowQuery>(slowQueries);
+	}
+
+	// Flushes of the persistence context (commit, em.flush() and auto flushes before queries): dirty checking + the inserts/updates/deletes. The statements are also in getStatements()
+	public StatementStatistics getFlushes() {
+		return flushes.snapshot(FLUSH);
+	}
+
+	public long getRoundTrips() {
+		return roundTrips.get();
+	}
+
+	public long getSlowQueryThresholdMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(slowQueryThresholdNanos);
+	}
+
+	public void reset() {
+		statements.clear();
+		slowQueries.clear();
+		flushes.reset();
+		roundTrips.set(0);
+	}
+
+	// Parameters are only needed for the slow query log
+	boolean capturesParameters() {
+		return slowQueryThresholdNanos > 0;
+	}
+
+	/**
+	 * @param batched statements sent in this round trip with addBatch(), 0 for a single statement
+	 * @param parameters values of the parameters, only read if the statement was slow
+	 */
+	void recordStatement(String sql, long nanos, int batched, boolean failed, Object parameters) {
+		roundTrips.incrementAndGet();
+		statementMetrics(sql).record(nanos, batched, failed);
+
+		if (slowQueryThresholdNanos > 0 && nanos >= slowQueryThresholdNanos) {
+			SlowQuery slowQuery = new SlowQuery(System.currentTimeMillis(), TimeUnit.NANOSECONDS.toMicros(nanos), sql, String.valueOf(parameters));
+			logger.warn(slowQuery);
+			slowQueries.offerFirst(slowQuery);
+			while (slowQueries.size() > slowQueryLogSize)
+				slowQueries.pollLast(); // The oldest one
+		}
+	}
+
+	void recordFlush(long nanos) {
+		flushes.record(nanos, 0, false);
+	}
+
+	private StatementMetrics statementMetrics(String sql) {
+		StatementMetrics metrics = statements.get(sql);
+		if (metrics == null) {
+			if (statements.size() >= MAX_STATEMENTS) sql = OTHER; // SQL built with values: keep the memory bounded
+			StatementMetrics created = new StatementMetrics();
+			metrics = statements.putIfAbsent(sql, created);
+			if (metrics == null) metrics = created;
+		}
+		return metrics;
+	}
+
+	private static class StatementMetrics {
+
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong batched = new AtomicLong();
+
+		void record(long nanos, int batchedStatements, boolean failed) {
+			latency.record(nanos);
+			if (batchedStatements > 0) batched.addAndGet(batchedStatements);
+			if (failed) failures.incrementAndGet();
+		}
+
+		StatementStatistics snapshot(String sql) {
+			return new StatementStatistics(sql, latency.getCount(), failures.get(), batched.get(), latency.getMean() / 1000,
+					micros(latency.getPercentile(0.50)), micros(latency.getPercentile(0.90)), micros(latency.getPercentile(0.99)), micros(latency.getMax()));
+		}
+
+		void reset() {
+			latency.reset();
+			failures.set(0);
+			batched.set(0);
+		}
+
+		private static long micros(long nanos) {
+			return TimeUnit.NANOSECONDS.toMicros(nanos);
+		}
+
+	}
+
+}
@@ -0,0 +1,47 @@
+package com.jorge.metrics;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A statement that took longer than hibernate.metrics.slow_query_threshold, with the values of its parameters
+ */
+public class SlowQuery {
+
+	private final long timestamp;
+	private final long micros;
+	private final String sql;
+	private final String parameters;
+
+	public SlowQuery(long timestamp, long micros, String sql, String parameters) {
+		this.timestamp = timestamp;
+		this.micros = micros;
+		this.sql = sql;
+		this.parameters = parameters;
+	}
+
+	// When it finished, System.currentTimeMillis()
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public long getMicros() {
+		return micros;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	// "{1=Homer Simpson, 2=1200}": parameter index => value
+	public String getParameters() {
+		return parameters;
+	}
+
+	@Override
+	public String toString() {
+		return "SlowQuery [time=" + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(timestamp)) + ", micros=" + micros
+				+ ", sql=" + sql + ", parameters=" + parameters + "]";
+	}
+
+}
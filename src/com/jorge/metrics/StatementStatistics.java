@@ -0,0 +1,83 @@
+package com.jorge.metrics;
+
+/**
+ * Snapshot of the executions of one SQL statement: every execute(), executeQuery(), executeUpdate() and executeBatch()
+ * is one JDBC round trip to the database
+ *
+ * Latencies are in microseconds, from the execute call until the driver returns (for selects, the first rows are read)
+ */
+public class StatementStatistics {
+
+	private final String sql;
+	private final long executions;
+	private final long failures;
+	private final long batchedStatements;
+	private final double meanMicros;
+	private final long p50Micros;
+	private final long p90Micros;
+	private final long p99Micros;
+	private final long maxMicros;
+
+	public StatementStatistics(String sql, long executions, long failures, long batchedStatements, double meanMicros,
+			long p50Micros, long p90Micros, long p99Micros, long maxMicros) {
+		this.sql = sql;
+		this.executions = executions;
+		this.failures = failures;
+		this.batchedStatements = batchedStatements;
+		this.meanMicros = meanMicros;
+		this.p50Micros = p50Micros;
+		this.p90Micros = p90Micros;
+		this.p99Micros = p99Micros;
+		this.maxMicros = maxMicros;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	// JDBC round trips
+	public long getExecutions() {
+		return executions;
+	}
+
+	public long getFailures() {
+		return failures;
+	}
+
+	// Statements sent with addBatch()/executeBatch(): several of them per round trip
+	public long getBatchedStatements() {
+		return batchedStatements;
+	}
+
+	public double getMeanMicros() {
+		return meanMicros;
+	}
+
+	public long getP50Micros() {
+		return p50Micros;
+	}
+
+	public long getP90Micros() {
+		return p90Micros;
+	}
+
+	public long getP99Micros() {
+		return p99Micros;
+	}
+
+	public long getMaxMicros() {
+		return maxMicros;
+	}
+
+	public double getTotalMillis() {
+		return meanMicros * executions / 1000;
+	}
+
+	@Override
+	public String toString() {
+		return "StatementStatistics [executions=" + executions + ", failures=" + failures + ", batchedStatements=" + batchedStatements
+				+ ", meanMicros=" + String.format("%.1f", meanMicros) + ", p50Micros=" + p50Micros + ", p90Micros=" + p90Micros
+				+ ", p99Micros=" + p99Micros + ", maxMicros=" + maxMicros + ", sql=" + sql + "]";
+	}
+
+}
@@ -0,0 +1,86 @@
+package com.jorge.pool;
+
+/**
+ * Snapshot of the counters and gauges of a PooledConnectionProvider
+ */
+public class PoolStatistics {
+
+	private final int active;
+	private final int idle;
+	private final int waiting;
+	private final long created;
+	private final long destroyed;
+	private final long borrowed;
+	private final long timeouts;
+	private final long validationFailures;
+	private final long leaks;
+	private final long totalWaitNanos;
+
+	public PoolStatistics(int active, int idle, int waiting, long created, long destroyed, long borrowed, long timeouts,
+			long validationFailures, long leaks, long totalWaitNanos) {
+		this.active = active;
+		this.idle = idle;
+		this.waiting = waiting;
+		this.created = created;
+		this.destroyed = destroyed;
+		this.borrowed = borrowed;
+		this.timeouts = timeouts;
+		this.validationFailures = validationFailures;
+		this.leaks = leaks;
+		this.totalWaitNanos = totalWaitNanos;
+	}
+
+	// Connections in use right now
+	public int getActive() {
+		return active;
+	}
+
+	// Open connections waiting in the pool
+	public int getIdle() {
+		return idle;
+	}
+
+	// Threads waiting for a connection right now
+	public int getWaiting() {
+		return waiting;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	public long getDestroyed() {
+		return destroyed;
+	}
+
+	public long getBorrowed() {
+		return borrowed;
+	}
+
+	// Borrows that failed because no connection was free after the acquire timeout
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	// Idle connections found broken (Connection.isValid) and replaced
+	public long getValidationFailures() {
+		return validationFailures;
+	}
+
+	// Connections reported as leaked: borrowed for longer than the leak threshold
+	public long getLeaks() {
+		return leaks;
+	}
+
+	public double getAverageWaitMillis() {
+		return borrowed == 0 ? 0 : totalWaitNanos / 1e6 / borrowed;
+	}
+
+	@Override
+	public String toString() {
+		return "PoolStatistics [active=" + active + ", idle=" + idle + ", waiting=" + waiting + ", created=" + created + ", destroyed=" + destroyed
+				+ ", borrowed=" + borrowed + ", timeouts=" + timeouts + ", validationFailures=" + validationFailures + ", leaks=" + leaks
+				+ ", averageWaitMillis=" + String.format("%.3f", getAverageWaitMillis()) + "]";
+	}
+
+}
@@ -0,0 +1,353 @@
+package com.jorge.pool;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+
+import com.jorge.metrics.QueryMetrics;
+
+/**
+ * Bounded JDBC connection pool for Hibernate
+ *
+ * Without a connection provider Hibernate uses its built-in pool, "not for production use!" (HHH000402). This one has:
+ * 		- Bounded size: at most 'max_size' connections. Other threads wait up to 'acquire_timeout' ms and then get an SQLException
+ * 		- Validation: connections idle for more than 'validation_interval' ms are checked with Connection.isValid() before being borrowed
+ * 		- Leak detection: connections borrowed for more than 'leak_threshold' ms are logged with the time and thread of the borrow.
+ * 						  With 'leak_stack_traces' the stack trace of the borrower too: it is captured on every borrow, turn it on
+ * 						  only to find where a leak comes from
+ * 		- Metrics: PooledConnectionProvider.getStatistics(emf)
+ * 		- Statement metrics: with hibernate.metrics.enabled=true connections are instrumented, see QueryMetrics.java
+ *
+ * persistence.xml:
+ * 		<property name="hibernate.connection.provider_class" value="com.jorge.pool.PooledConnectionProvider" />
+ * 		<property name="hibernate.connection.pool.max_size" value="20" />					(default 20)
+ * 		<property name="hibernate.connection.pool.min_idle" value="2" />					(default 2, opened at startup)
+ * 		<property name="hibernate.connection.pool.acquire_timeout" value="30000" />		(default 30000)
+ * 		<property name="hibernate.connection.pool.validation_interval" value="30000" />	(default 30000)
+ * 		<property name="hibernate.connection.pool.leak_threshold" value="60000" />		(default 60000, 0 => disabled)
+ * 		<property name="hibernate.connection.pool.leak_stack_traces" value="false" />		(default false)
+ *
+ * The database is the one of javax.persistence.jdbc.url/user/password (or hibernate.connection.url/username/password).
+ * Idle connections are reused last-in first-out, so the ones the database may have closed for inactivity are the ones left idle.
+ * A returned connection gets back the autocommit mode of the pool and the transaction isolation and read-only flag it had when
+ * it was opened: a borrower that changed them (a reporting query with READ_UNCOMMITTED, a read-only transaction) doesn't pass them on.
+ * Only java.util.concurrent locks are used, never synchronized: threads waiting for a connection don't pin virtual threads
+ */
+public class PooledConnectionProvider implements ConnectionProvider, Configurable, Stoppable {
+
+	public static final String PREFIX = "hibernate.connection.pool.";
+
+	private static final long serialVersionUID = 1L;
+	private static final Logger logger = Logger.getLogger(PooledConnectionProvider.class.getName());
+
+	private String url;
+	private final Properties connectionProperties = new Properties();
+	private boolean autoCommit;
+	private int maxSize;
+	private long acquireTimeoutMillis;
+	private long validationIntervalMillis;
+	private long leakThresholdMillis;
+	private boolean leakStackTraces;
+
+	private Semaphore permits; // One permit per connection that can be borrowed
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+	private final Map<Connection, Borrow> borrowed = new ConcurrentHashMap<Connection, Borrow>();
+	private ScheduledExecutorService leakDetector;
+	private QueryMetrics queryMetrics; // null => connections are not instrumented
+
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong destroyed = new AtomicLong();
+	private final AtomicLong borrows = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong validationFailures = new AtomicLong();
+	private final AtomicLong leaks = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+
+	/**
+	 * Pool metrics of a persistence unit. null if the unit doesn't use this connection provider
+	 */
+	public static PoolStatistics getStatistics(EntityManagerFactory emf) {
+		ConnectionProvider provider = emf.unwrap(SessionFactoryImplementor.class).getServiceRegistry().getService(ConnectionProvider.class);
+		return provider instanceof PooledConnectionProvider ? ((PooledConnectionProvider) provider).getStatistics() : null;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public void configure(Map settings) {
+		url = setting(settings, "hibernate.connection.url", "javax.persistence.jdbc.url", null);
+		if (url == null) {
+			throw new HibernateException("no JDBC url: set javax.persistence.jdbc.url or hibernate.connection.url");
+		}
+		String driver = setting(settings, "hibernate.connection.driver_class", "javax.persistence.jdbc.driver", null);
+		if (driver != null) {
+			try {
+				Class.forName(driver); // Old drivers (MySQL Connector/J 5.1) are not registered automatically
+			} catch (ClassNotFoundException e) {
+				throw new HibernateException("JDBC driver class not found: " + driver, e);
+			}
+		}
+		String user = setting(settings, "hibernate.connection.username", "javax.persistence.jdbc.user", null);
+		String password = setting(settings, "hibernate.connection.password", "javax.persistence.jdbc.password", null);
+		if (user != null) connectionProperties.setProperty("user", user);
+		if (password != null) connectionProperties.setProperty("password", password);
+
+		autoCommit = Boolean.parseBoolean(setting(settings, "hibernate.connection.autocommit", null, "false"));
+		maxSize = Integer.parseInt(setting(settings, PREFIX + "max_size", null, "20"));
+		int minIdle = Math.min(maxSize, Integer.parseInt(setting(settings, PREFIX + "min_idle", null, "2")));
+		acquireTimeoutMillis = Long.parseLong(setting(settings, PREFIX + "acquire_timeout", null, "30000"));
+		validationIntervalMillis = Long.parseLong(setting(settings, PREFIX + "validation_interval", null, "30000"));
+		leakThresholdMillis = Long.parseLong(setting(settings, PREFIX + "leak_threshold", null, "60000"));
+		leakStackTraces = leakThresholdMillis > 0 && Boolean.parseBoolean(setting(settings, PREFIX + "leak_stack_traces", null, "false"));
+		if (maxSize <= 0) {
+			throw new HibernateException(PREFIX + "max_size must be > 0: " + maxSize);
+		}
+
+		queryMetrics = QueryMetrics.configure(settings);
+		permits = new Semaphore(maxSize, true); // Fair: the thread waiting the longest gets the next free connection
+
+		try {
+			for (int i = 0; i < minIdle; i++)
+				idle.push(open());
+		} catch (SQLException e) {
+			throw new HibernateException("cannot open the initial connections to " + url, e);
+		}
+
+		if (leakThresholdMillis > 0) {
+			leakDetector = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "connection-leak-detector");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			long period = Math.max(1000, leakThresholdMillis / 2);
+			leakDetector.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					detectLeaks();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		}
+
+		logger.info("connection pool for " + url + ": max size " + maxSize + ", min idle " + minIdle);
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		long start = System.nanoTime();
+		boolean acquired;
+		try {
+			acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("interrupted while waiting for a connection", e);
+		}
+		if (!acquired) {
+			timeouts.incrementAndGet();
+			throw new SQLTransientConnectionException("no connection available after " + acquireTimeoutMillis + " ms (pool max size " + maxSize + ")");
+		}
+
+		try {
+			PooledConnection pooled = idleConnection();
+			if (pooled == null)
+				pooled = open();
+
+			borrowed.put(pooled.connection, new Borrow(pooled, Thread.currentThread().getName(), leakStackTraces ? new Exception("connection borrowed here") : null)); // A stack trace costs microseconds, a borrow should not
+			borrows.incrementAndGet();
+			totalWaitNanos.addAndGet(System.nanoTime() - start);
+			return pooled.connection;
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public void closeConnection(Connection connection) throws SQLException {
+		Borrow borrow = borrowed.remove(connection);
+		if (borrow == null) {
+			logger.warn("closing a connection that was not borrowed from this pool");
+			connection.close();
+			return;
+		}
+		try {
+			if (connection.isClosed()) {
+				destroyed.incrementAndGet();
+				return;
+			}
+			PooledConnection pooled = borrow.pooled;
+			if (connection.getAutoCommit() != autoCommit)
+				connection.setAutoCommit(autoCommit);
+			if (connection.getTransactionIsolation() != pooled.isolation)
+				connection.setTransactionIsolation(pooled.isolation);
+			if (connection.isReadOnly() != pooled.readOnly)
+				connection.setReadOnly(pooled.readOnly);
+			pooled.returned = System.currentTimeMillis();
+			idle.push(pooled);
+		} catch (SQLException e) {
+			destroy(connection); // Broken connection, the next borrower gets a new one
+		} finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public boolean supportsAggressiveRelease() {
+		return false;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public boolean isUnwrappableAs(Class unwrapType) {
+		return ConnectionProvider.class.equals(unwrapType) || PooledConnectionProvider.class.isAssignableFrom(unwrapType);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T unwrap(Class<T> unwrapType) {
+		if (isUnwrappableAs(unwrapType)) {
+			return (T) this;
+		}
+		throw new UnknownUnwrapTypeException(unwrapType);
+	}
+
+	@Override
+	public void stop() {
+		if (leakDetector != null)
+			leakDetector.shutdownNow();
+		PooledConnection pooled;
+		while ((pooled = idle.poll()) != null)
+			destroy(pooled.connection);
+		if (!borrowed.isEmpty()) {
+			logger.warn(borrowed.size() + " connections still borrowed when the pool was stopped");
+		}
+		logger.info("connection pool stopped: " + getStatistics());
+	}
+
+	// Most connections that can be borrowed at the same time
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public QueryMetrics getQueryMetrics() {
+		return queryMetrics;
+	}
+
+	public PoolStatistics getStatistics() {
+		return new PoolStatistics(borrowed.size(), idle.size(), permits.getQueueLength(), created.get(), destroyed.get(), borrows.get(),
+				timeouts.get(), validationFailures.get(), leaks.get(), totalWaitNanos.get());
+	}
+
+	// Most recently returned valid connection, or null if there is none
+	private PooledConnection idleConnection() {
+		PooledConnection pooled;
+		while ((pooled = idle.poll()) != null) {
+			if (System.currentTimeMillis() - pooled.returned < validationIntervalMillis || isValid(pooled.connection))
+				return pooled;
+			validationFailures.incrementAndGet();
+			destroy(pooled.connection);
+		}
+		return null;
+	}
+
+	private boolean isValid(Connection connection) {
+		try {
+			return connection.isValid(5); // MySQL: a ping, not a query
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private PooledConnection open() throws SQLException {
+		Connection connection = DriverManager.getConnection(url, connectionProperties);
+		connection.setAutoCommit(autoCommit);
+		created.incrementAndGet();
+		return new PooledConnection(queryMetrics == null ? connection : queryMetrics.instrument(connection), // Wrapped once, for the whole life of the connection
+				connection.getTransactionIsolation(), connection.isReadOnly()); // The defaults of the driver and the server, restored on every return
+	}
+
+	private void destroy(Connection connection) {
+		destroyed.incrementAndGet();
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			logger.debug("error closing a pooled connection: " + e.getMessage());
+		}
+	}
+
+	private void detectLeaks() {
+		long now = System.currentTimeMillis();
+		for (Borrow borrow : borrowed.values()) {
+			if (!borrow.reported && now - borrow.time > leakThresholdMillis) {
+				borrow.reported = true; // Reported once
+				leaks.incrementAndGet();
+				logger.warn("connection leak: borrowed by thread " + borrow.thread + " " + (now - borrow.time) + " ms ago and not returned"
+						+ (borrow.stackTrace == null ? " (" + PREFIX + "leak_stack_traces=true logs where)" : ""), borrow.stackTrace);
+			}
+		}
+	}
+
+	private static String setting(Map<?, ?> settings, String name, String alternativeName, String defaultValue) {
+		Object value = settings.get(name);
+		if (value == null && alternativeName != null) value = settings.get(alternativeName);
+		return value == null ? defaultValue : value.toString().trim();
+	}
+
+	// A connection for its whole life in the pool
+	private static class PooledConnection {
+
+		private final Connection connection;
+		private final int isolation; // When it was opened
+		private final boolean readOnly;
+		private long returned = System.currentTimeMillis(); // Set before it goes into 'idle', read after it is taken out
+
+		PooledConnection(Connection connection, int isolation, boolean readOnly) {
+			this.connection = connection;
+			this.isolation = isolation;
+			this.readOnly = readOnly;
+		}
+
+	}
+
+	private static class Borrow {
+
+		private final long time = System.currentTimeMillis();
+		private final PooledConnection pooled;
+		private final String thread;
+		private final Exception stackTrace; // null unless leak_stack_traces=true
+		private volatile boolean reported;
+
+		Borrow(PooledConnection pooled, String thread, Exception stackTrace) {
+			this.pooled = pooled;
+			this.thread = thread;
+			this.stackTrace = stackTrace;
+		}
+
+	}
+
+}
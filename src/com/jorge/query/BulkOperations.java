@@ -0,0 +1,121 @@
+package com.jorge.query;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.apache.log4j.Logger;
+
+import com.jorge.cache.QueryResultCache;
+import com.jorge.changes.ChangeFeed;
+import com.jorge.entity.Guide;
+
+/**
+ * Set-based updates and deletes of guides and students: one JPQL statement (one round trip) instead of loading every entity,
+ * calling setSalary()/setGuide() and letting the flush write them one by one
+ *
+ * 		BulkOperations bulk = new BulkOperations(queries);
+ * 		int raised = bulk.raiseSalaries(em, "Homer%", 5);	=> update guide set salary=salary+salary*?/100 where name like ?
+ *
+ * The statements are named queries of orm.xml (Guide.raiseSalaryByNameLike, Student.reassignGuide...), so they are compiled at startup
+ * by QueryRegistry like the others. They must run inside a transaction
+ *
+ * What a bulk statement skips, and what is done instead:
+ * 		- Cascades: CascadeType.REMOVE of Student.guide is not applied by a bulk delete. deleteStudents() asks for it explicitly
+ * 		  (Cascade.REMOVE deletes the guide with its students, like em.remove(student) would)
+ * 		- Query result cache: QueryCacheInvalidator is not called, the tables of the statement are invalidated in QueryResultCache here
+ * 		- Entity events: ChangeFeed gets a BULK change (no ids) for every entity of the written tables
+ * 		- Second-level cache: Hibernate evicts the regions of the written table itself (Guide, Student, and Guide.students
+ * 		  when the student table is written)
+ * 		- Persistence context: entities already loaded by 'em' keep their old values. Use em.refresh(entity) or a new EntityManager
+ * 		  to read the new ones. A guide deleted here is detached from 'em', so it is never written back
+ */
+public class BulkOperations {
+
+	private static final Logger logger = Logger.getLogger(BulkOperations.class.getName());
+
+	public enum Cascade {
+		NONE,	// Only the students are deleted
+		REMOVE	// The guide is deleted too, as CascadeType.REMOVE of Student.guide does for em.remove(student)
+	}
+
+	private final QueryRegistry queries;
+
+	public BulkOperations(QueryRegistry queries) {
+		this.queries = queries;
+	}
+
+	/**
+	 * Raises by 'percent' the salary of the guides whose name is like 'namePattern' ('M%'). Returns the number of guides updated
+	 */
+	public int raiseSalaries(EntityManager em, String namePattern, int percent) {
+		return execute(em, "Guide.raiseSalaryByNameLike", parameters("percent", percent, "pattern", namePattern));
+	}
+
+	/**
+	 * Every student of 'from' gets 'to' as guide. Returns the number of students reassigned
+	 */
+	public int reassignStudents(EntityManager em, Guide from, Guide to) {
+		return execute(em, "Student.reassignGuide", parameters("from", from, "to", to));
+	}
+
+	/**
+	 * Deletes every student of 'guide', and the guide itself with Cascade.REMOVE. Returns the number of students deleted
+	 */
+	public int deleteStudents(EntityManager em, Guide guide, Cascade cascade) {
+		int students = execute(em, "Student.deleteByGuide", parameters("guide", guide));
+		if (cascade == Cascade.REMOVE) {
+			execute(em, "Guide.deleteById", parameters("id", guide.getId()));
+			if (em.contains(guide)) em.detach(guide);
+		}
+		return students;
+	}
+
+	/**
+	 * Deletes the guides whose name is like 'namePattern'. Their students are deleted first (deleteStudents = true)
+	 * or left without guide (deleteStudents = false), otherwise the foreign key would stop the delete. Returns the number of guides deleted
+	 */
+	public int deleteGuides(EntityManager em, String namePattern, boolean deleteStudents) {
+		Map<String, Object> parameters = parameters("pattern", namePattern);
+		int students = execute(em, deleteStudents ? "Student.deleteByGuidesNameLike" : "Student.unassignGuidesByNameLike", parameters);
+		int guides = execute(em, "Guide.deleteByNameLike", parameters);
+		if (logger.isDebugEnabled()) {
+			logger.debug(guides + " guides deleted, " + students + " students " + (deleteStudents ? "deleted" : "left without guide"));
+		}
+		return guides;
+	}
+
+	/**
+	 * Any update or delete named query of orm.xml, with the same cache invalidation. Returns the number of rows written
+	 */
+	public int execute(EntityManager em, String name, Map<String, ?> parameters) {
+		Query query = queries.createQuery(em, name);
+		for (Map.Entry<String, ?> parameter : parameters.entrySet())
+			query.setParameter(parameter.getKey(), parameter.getValue());
+		int rows = query.executeUpdate(); // Pending changes of 'em' to these tables are flushed first (FlushModeType.AUTO)
+
+		Set<String> tables = queries.getQuerySpaces(name);
+		QueryResultCache.invalidateAllTables(em, tables); // Now and when the transaction completes
+		ChangeFeed.bulkWritten(em, tables); // Published on commit: subscribers reload these entities
+		if (logger.isDebugEnabled()) {
+			logger.debug(name + ": " + rows + " rows, invalidated " + tables);
+		}
+		return rows;
+	}
+
+	private static Map<String, Object> parameters(String name, Object value) {
+		return Collections.singletonMap(name, value);
+	}
+
+	private static Map<String, Object> parameters(String name1, Object value1, String name2, Object value2) {
+		Map<String, Object> parameters = new HashMap<String, Object>(4);
+		parameters.put(name1, value1);
+		parameters.put(name2, value2);
+		return parameters;
+	}
+
+}
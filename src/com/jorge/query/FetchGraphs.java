@@ -0,0 +1,66 @@
+package com.jorge.query;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.persistence.AttributeNode;
+import javax.persistence.EntityGraph;
+import javax.persistence.EntityManager;
+import javax.persistence.Subgraph;
+import javax.persistence.TypedQuery;
+import javax.persistence.metamodel.ManagedType;
+
+import org.hibernate.jpa.graph.internal.EntityGraphImpl;
+import org.hibernate.transform.DistinctRootEntityResultTransformer;
+
+/**
+ * Choosing per query which associations are loaded with the entity, using the entity graphs declared in Guide.java and Student.java
+ *
+ * 		Student.WITH_GUIDE ("student-with-guide") 	 => students + guide, one select with a join
+ * 		Guide.WITH_STUDENTS ("guide-with-students") => guides + students, one select with a join
+ *
+ * A graph with a collection (Guide.students) is a fetch join in Hibernate 4.3: the select returns a row per student, and
+ * query.getResultList() the same Guide once per student. load() adds a distinct root entity transformer for those graphs,
+ * so every Guide comes back once. The rows are still read: setMaxResults() with a collection graph is applied in memory
+ * (Hibernate warns HHH000104), use it on the ids and load the graph for them instead
+ *
+ * Without a graph the associations are lazy: Student.guide is batch fetched (hibernate.default_batch_fetch_size) and
+ * Guide.students is subselect fetched, so loading N students and their guides never costs N selects
+ *
+ * Usage:
+ * 		List<Student> students = FetchGraphs.load(em, em.createQuery("select student from Student student", Student.class), Student.WITH_GUIDE).getResultList();
+ * 		Guide guide = em.find(Guide.class, id, FetchGraphs.hints(em, Guide.WITH_STUDENTS));
+ */
+public class FetchGraphs {
+
+	// Load graph: attributes of the graph are loaded eagerly, the others keep their mapping (lazy/eager)
+	public static final String LOAD_GRAPH = "javax.persistence.loadgraph";
+
+	private FetchGraphs() {}
+
+	public static <T> TypedQuery<T> load(EntityManager em, TypedQuery<T> query, String graphName) {
+		EntityGraph<?> graph = em.getEntityGraph(graphName);
+		query.setHint(LOAD_GRAPH, graph);
+		if (graph instanceof EntityGraphImpl && fetchesCollection(em, ((EntityGraphImpl<?>) graph).getEntityType(), graph.getAttributeNodes())) {
+			query.unwrap(org.hibernate.Query.class).setResultTransformer(DistinctRootEntityResultTransformer.INSTANCE); // Once per root entity, in the order of the rows
+		}
+		return query;
+	}
+
+	// For em.find(entityClass, id, hints)
+	public static Map<String, Object> hints(EntityManager em, String graphName) {
+		return Collections.<String, Object>singletonMap(LOAD_GRAPH, em.getEntityGraph(graphName));
+	}
+
+	// true if a node of the graph, or of its subgraphs, is a collection
+	private static boolean fetchesCollection(EntityManager em, ManagedType<?> type, Iterable<AttributeNode<?>> nodes) {
+		for (AttributeNode<?> node : nodes) {
+			if (type.getAttribute(node.getAttributeName()).isCollection()) return true;
+			for (Subgraph<?> subgraph : node.getSubgraphs().values()) {
+				if (fetchesCollection(em, em.getMetamodel().managedType(subgraph.getClassType()), subgraph.getAttributeNodes())) return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,205 @@
+package com.jorge.query;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+/**
+ * Keyset (seek) pagination over an entity
+ *
+ * setFirstResult(n)/setMaxResults(size) is converted in 'limit size offset n': MySQL reads and throws away n rows, so deep pages get slower and slower.
+ * A keyset pager remembers the sort key of the last row of a page and asks for the rows after it:
+ * 		select guide, guide.salary, guide.id from Guide guide
+ * 		where guide.salary > :k0 or (guide.salary = :k0 and guide.id > :k1)
+ * 		order by guide.salary, guide.id
+ * With an index on the sort key, every page costs the same than the first one
+ *
+ * Usage:
+ * 		KeysetPager<Guide> pager = new KeysetPager<Guide>(em, Guide.class, "salary", "id").setPageSize(100);
+ * 		Page<Guide> page = pager.firstPage();
+ * 		while (page.hasNext())
+ * 			page = pager.nextPage(page.getNextToken());
+ *
+ * Sort key: ascending, and the last attribute must be unique (the id) so that every row has a different key.
+ * 			 Nullable attributes (Guide.salary) are supported with MySQL ordering: nulls first
+ *
+ * Tokens encode the key values of the last row and the sort key they were made for. They are opaque for callers and
+ * are rejected by a pager of another entity or sort key
+ *
+ * @param <T> Entity class (Guide, Student)
+ */
+public class KeysetPager<T> {
+
+	public static final int DEFAULT_PAGE_SIZE = 50;
+
+	private static final Pattern ATTRIBUTE = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)*"); // Attributes are part of the JPQL string, never user input
+	private static final byte TOKEN_VERSION = 1;
+	private static final byte NULL = 0, LONG = 1, INTEGER = 2, STRING = 3;
+
+	private final EntityManager em;
+	private final Class<T> entityClass;
+	private final String[] sortAttributes;
+	private final String alias;
+	private final String select;
+	private final String orderBy;
+	private final int signature;
+	private int pageSize = DEFAULT_PAGE_SIZE;
+
+	public KeysetPager(EntityManager em, Class<T> entityClass, String... sortAttributes) {
+		if (sortAttributes.length == 0) {
+			throw new IllegalArgumentException("at least one sort attribute is needed, e.g. \"id\"");
+		}
+		for (String attribute : sortAttributes) {
+			if (!ATTRIBUTE.matcher(attribute).matches()) {
+				throw new IllegalArgumentException("invalid sort attribute: " + attribute);
+			}
+		}
+		this.em = em;
+		this.entityClass = entityClass;
+		this.sortAttributes = sortAttributes.clone();
+
+		String entityName = entityClass.getSimpleName();
+		this.alias = Character.toLowerCase(entityName.charAt(0)) + entityName.substring(1); // Guide => guide
+
+		StringBuilder select = new StringBuilder("select ").append(alias);
+		StringBuilder orderBy = new StringBuilder(" order by ");
+		for (int i = 0; i < sortAttributes.length; i++) {
+			select.append(", ").append(alias).append('.').append(sortAttributes[i]);
+			orderBy.append(i == 0 ? "" : ", ").append(alias).append('.').append(sortAttributes[i]);
+		}
+		this.select = select.append(" from ").append(entityName).append(' ').append(alias).toString();
+		this.orderBy = orderBy.toString();
+		this.signature = (entityName + Arrays.toString(sortAttributes)).hashCode();
+	}
+
+	public KeysetPager<T> setPageSize(int pageSize) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("pageSize must be > 0: " + pageSize);
+		}
+		this.pageSize = pageSize;
+		return this;
+	}
+
+	public Page<T> firstPage() {
+		return fetch(em.createQuery(select + orderBy, Object[].class));
+	}
+
+	public Page<T> nextPage(String token) {
+		Object[] key = decode(token);
+
+		// (a0 > k0) or (a0 = k0 and a1 > k1) or (a0 = k0 and a1 = k1 and a2 > k2) ...
+		StringBuilder where = new StringBuilder(" where ");
+		for (int i = 0; i < key.length; i++) {
+			where.append(i == 0 ? "(" : " or (");
+			for (int j = 0; j < i; j++)
+				where.append(condition(j, key[j], "=")).append(" and ");
+			where.append(condition(i, key[i], ">")).append(')');
+		}
+
+		TypedQuery<Object[]> query = em.createQuery(select + where + orderBy, Object[].class);
+		for (int i = 0; i < key.length; i++)
+			if (key[i] != null)
+				query.setParameter("k" + i, key[i]);
+		return fetch(query);
+	}
+
+	/**
+	 * Token of the page starting right after the row with these key values (one value per sort attribute)
+	 * Useful to jump to a known position, e.g. all guides with salary > 1200 => tokenAfter(1200, Long.MAX_VALUE)
+	 */
+	public String tokenAfter(Object... keyValues) {
+		if (keyValues.length != sortAttributes.length) {
+			throw new IllegalArgumentException("expected " + sortAttributes.length + " key values but got " + keyValues.length);
+		}
+		return encode(keyValues);
+	}
+
+	// Nulls go first in MySQL ascending order: everything not null is "greater" than null, and null only "equals" null
+	private String condition(int index, Object value, String operator) {
+		String attribute = alias + "." + sortAttributes[index];
+		if (value == null)
+			return attribute + (operator.equals("=") ? " is null" : " is not null");
+		return attribute + " " + operator + " :k" + index;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Page<T> fetch(TypedQuery<Object[]> query) {
+		List<Object[]> rows = query.setMaxResults(pageSize + 1).getResultList(); // One more row tells us if there is a next page
+
+		boolean hasNext = rows.size() > pageSize;
+		List<T> entities = new ArrayList<T>(Math.min(rows.size(), pageSize));
+		for (int i = 0; i < rows.size() && i < pageSize; i++)
+			entities.add((T) rows.get(i)[0]);
+
+		String nextToken = null;
+		if (hasNext) {
+			Object[] last = rows.get(pageSize - 1);
+			nextToken = encode(Arrays.copyOfRange(last, 1, last.length));
+		}
+		return new Page<T>(entities, nextToken);
+	}
+
+	private String encode(Object[] key) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(TOKEN_VERSION);
+			out.writeInt(signature);
+			out.writeByte(key.length);
+			for (Object value : key) {
+				if (value == null) {
+					out.writeByte(NULL);
+				} else if (value instanceof Long) {
+					out.writeByte(LONG);
+					out.writeLong((Long) value);
+				} else if (value instanceof Integer) {
+					out.writeByte(INTEGER);
+					out.writeInt((Integer) value);
+				} else if (value instanceof String) {
+					out.writeByte(STRING);
+					out.writeUTF((String) value);
+				} else {
+					throw new IllegalArgumentException("unsupported sort key type: " + value.getClass().getName());
+				}
+			}
+			out.close();
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // ByteArrayOutputStream never throws IOException
+		}
+	}
+
+	private Object[] decode(String token) {
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(token)));
+			if (in.readByte() != TOKEN_VERSION || in.readInt() != signature || in.readByte() != sortAttributes.length) {
+				throw new IllegalArgumentException("token was not created by a " + entityClass.getSimpleName() + " pager sorted by " + Arrays.toString(sortAttributes));
+			}
+			Object[] key = new Object[sortAttributes.length];
+			for (int i = 0; i < key.length; i++) {
+				byte type = in.readByte();
+				switch (type) {
+				case NULL:    key[i] = null; break;
+				case LONG:    key[i] = in.readLong(); break;
+				case INTEGER: key[i] = in.readInt(); break;
+				case STRING:  key[i] = in.readUTF(); break;
+				default: throw new IllegalArgumentException("invalid token");
+				}
+			}
+			return key;
+		} catch (IOException e) {
+			throw new IllegalArgumentException("invalid token", e); // Truncated token
+		}
+	}
+
+}
@@ -0,0 +1,39 @@
+package com.jorge.query;
+
+import java.util.List;
+
+/**
+ * One page of a KeysetPager listing
+ *
+ * nextToken is opaque: pass it back to KeysetPager.nextPage(token) to get the following page. It is null on the last page
+ *
+ * @param <T> Entity class (Guide, Student)
+ */
+public class Page<T> {
+
+	private final List<T> rows;
+	private final String nextToken;
+
+	public Page(List<T> rows, String nextToken) {
+		this.rows = rows;
+		this.nextToken = nextToken;
+	}
+
+	public List<T> getRows() {
+		return rows;
+	}
+
+	public String getNextToken() {
+		return nextToken;
+	}
+
+	public boolean hasNext() {
+		return nextToken != null;
+	}
+
+	@Override
+	public String toString() {
+		return "Page [rows=" + rows.size() + ", hasNext=" + hasNext() + "]";
+	}
+
+}
@@ -0,0 +1,237 @@
+package com.jorge.query;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+import javax.persistence.metamodel.EntityType;
+
+import org.apache.log4j.Logger;
+
+import com.jorge.work.UnitOfWorkExecutor;
+
+/**
+ * Parallel query: splits a JPQL query in ranges of ids of its root entity and runs every range on its own thread,
+ * entity manager and JDBC connection
+ *
+ * 'select student from Student student join student.guide guide' is one select on one MySQL session, so a full export
+ * uses one core of the application and one of the database. Here it becomes:
+ * 		select student from Student student join student.guide guide where student.id >= :scanFrom and student.id < :scanTo
+ * for [min(id), min(id) + partitionSize), [min(id) + partitionSize, ...), ... up to max(id), 'parallelism' ranges at a time.
+ *
+ * Usage:
+ * 		long rows = new ParallelScan<Student>(emf, Student.class, "select student from Student student join student.guide guide", "student")
+ * 			.setParallelism(4)
+ * 			.setPartitionSize(10000)
+ * 			.stream(new RowHandler<Student>() {
+ * 				public void handle(Student student) { System.out.println("ROW: " + student); }
+ * 			});
+ *
+ * Threads: virtual threads on Java 21+ (UnitOfWorkExecutor.newVirtualThreadPerTaskExecutor()), a ForkJoinPool of 'parallelism'
+ * threads on older JVMs. Either way at most 'parallelism' partitions run at the same time
+ *
+ * The handler is called on the caller's thread, one row at a time, so it doesn't need to be thread-safe.
+ * Unordered (default): partitions are handed over as they finish. Ordered: in id order, and ordered by id inside every partition
+ *
+ * Rows are read-only and detached when they reach the handler: their entity manager is already closed. Lazy associations
+ * must be loaded by the query (join fetch, see FetchGraphs.java for the entity graph alternative)
+ *
+ * Limits:
+ * 		- The query can't have 'order by', 'group by' or 'having': a partition is not a complete result for them
+ * 		- 'parallelism' must not be above hibernate.connection.pool.max_size (persistence.xml), or the threads wait for connections
+ * 		- At most 2 * parallelism partitions are loaded and not yet handled, so memory is bounded by 2 * parallelism * partitionSize rows
+ * 		- Ids are split as numbers: gaps in the ids make partitions smaller, not wrong
+ *
+ * @param <T> Root entity class, or Object[] for projections
+ */
+public class ParallelScan<T> {
+
+	public static final int DEFAULT_PARTITION_SIZE = 10000;
+
+	private static final Logger logger = Logger.getLogger(ParallelScan.class.getName());
+	private static final Pattern WHERE = Pattern.compile("\\swhere\\s", Pattern.CASE_INSENSITIVE);
+	private static final Pattern UNSUPPORTED = Pattern.compile("\\s(order|group)\\s+by\\s|\\shaving\\s", Pattern.CASE_INSENSITIVE);
+
+	private final EntityManagerFactory emf;
+	private final Class<?> entityClass;
+	private final String jpql;
+	private final String alias;
+	private final String idAttribute;
+	private final Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private long partitionSize = DEFAULT_PARTITION_SIZE;
+	private boolean ordered;
+
+	/**
+	 * @param entityClass Root entity of the query, the one whose ids are split
+	 * @param alias Alias of the root entity in the query ('student' in 'select student from Student student')
+	 */
+	public ParallelScan(EntityManagerFactory emf, Class<?> entityClass, String jpql, String alias) {
+		if (UNSUPPORTED.matcher(jpql).find()) {
+			throw new IllegalArgumentException("order by, group by and having can't be split in partitions: " + jpql);
+		}
+		EntityType<?> entity = emf.getMetamodel().entity(entityClass);
+		this.emf = emf;
+		this.entityClass = entityClass;
+		this.jpql = jpql;
+		this.alias = alias;
+		this.idAttribute = entity.getId(entity.getIdType().getJavaType()).getName();
+	}
+
+	public ParallelScan<T> setParameter(String name, Object value) {
+		parameters.put(name, value);
+		return this;
+	}
+
+	// Threads, entity managers and connections used at the same time
+	public ParallelScan<T> setParallelism(int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be > 0: " + parallelism);
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	// Ids per partition
+	public ParallelScan<T> setPartitionSize(long partitionSize) {
+		if (partitionSize <= 0) {
+			throw new IllegalArgumentException("partitionSize must be > 0: " + partitionSize);
+		}
+		this.partitionSize = partitionSize;
+		return this;
+	}
+
+	public ParallelScan<T> setOrdered(boolean ordered) {
+		this.ordered = ordered;
+		return this;
+	}
+
+	/**
+	 * Runs the partitions and calls handler.handle(row) for every row
+	 *
+	 * @return number of rows handled
+	 */
+	public long stream(RowHandler<T> handler) {
+		long[] bounds = idBounds();
+		if (bounds == null) return 0; // Empty table
+
+		final String partitionJpql = partitionQuery();
+		long partitions = (bounds[1] - bounds[0]) / partitionSize + 1;
+		if (logger.isDebugEnabled()) {
+			logger.debug("parallel scan of '" + partitionJpql + "': ids " + bounds[0] + ".." + bounds[1] + ", " + partitions + " partitions, parallelism " + parallelism);
+		}
+
+		ExecutorService executor = UnitOfWorkExecutor.newVirtualThreadPerTaskExecutor();
+		if (executor == null) executor = new ForkJoinPool(parallelism); // Daemon threads
+		final Semaphore running = new Semaphore(parallelism); // Virtual threads: one per submitted partition, up to 2 * parallelism
+		CompletionService<List<T>> completion = new ExecutorCompletionService<List<T>>(executor); // Unordered: finished partitions first
+		Deque<Future<List<T>>> inFlight = new ArrayDeque<Future<List<T>>>(); // Ordered: partitions in id order
+
+		long rows = 0;
+		long next = bounds[0];
+		int maxInFlight = 2 * parallelism;
+		try {
+			while (next <= bounds[1] || !inFlight.isEmpty()) {
+				while (next <= bounds[1] && inFlight.size() < maxInFlight) {
+					Callable<List<T>> partition = partition(partitionJpql, next, next + partitionSize, running);
+					inFlight.add(ordered ? executor.submit(partition) : completion.submit(partition));
+					next += partitionSize;
+				}
+
+				Future<List<T>> done;
+				if (ordered) {
+					done = inFlight.poll();
+				} else {
+					done = completion.take();
+					inFlight.remove(done);
+				}
+				for (T row : done.get())
+					handler.handle(row);
+				rows += done.get().size();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PersistenceException("parallel scan interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new PersistenceException("parallel scan failed", e.getCause());
+		} finally {
+			executor.shutdownNow(); // On errors, partitions not started yet are cancelled
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("parallel scan handled " + rows + " rows");
+		}
+		return rows;
+	}
+
+	// [min(id), max(id)] of the root entity, null if there are no rows
+	private long[] idBounds() {
+		EntityManager em = emf.createEntityManager();
+		try {
+			Object[] bounds = (Object[]) em.createQuery("select min(e." + idAttribute + "), max(e." + idAttribute + ") from " + entityClass.getName() + " e")
+										  .getSingleResult();
+			if (bounds[0] == null) return null;
+			return new long[] { ((Number) bounds[0]).longValue(), ((Number) bounds[1]).longValue() };
+		} finally {
+			em.close();
+		}
+	}
+
+	// The id range goes first in the where clause, the original conditions are kept between parentheses
+	private String partitionQuery() {
+		String range = alias + "." + idAttribute + " >= :scanFrom and " + alias + "." + idAttribute + " < :scanTo";
+		Matcher where = WHERE.matcher(jpql);
+		String query = where.find()
+				? jpql.substring(0, where.start()) + " where " + range + " and (" + jpql.substring(where.end()) + ")"
+				: jpql + " where " + range;
+		return ordered ? query + " order by " + alias + "." + idAttribute : query;
+	}
+
+	private Callable<List<T>> partition(final String partitionJpql, final long from, final long to, final Semaphore running) {
+		return new Callable<List<T>>() {
+			@Override
+			public List<T> call() throws InterruptedException {
+				running.acquire(); // At most 'parallelism' connections
+				try {
+					return load(partitionJpql, from, to);
+				} finally {
+					running.release();
+				}
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<T> load(String partitionJpql, long from, long to) {
+		EntityManager em = emf.createEntityManager(); // One persistence context and one connection per partition
+		try {
+			Query query = em.createQuery(partitionJpql)
+							.setParameter("scanFrom", from)
+							.setParameter("scanTo", to)
+							.setHint("org.hibernate.readOnly", true); // No dirty-checking snapshots, nothing will be flushed
+			for (Map.Entry<String, Object> parameter : parameters.entrySet())
+				query.setParameter(parameter.getKey(), parameter.getValue());
+			return query.getResultList();
+		} finally {
+			em.close(); // Rows are detached from here on
+		}
+	}
+
+}
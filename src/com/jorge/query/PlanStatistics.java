@@ -0,0 +1,52 @@
+package com.jorge.query;
+
+/**
+ * Snapshot of the counters of a QueryRegistry
+ *
+ * hits + misses = lookups of HQL queries. A miss means the plan had been dropped from Hibernate's query plan cache
+ * and the query was parsed and translated to SQL again: hibernate.query.plan_cache_max_size is too small
+ */
+public class PlanStatistics {
+
+	private final int queries;
+	private final int nativeQueries;
+	private final long hits;
+	private final long misses;
+
+	public PlanStatistics(int queries, int nativeQueries, long hits, long misses) {
+		this.queries = queries;
+		this.nativeQueries = nativeQueries;
+		this.hits = hits;
+		this.misses = misses;
+	}
+
+	// Registered queries, native ones included
+	public int getQueries() {
+		return queries;
+	}
+
+	// Native SQL queries have no plan, they are never counted as hits or misses
+	public int getNativeQueries() {
+		return nativeQueries;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public double getHitRatio() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return "PlanStatistics [queries=" + queries + ", nativeQueries=" + nativeQueries + ", hits=" + hits + ", misses=" + misses
+				+ ", hitRatio=" + String.format("%.2f", getHitRatio()) + "]";
+	}
+
+}
@@ -0,0 +1,185 @@
+package com.jorge.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.engine.query.spi.HQLQueryPlan;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.hql.spi.ParameterTranslations;
+import org.hibernate.jdbc.ReturningWork;
+import org.hibernate.type.Type;
+
+import com.jorge.benchmark.BenchmarkDatabase;
+
+/**
+ * Execution plan of every registered query (QueryRegistry.java): fails if one reads a whole table it shouldn't
+ *
+ * Runs against the database of BenchmarkDatabase.java (embedded H2, or MySQL with -Dbenchmark.url=...). The tables are created
+ * by the migrations of META-INF/migrations and checked with hbm2ddl.auto=validate, as the application does: the check also
+ * fails if the mapping and the migrations differ. Then every query is sent to EXPLAIN with sample parameters:
+ * 		- a query without where clause (Guide.findAll...) reads its main table, it may scan one table
+ * 		- any other query must use an index for every table
+ * ALLOWED lists the exceptions, with the reason
+ *
+ * Exit code 1 if a query fails, so it can run in the build after the migrations change:
+ * 		java com.jorge.query.QueryPlanCheck
+ *
+ * With few rows a database may prefer a scan even with an index: the data is seeded first (guides, students per guide)
+ * Arguments: [guides] [students per guide] (default: 2000 5)
+ */
+public class QueryPlanCheck {
+
+	private static final Logger logger = Logger.getLogger(QueryPlanCheck.class.getName());
+
+	private static final Pattern H2_SCAN = Pattern.compile("([\\w.]+)\\.tableScan"); // /* PUBLIC.GUIDE.tableScan */, /++ ... ++/ in a subquery
+	private static final Pattern WHERE = Pattern.compile("\\bwhere\\b", Pattern.CASE_INSENSITIVE);
+
+	// Query name => why a scan is fine
+	private static final Map<String, String> ALLOWED;
+	static {
+		Map<String, String> allowed = new HashMap<String, String>();
+		// MySQL before 8.0 doesn't turn the "in (select ...)" of an update or delete into a join: Student is read once, whole.
+		// Bulk maintenance of BulkOperations.java, not run by requests
+		allowed.put("Student.unassignGuidesByNameLike", "update with subquery, MySQL < 8.0");
+		allowed.put("Student.deleteByGuidesNameLike", "delete with subquery, MySQL < 8.0");
+		ALLOWED = Collections.unmodifiableMap(allowed);
+	}
+
+	public static void main(String[] args) throws Exception {
+		BasicConfigurator.configure(); // Necessary for configure log4j. It must be the first line in main method
+	       					           // log4j.properties must be in /src directory
+
+		logger.debug("log4j configured correctly and logger set");
+
+		int guides = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int studentsPerGuide = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		Map<String, String> properties = BenchmarkDatabase.properties();
+		properties.put("hibernate.migrations.enabled", "true"); // As persistence.xml
+		properties.put("hibernate.hbm2ddl.auto", "validate");
+		EntityManagerFactory emf = Persistence.createEntityManagerFactory("helloworld", properties);
+		List<String> failures = new ArrayList<String>();
+		try {
+			BenchmarkDatabase.seed(emf, guides, studentsPerGuide);
+			failures = check(emf);
+		} finally {
+			emf.close();
+		}
+
+		if (!failures.isEmpty()) {
+			System.out.println(failures.size() + " queries scan tables:\n\t" + StringUtils.join(failures, "\n\t"));
+			System.exit(1);
+		}
+		System.out.println("every query uses its indexes");
+	}
+
+	public static List<String> check(EntityManagerFactory emf) {
+		QueryRegistry queries = new QueryRegistry(emf);
+		SessionFactoryImplementor factory = emf.unwrap(SessionFactoryImplementor.class);
+		List<String> failures = new ArrayList<String>();
+
+		EntityManager em = emf.createEntityManager();
+		try {
+			em.getTransaction().begin(); // Rolled back: EXPLAIN of an update or delete must not change anything
+			for (String name : new TreeSet<String>(queries.getNames())) {
+				HQLQueryPlan plan = queries.getPlan(name);
+				final String sql;
+				final Object[] parameters;
+				if (plan == null) {
+					sql = factory.getNamedSQLQuery(name).getQueryString().trim();
+					parameters = new Object[0];
+				} else {
+					sql = plan.getSqlStrings()[0];
+					parameters = parameters(plan);
+				}
+
+				List<String> scans = em.unwrap(Session.class).doReturningWork(new ReturningWork<List<String>>() {
+					@Override
+					public List<String> execute(Connection connection) throws SQLException {
+						return explain(connection, sql, parameters);
+					}
+				});
+
+				boolean filtered = WHERE.matcher(sql).find();
+				boolean ok = scans.isEmpty() || (!filtered && scans.size() == 1);
+				String result = ok ? "ok" : ALLOWED.containsKey(name) ? "allowed: " + ALLOWED.get(name) : "FAIL";
+				System.out.println(String.format("%-36s scans %-28s %s", name, scans, result));
+				logger.debug(name + ": " + sql);
+				if (!ok && !ALLOWED.containsKey(name)) failures.add(name + " scans " + scans + ": " + sql);
+			}
+		} finally {
+			em.getTransaction().rollback();
+			em.close();
+		}
+		return failures;
+	}
+
+	// A value for every '?' of the SQL, of the type its parameter expects: an entity parameter is bound as its id
+	private static Object[] parameters(HQLQueryPlan plan) {
+		ParameterTranslations translations = plan.getTranslators()[0].getParameterTranslations();
+		List<Object> values = new ArrayList<Object>();
+		for (Object name : translations.getNamedParameterNames()) {
+			Type type = translations.getNamedParameterExpectedType((String) name);
+			for (int location : translations.getNamedParameterSqlLocations((String) name)) {
+				while (values.size() <= location)
+					values.add(null);
+				values.set(location, sample(type));
+			}
+		}
+		return values.toArray();
+	}
+
+	private static Object sample(Type type) {
+		if (type == null || type.isEntityType()) return 1L;
+		Class<?> javaType = type.getReturnedClass();
+		if (javaType == String.class) return "M%"; // Prefix pattern, like Guide.findByNameLike is used
+		if (javaType == Integer.class) return 1;
+		return 1L;
+	}
+
+	// Tables read without an index
+	private static List<String> explain(Connection connection, String sql, Object[] parameters) throws SQLException {
+		List<String> scans = new ArrayList<String>();
+		PreparedStatement explain = connection.prepareStatement("explain " + sql);
+		try {
+			for (int i = 0; i < parameters.length; i++)
+				explain.setObject(i + 1, parameters[i]);
+			ResultSet rows = explain.executeQuery();
+			boolean mysql = connection.getMetaData().getDatabaseProductName().toLowerCase().contains("mysql");
+			while (rows.next()) {
+				if (mysql) {
+					// One row per table: ALL is a full scan, index a full scan of an index
+					String type = rows.getString("type");
+					if ("ALL".equals(type) || "index".equals(type)) scans.add(rows.getString("table"));
+				} else {
+					// H2: the plan as SQL, every table followed by the index it uses
+					Matcher scan = H2_SCAN.matcher(rows.getString(1));
+					while (scan.find())
+						scans.add(scan.group(1));
+				}
+			}
+		} finally {
+			explain.close();
+		}
+		return scans;
+	}
+
+}
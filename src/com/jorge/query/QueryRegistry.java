@@ -0,0 +1,231 @@
+package com.jorge.query;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.NamedNativeQueries;
+import javax.persistence.NamedNativeQuery;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import javax.persistence.metamodel.EntityType;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.engine.query.spi.HQLQueryPlan;
+import org.hibernate.engine.query.spi.QueryPlanCache;
+import org.hibernate.engine.spi.NamedQueryDefinition;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Every query of the application, validated and compiled once at startup and used by name with bound parameters
+ *
+ * em.createQuery("...") parses the JPQL, translates it to SQL and keeps the plan in Hibernate's query plan cache, whose key is the JPQL string.
+ * Building the JPQL with the values ("... where guide.name = '" + name + "'") makes a new plan for every value: the parse cost is paid
+ * on every request and the useful plans are pushed out of the cache (hibernate.query.plan_cache_max_size in persistence.xml).
+ * Here the only way to run a query is its name:
+ * 		QueryRegistry queries = new QueryRegistry(emf); // Once, next to the EntityManagerFactory
+ * 		List<Guide> guides = queries.createQuery(em, "Guide.findByNameLike", Guide.class).setParameter("pattern", "M%").getResultList();
+ *
+ * Registered queries:
+ * 		- <named-query> and <named-native-query> of META-INF/orm.xml
+ * 		- @NamedQuery and @NamedNativeQuery of the entity classes
+ * Startup fails, listing every problem, if a JPQL query doesn't compile or has a string literal (use a parameter)
+ *
+ * Metrics: queries.getStatistics(). A miss means the plan had to be compiled again after being dropped from the plan cache
+ */
+public class QueryRegistry {
+
+	public static final String MAPPING_FILE = "META-INF/orm.xml";
+
+	private static final Logger logger = Logger.getLogger(QueryRegistry.class.getName());
+
+	private final QueryPlanCache planCache;
+	private final Map<String, RegisteredQuery> queries; // Never changes after the constructor: read without locks
+	private final int nativeQueries;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public QueryRegistry(EntityManagerFactory emf) {
+		SessionFactoryImplementor factory = emf.unwrap(SessionFactoryImplementor.class);
+		this.planCache = factory.getQueryPlanCache();
+
+		Set<String> names = new LinkedHashSet<String>();
+		names.addAll(mappingFileQueryNames());
+		names.addAll(annotatedQueryNames(emf));
+
+		Map<String, RegisteredQuery> queries = new HashMap<String, RegisteredQuery>();
+		List<String> problems = new ArrayList<String>();
+		int nativeQueries = 0;
+		long start = System.nanoTime();
+		for (String name : names) {
+			NamedQueryDefinition definition = factory.getNamedQuery(name);
+			if (definition == null) {
+				if (factory.getNamedSQLQuery(name) == null) {
+					problems.add(name + ": not registered in the persistence unit");
+				} else {
+					queries.put(name, new RegisteredQuery(null, null)); // Native SQL goes to the database as it is, there is no plan
+					nativeQueries++;
+				}
+				continue;
+			}
+
+			String jpql = definition.getQueryString();
+			if (jpql.indexOf('\'') >= 0) {
+				problems.add(name + ": string literal in '" + jpql.trim() + "', use a parameter");
+				continue;
+			}
+			try {
+				HQLQueryPlan plan = planCache.getHQLQueryPlan(jpql, false, Collections.<String, org.hibernate.Filter>emptyMap()); // Parsed and translated to SQL now
+				queries.put(name, new RegisteredQuery(jpql, plan));
+			} catch (HibernateException e) {
+				problems.add(name + ": " + e.getMessage());
+			}
+		}
+
+		if (!problems.isEmpty()) {
+			throw new HibernateException("invalid queries:\n\t" + StringUtils.join(problems, "\n\t"));
+		}
+
+		this.queries = Collections.unmodifiableMap(queries);
+		this.nativeQueries = nativeQueries;
+		logger.info(queries.size() + " queries compiled in " + (System.nanoTime() - start) / 1000000 + " ms (" + nativeQueries + " native)");
+	}
+
+	public Query createQuery(EntityManager em, String name) {
+		lookup(em, name);
+		return em.createNamedQuery(name);
+	}
+
+	public <T> TypedQuery<T> createQuery(EntityManager em, String name, Class<T> resultClass) {
+		lookup(em, name);
+		return em.createNamedQuery(name, resultClass);
+	}
+
+	// JPQL of a registered query, for the APIs that take a query string (StreamingQuery.java). null for native queries
+	public String getQueryString(String name) {
+		return registered(name).jpql;
+	}
+
+	// Tables of a registered JPQL query: the ones it reads, and for an update or delete the one it writes. Empty for native queries
+	public Set<String> getQuerySpaces(String name) {
+		RegisteredQuery query = registered(name);
+		Set<String> spaces = new HashSet<String>();
+		if (query.plan != null) {
+			for (Object space : query.plan.getQuerySpaces())
+				spaces.add(space.toString());
+		}
+		return spaces;
+	}
+
+	// Plan of a registered JPQL query, with its SQL and parameter positions (QueryPlanCheck.java). null for native queries
+	HQLQueryPlan getPlan(String name) {
+		return registered(name).plan;
+	}
+
+	public Set<String> getNames() {
+		return queries.keySet();
+	}
+
+	public PlanStatistics getStatistics() {
+		return new PlanStatistics(queries.size(), nativeQueries, hits.get(), misses.get());
+	}
+
+	private RegisteredQuery registered(String name) {
+		RegisteredQuery query = queries.get(name);
+		if (query == null) {
+			throw new IllegalArgumentException("unknown query: " + name + ". Declare it in " + MAPPING_FILE + " or with @NamedQuery");
+		}
+		return query;
+	}
+
+	// The plan cache returns the same plan object while the plan stays in it. A different one was compiled again
+	private void lookup(EntityManager em, String name) {
+		RegisteredQuery query = registered(name);
+		if (query.jpql == null) return;
+
+		HQLQueryPlan plan = planCache.getHQLQueryPlan(query.jpql, false, em.unwrap(SessionImplementor.class).getLoadQueryInfluencers().getEnabledFilters());
+		if (plan == query.plan) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			query.plan = plan;
+		}
+	}
+
+	private static Set<String> mappingFileQueryNames() {
+		Set<String> names = new LinkedHashSet<String>();
+		try {
+			DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+			builderFactory.setNamespaceAware(true);
+			Enumeration<URL> files = Thread.currentThread().getContextClassLoader().getResources(MAPPING_FILE);
+			while (files.hasMoreElements()) {
+				InputStream in = files.nextElement().openStream();
+				try {
+					Element root = builderFactory.newDocumentBuilder().parse(in).getDocumentElement();
+					addNames(root.getElementsByTagNameNS("*", "named-query"), names);
+					addNames(root.getElementsByTagNameNS("*", "named-native-query"), names);
+				} finally {
+					in.close();
+				}
+			}
+		} catch (Exception e) {
+			throw new HibernateException("cannot read the queries of " + MAPPING_FILE, e);
+		}
+		return names;
+	}
+
+	private static void addNames(NodeList elements, Set<String> names) {
+		for (int i = 0; i < elements.getLength(); i++)
+			names.add(((Element) elements.item(i)).getAttribute("name"));
+	}
+
+	private static Set<String> annotatedQueryNames(EntityManagerFactory emf) {
+		Set<String> names = new LinkedHashSet<String>();
+		for (EntityType<?> entity : emf.getMetamodel().getEntities()) {
+			Class<?> type = entity.getJavaType();
+			if (type.isAnnotationPresent(NamedQuery.class)) names.add(type.getAnnotation(NamedQuery.class).name());
+			if (type.isAnnotationPresent(NamedQueries.class)) {
+				for (NamedQuery query : type.getAnnotation(NamedQueries.class).value())
+					names.add(query.name());
+			}
+			if (type.isAnnotationPresent(NamedNativeQuery.class)) names.add(type.getAnnotation(NamedNativeQuery.class).name());
+			if (type.isAnnotationPresent(NamedNativeQueries.class)) {
+				for (NamedNativeQuery query : type.getAnnotation(NamedNativeQueries.class).value())
+					names.add(query.name());
+			}
+		}
+		return names;
+	}
+
+	private static class RegisteredQuery {
+
+		private final String jpql; // null => native SQL
+		private volatile HQLQueryPlan plan; // Last plan seen in the plan cache
+
+		RegisteredQuery(String jpql, HQLQueryPlan plan) {
+			this.jpql = jpql;
+			this.plan = plan;
+		}
+
+	}
+
+}
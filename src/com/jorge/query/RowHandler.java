@@ -0,0 +1,15 @@
+package com.jorge.query;
+
+/**
+ * Callback that receives the rows of a streamed query one at a time
+ *
+ * The row is only guaranteed to be managed while handle() runs. The persistence context is cleared
+ * periodically by StreamingQuery, so don't keep references to entities after handle() returns
+ *
+ * @param <T> Entity class (select guide from Guide guide) or Object[] for projections (select guide.name, guide.salary from Guide guide)
+ */
+public interface RowHandler<T> {
+
+	void handle(T row);
+
+}
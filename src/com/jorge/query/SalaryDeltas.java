@@ -0,0 +1,169 @@
+package com.jorge.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TransactionRequiredException;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.jdbc.ReturningWork;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+
+import com.jorge.cache.QueryResultCache;
+import com.jorge.changes.ChangeFeed;
+import com.jorge.entity.Guide;
+
+/**
+ * Adds to the salary of guides without reading them first: update guide set salary = salary + ?, version = version + 1 where id = ?
+ *
+ * 		SalaryDeltas deltas = new SalaryDeltas(emf);
+ * 		deltas.add(em, guideId, 100);					Inside a transaction, like BulkOperations.java
+ *
+ * Read-modify-write (em.find(), setSalary(salary + 100), commit) on a guide many writers change at the same time either conflicts
+ * (@Version: OptimisticLockException, retried by RetryPolicy.java) or, with LockModeType.PESSIMISTIC_WRITE, holds the row lock from
+ * the select to the commit. Additions commute: the database applies them in whatever order the updates arrive, no one is lost
+ * and none has to be retried. The row lock is held only from the update to the commit, writers of different guides never wait
+ *
+ * The version is incremented too: a transaction that read the guide before and changes it afterwards fails with
+ * OptimisticLockException instead of overwriting the new salary
+ *
+ * What the entity path did, and what is done instead:
+ * 		- Second-level cache: only the guides written are evicted (before the update and again after the commit, so a reader
+ * 		  can't cache the old row in between). A bulk JPQL update would evict the whole Guide region
+ * 		- Persistence context: a guide already loaded by 'em' is refreshed
+ * 		- QueryResultCache: the guide table is invalidated
+ * 		- ChangeFeed: when the feed is enabled the new salary and version are read back (one select by primary key, the rows are
+ * 		  still locked by this transaction) and published as UPDATE changes on commit
+ */
+public class SalaryDeltas {
+
+	private static final Logger logger = Logger.getLogger(SalaryDeltas.class.getName());
+	private static final String[] ATTRIBUTES = { "salary", "version" };
+
+	private final SessionFactoryImplementor factory;
+	private final String table;
+	private final String update;
+	private final String selectPrefix; // ... where id in (
+
+	public SalaryDeltas(EntityManagerFactory emf) {
+		factory = emf.unwrap(SessionFactoryImplementor.class);
+		AbstractEntityPersister persister = (AbstractEntityPersister) factory.getEntityPersister(Guide.class.getName());
+		String salary = persister.getPropertyColumnNames("salary")[0]; // Column names from the mapping, like Report.java
+		String version = persister.getVersionColumnName();
+		String id = persister.getIdentifierColumnNames()[0];
+		table = persister.getTableName();
+		update = "update " + table + " set " + salary + " = " + salary + " + ?, " + version + " = " + version + " + 1 where " + id + " = ?";
+		selectPrefix = "select " + id + ", " + salary + ", " + version + " from " + table + " where " + id + " in (";
+	}
+
+	/**
+	 * Adds 'delta' (negative: subtracts) to the salary of the guide. false if there is no such guide
+	 */
+	public boolean add(EntityManager em, long guideId, int delta) {
+		return addAll(em, Collections.singletonMap(guideId, delta)) == 1;
+	}
+
+	/**
+	 * Adds every delta (guide id => delta) in one JDBC batch. Returns the number of guides found
+	 *
+	 * Rows are updated in id order: two transactions adding to the same guides lock them in the same order and can't deadlock
+	 */
+	public int addAll(EntityManager em, Map<Long, Integer> deltas) {
+		if (!em.isJoinedToTransaction()) throw new TransactionRequiredException("salary deltas must run inside a transaction");
+		if (deltas.isEmpty()) return 0;
+		final EventSource session = (EventSource) em.unwrap(Session.class); // The session implementation is also the EventSource
+		session.flush(); // Changes already made through 'em' are written first, in the order they were made
+
+		final TreeMap<Long, Integer> sorted = new TreeMap<Long, Integer>(deltas);
+		final boolean readBack = ChangeFeed.isEnabled(em);
+		evict(sorted.keySet());
+
+		Map<Long, Object[]> written = session.doReturningWork(new ReturningWork<Map<Long, Object[]>>() {
+			@Override
+			public Map<Long, Object[]> execute(Connection connection) throws SQLException {
+				return write(connection, sorted, readBack);
+			}
+		});
+
+		QueryResultCache.invalidateAllTables(em, Collections.singleton(table));
+		session.getActionQueue().registerProcess(new AfterTransactionCompletionProcess() {
+			@Override
+			public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+				evict(sorted.keySet()); // Committed or not: whatever was cached since the first eviction may be wrong
+			}
+		});
+		for (Long id : sorted.keySet()) {
+			Object managed = session.getPersistenceContext().getEntity(session.generateEntityKey(id, factory.getEntityPersister(Guide.class.getName())));
+			if (managed != null) session.refresh(managed);
+		}
+		if (readBack) {
+			for (Map.Entry<Long, Object[]> row : written.entrySet())
+				ChangeFeed.updated(em, Guide.class, row.getKey(), ATTRIBUTES, row.getValue());
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("salary deltas: " + written.size() + " of " + sorted.size() + " guides");
+		}
+		return written.size();
+	}
+
+	// Guide ids found => {salary, version}, only ids (null values) without 'readBack'
+	private Map<Long, Object[]> write(Connection connection, TreeMap<Long, Integer> deltas, boolean readBack) throws SQLException {
+		Map<Long, Object[]> written = new HashMap<Long, Object[]>();
+		PreparedStatement statement = connection.prepareStatement(update);
+		try {
+			for (Map.Entry<Long, Integer> delta : deltas.entrySet()) {
+				statement.setInt(1, delta.getValue());
+				statement.setLong(2, delta.getKey());
+				statement.addBatch();
+			}
+			int[] counts = statement.executeBatch();
+			int i = 0;
+			for (Long id : deltas.keySet()) {
+				int count = counts[i++];
+				if (count > 0 || count == Statement.SUCCESS_NO_INFO) written.put(id, null); // rewriteBatchedStatements may not tell
+			}
+		} finally {
+			statement.close();
+		}
+		if (!readBack || written.isEmpty()) return written;
+
+		StringBuilder select = new StringBuilder(selectPrefix);
+		for (int i = 0; i < deltas.size(); i++)
+			select.append(i == 0 ? "?" : ", ?");
+		statement = connection.prepareStatement(select.append(')').toString());
+		try {
+			int parameter = 1;
+			for (Long id : deltas.keySet())
+				statement.setLong(parameter++, id);
+			written.clear(); // The select is exact even when the batch counts were not
+			ResultSet rows = statement.executeQuery();
+			while (rows.next()) {
+				Object salary = rows.getObject(2) == null ? null : rows.getInt(2);
+				written.put(rows.getLong(1), new Object[] { salary, rows.getLong(3) });
+			}
+		} finally {
+			statement.close();
+		}
+		return written;
+	}
+
+	private void evict(Iterable<Long> ids) {
+		for (Long id : ids)
+			factory.getCache().evictEntity(Guide.class, id);
+	}
+
+}
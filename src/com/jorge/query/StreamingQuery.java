@@ -0,0 +1,117 @@
+package com.jorge.query;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import org.apache.log4j.Logger;
+import org.hibernate.CacheMode;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+/**
+ * Streaming query: runs a JPQL query through a forward-only cursor and hands the rows to a RowHandler one by one
+ *
+ * query.getResultList() materializes every row (List<Guide>) on the heap before we can use the first one.
+ * Here only one row is alive at a time, and the persistence context is cleared every 'clearInterval' rows,
+ * so memory use is the same for 10 rows than for 10 million rows
+ *
+ * Usage:
+ * 		new StreamingQuery<Guide>(em, "select guide from Guide guide")
+ * 			.setFetchSize(500)
+ * 			.stream(new RowHandler<Guide>() {
+ * 				public void handle(Guide guide) { System.out.println("ROW: " + guide); }
+ * 			});
+ *
+ * Fetch size: MySQL Connector/J reads the whole result set into memory by default. It only honors a positive fetch size
+ * 			   with 'useCursorFetch=true' in the JDBC url (see persistence.xml). Integer.MIN_VALUE streams row by row without a server cursor
+ *
+ * Rows are loaded read-only (no dirty-checking snapshots) and bypass the second-level cache (CacheMode.IGNORE)
+ *
+ * Clearing the persistence context detaches everything in it, not only the streamed rows. Flush your pending changes (em.flush()) before streaming
+ *
+ * @param <T> Entity class or Object[] for projections with more than one column
+ */
+public class StreamingQuery<T> {
+
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	public static final int DEFAULT_CLEAR_INTERVAL = 1000;
+
+	private static final Logger logger = Logger.getLogger(StreamingQuery.class.getName());
+
+	private final EntityManager em;
+	private final String jpql;
+	private final Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+	private int fetchSize = DEFAULT_FETCH_SIZE;
+	private int clearInterval = DEFAULT_CLEAR_INTERVAL;
+
+	public StreamingQuery(EntityManager em, String jpql) {
+		this.em = em;
+		this.jpql = jpql;
+	}
+
+	public StreamingQuery<T> setParameter(String name, Object value) {
+		parameters.put(name, value);
+		return this;
+	}
+
+	public StreamingQuery<T> setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+		return this;
+	}
+
+	// Rows handled between two em.clear() calls. 0 never clears the persistence context
+	public StreamingQuery<T> setClearInterval(int clearInterval) {
+		if (clearInterval < 0) {
+			throw new IllegalArgumentException("clearInterval must be >= 0: " + clearInterval);
+		}
+		this.clearInterval = clearInterval;
+		return this;
+	}
+
+	/**
+	 * Runs the query and calls handler.handle(row) for every row
+	 *
+	 * @return number of rows handled
+	 */
+	@SuppressWarnings("unchecked")
+	public long stream(RowHandler<T> handler) {
+		Session session = em.unwrap(Session.class); // => JPA has no cursor API, we go down to the Hibernate session
+
+		Query query = session.createQuery(jpql);
+		for (Map.Entry<String, Object> parameter : parameters.entrySet())
+			query.setParameter(parameter.getKey(), parameter.getValue());
+
+		query.setFetchSize(fetchSize);
+		query.setReadOnly(true);
+		query.setCacheMode(CacheMode.IGNORE);
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("streaming query '" + jpql + "' with fetch size " + fetchSize + " and clear interval " + clearInterval);
+		}
+
+		long rows = 0;
+		ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			while (results.next()) {
+				Object[] row = results.get();
+				handler.handle((T) (row.length == 1 ? row[0] : row)); // One column => entity or single value, several columns => Object[]
+
+				rows++;
+				if (clearInterval > 0 && rows % clearInterval == 0)
+					session.clear(); // Detaches the rows already handled so they can be garbage collected
+			}
+		} finally {
+			results.close();
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("streamed " + rows + " rows");
+		}
+		return rows;
+	}
+
+}
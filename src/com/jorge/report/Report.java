@@ -0,0 +1,435 @@
+package com.jorge.report;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.jdbc.ReturningWork;
+import org.hibernate.persister.collection.QueryableCollection;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+
+import com.jorge.report.ReportTable.ColumnType;
+
+/**
+ * Aggregation report compiled to one SQL statement: group by, count/sum/avg/min/max, having and rankings run in the database,
+ * only the aggregated rows come back, into the primitive columns of a ReportTable
+ *
+ * Instead of loading every guide with its students and counting them in Java:
+ * 		Report report = new Report(emf, Guide.class, "g")
+ * 			.leftJoin("g.students", "s")
+ * 			.groupBy("guide", "g.name")
+ * 			.count("students", "s.id")						(count(s.id): guides without students count 0)
+ * 			.having("students", ">=", "minStudents")
+ * 			.rank("position", "students", true)				(1 = most students)
+ * 			.orderBy("students", true)
+ * 			.setParameter("minStudents", 1);
+ * 		ReportTable table = report.execute(em);
+ * =>
+ * 		select g.name as guide, count(s.id) as students, rank() over (order by count(s.id) desc) as position
+ * 		from guide g left join Student s on s.guide_id = g.id
+ * 		group by g.name having count(s.id) >= ? order by students desc
+ *
+ * Attributes are written as in JPQL (alias.attribute) and translated to columns with the Hibernate mappings, so the report
+ * follows the entities if a column is renamed. Joins follow the associations: "s.guide" (many-to-one) or "g.students" (one-to-many).
+ * Values are always parameters, like the named queries of orm.xml
+ *
+ * The statement is native SQL (JPQL has no window functions): rankings need MySQL 8.0 or later, the rest works on MySQL 5.x.
+ * Pending changes of the entity manager are flushed before the report runs. Like a JPA Query, a Report is not thread-safe
+ */
+public class Report {
+
+	private static final Logger logger = Logger.getLogger(Report.class.getName());
+	private static final Pattern NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+	private static final Pattern OPERATOR = Pattern.compile("=|<>|<|<=|>|>=|like|not like");
+
+	private enum Kind { DIMENSION, MEASURE, RANK }
+
+	private final SessionFactoryImplementor factory;
+	private final Map<String, AbstractEntityPersister> aliases = new LinkedHashMap<String, AbstractEntityPersister>();
+	private final StringBuilder from = new StringBuilder();
+	private final List<Column> columns = new ArrayList<Column>();
+	private final List<Condition> where = new ArrayList<Condition>();
+	private final List<Condition> having = new ArrayList<Condition>();
+	private final List<String> orderBy = new ArrayList<String>();
+	private final Map<String, Object> parameters = new HashMap<String, Object>();
+	private int limit;
+
+	private String sql; // Compiled statement, null after every change
+	private List<String> sqlParameters; // Parameter names in the order of the ? of 'sql'
+
+	/**
+	 * @param alias Alias of the root entity, used to name its attributes: "g" => "g.name"
+	 */
+	public Report(EntityManagerFactory emf, Class<?> rootEntity, String alias) {
+		this.factory = emf.unwrap(SessionFactoryImplementor.class);
+		AbstractEntityPersister persister = persister(rootEntity.getName());
+		addAlias(alias, persister);
+		from.append(persister.getTableName()).append(' ').append(alias);
+	}
+
+	// Inner join: rows without an associated entity are left out
+	public Report join(String association, String alias) {
+		return addJoin("join", association, alias);
+	}
+
+	// Left outer join: rows without an associated entity are kept, with nulls
+	public Report leftJoin(String association, String alias) {
+		return addJoin("left join", association, alias);
+	}
+
+	/**
+	 * Filters the rows before they are grouped: attribute operator :parameter. Operators: = <> < <= > >= like, not like
+	 */
+	public Report where(String attribute, String operator, String parameter) {
+		where.add(new Condition(column(attribute), operator(operator), name(parameter)));
+		return changed();
+	}
+
+	// One group per value of the attribute
+	public Report groupBy(String name, String attribute) {
+		return addColumn(name, Kind.DIMENSION, column(attribute), columnType(type(attribute)));
+	}
+
+	/**
+	 * One group per band of 'width' values of a numeric attribute, named by its lower limit: band("salaryBand", "g.salary", 500)
+	 * puts 1200 in band 1000
+	 */
+	public Report band(String name, String attribute, int width) {
+		if (width <= 0) throw new IllegalArgumentException("width must be > 0: " + width);
+		String column = column(attribute);
+		return addColumn(name, Kind.DIMENSION, "floor(" + column + " / " + width + ") * " + width, numericType(attribute)); // An int, not a parameter: it is in group by
+	}
+
+	// Rows of the group
+	public Report count(String name) {
+		return addColumn(name, Kind.MEASURE, "count(*)", ColumnType.LONG);
+	}
+
+	// Rows of the group where the attribute is not null
+	public Report count(String name, String attribute) {
+		return addColumn(name, Kind.MEASURE, "count(" + column(attribute) + ")", ColumnType.LONG);
+	}
+
+	public Report countDistinct(String name, String attribute) {
+		return addColumn(name, Kind.MEASURE, "count(distinct " + column(attribute) + ")", ColumnType.LONG);
+	}
+
+	public Report sum(String name, String attribute) {
+		return addColumn(name, Kind.MEASURE, "sum(" + column(attribute) + ")", numericType(attribute));
+	}
+
+	public Report avg(String name, String attribute) {
+		String column = column(attribute);
+		numericType(attribute);
+		return addColumn(name, Kind.MEASURE, "avg(" + column + ")", ColumnType.DOUBLE);
+	}
+
+	public Report min(String name, String attribute) {
+		return addColumn(name, Kind.MEASURE, "min(" + column(attribute) + ")", columnType(type(attribute)));
+	}
+
+	public Report max(String name, String attribute) {
+		return addColumn(name, Kind.MEASURE, "max(" + column(attribute) + ")", columnType(type(attribute)));
+	}
+
+	/**
+	 * Filters the groups: measure operator :parameter, e.g. having("students", ">=", "minStudents")
+	 */
+	public Report having(String measure, String operator, String parameter) {
+		Column column = column(measure, Kind.MEASURE);
+		having.add(new Condition(column.expression, operator(operator), name(parameter)));
+		return changed();
+	}
+
+	/**
+	 * Position of every row ordered by another column of the report (1, 2, 2, 4...: ties share the position)
+	 */
+	public Report rank(String name, String orderColumn, boolean descending) {
+		return rank(name, null, orderColumn, descending);
+	}
+
+	/**
+	 * Position inside every group of 'partitionColumn' (a groupBy or band of the report): the guides ranked inside their salary band
+	 */
+	public Report rank(String name, String partitionColumn, String orderColumn, boolean descending) {
+		String partition = partitionColumn == null ? "" : "partition by " + column(partitionColumn, Kind.DIMENSION).expression + " ";
+		String order = "order by " + column(orderColumn, null).expression + (descending ? " desc" : "");
+		return addColumn(name, Kind.RANK, "rank() over (" + partition + order + ")", ColumnType.LONG);
+	}
+
+	public Report orderBy(String column, boolean descending) {
+		column(column, null);
+		orderBy.add(column + (descending ? " desc" : ""));
+		return changed();
+	}
+
+	// Only the first 'limit' rows (top-N with orderBy). 0 => all
+	public Report limit(int limit) {
+		if (limit < 0) throw new IllegalArgumentException("limit must be >= 0: " + limit);
+		this.limit = limit;
+		return changed();
+	}
+
+	public Report setParameter(String name, Object value) {
+		parameters.put(name, value);
+		return this;
+	}
+
+	// The statement sent to the database
+	public String getSql() {
+		if (sql == null) compile();
+		return sql;
+	}
+
+	public ReportTable execute(EntityManager em) {
+		final String sql = getSql();
+		final Object[] values = new Object[sqlParameters.size()];
+		for (int i = 0; i < values.length; i++) {
+			String name = sqlParameters.get(i);
+			if (!parameters.containsKey(name)) throw new IllegalStateException("parameter not set: " + name);
+			values[i] = parameters.get(name);
+		}
+		final String[] names = new String[columns.size()];
+		final ColumnType[] types = new ColumnType[columns.size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = columns.get(i).name;
+			types[i] = columns.get(i).type;
+		}
+
+		if (em.isJoinedToTransaction()) em.flush(); // The report reads the database: pending changes must be there
+		long start = System.nanoTime();
+		ReportTable table = em.unwrap(Session.class).doReturningWork(new ReturningWork<ReportTable>() {
+			@Override
+			public ReportTable execute(Connection connection) throws SQLException {
+				PreparedStatement statement = connection.prepareStatement(sql);
+				try {
+					for (int i = 0; i < values.length; i++)
+						statement.setObject(i + 1, values[i]);
+					ResultSet resultSet = statement.executeQuery();
+					try {
+						return read(resultSet, new ReportTable(names, types));
+					} finally {
+						resultSet.close();
+					}
+				} finally {
+					statement.close();
+				}
+			}
+		});
+		if (logger.isDebugEnabled()) {
+			logger.debug(table.getRowCount() + " rows in " + (System.nanoTime() - start) / 1000 + " us: " + sql);
+		}
+		return table;
+	}
+
+	// Straight from the JDBC row to the arrays, no Object per value (except strings)
+	private static ReportTable read(ResultSet resultSet, ReportTable table) throws SQLException {
+		int columns = table.getColumnCount();
+		while (resultSet.next()) {
+			int row = table.addRow();
+			for (int column = 0; column < columns; column++) {
+				switch (table.getColumnType(column)) {
+				case LONG: table.setLong(row, column, resultSet.getLong(column + 1)); break;
+				case DOUBLE: table.setDouble(row, column, resultSet.getDouble(column + 1)); break;
+				default: table.setString(row, column, resultSet.getString(column + 1));
+				}
+				if (resultSet.wasNull()) table.setNull(row, column);
+			}
+		}
+		return table;
+	}
+
+	private void compile() {
+		if (columns.isEmpty()) throw new IllegalStateException("the report has no columns");
+		List<String> sqlParameters = new ArrayList<String>();
+		StringBuilder sql = new StringBuilder("select ");
+		boolean grouped = false;
+		for (int i = 0; i < columns.size(); i++) {
+			Column column = columns.get(i);
+			if (i > 0) sql.append(", ");
+			sql.append(column.expression).append(" as ").append(column.name);
+			grouped |= column.kind == Kind.MEASURE;
+		}
+		sql.append(" from ").append(from);
+		conditions(sql, " where ", where, sqlParameters);
+		if (grouped) {
+			String separator = " group by ";
+			for (Column column : columns) {
+				if (column.kind != Kind.DIMENSION) continue;
+				sql.append(separator).append(column.expression);
+				separator = ", ";
+			}
+		}
+		conditions(sql, " having ", having, sqlParameters);
+		for (int i = 0; i < orderBy.size(); i++)
+			sql.append(i == 0 ? " order by " : ", ").append(orderBy.get(i));
+		if (limit > 0) sql.append(" limit ").append(limit); // MySQL (and H2)
+
+		this.sql = sql.toString();
+		this.sqlParameters = sqlParameters;
+	}
+
+	private static void conditions(StringBuilder sql, String keyword, List<Condition> conditions, List<String> sqlParameters) {
+		for (int i = 0; i < conditions.size(); i++) {
+			Condition condition = conditions.get(i);
+			sql.append(i == 0 ? keyword : " and ").append(condition.expression).append(' ').append(condition.operator).append(" ?");
+			sqlParameters.add(condition.parameter);
+		}
+	}
+
+	private Report addJoin(String join, String association, String alias) {
+		int dot = association.indexOf('.');
+		AbstractEntityPersister owner = dot < 0 ? null : aliases.get(association.substring(0, dot));
+		if (owner == null) throw new IllegalArgumentException("unknown alias in " + association);
+		String ownerAlias = association.substring(0, dot);
+		String property = association.substring(dot + 1);
+		Type type = owner.getPropertyType(property);
+
+		if (type instanceof CollectionType) { // g.students => Student s on s.guide_id = g.id
+			QueryableCollection collection = (QueryableCollection) factory.getCollectionPersister(((CollectionType) type).getRole());
+			if (!collection.isOneToMany()) throw new IllegalArgumentException(association + ": only one-to-many collections can be joined");
+			AbstractEntityPersister target = (AbstractEntityPersister) collection.getElementPersister();
+			addAlias(alias, target);
+			from.append(' ').append(join).append(' ').append(target.getTableName()).append(' ').append(alias)
+				.append(" on ").append(alias).append('.').append(collection.getKeyColumnNames()[0])
+				.append(" = ").append(ownerAlias).append('.').append(owner.getIdentifierColumnNames()[0]);
+		} else if (type instanceof EntityType) { // s.guide => guide g on g.id = s.guide_id
+			AbstractEntityPersister target = persister(((EntityType) type).getAssociatedEntityName());
+			addAlias(alias, target);
+			from.append(' ').append(join).append(' ').append(target.getTableName()).append(' ').append(alias)
+				.append(" on ").append(alias).append('.').append(target.getIdentifierColumnNames()[0])
+				.append(" = ").append(ownerAlias).append('.').append(owner.getPropertyColumnNames(property)[0]);
+		} else {
+			throw new IllegalArgumentException(association + " is not an association");
+		}
+		return changed();
+	}
+
+	private void addAlias(String alias, AbstractEntityPersister persister) {
+		if (aliases.containsKey(name(alias))) throw new IllegalArgumentException("alias already used: " + alias);
+		aliases.put(alias, persister);
+	}
+
+	private Report addColumn(String name, Kind kind, String expression, ColumnType type) {
+		for (Column column : columns) {
+			if (column.name.equals(name)) throw new IllegalArgumentException("column already in the report: " + name);
+		}
+		columns.add(new Column(name(name), kind, expression, type));
+		return changed();
+	}
+
+	private Report changed() {
+		sql = null;
+		return this;
+	}
+
+	// A column of the report, of the given kind (any kind if null)
+	private Column column(String name, Kind kind) {
+		for (Column column : columns) {
+			if (column.name.equals(name) && (kind == null || column.kind == kind)) return column;
+		}
+		throw new IllegalArgumentException("no " + (kind == null ? "column" : kind.name().toLowerCase()) + " named " + name + " in the report");
+	}
+
+	// g.salary => g.salary (the column of the attribute, with the alias of its table)
+	private String column(String attribute) {
+		int dot = attribute.indexOf('.');
+		AbstractEntityPersister persister = dot < 0 ? null : aliases.get(attribute.substring(0, dot));
+		if (persister == null) throw new IllegalArgumentException("unknown alias in " + attribute);
+		String property = attribute.substring(dot + 1);
+		String[] columns = property.equals(persister.getIdentifierPropertyName()) ? persister.getIdentifierColumnNames() : persister.getPropertyColumnNames(property);
+		if (columns.length != 1) throw new IllegalArgumentException(attribute + " is not a single column");
+		return attribute.substring(0, dot + 1) + columns[0];
+	}
+
+	// Called after column(attribute): the alias is known
+	private Type type(String attribute) {
+		int dot = attribute.indexOf('.');
+		AbstractEntityPersister persister = aliases.get(attribute.substring(0, dot));
+		String property = attribute.substring(dot + 1);
+		Type type = property.equals(persister.getIdentifierPropertyName()) ? persister.getIdentifierType() : persister.getPropertyType(property);
+		if (type instanceof EntityType) // s.guide => the guide id
+			return ((EntityType) type).getIdentifierOrUniqueKeyType(factory);
+		if (type.isCollectionType()) throw new IllegalArgumentException(attribute + " is a collection, join it");
+		return type;
+	}
+
+	private ColumnType numericType(String attribute) {
+		ColumnType type = columnType(type(attribute));
+		if (type == ColumnType.STRING) throw new IllegalArgumentException(attribute + " is not numeric");
+		return type;
+	}
+
+	private static ColumnType columnType(Type type) {
+		Class<?> cls = type.getReturnedClass();
+		if (cls == Long.class || cls == Integer.class || cls == Short.class || cls == Byte.class
+				|| cls == long.class || cls == int.class || cls == short.class || cls == byte.class)
+			return ColumnType.LONG;
+		if (Number.class.isAssignableFrom(cls) || cls == double.class || cls == float.class)
+			return ColumnType.DOUBLE;
+		return ColumnType.STRING;
+	}
+
+	private AbstractEntityPersister persister(String entityName) {
+		return (AbstractEntityPersister) factory.getEntityPersister(entityName);
+	}
+
+	private static String operator(String operator) {
+		String normalized = operator.trim().toLowerCase();
+		if (!OPERATOR.matcher(normalized).matches()) throw new IllegalArgumentException("unsupported operator: " + operator);
+		return normalized;
+	}
+
+	// Aliases, column and parameter names go into the SQL as they are
+	private static String name(String name) {
+		if (name == null || !NAME.matcher(name).matches()) throw new IllegalArgumentException("invalid name: " + name);
+		return name;
+	}
+
+	private static class Column {
+
+		private final String name;
+		private final Kind kind;
+		private final String expression;
+		private final ColumnType type;
+
+		Column(String name, Kind kind, String expression, ColumnType type) {
+			this.name = name;
+			this.kind = kind;
+			this.expression = expression;
+			this.type = type;
+		}
+
+	}
+
+	private static class Condition {
+
+		private final String expression;
+		private final String operator;
+		private final String parameter;
+
+		Condition(String expression, String operator, String parameter) {
+			this.expression = expression;
+			this.operator = operator;
+			this.parameter = parameter;
+		}
+
+	}
+
+}
@@ -0,0 +1,174 @@
+package com.jorge.report;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Result of a Report: one primitive array per column instead of one Object[] (and one boxed value per cell) per row
+ *
+ * 		ReportTable table = report.execute(em);
+ * 		int guide = table.getColumnIndex("guide"), students = table.getColumnIndex("students");
+ * 		for (int row = 0; row < table.getRowCount(); row++)
+ * 			System.out.println(table.getString(row, guide) + ": " + table.getLong(row, students));
+ *
+ * Column types: LONG (counts, rankings, integer attributes and their sum/min/max), DOUBLE (avg, decimal attributes), STRING (the rest).
+ * A SQL null is 0 / 0.0 / null, isNull() tells them apart. Not thread-safe while it is being filled, read-only after
+ */
+public class ReportTable {
+
+	public enum ColumnType { LONG, DOUBLE, STRING }
+
+	private final String[] names;
+	private final ColumnType[] types;
+	private final Object[] columns; // long[], double[] or String[]
+	private final BitSet[] nulls;
+	private int rows;
+
+	ReportTable(String[] names, ColumnType[] types) {
+		this.names = names;
+		this.types = types;
+		this.columns = new Object[names.length];
+		this.nulls = new BitSet[names.length];
+		for (int i = 0; i < names.length; i++) {
+			columns[i] = newColumn(types[i], 64);
+			nulls[i] = new BitSet();
+		}
+	}
+
+	public int getRowCount() {
+		return rows;
+	}
+
+	public int getColumnCount() {
+		return names.length;
+	}
+
+	public String getColumnName(int column) {
+		return names[column];
+	}
+
+	public ColumnType getColumnType(int column) {
+		return types[column];
+	}
+
+	public int getColumnIndex(String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) return i;
+		}
+		throw new IllegalArgumentException("unknown column: " + name + ", columns: " + Arrays.toString(names));
+	}
+
+	public long getLong(int row, int column) {
+		checkRow(row);
+		switch (types[column]) {
+		case LONG: return ((long[]) columns[column])[row];
+		case DOUBLE: return (long) ((double[]) columns[column])[row];
+		default: throw new IllegalStateException("column " + names[column] + " is " + types[column]);
+		}
+	}
+
+	public double getDouble(int row, int column) {
+		checkRow(row);
+		switch (types[column]) {
+		case LONG: return ((long[]) columns[column])[row];
+		case DOUBLE: return ((double[]) columns[column])[row];
+		default: throw new IllegalStateException("column " + names[column] + " is " + types[column]);
+		}
+	}
+
+	// Any column, as text
+	public String getString(int row, int column) {
+		checkRow(row);
+		if (nulls[column].get(row)) return null;
+		switch (types[column]) {
+		case LONG: return Long.toString(((long[]) columns[column])[row]);
+		case DOUBLE: return Double.toString(((double[]) columns[column])[row]);
+		default: return ((String[]) columns[column])[row];
+		}
+	}
+
+	public boolean isNull(int row, int column) {
+		checkRow(row);
+		return nulls[column].get(row);
+	}
+
+	// Copy of a LONG column, one element per row
+	public long[] getLongColumn(int column) {
+		if (types[column] != ColumnType.LONG) throw new IllegalStateException("column " + names[column] + " is " + types[column]);
+		return Arrays.copyOf((long[]) columns[column], rows);
+	}
+
+	// Copy of a DOUBLE column, one element per row
+	public double[] getDoubleColumn(int column) {
+		if (types[column] != ColumnType.DOUBLE) throw new IllegalStateException("column " + names[column] + " is " + types[column]);
+		return Arrays.copyOf((double[]) columns[column], rows);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder table = new StringBuilder();
+		table.append(Arrays.toString(names));
+		for (int row = 0; row < rows; row++) {
+			table.append("\n[");
+			for (int column = 0; column < names.length; column++) {
+				if (column > 0) table.append(", ");
+				table.append(getString(row, column));
+			}
+			table.append(']');
+		}
+		return table.toString();
+	}
+
+	// Filling, by Report
+
+	int addRow() {
+		if (rows == capacity()) {
+			int capacity = rows * 2;
+			for (int i = 0; i < columns.length; i++) {
+				Object column = columns[i];
+				switch (types[i]) {
+				case LONG: columns[i] = Arrays.copyOf((long[]) column, capacity); break;
+				case DOUBLE: columns[i] = Arrays.copyOf((double[]) column, capacity); break;
+				default: columns[i] = Arrays.copyOf((String[]) column, capacity);
+				}
+			}
+		}
+		return rows++;
+	}
+
+	void setLong(int row, int column, long value) {
+		((long[]) columns[column])[row] = value;
+	}
+
+	void setDouble(int row, int column, double value) {
+		((double[]) columns[column])[row] = value;
+	}
+
+	void setString(int row, int column, String value) {
+		((String[]) columns[column])[row] = value;
+	}
+
+	void setNull(int row, int column) {
+		nulls[column].set(row);
+	}
+
+	private int capacity() {
+		Object column = columns.length == 0 ? null : columns[0];
+		if (column instanceof long[]) return ((long[]) column).length;
+		if (column instanceof double[]) return ((double[]) column).length;
+		return column == null ? Integer.MAX_VALUE : ((String[]) column).length;
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= rows) throw new IndexOutOfBoundsException("row " + row + ", rows: " + rows);
+	}
+
+	private static Object newColumn(ColumnType type, int capacity) {
+		switch (type) {
+		case LONG: return new long[capacity];
+		case DOUBLE: return new double[capacity];
+		default: return new String[capacity];
+		}
+	}
+
+}
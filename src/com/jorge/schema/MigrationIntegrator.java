@@ -0,0 +1,67 @@
+package com.jorge.schema;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.metamodel.source.MetadataImplementor;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+/**
+ * Runs the migrations of SchemaMigrator.java when a session factory starts, if hibernate.migrations.enabled=true
+ *
+ * persistence.xml:
+ * 		<property name="hibernate.migrations.enabled" value="true" />			(default false)
+ * 		<property name="hibernate.migrations.baseline_version" value="1" />		(existing schema without schema_version, default 1)
+ *
+ * Integrators run at the beginning of the session factory, before hbm2ddl.auto: with "validate" the migrated tables are compared
+ * with the mapping, and the factory doesn't start if they differ. The connection comes from the connection provider of the unit
+ * (PooledConnectionProvider.java). A failed migration fails the start
+ *
+ * Hibernate finds it through META-INF/services/org.hibernate.integrator.spi.Integrator, like MetricsIntegrator.java
+ */
+public class MigrationIntegrator implements Integrator {
+
+	public static final String PREFIX = "hibernate.migrations.";
+
+	@Override
+	public void integrate(Configuration configuration, SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+		Map<?, ?> settings = configuration.getProperties();
+		if (!Boolean.parseBoolean(setting(settings, "enabled", "false"))) return;
+
+		SchemaMigrator migrator = new SchemaMigrator(Thread.currentThread().getContextClassLoader(),
+				Integer.parseInt(setting(settings, "baseline_version", "1")));
+		ConnectionProvider provider = serviceRegistry.getService(ConnectionProvider.class);
+		try {
+			Connection connection = provider.getConnection();
+			try {
+				migrator.migrate(connection);
+			} finally {
+				provider.closeConnection(connection);
+			}
+		} catch (SQLException e) {
+			throw new HibernateException("schema migration failed: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void integrate(MetadataImplementor metadata, SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+		// New metamodel, not used by Hibernate 4.3
+	}
+
+	@Override
+	public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+		// Nothing registered
+	}
+
+	private static String setting(Map<?, ?> settings, String name, String defaultValue) {
+		Object value = settings.get(PREFIX + name);
+		return value == null ? defaultValue : value.toString().trim();
+	}
+
+}
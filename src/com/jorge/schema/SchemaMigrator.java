@@ -0,0 +1,233 @@
+package com.jorge.schema;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Versioned schema migrations, instead of hbm2ddl.auto=update
+ *
+ * hbm2ddl.auto=update only adds tables and columns, never indexes on existing tables, never changes or drops anything, and does it
+ * differently on every database it meets. Here the schema is a sequence of SQL scripts in the classpath:
+ * 		META-INF/migrations/V1.sql		First line: "-- <description>". Statements end with ';' at the end of a line
+ * 		META-INF/migrations/V2.sql
+ * 		...
+ * Every script runs once, in order, and is recorded in the schema_version table with its checksum. A script that was already applied
+ * must never be edited: the migration fails if its checksum changed. Changes go into a new script
+ *
+ * MigrationIntegrator.java runs it when the persistence unit starts (hibernate.migrations.enabled=true in persistence.xml), before
+ * hbm2ddl.auto=validate compares the tables with the mapping
+ *
+ * Databases created by hbm2ddl.auto=update before the migrations existed have tables but no schema_version: they are recorded
+ * as being at 'baseline' (hibernate.migrations.baseline_version, default 1) without running the scripts up to it.
+ * Use 2 if the version columns of Guide and Student were already added by hbm2ddl
+ *
+ * MySQL commits every DDL statement on its own: a script that fails halfway is not rolled back and not recorded. Fix the database
+ * by hand (the error says which statement failed), then start again. Run one application instance at a time while migrating
+ */
+public class SchemaMigrator {
+
+	public static final String LOCATION = "META-INF/migrations/";
+	public static final String TABLE = "schema_version";
+
+	private static final Logger logger = Logger.getLogger(SchemaMigrator.class.getName());
+	private static final String BASELINE_TABLE = "guide"; // Exists in every database created by hbm2ddl
+
+	private final ClassLoader classLoader;
+	private final int baseline;
+
+	public SchemaMigrator(ClassLoader classLoader, int baseline) {
+		if (baseline < 0) throw new IllegalArgumentException("baseline must be >= 0: " + baseline);
+		this.classLoader = classLoader;
+		this.baseline = baseline;
+	}
+
+	/**
+	 * Applies the scripts not applied yet. Returns how many ran
+	 */
+	public int migrate(Connection connection) throws SQLException {
+		long start = System.nanoTime();
+		Map<Integer, Script> scripts = scripts();
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(true); // Every statement on its own, as MySQL does for DDL anyway
+		try {
+			Map<Integer, Integer> applied = applied(connection, scripts);
+			int ran = 0;
+			int version = 0;
+			for (int recorded : applied.keySet())
+				version = Math.max(version, recorded);
+			for (Script script : scripts.values()) {
+				version = Math.max(version, script.version);
+				Integer checksum = applied.get(script.version);
+				if (checksum != null) {
+					if (checksum.intValue() != script.checksum)
+						throw new SQLException(LOCATION + "V" + script.version + ".sql was changed after being applied (checksum " + checksum + ", now " + script.checksum + "). Put the change in a new script");
+					continue;
+				}
+				apply(connection, script);
+				ran++;
+			}
+			logger.info("schema at version " + version + ", " + ran + " migrations applied in " + (System.nanoTime() - start) / 1000000 + " ms");
+			return ran;
+		} finally {
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+
+	// Version => checksum of the scripts recorded in schema_version. Creates the table, with the baseline, the first time
+	private Map<Integer, Integer> applied(Connection connection, Map<Integer, Script> scripts) throws SQLException {
+		Map<Integer, Integer> applied = new TreeMap<Integer, Integer>();
+		if (!tableExists(connection, TABLE)) {
+			boolean existingSchema = tableExists(connection, BASELINE_TABLE);
+			Statement statement = connection.createStatement();
+			try {
+				statement.executeUpdate("create table " + TABLE + " (version integer not null, description varchar(200) not null, checksum integer not null, "
+						+ "installed_on timestamp not null, execution_ms integer not null, primary key (version))");
+			} finally {
+				statement.close();
+			}
+			if (existingSchema) {
+				for (Script script : scripts.values()) {
+					if (script.version > baseline) break;
+					record(connection, script, 0);
+					applied.put(script.version, script.checksum);
+				}
+				logger.info("existing schema without " + TABLE + ": baseline at version " + baseline);
+			}
+			return applied;
+		}
+
+		Statement statement = connection.createStatement();
+		try {
+			ResultSet rows = statement.executeQuery("select version, checksum from " + TABLE);
+			while (rows.next())
+				applied.put(rows.getInt(1), rows.getInt(2));
+		} finally {
+			statement.close();
+		}
+		return applied;
+	}
+
+	private void apply(Connection connection, Script script) throws SQLException {
+		long start = System.nanoTime();
+		Statement statement = connection.createStatement();
+		try {
+			for (String sql : script.statements) {
+				try {
+					statement.execute(sql);
+				} catch (SQLException e) {
+					throw new SQLException(LOCATION + "V" + script.version + ".sql failed at '" + sql + "': " + e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+				}
+			}
+		} finally {
+			statement.close();
+		}
+		long millis = (System.nanoTime() - start) / 1000000;
+		record(connection, script, millis);
+		logger.info("migration V" + script.version + " (" + script.description + ") applied in " + millis + " ms");
+	}
+
+	private static void record(Connection connection, Script script, long millis) throws SQLException {
+		PreparedStatement insert = connection.prepareStatement("insert into " + TABLE + " (version, description, checksum, installed_on, execution_ms) values (?, ?, ?, ?, ?)");
+		try {
+			insert.setInt(1, script.version);
+			insert.setString(2, script.description.length() > 200 ? script.description.substring(0, 200) : script.description);
+			insert.setInt(3, script.checksum);
+			insert.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+			insert.setInt(5, (int) Math.min(millis, Integer.MAX_VALUE));
+			insert.executeUpdate();
+		} finally {
+			insert.close();
+		}
+	}
+
+	// Table names are stored upper case (H2), lower case or as written (MySQL, depending on lower_case_table_names)
+	private static boolean tableExists(Connection connection, String table) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		for (String name : new String[] { table, table.toUpperCase(), table.toLowerCase() }) {
+			ResultSet tables = metaData.getTables(connection.getCatalog(), null, name, new String[] { "TABLE" });
+			try {
+				if (tables.next()) return true;
+			} finally {
+				tables.close();
+			}
+		}
+		return false;
+	}
+
+	// V1.sql, V2.sql... up to the first missing one
+	private Map<Integer, Script> scripts() throws SQLException {
+		Map<Integer, Script> scripts = new TreeMap<Integer, Script>();
+		for (int version = 1; ; version++) {
+			InputStream in = classLoader.getResourceAsStream(LOCATION + "V" + version + ".sql");
+			if (in == null) break;
+			try {
+				scripts.put(version, new Script(version, read(in)));
+			} catch (IOException e) {
+				throw new SQLException("can't read " + LOCATION + "V" + version + ".sql", e);
+			}
+		}
+		return scripts;
+	}
+
+	private static String read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int read; (read = in.read(buffer)) > 0; )
+				bytes.write(buffer, 0, read);
+			return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static class Script {
+
+		final int version;
+		final String description;
+		final int checksum;
+		final List<String> statements = new ArrayList<String>();
+
+		Script(int version, String text) {
+			this.version = version;
+			String description = "";
+			StringBuilder statement = new StringBuilder();
+			CRC32 crc = new CRC32();
+			for (String line : text.split("\r?\n")) {
+				crc.update(line.getBytes(StandardCharsets.UTF_8)); // Line by line: the same script with other line endings has the same checksum
+				String trimmed = line.trim();
+				if (trimmed.startsWith("--")) {
+					if (description.isEmpty() && statements.isEmpty() && statement.length() == 0) description = trimmed.substring(2).trim();
+					continue;
+				}
+				if (trimmed.isEmpty()) continue;
+				statement.append(statement.length() == 0 ? "" : " ").append(trimmed);
+				if (trimmed.endsWith(";")) {
+					statements.add(statement.substring(0, statement.length() - 1));
+					statement.setLength(0);
+				}
+			}
+			if (statement.length() > 0) statements.add(statement.toString()); // Last statement without ';'
+			this.description = description.isEmpty() ? "V" + version : description;
+			this.checksum = (int) crc.getValue();
+		}
+
+	}
+
+}
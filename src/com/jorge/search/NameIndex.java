@@ -0,0 +1,661 @@
+package com.jorge.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.persistence.EntityManager;
+
+import org.apache.log4j.Logger;
+
+import com.jorge.query.QueryRegistry;
+import com.jorge.query.RowHandler;
+import com.jorge.query.StreamingQuery;
+import com.jorge.snapshot.LongIndexMap;
+
+/**
+ * In-memory inverted index of the names of one entity (Guide, Student...), for the searches 'like' can't do with an index:
+ * infix, typo tolerant and ranked
+ *
+ * 		where g.name like '%imps%'		Full table scan: a B-tree index only helps when the pattern doesn't start with %
+ *
+ * Names are normalized (lower case, without accents, punctuation => space) and indexed twice:
+ * 		words		TreeMap word => names with that word. Exact and prefix lookups ("simp" => simpson, simpsons...) are one
+ * 					subMap() of the sorted words. Fuzzy lookups (edit distance) compare the query with the distinct words, not the names,
+ * 					and only with the words sharing enough of its bigrams: every edit breaks at most 2 bigrams. The candidates are
+ * 					read from the shortest bigram lists of the query word (a word missing from all of them can't share enough),
+ * 					never from the whole vocabulary
+ * 		n-grams		every 1, 2 and 3 characters of the name => names containing them. "imps" is searched in the names of the shortest
+ * 					of the lists of "imp" and "mps", then checked with indexOf(). "im" and "i" have their own lists: a short
+ * 					needle reads the names containing it, not every name
+ * Ids and names come back in SearchHit: no entity is loaded. The lists hold int slots, not ids or entries
+ *
+ * Usage:
+ * 		NameIndex guides = new NameIndex(Guide.class);
+ * 		NameIndexUpdater.follow(emf, queries, guides);		Mass-indexes the table (named query NameIndex.Guide), then follows the ChangeFeed
+ * 		guides.search("homr simp", 10);						Every word must match: exactly, as a prefix or with typos. Best first
+ * 		guides.contains("imps", 10);
+ *
+ * Threads: searches share a read lock, updates take the write lock. A changed or deleted name leaves a dead slot in the lists:
+ * searches skip it, and the index is rebuilt in memory (no database) when there are more dead slots than live ones
+ */
+public class NameIndex {
+
+	// Score of a query word, by how it matched a word of the name
+	static final float EXACT = 3f;
+	static final float PREFIX = 2f;
+	static final float FUZZY = 1f; // Divided by the number of edits
+
+	private static final Logger logger = Logger.getLogger(NameIndex.class.getName());
+	private static final int COMPACT_MIN_DEAD = 1024;
+	private static final String[] NO_WORDS = new String[0];
+
+	private final Class<?> entityClass;
+	private final String loadQuery;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private Index index = new Index(16); // Guarded by 'lock'
+
+	/**
+	 * Empty index of the 'name' attribute of 'entityClass'. rebuild() fills it with the named query "NameIndex.<entity name>"
+	 * of orm.xml, which must select id and name
+	 */
+	public NameIndex(Class<?> entityClass) {
+		this.entityClass = entityClass;
+		this.loadQuery = "NameIndex." + entityClass.getSimpleName();
+	}
+
+	public Class<?> getEntityClass() {
+		return entityClass;
+	}
+
+	/**
+	 * Mass indexer: streams id and name of every row and replaces the content of the index. Searches keep using the old
+	 * content until the new one is complete
+	 */
+	public void rebuild(EntityManager em, QueryRegistry queries) {
+		final Index built = new Index(1024);
+		long start = System.nanoTime();
+		new StreamingQuery<Object[]>(em, queries.getQueryString(loadQuery))
+			.setClearInterval(0) // Scalar columns: nothing enters the persistence context
+			.stream(new RowHandler<Object[]>() {
+				@Override
+				public void handle(Object[] row) {
+					built.put(((Number) row[0]).longValue(), (String) row[1]);
+				}
+			});
+
+		lock.writeLock().lock();
+		try {
+			index = built;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		logger.info(entityClass.getSimpleName() + " name index rebuilt: " + built.size() + " names, " + built.terms.size() + " words, "
+				+ built.gramCount + " n-grams in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+	/**
+	 * Adds or replaces the name of an entity, e.g. from a change feed. A null name removes it
+	 */
+	public void update(long id, String name) {
+		lock.writeLock().lock();
+		try {
+			index.put(id, name);
+			compactIfNeeded();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void delete(long id) {
+		lock.writeLock().lock();
+		try {
+			index.remove(id);
+			compactIfNeeded();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Ranked search: every word of 'query' must match a word of the name, exactly (best), as its prefix or with typos
+	 * (1 edit for words of 3 to 5 characters, 2 from 6 on). Names with fewer other words rank higher. At most 'limit' hits, best first
+	 */
+	public List<SearchHit> search(String query, int limit) {
+		return find(query, true, -1, limit);
+	}
+
+	// Like search(), but the words of 'query' only match exactly or as prefixes: autocompletion
+	public List<SearchHit> prefix(String query, int limit) {
+		return find(query, true, 0, limit);
+	}
+
+	// Like search(), but the words of 'query' only match exactly or with at most 'maxEdits' typos (insert, delete or replace a character)
+	public List<SearchHit> fuzzy(String query, int maxEdits, int limit) {
+		if (maxEdits < 0) throw new IllegalArgumentException("maxEdits must be >= 0: " + maxEdits);
+		return find(query, false, maxEdits, limit);
+	}
+
+	// Ids of the hits of search(), best first
+	public long[] searchIds(String query, int limit) {
+		List<SearchHit> hits = search(query, limit);
+		long[] ids = new long[hits.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = hits.get(i).getId();
+		return ids;
+	}
+
+	/**
+	 * Names containing 'text' anywhere (after normalization, so "MPS" finds "Simpson"). Names starting with it rank first,
+	 * then names with a word starting with it, then the shortest ones. At most 'limit' hits, best first
+	 */
+	public List<SearchHit> contains(String text, int limit) {
+		String needle = normalize(text);
+		if (needle.isEmpty() || limit <= 0) return Collections.emptyList();
+
+		lock.readLock().lock();
+		try {
+			Index index = this.index;
+			TopHits top = new TopHits(limit);
+			int length = Math.min(needle.length(), 3); // Needles of 1 or 2 characters have their own list
+			Postings rarest = null;
+			for (int i = 0; i + length <= needle.length(); i++) {
+				Postings postings = index.gramPostings(gram(needle, i, length));
+				if (postings == null) return Collections.emptyList(); // No name has this n-gram
+				if (rarest == null || postings.size < rarest.size) rarest = postings;
+			}
+			for (int i = 0; i < rarest.size; i++) {
+				int slot = rarest.slots[i];
+				if (index.live.get(slot)) index.offerIfContains(slot, needle, top);
+			}
+			return top.toList();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// Names in the index
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return index.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		lock.readLock().lock();
+		try {
+			return "NameIndex [entity=" + entityClass.getSimpleName() + ", names=" + index.size() + ", words=" + index.terms.size()
+					+ ", ngrams=" + index.gramCount + ", deadSlots=" + index.dead + "]";
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Lower case, accents removed ("Jos\u00e9" => "jose"), every run of characters that are not letters or digits => one space, trimmed
+	 */
+	public static String normalize(String text) {
+		if (text == null) return "";
+		String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD); // e with acute accent => e + combining accent
+		StringBuilder normalized = new StringBuilder(decomposed.length());
+		boolean space = false;
+		for (int i = 0; i < decomposed.length(); i++) {
+			char c = decomposed.charAt(i);
+			if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+			if (Character.isLetterOrDigit(c)) {
+				if (space && normalized.length() > 0) normalized.append(' ');
+				normalized.append(Character.toLowerCase(c));
+				space = false;
+			} else {
+				space = true;
+			}
+		}
+		return normalized.toString();
+	}
+
+	private List<SearchHit> find(String query, boolean prefix, int maxEdits, int limit) {
+		String[] words = words(normalize(query));
+		if (words.length == 0 || limit <= 0) return Collections.emptyList();
+
+		lock.readLock().lock();
+		try {
+			Index index = this.index;
+			// Every query word => the words of the index it matches, with their score
+			List<Map<String, Float>> matches = new ArrayList<Map<String, Float>>(words.length);
+			int driver = 0;
+			long driverPostings = Long.MAX_VALUE;
+			for (String word : words) {
+				Map<String, Float> terms = index.expand(word, prefix, maxEdits < 0 ? autoEdits(word) : maxEdits);
+				if (terms.isEmpty()) return Collections.emptyList(); // Every word must match
+				long postings = index.postings(terms.keySet());
+				if (postings < driverPostings) {
+					driver = matches.size();
+					driverPostings = postings;
+				}
+				matches.add(terms);
+			}
+
+			// Candidates: the names of the most selective query word. The other words are checked against their words
+			TopHits top = new TopHits(limit);
+			for (int slot : index.slots(matches.get(driver).keySet())) {
+				if (!index.live.get(slot)) continue;
+				String[] tokens = index.tokens[slot];
+				float score = 0;
+				for (Map<String, Float> terms : matches) {
+					float best = 0;
+					for (String token : tokens) {
+						Float s = terms.get(token);
+						if (s != null && s > best) best = s;
+					}
+					if (best == 0) {
+						score = -1;
+						break;
+					}
+					score += best;
+				}
+				if (score < 0) continue;
+				top.offer(index.ids[slot], index.names[slot], score + (float) words.length / tokens.length); // Fewer other words => higher
+			}
+			return top.toList();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// Write lock held
+	private void compactIfNeeded() {
+		if (index.dead < COMPACT_MIN_DEAD || index.dead <= index.size()) return;
+		long start = System.nanoTime();
+		int dead = index.dead;
+		index = index.compact();
+		if (logger.isDebugEnabled()) {
+			logger.debug(entityClass.getSimpleName() + " name index compacted: " + dead + " dead slots removed in "
+					+ (System.nanoTime() - start) / 1000 + " us");
+		}
+	}
+
+	// Same fuzziness as most search engines: short words must be exact, typos are more likely in long ones
+	private static int autoEdits(String word) {
+		return word.length() < 3 ? 0 : word.length() < 6 ? 1 : 2;
+	}
+
+	private static String[] words(String normalized) {
+		return normalized.isEmpty() ? NO_WORDS : normalized.split(" ");
+	}
+
+	// 1 to 3 chars of 16 bits in one long, and their number above them: no String per n-gram
+	private static long gram(String text, int at, int length) {
+		long gram = length;
+		for (int i = at; i < at + length; i++)
+			gram = gram << 16 | text.charAt(i);
+		return gram;
+	}
+
+	/**
+	 * Distinct bigrams of a word, with its start and end as a 0 char: "ab" => [0 a] [a b] [b 0]
+	 */
+	private static long[] bigrams(String word) {
+		long[] grams = new long[word.length() + 1];
+		int size = 0;
+		char previous = 0;
+		for (int i = 0; i <= word.length(); i++) {
+			char c = i < word.length() ? word.charAt(i) : 0;
+			long gram = ((long) previous << 16) | c;
+			boolean seen = false;
+			for (int j = 0; j < size && !seen; j++)
+				seen = grams[j] == gram;
+			if (!seen) grams[size++] = gram;
+			previous = c;
+		}
+		return Arrays.copyOf(grams, size);
+	}
+
+	/**
+	 * Levenshtein distance between 'a' and 'b', or max + 1 as soon as it is known to be greater than 'max'.
+	 * 'previous' and 'current' are work rows of a.length() + 1 ints, reused between calls
+	 */
+	static int distance(String a, String b, int max, int[] previous, int[] current) {
+		if (Math.abs(a.length() - b.length()) > max) return max + 1;
+		for (int i = 0; i <= a.length(); i++)
+			previous[i] = i;
+		for (int j = 1; j <= b.length(); j++) {
+			current[0] = j;
+			int rowMin = j;
+			char cb = b.charAt(j - 1);
+			for (int i = 1; i <= a.length(); i++) {
+				int cost = a.charAt(i - 1) == cb ? 0 : 1;
+				current[i] = Math.min(Math.min(current[i - 1] + 1, previous[i] + 1), previous[i - 1] + cost);
+				rowMin = Math.min(rowMin, current[i]);
+			}
+			if (rowMin > max) return max + 1; // The distance can only grow from here
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return Math.min(previous[a.length()], max + 1);
+	}
+
+	/**
+	 * Growable list of slots. Slots are added in increasing order and a slot is added once: the words and n-grams of a name
+	 * are all indexed before the next name gets a slot
+	 */
+	private static class Postings {
+
+		static final Comparator<Postings> BY_SIZE = new Comparator<Postings>() {
+			@Override
+			public int compare(Postings a, Postings b) {
+				return Integer.compare(a.size, b.size);
+			}
+		};
+
+		int[] slots = new int[4];
+		int size;
+
+		void add(int slot) {
+			if (size > 0 && slots[size - 1] == slot) return; // Same n-gram twice in one name
+			if (size == slots.length) slots = Arrays.copyOf(slots, size * 2);
+			slots[size++] = slot;
+		}
+
+	}
+
+	/**
+	 * Content of the index. Slots are never reused: a changed name gets a new slot, so the lists of a live slot are always right
+	 */
+	private static class Index {
+
+		long[] ids;
+		String[] names;
+		String[] texts; // Normalized names
+		String[][] tokens; // Words of the normalized names
+		final BitSet live = new BitSet();
+		int slots;
+		int dead;
+		final LongIndexMap slotOf; // id => live slot
+		final TreeMap<String, Postings> terms = new TreeMap<String, Postings>();
+		final LongIndexMap gramCodes; // 1, 2 or 3 characters of a name => index in 'grams'
+		Postings[] grams = new Postings[256];
+		int gramCount;
+		String[] words = new String[256]; // Distinct words by word number, for fuzzy lookups
+		int wordCount;
+		final LongIndexMap bigramCodes; // bigram of a word => index in 'bigrams'
+		Postings[] bigrams = new Postings[256]; // Lists of word numbers, not slots
+		int bigramCount;
+		Postings[] wordsByLength = new Postings[16]; // Word numbers by length, for fuzzy lookups of words too short to share bigrams
+
+		Index(int expectedSize) {
+			ids = new long[expectedSize];
+			names = new String[expectedSize];
+			texts = new String[expectedSize];
+			tokens = new String[expectedSize][];
+			slotOf = new LongIndexMap(expectedSize);
+			gramCodes = new LongIndexMap(256);
+			bigramCodes = new LongIndexMap(256);
+		}
+
+		int size() {
+			return slotOf.size();
+		}
+
+		void put(long id, String name) {
+			int old = slotOf.get(id);
+			if (old != LongIndexMap.NOT_FOUND) {
+				if (name != null && name.equals(names[old])) return;
+				slotOf.remove(id);
+				kill(old);
+			}
+			String text = normalize(name);
+			if (text.isEmpty()) return; // Nothing to search (null name or only punctuation)
+
+			if (slots == ids.length) {
+				int capacity = slots * 2;
+				ids = Arrays.copyOf(ids, capacity);
+				names = Arrays.copyOf(names, capacity);
+				texts = Arrays.copyOf(texts, capacity);
+				tokens = Arrays.copyOf(tokens, capacity);
+			}
+			int slot = slots++;
+			ids[slot] = id;
+			names[slot] = name;
+			texts[slot] = text;
+			live.set(slot);
+			slotOf.put(id, slot);
+
+			String[] words = words(text);
+			for (String word : words) {
+				Postings postings = terms.get(word);
+				if (postings == null) {
+					postings = new Postings();
+					terms.put(word, postings);
+					addWord(word);
+				}
+				postings.add(slot);
+			}
+			tokens[slot] = words;
+
+			for (int i = 0; i < text.length(); i++) {
+				for (int length = 1; length <= 3 && i + length <= text.length(); length++) {
+					long key = gram(text, i, length);
+					int code = gramCodes.get(key);
+					if (code == LongIndexMap.NOT_FOUND) {
+						if (gramCount == grams.length) grams = Arrays.copyOf(grams, gramCount * 2);
+						code = gramCount++;
+						grams[code] = new Postings();
+						gramCodes.put(key, code);
+					}
+					grams[code].add(slot);
+				}
+			}
+		}
+
+		void remove(long id) {
+			int slot = slotOf.remove(id);
+			if (slot != LongIndexMap.NOT_FOUND) kill(slot);
+		}
+
+		// The slot stays in the lists until compact()
+		private void kill(int slot) {
+			live.clear(slot);
+			names[slot] = null;
+			texts[slot] = null;
+			tokens[slot] = null;
+			dead++;
+		}
+
+		// New index with the live names only
+		Index compact() {
+			Index compacted = new Index(Math.max(16, size()));
+			for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1))
+				compacted.put(ids[slot], names[slot]);
+			return compacted;
+		}
+
+		Postings gramPostings(long key) {
+			int code = gramCodes.get(key);
+			return code == LongIndexMap.NOT_FOUND ? null : grams[code];
+		}
+
+		/**
+		 * Words of the index matching 'word', with their score: exact, prefix (if 'prefix') and within 'maxEdits' edits
+		 */
+		Map<String, Float> expand(String word, boolean prefix, int maxEdits) {
+			Map<String, Float> matches = new HashMap<String, Float>();
+			if (maxEdits > 0) {
+				int[] previous = new int[word.length() + 1];
+				int[] current = new int[word.length() + 1];
+				long[] grams = bigrams(word);
+				int minShared = grams.length - 2 * maxEdits;
+				if (minShared > 0) {
+					for (int w : sharingBigrams(grams, minShared))
+						addFuzzy(matches, word, words[w], maxEdits, previous, current);
+				} else { // Short word, many edits: any word of a close enough length can be close enough
+					for (int length = Math.max(1, word.length() - maxEdits); length <= word.length() + maxEdits && length < wordsByLength.length; length++) {
+						Postings postings = wordsByLength[length];
+						for (int i = 0; postings != null && i < postings.size; i++)
+							addFuzzy(matches, word, words[postings.slots[i]], maxEdits, previous, current);
+					}
+				}
+			}
+			if (prefix) {
+				for (String term : terms.subMap(word, true, word + Character.MAX_VALUE, false).keySet())
+					matches.put(term, PREFIX); // Better than a typo
+			}
+			if (terms.containsKey(word)) matches.put(word, EXACT);
+			return matches;
+		}
+
+		/**
+		 * Numbers of the words sharing at least 'minShared' of these bigrams. Such a word is in at least one of the
+		 * grams.length - minShared + 1 shortest lists: only those are read, and the other lists are binary searched
+		 */
+		private int[] sharingBigrams(long[] grams, int minShared) {
+			Postings[] lists = new Postings[grams.length];
+			int count = 0;
+			for (long gram : grams) {
+				int code = bigramCodes.get(gram);
+				if (code != LongIndexMap.NOT_FOUND) lists[count++] = bigrams[code];
+			}
+			if (count < minShared) return new int[0];
+			Arrays.sort(lists, 0, count, Postings.BY_SIZE);
+
+			int scanned = count - minShared + 1;
+			int total = 0;
+			for (int i = 0; i < scanned; i++)
+				total += lists[i].size;
+			int[] candidates = new int[total];
+			total = 0;
+			for (int i = 0; i < scanned; i++) {
+				System.arraycopy(lists[i].slots, 0, candidates, total, lists[i].size);
+				total += lists[i].size;
+			}
+			Arrays.sort(candidates);
+
+			int matched = 0;
+			for (int i = 0; i < candidates.length; ) {
+				int w = candidates[i];
+				int shared = 0;
+				for (; i < candidates.length && candidates[i] == w; i++)
+					shared++; // Lists of the scanned bigrams holding it
+				for (int j = scanned; j < count && shared < minShared; j++) {
+					if (Arrays.binarySearch(lists[j].slots, 0, lists[j].size, w) >= 0) shared++;
+				}
+				if (shared >= minShared) candidates[matched++] = w;
+			}
+			return Arrays.copyOf(candidates, matched);
+		}
+
+		private static void addFuzzy(Map<String, Float> matches, String word, String term, int maxEdits, int[] previous, int[] current) {
+			int edits = distance(word, term, maxEdits, previous, current);
+			if (edits > 0 && edits <= maxEdits) matches.put(term, FUZZY / edits);
+		}
+
+		// New distinct word: a number, and its bigrams
+		private void addWord(String word) {
+			if (wordCount == words.length) words = Arrays.copyOf(words, wordCount * 2);
+			int number = wordCount++;
+			words[number] = word;
+			for (long gram : bigrams(word)) {
+				int code = bigramCodes.get(gram);
+				if (code == LongIndexMap.NOT_FOUND) {
+					if (bigramCount == bigrams.length) bigrams = Arrays.copyOf(bigrams, bigramCount * 2);
+					code = bigramCount++;
+					bigrams[code] = new Postings();
+					bigramCodes.put(gram, code);
+				}
+				bigrams[code].add(number);
+			}
+			int length = word.length();
+			if (length >= wordsByLength.length) wordsByLength = Arrays.copyOf(wordsByLength, Math.max(length + 1, wordsByLength.length * 2));
+			if (wordsByLength[length] == null) wordsByLength[length] = new Postings();
+			wordsByLength[length].add(number);
+		}
+
+		// Length of the lists of these words (dead slots included)
+		long postings(Collection<String> words) {
+			long total = 0;
+			for (String word : words)
+				total += terms.get(word).size;
+			return total;
+		}
+
+		// Slots in the lists of these words, sorted, each one once
+		int[] slots(Collection<String> words) {
+			int[] slots = new int[(int) postings(words)];
+			int size = 0;
+			for (String word : words) {
+				Postings postings = terms.get(word);
+				System.arraycopy(postings.slots, 0, slots, size, postings.size);
+				size += postings.size;
+			}
+			if (words.size() == 1) return slots; // Already sorted and unique
+			Arrays.sort(slots);
+			int unique = 0;
+			for (int i = 0; i < slots.length; i++) {
+				if (i == 0 || slots[i] != slots[i - 1]) slots[unique++] = slots[i];
+			}
+			return Arrays.copyOf(slots, unique);
+		}
+
+		void offerIfContains(int slot, String needle, TopHits top) {
+			String text = texts[slot];
+			int at = text.indexOf(needle);
+			if (at < 0) return;
+			float score = at == 0 ? EXACT : text.charAt(at - 1) == ' ' ? PREFIX : FUZZY;
+			top.offer(ids[slot], names[slot], score + (float) needle.length() / text.length());
+		}
+
+	}
+
+	/**
+	 * The 'limit' best hits: a min-heap with the worst one on top
+	 */
+	private static class TopHits {
+
+		private static final Comparator<SearchHit> WORST_FIRST = new Comparator<SearchHit>() {
+			@Override
+			public int compare(SearchHit a, SearchHit b) {
+				int byScore = Double.compare(a.getScore(), b.getScore());
+				return byScore != 0 ? byScore : Long.compare(b.getId(), a.getId()); // Same score: lower id first in the results
+			}
+		};
+
+		private final int limit;
+		private final PriorityQueue<SearchHit> heap;
+
+		TopHits(int limit) {
+			this.limit = limit;
+			this.heap = new PriorityQueue<SearchHit>(Math.min(limit, 1024), WORST_FIRST);
+		}
+
+		void offer(long id, String name, float score) {
+			if (heap.size() == limit) {
+				SearchHit worst = heap.peek();
+				if (score < worst.getScore() || (score == worst.getScore() && id > worst.getId())) return; // Without allocating a hit
+				heap.poll();
+			}
+			heap.add(new SearchHit(id, name, score));
+		}
+
+		List<SearchHit> toList() {
+			List<SearchHit> hits = new ArrayList<SearchHit>(heap);
+			Collections.sort(hits, Collections.reverseOrder(WORST_FIRST));
+			return hits;
+		}
+
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.jorge.search;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import com.jorge.changes.Change;
+import com.jorge.changes.ChangeFeed;
+import com.jorge.changes.ChangeListener;
+import com.jorge.query.QueryRegistry;
+
+/**
+ * Keeps a NameIndex in sync with the ChangeFeed: committed inserts, name changes and deletes of its entity are applied to the
+ * index, without going back to the database
+ *
+ * 		NameIndex students = new NameIndex(Student.class);
+ * 		NameIndexUpdater.follow(emf, queries, students);		Mass-indexes on the delivery thread, then applies what was committed meanwhile
+ *
+ * A bulk update of the entity or an overflow of the subscription rebuild the whole index
+ */
+public class NameIndexUpdater implements ChangeListener {
+
+	private final EntityManagerFactory emf;
+	private final QueryRegistry queries;
+	private final NameIndex index;
+
+	public NameIndexUpdater(EntityManagerFactory emf, QueryRegistry queries, NameIndex index) {
+		this.emf = emf;
+		this.queries = queries;
+		this.index = index;
+	}
+
+	/**
+	 * Subscribes an updater to the feed of 'emf' and rebuilds the index (ChangeFeed.subscribeLoaded()). Returns the subscription
+	 * (close() stops the updates) once the index is built
+	 */
+	public static ChangeFeed.Subscription follow(EntityManagerFactory emf, QueryRegistry queries, NameIndex index) {
+		ChangeFeed feed = ChangeFeed.get(emf);
+		if (feed == null) throw new IllegalStateException("the change feed is disabled: hibernate.changefeed.enabled=true in persistence.xml");
+		return feed.subscribeLoaded(new NameIndexUpdater(emf, queries, index), 500); // The rebuild is onOverflow(): it swaps in a new index, changes committed during it are applied after it
+	}
+
+	@Override
+	public void onChanges(List<Change> changes) {
+		for (Change change : changes) {
+			if (!change.isOf(index.getEntityClass())) continue;
+			switch (change.getType()) {
+			case INSERT:
+				index.update(((Number) change.getId()).longValue(), (String) change.getValue("name"));
+				break;
+			case UPDATE:
+				if (change.isChanged("name")) index.update(((Number) change.getId()).longValue(), (String) change.getValue("name"));
+				break;
+			case DELETE:
+				index.delete(((Number) change.getId()).longValue());
+				break;
+			case BULK:
+				rebuild();
+				return; // The rebuild has every change of the batch
+			}
+		}
+	}
+
+	@Override
+	public void onOverflow() {
+		rebuild();
+	}
+
+	private void rebuild() {
+		EntityManager em = emf.createEntityManager();
+		try {
+			index.rebuild(em, queries);
+		} finally {
+			em.close();
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.jorge.search;
+
+/**
+ * One result of a NameIndex search: the id and name of the entity (no entity is loaded) and how well it matched
+ */
+public class SearchHit {
+
+	private final long id;
+	private final String name;
+	private final double score;
+
+	public SearchHit(long id, String name, double score) {
+		this.id = id;
+		this.name = name;
+		this.score = score;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	// Higher is better. Only comparable between hits of the same search
+	public double getScore() {
+		return score;
+	}
+
+	@Override
+	public String toString() {
+		return "SearchHit [id=" + id + ", name=" + name + ", score=" + String.format("%.2f", score) + "]";
+	}
+
+}
@@ -0,0 +1,384 @@
+package com.jorge.snapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+
+import javax.persistence.EntityManager;
+
+import org.apache.log4j.Logger;
+
+import com.jorge.query.QueryRegistry;
+import com.jorge.query.RowHandler;
+import com.jorge.query.StreamingQuery;
+
+/**
+ * Read model of the guide table: id, name and salary of every guide in columns of primitive arrays
+ *
+ * A managed Guide is an object with a Long, a String, an Integer, a HashSet of students and the persistence context entries
+ * behind it. Here a guide is one slot in each array:
+ * 		long[] ids			id of the guide of every row
+ * 		int[] salaries		salary of every row (NO_SALARY if it is null)
+ * 		int[] nameCodes		name of every row, as an index in the dictionary of distinct names (the same name is stored once)
+ * 		LongIndexMap		id => row
+ * so a lookup by id is a probe in two arrays, and a salary filter is a loop over one int[], without allocating anything
+ *
+ * Usage:
+ * 		GuideSnapshot guides = new GuideSnapshot();
+ * 		guides.load(em, queries);							Streams 'select g.id, g.name, g.salary from Guide g', no entity is loaded
+ * 		int salary = guides.getSalary(id);
+ * 		guides.load(snapshotFile);							Or from a snapshot file (SnapshotFile.java), without the database
+ * 		guides.refresh(em, queries, changedIds);			Reloads only these guides (removed from the snapshot if they were deleted)
+ *
+ * Threads: any number of readers and one writer at a time. Lookups by id use an optimistic read (StampedLock): no lock is taken
+ * unless a write runs at the same time. Scans (forEach...) hold the read lock while they call the visitor, keep visitors short.
+ * Refreshes read the database before taking the write lock, readers only wait for the arrays to be updated
+ *
+ * Names replaced by a refresh stay in the dictionary until the next full load()
+ */
+public class GuideSnapshot {
+
+	public static final int NO_SALARY = Integer.MIN_VALUE;
+
+	private static final Logger logger = Logger.getLogger(GuideSnapshot.class.getName());
+	private static final int REFRESH_CHUNK = 500; // Ids per 'in (:ids)' query
+
+	/**
+	 * Receives the guides of a scan, one call per guide
+	 */
+	public interface Visitor {
+
+		void visit(long id, String name, int salary);
+
+	}
+
+	private final StampedLock lock = new StampedLock();
+
+	// Guarded by 'lock'. Rows 0..size-1 are used, removed rows are filled with the last one so the arrays stay dense
+	private long[] ids = new long[16];
+	private int[] salaries = new int[16];
+	private int[] nameCodes = new int[16];
+	private int size;
+	private LongIndexMap rows = new LongIndexMap(16);
+	private String[] dictionary = new String[16];
+	private int dictionarySize;
+	private Map<String, Integer> codes = new HashMap<String, Integer>(); // Only used by writers
+
+	/**
+	 * Replaces the content of the snapshot with every guide of the database
+	 */
+	public void load(EntityManager em, QueryRegistry queries) {
+		final GuideSnapshot loaded = new GuideSnapshot(); // Built without any lock, no other thread sees it, then published at once
+		long start = System.nanoTime();
+		new StreamingQuery<Object[]>(em, queries.getQueryString("GuideSnapshot.load"))
+			.setClearInterval(0) // Scalar columns: nothing enters the persistence context
+			.stream(new RowHandler<Object[]>() {
+				@Override
+				public void handle(Object[] row) {
+					loaded.put((Long) row[0], (String) row[1], (Integer) row[2]);
+				}
+			});
+		publish(loaded, start);
+	}
+
+	/**
+	 * Replaces the content of the snapshot with the guides of a snapshot file (SnapshotExporter.java), without the database.
+	 * Ids and salaries are read from the mapped file, only the names become objects, once per distinct name
+	 */
+	public void load(SnapshotFile file) {
+		final GuideSnapshot loaded = new GuideSnapshot();
+		long start = System.nanoTime();
+		file.forEachGuide(new SnapshotFile.GuideVisitor() {
+			@Override
+			public void visit(long id, String staffId, String name, int salary, long version) {
+				loaded.putRow(id, name, salary); // Same NO_SALARY in the file
+			}
+		});
+		publish(loaded, start);
+	}
+
+	// Makes the arrays of 'loaded' the content of this snapshot at once
+	private void publish(GuideSnapshot loaded, long start) {
+		long stamp = lock.writeLock();
+		try {
+			ids = loaded.ids;
+			salaries = loaded.salaries;
+			nameCodes = loaded.nameCodes;
+			size = loaded.size;
+			rows = loaded.rows;
+			dictionary = loaded.dictionary;
+			dictionarySize = loaded.dictionarySize;
+			codes = loaded.codes;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		logger.info("guide snapshot loaded: " + loaded.size + " guides, " + loaded.dictionarySize + " distinct names in "
+				+ (System.nanoTime() - start) / 1000000 + " ms, " + getMemoryBytes() + " bytes");
+	}
+
+	/**
+	 * Reloads the given guides: changed ones are updated, new ones added, the ones not in the database any more removed
+	 */
+	public void refresh(EntityManager em, QueryRegistry queries, Collection<Long> guideIds) {
+		List<Long> pending = new ArrayList<Long>(guideIds);
+		for (int from = 0; from < pending.size(); from += REFRESH_CHUNK) {
+			List<Long> chunk = pending.subList(from, Math.min(pending.size(), from + REFRESH_CHUNK));
+			@SuppressWarnings("unchecked")
+			List<Object[]> found = queries.createQuery(em, "GuideSnapshot.loadByIds").setParameter("ids", chunk).getResultList();
+
+			Set<Long> missing = new HashSet<Long>(chunk);
+			long stamp = lock.writeLock();
+			try {
+				for (Object[] row : found) {
+					put((Long) row[0], (String) row[1], (Integer) row[2]);
+					missing.remove(row[0]);
+				}
+				for (Long id : missing)
+					remove(id);
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+	}
+
+	/**
+	 * Adds or replaces a guide without going to the database, e.g. from a change feed
+	 */
+	public void update(long id, String name, Integer salary) {
+		long stamp = lock.writeLock();
+		try {
+			put(id, name, salary);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	public void delete(long id) {
+		long stamp = lock.writeLock();
+		try {
+			remove(id);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	public boolean contains(long id) {
+		long stamp = lock.tryOptimisticRead();
+		boolean contains = false;
+		try {
+			contains = rows.get(id) != LongIndexMap.NOT_FOUND;
+		} catch (RuntimeException e) {
+			// Arrays changed while we read them: validate() fails below
+		}
+		if (lock.validate(stamp)) return contains;
+
+		stamp = lock.readLock();
+		try {
+			return rows.get(id) != LongIndexMap.NOT_FOUND;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Salary of the guide. NO_SALARY if its salary is null or there is no such guide (see contains())
+	 */
+	public int getSalary(long id) {
+		long stamp = lock.tryOptimisticRead();
+		int salary = NO_SALARY;
+		try {
+			int row = rows.get(id);
+			if (row != LongIndexMap.NOT_FOUND) salary = salaries[row];
+		} catch (RuntimeException e) {
+			// Arrays changed while we read them: validate() fails below
+		}
+		if (lock.validate(stamp)) return salary;
+
+		stamp = lock.readLock();
+		try {
+			int row = rows.get(id);
+			return row == LongIndexMap.NOT_FOUND ? NO_SALARY : salaries[row];
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	// Name of the guide, null if there is no such guide
+	public String getName(long id) {
+		long stamp = lock.tryOptimisticRead();
+		String name = null;
+		try {
+			int row = rows.get(id);
+			if (row != LongIndexMap.NOT_FOUND) name = dictionary[nameCodes[row]];
+		} catch (RuntimeException e) {
+			// Arrays changed while we read them: validate() fails below
+		}
+		if (lock.validate(stamp)) return name;
+
+		stamp = lock.readLock();
+		try {
+			int row = rows.get(id);
+			return row == LongIndexMap.NOT_FOUND ? null : dictionary[nameCodes[row]];
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Guides with min <= salary <= max (guides without salary never match). Returns how many
+	 */
+	public int forEachSalaryBetween(int min, int max, Visitor visitor) {
+		long stamp = lock.readLock();
+		try {
+			int matches = 0;
+			int[] salaries = this.salaries;
+			for (int row = 0; row < size; row++) {
+				int salary = salaries[row];
+				if (salary >= min && salary <= max && salary != NO_SALARY) {
+					visitor.visit(ids[row], dictionary[nameCodes[row]], salary);
+					matches++;
+				}
+			}
+			return matches;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public int countSalaryBetween(int min, int max) {
+		long stamp = lock.readLock();
+		try {
+			int matches = 0;
+			int[] salaries = this.salaries;
+			for (int row = 0; row < size; row++) {
+				int salary = salaries[row];
+				if (salary >= min && salary <= max && salary != NO_SALARY) matches++;
+			}
+			return matches;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Guides with exactly this name: the name is looked up once, then only int codes are compared. Returns how many
+	 */
+	public int forEachWithName(String name, Visitor visitor) {
+		long stamp = lock.readLock();
+		try {
+			Integer found = codes.get(name);
+			if (found == null) return 0;
+			int code = found;
+			int matches = 0;
+			for (int row = 0; row < size; row++) {
+				if (nameCodes[row] == code) {
+					visitor.visit(ids[row], name, salaries[row]);
+					matches++;
+				}
+			}
+			return matches;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public void forEach(Visitor visitor) {
+		long stamp = lock.readLock();
+		try {
+			for (int row = 0; row < size; row++)
+				visitor.visit(ids[row], dictionary[nameCodes[row]], salaries[row]);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public int size() {
+		long stamp = lock.readLock();
+		try {
+			return size;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Heap used by the arrays and the distinct names (approximate: 40 bytes + 2 per character for every String)
+	 */
+	public long getMemoryBytes() {
+		long stamp = lock.readLock();
+		try {
+			long bytes = 8L * ids.length + 4L * salaries.length + 4L * nameCodes.length + rows.getMemoryBytes() + 4L * dictionary.length;
+			for (int i = 0; i < dictionarySize; i++)
+				bytes += dictionary[i] == null ? 0 : 40 + 2L * dictionary[i].length();
+			return bytes;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public String toString() {
+		long stamp = lock.readLock();
+		try {
+			return "GuideSnapshot [guides=" + size + ", distinctNames=" + dictionarySize + "]";
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	// Write lock held
+	private void put(long id, String name, Integer salary) {
+		putRow(id, name, salary == null ? NO_SALARY : salary.intValue());
+	}
+
+	// Write lock held. salary is NO_SALARY if it is null
+	private void putRow(long id, String name, int salary) {
+		int row = rows.get(id);
+		if (row == LongIndexMap.NOT_FOUND) {
+			if (size == ids.length) {
+				int capacity = size * 2;
+				ids = Arrays.copyOf(ids, capacity);
+				salaries = Arrays.copyOf(salaries, capacity);
+				nameCodes = Arrays.copyOf(nameCodes, capacity);
+			}
+			row = size++;
+			ids[row] = id;
+			rows.put(id, row);
+		}
+		salaries[row] = salary;
+		nameCodes[row] = code(name);
+	}
+
+	// Write lock held. The last row is moved into the hole
+	private void remove(long id) {
+		int row = rows.remove(id);
+		if (row == LongIndexMap.NOT_FOUND) return;
+		int last = --size;
+		if (row != last) {
+			ids[row] = ids[last];
+			salaries[row] = salaries[last];
+			nameCodes[row] = nameCodes[last];
+			rows.put(ids[row], row);
+		}
+	}
+
+	// Write lock held
+	private int code(String name) {
+		Integer code = codes.get(name);
+		if (code == null) {
+			if (dictionarySize == dictionary.length)
+				dictionary = Arrays.copyOf(dictionary, dictionarySize * 2);
+			code = dictionarySize++;
+			dictionary[code] = name;
+			codes.put(name, code);
+		}
+		return code;
+	}
+
+}
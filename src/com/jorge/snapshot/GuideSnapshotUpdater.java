@@ -0,0 +1,119 @@
+package com.jorge.snapshot;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.log4j.Logger;
+
+import com.jorge.changes.Change;
+import com.jorge.changes.ChangeFeed;
+import com.jorge.changes.ChangeListener;
+import com.jorge.entity.Guide;
+import com.jorge.query.QueryRegistry;
+
+/**
+ * Keeps a GuideSnapshot up to date with the ChangeFeed: every committed change of a guide is applied to the arrays,
+ * without going back to the database
+ *
+ * 		GuideSnapshot snapshot = new GuideSnapshot();
+ * 		GuideSnapshotUpdater.follow(emf, queries, snapshot);		Loads on the delivery thread, then applies what was committed meanwhile
+ *
+ * Updates that don't carry both name and salary take the other one from the snapshot. A guide the snapshot doesn't have yet,
+ * a bulk update of guides or an overflow of the subscription reload from the database
+ */
+public class GuideSnapshotUpdater implements ChangeListener {
+
+	private static final Logger logger = Logger.getLogger(GuideSnapshotUpdater.class.getName());
+
+	private final EntityManagerFactory emf;
+	private final QueryRegistry queries;
+	private final GuideSnapshot snapshot;
+
+	public GuideSnapshotUpdater(EntityManagerFactory emf, QueryRegistry queries, GuideSnapshot snapshot) {
+		this.emf = emf;
+		this.queries = queries;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Subscribes an updater to the feed of 'emf' and loads the snapshot (ChangeFeed.subscribeLoaded()). Returns the subscription
+	 * (close() stops the updates) once the snapshot is loaded
+	 */
+	public static ChangeFeed.Subscription follow(EntityManagerFactory emf, QueryRegistry queries, GuideSnapshot snapshot) {
+		ChangeFeed feed = ChangeFeed.get(emf);
+		if (feed == null) throw new IllegalStateException("the change feed is disabled: hibernate.changefeed.enabled=true in persistence.xml");
+		return feed.subscribeLoaded(new GuideSnapshotUpdater(emf, queries, snapshot), 500); // The load is onOverflow(): changes committed during it are applied after it
+	}
+
+	@Override
+	public void onChanges(List<Change> changes) {
+		List<Long> missing = new ArrayList<Long>();
+		for (Change change : changes) {
+			if (!change.isOf(Guide.class)) continue;
+			switch (change.getType()) {
+			case INSERT:
+				snapshot.update(id(change.getId()), (String) change.getValue("name"), (Integer) change.getValue("salary"));
+				break;
+			case UPDATE:
+				long id = id(change.getId());
+				if (!change.isChanged("name") && !change.isChanged("salary")) break; // staffId: not in the snapshot
+				if (!snapshot.contains(id)) {
+					missing.add(id);
+					break;
+				}
+				String name = change.isChanged("name") ? (String) change.getValue("name") : snapshot.getName(id);
+				Integer salary;
+				if (change.isChanged("salary")) {
+					salary = (Integer) change.getValue("salary");
+				} else {
+					int current = snapshot.getSalary(id);
+					salary = current == GuideSnapshot.NO_SALARY ? null : current;
+				}
+				snapshot.update(id, name, salary);
+				break;
+			case DELETE:
+				snapshot.delete(id(change.getId()));
+				break;
+			case BULK:
+				reload();
+				return; // The reload has every change of the batch
+			}
+		}
+		if (!missing.isEmpty()) refresh(missing);
+	}
+
+	@Override
+	public void onOverflow() {
+		reload();
+	}
+
+	private void reload() {
+		EntityManager em = emf.createEntityManager();
+		try {
+			snapshot.load(em, queries);
+		} finally {
+			em.close();
+		}
+	}
+
+	private void refresh(List<Long> ids) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("guides not in the snapshot, reloading them: " + ids);
+		}
+		EntityManager em = emf.createEntityManager();
+		try {
+			snapshot.refresh(em, queries, ids);
+		} finally {
+			em.close();
+		}
+	}
+
+	private static long id(Serializable id) {
+		return ((Number) id).longValue();
+	}
+
+}
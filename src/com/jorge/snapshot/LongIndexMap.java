@@ -0,0 +1,119 @@
+package com.jorge.snapshot;
+
+import java.util.Arrays;
+
+/**
+ * long => int map with open addressing (linear probing), for ids => row indexes
+ *
+ * A HashMap<Long, Integer> allocates a Long, an Integer and an entry object per id, and every get(id) boxes the id again.
+ * Here keys and values are two primitive arrays: get() allocates nothing and the probe usually stays in one cache line
+ *
+ * Long.MIN_VALUE marks an empty slot, so it can't be a key. The table is kept at most half full. Not thread-safe: get() can run
+ * during a write (StampedLock optimistic read, see GuideSnapshot.java) but its result must then be validated and may throw
+ */
+public class LongIndexMap {
+
+	public static final int NOT_FOUND = -1;
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+
+	public LongIndexMap(int expectedSize) {
+		allocate(Math.max(16, Integer.highestOneBit(Math.max(1, expectedSize) * 2 - 1) << 1));
+	}
+
+	public int get(long key) {
+		long[] keys = this.keys; // At most keys.length probes: never an endless loop, even on a table being rehashed by another thread
+		int mask = keys.length - 1;
+		for (int slot = slot(key, mask), probes = 0; probes <= mask; slot = (slot + 1) & mask, probes++) {
+			long found = keys[slot];
+			if (found == key) return values[slot];
+			if (found == EMPTY) return NOT_FOUND;
+		}
+		return NOT_FOUND;
+	}
+
+	public void put(long key, int value) {
+		if (key == EMPTY) throw new IllegalArgumentException("Long.MIN_VALUE can't be a key");
+		if (value < 0) throw new IllegalArgumentException("value must be >= 0: " + value);
+		if ((size + 1) * 2 > keys.length) rehash(keys.length * 2);
+
+		int slot = slot(key);
+		while (keys[slot] != EMPTY && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		if (keys[slot] == EMPTY) size++;
+		keys[slot] = key;
+		values[slot] = value;
+	}
+
+	// Value of the removed key, NOT_FOUND if it wasn't there
+	public int remove(long key) {
+		int slot = slot(key);
+		while (keys[slot] != key) {
+			if (keys[slot] == EMPTY) return NOT_FOUND;
+			slot = (slot + 1) & mask;
+		}
+		int removed = values[slot];
+		size--;
+
+		// Backward shift: the keys after the hole that probed past it are moved into it, so get() never needs tombstones
+		int hole = slot;
+		for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+			int home = slot(keys[next]);
+			boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+			if (movable) {
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+		}
+		keys[hole] = EMPTY;
+		return removed;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+	}
+
+	// Heap used by the two arrays
+	public long getMemoryBytes() {
+		return 8L * keys.length + 4L * values.length;
+	}
+
+	private int slot(long key) {
+		return slot(key, mask);
+	}
+
+	private static int slot(long key, int mask) {
+		long hash = key * 0x9E3779B97F4A7C15L; // Fibonacci hashing: consecutive ids spread over the table
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	private void allocate(int capacity) {
+		long[] keys = new long[capacity];
+		Arrays.fill(keys, EMPTY); // Before it is published: a concurrent get() never sees a table of zeros
+		this.values = new int[capacity];
+		this.keys = keys;
+		this.mask = capacity - 1;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) put(oldKeys[i], oldValues[i]);
+		}
+	}
+
+}
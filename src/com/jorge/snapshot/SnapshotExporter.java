@@ -0,0 +1,114 @@
+package com.jorge.snapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.log4j.Logger;
+
+import com.jorge.entity.Guide;
+import com.jorge.entity.Student;
+import com.jorge.query.ParallelScan;
+import com.jorge.query.QueryRegistry;
+import com.jorge.query.RowHandler;
+
+/**
+ * Dumps every guide and student into a snapshot file (SnapshotFile.java), to rebuild another database (SnapshotImporter.java)
+ * or a read model (GuideSnapshot.load(SnapshotFile)) without replaying the rows through JPA
+ *
+ * 		long rows = new SnapshotExporter(emf, queries)
+ * 			.setParallelism(4)
+ * 			.export(Paths.get("helloworld.snapshot"));
+ *
+ * Both tables are read with ParallelScan.java: ranges of ids on 'parallelism' connections at the same time, scalar columns only
+ * (named queries Snapshot.guides and Snapshot.students of orm.xml), no entity is loaded. The rows are written as they arrive,
+ * on the caller's thread, by SnapshotWriter.java
+ *
+ * Every range is its own transaction: the snapshot is consistent only if nothing writes guides or students during the export.
+ * A student enrolled with a new guide after the guides were read would fail the import (foreign key)
+ */
+public class SnapshotExporter {
+
+	private static final Logger logger = Logger.getLogger(SnapshotExporter.class.getName());
+
+	private final EntityManagerFactory emf;
+	private final QueryRegistry queries;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private long partitionSize = ParallelScan.DEFAULT_PARTITION_SIZE;
+	private int blockRows = SnapshotWriter.DEFAULT_BLOCK_ROWS;
+
+	public SnapshotExporter(EntityManagerFactory emf, QueryRegistry queries) {
+		this.emf = emf;
+		this.queries = queries;
+	}
+
+	// Connections reading at the same time, see ParallelScan.setParallelism()
+	public SnapshotExporter setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	public SnapshotExporter setPartitionSize(long partitionSize) {
+		this.partitionSize = partitionSize;
+		return this;
+	}
+
+	// Rows per block of the file
+	public SnapshotExporter setBlockRows(int blockRows) {
+		this.blockRows = blockRows;
+		return this;
+	}
+
+	/**
+	 * Writes the snapshot to 'file' (replaced if it exists). Returns the number of rows, guides and students
+	 */
+	public long export(Path file) throws IOException {
+		long start = System.nanoTime();
+		final SnapshotWriter writer = new SnapshotWriter(file, blockRows);
+		long guides;
+		long students;
+		try {
+			guides = new ParallelScan<Object[]>(emf, Guide.class, queries.getQueryString("Snapshot.guides"), "g")
+				.setParallelism(parallelism)
+				.setPartitionSize(partitionSize)
+				.stream(new RowHandler<Object[]>() {
+					@Override
+					public void handle(Object[] row) {
+						try {
+							writer.addGuide((Long) row[0], (String) row[1], (String) row[2], (Integer) row[3], (Long) row[4]);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+				});
+
+			students = new ParallelScan<Object[]>(emf, Student.class, queries.getQueryString("Snapshot.students"), "s")
+				.setParallelism(parallelism)
+				.setPartitionSize(partitionSize)
+				.stream(new RowHandler<Object[]>() {
+					@Override
+					public void handle(Object[] row) {
+						try {
+							writer.addStudent((Long) row[0], (String) row[1], (String) row[2], (Long) row[3], (Long) row[4]);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+				});
+			writer.close();
+		} catch (UncheckedIOException e) {
+			writer.discard();
+			throw e.getCause();
+		} catch (IOException | RuntimeException e) {
+			writer.discard();
+			throw e;
+		}
+
+		logger.info("exported " + guides + " guides and " + students + " students to " + file + " (" + writer.getBytesWritten() + " bytes) in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+		return guides + students;
+	}
+
+}
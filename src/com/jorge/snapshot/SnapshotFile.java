@@ -0,0 +1,311 @@
+package com.jorge.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Binary snapshot of the guide and Student tables, read through memory-mapped blocks (written by SnapshotWriter.java)
+ *
+ * Format (little endian):
+ * 		header		int MAGIC, int FORMAT_VERSION
+ * 		blocks		up to 'blockRows' rows of one table, column after column:
+ * 						int table, int rows
+ * 						long columns	rows * 8 bytes each		GUIDE: id, version			STUDENT: id, guide id (NO_ID if null), version
+ * 						int columns		rows * 4 bytes each		GUIDE: salary (NO_SALARY)	STUDENT: -
+ * 						string columns							GUIDE: staff id, name		STUDENT: enrollment id, name
+ * 							int[rows] codes (NULL_CODE if null), int size, int[size + 1] offsets, UTF-8 bytes, padding to 4
+ * 						padding to 8
+ * 		footer		int blocks, then long offset, int table, int rows of every block
+ * 		trailer		long footer offset, int MAGIC
+ *
+ * Strings are dictionary-encoded per block: every distinct value is stored once, rows have its index. A block can be read
+ * without any other one, so blocks are loaded in parallel (SnapshotImporter.java) and the writer never keeps more than one
+ * block per table in memory
+ *
+ * Every block is mapped on its own (FileChannel.map), the long and int columns are read where they are in the mapping:
+ * nothing is copied or decoded but the strings of the rows visited, once per distinct value and block
+ *
+ * 		SnapshotFile snapshot = SnapshotFile.open(path);
+ * 		snapshot.forEachGuide(visitor);
+ * 		guideSnapshot.load(snapshot);						Read model without the database (GuideSnapshot.java)
+ * 		snapshot.close();
+ *
+ * Blocks can be visited by any number of threads at the same time
+ */
+public class SnapshotFile implements Closeable {
+
+	public static final int MAGIC = 0x4A534E50; // "JSNP"
+	public static final int FORMAT_VERSION = 1;
+	public static final long NO_ID = Long.MIN_VALUE; // Student without guide
+	public static final int NO_SALARY = GuideSnapshot.NO_SALARY;
+
+	static final int NULL_CODE = -1;
+	static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+	static final int HEADER_BYTES = 8;
+	static final int TRAILER_BYTES = 12;
+
+	/**
+	 * Tables of a snapshot, with the number of columns of every kind
+	 */
+	public enum Table {
+
+		GUIDE(2, 1, 2),
+		STUDENT(3, 0, 2);
+
+		final int longColumns;
+		final int intColumns;
+		final int stringColumns;
+
+		Table(int longColumns, int intColumns, int stringColumns) {
+			this.longColumns = longColumns;
+			this.intColumns = intColumns;
+			this.stringColumns = stringColumns;
+		}
+
+	}
+
+	/**
+	 * Receives the guides of a snapshot, one call per guide. salary is NO_SALARY if it is null
+	 */
+	public interface GuideVisitor {
+
+		void visit(long id, String staffId, String name, int salary, long version);
+
+	}
+
+	/**
+	 * Receives the students of a snapshot, one call per student. guideId is NO_ID if it has no guide
+	 */
+	public interface StudentVisitor {
+
+		void visit(long id, String enrollmentId, String name, long guideId, long version);
+
+	}
+
+	private final Path path;
+	private final FileChannel channel;
+	private final List<Block> blocks;
+
+	private SnapshotFile(Path path, FileChannel channel, List<Block> blocks) {
+		this.path = path;
+		this.channel = channel;
+		this.blocks = Collections.unmodifiableList(blocks);
+	}
+
+	public static SnapshotFile open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size < HEADER_BYTES + TRAILER_BYTES) throw new IOException(path + " is not a snapshot: " + size + " bytes");
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ORDER);
+			if (header.getInt() != MAGIC) throw new IOException(path + " is not a snapshot");
+			int version = header.getInt();
+			if (version != FORMAT_VERSION) throw new IOException(path + " has format version " + version + ", expected " + FORMAT_VERSION);
+
+			ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, size - TRAILER_BYTES, TRAILER_BYTES).order(ORDER);
+			long footerOffset = trailer.getLong();
+			if (trailer.getInt() != MAGIC) throw new IOException(path + " is incomplete: no footer");
+
+			ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, footerOffset, size - TRAILER_BYTES - footerOffset).order(ORDER);
+			int count = footer.getInt();
+			List<Block> blocks = new ArrayList<Block>(count);
+			long[] offsets = new long[count + 1];
+			Table[] tables = new Table[count];
+			int[] rows = new int[count];
+			for (int i = 0; i < count; i++) {
+				offsets[i] = footer.getLong();
+				tables[i] = Table.values()[footer.getInt()];
+				rows[i] = footer.getInt();
+			}
+			offsets[count] = footerOffset; // A block ends where the next one starts
+			for (int i = 0; i < count; i++) {
+				MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, offsets[i], offsets[i + 1] - offsets[i]);
+				blocks.add(new Block(tables[i], rows[i], mapped));
+			}
+			return new SnapshotFile(path, channel, blocks);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public List<Block> getBlocks() {
+		return blocks;
+	}
+
+	public List<Block> getBlocks(Table table) {
+		List<Block> found = new ArrayList<Block>();
+		for (Block block : blocks)
+			if (block.table == table) found.add(block);
+		return found;
+	}
+
+	public long count(Table table) {
+		long rows = 0;
+		for (Block block : blocks)
+			if (block.table == table) rows += block.rows;
+		return rows;
+	}
+
+	// Highest id of the table, Long.MIN_VALUE if it has no rows
+	public long maxId(Table table) {
+		long max = Long.MIN_VALUE;
+		for (Block block : blocks)
+			if (block.table == table) max = Math.max(max, block.maxId());
+		return max;
+	}
+
+	public void forEachGuide(GuideVisitor visitor) {
+		for (Block block : getBlocks(Table.GUIDE))
+			block.forEachGuide(visitor);
+	}
+
+	public void forEachStudent(StudentVisitor visitor) {
+		for (Block block : getBlocks(Table.STUDENT))
+			block.forEachStudent(visitor);
+	}
+
+	// The mappings stay readable until they are garbage collected, the file can't be deleted on Windows until then
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	@Override
+	public String toString() {
+		return "SnapshotFile [path=" + path + ", guides=" + count(Table.GUIDE) + ", students=" + count(Table.STUDENT) + ", blocks=" + blocks.size() + "]";
+	}
+
+	/**
+	 * Rows of one table, columns as views of the mapping
+	 */
+	public static final class Block {
+
+		private final Table table;
+		private final int rows;
+		private final LongBuffer[] longs;
+		private final IntBuffer[] ints;
+		private final StringColumn[] strings;
+
+		Block(Table table, int rows, ByteBuffer mapped) {
+			this.table = table;
+			this.rows = rows;
+			ByteBuffer buffer = mapped.order(ORDER);
+			if (buffer.getInt() != table.ordinal() || buffer.getInt() != rows) throw new IllegalStateException("corrupt snapshot block of " + table);
+			longs = new LongBuffer[table.longColumns];
+			for (int i = 0; i < longs.length; i++)
+				longs[i] = slice(buffer, 8 * rows).asLongBuffer();
+			ints = new IntBuffer[table.intColumns];
+			for (int i = 0; i < ints.length; i++)
+				ints[i] = slice(buffer, 4 * rows).asIntBuffer();
+			strings = new StringColumn[table.stringColumns];
+			for (int i = 0; i < strings.length; i++)
+				strings[i] = new StringColumn(buffer, rows);
+		}
+
+		public Table getTable() {
+			return table;
+		}
+
+		public int getRows() {
+			return rows;
+		}
+
+		// Only the id column is read
+		public long maxId() {
+			LongBuffer ids = longs[0];
+			long max = Long.MIN_VALUE;
+			for (int row = 0; row < rows; row++)
+				max = Math.max(max, ids.get(row));
+			return max;
+		}
+
+		public void forEachGuide(GuideVisitor visitor) {
+			check(Table.GUIDE);
+			LongBuffer ids = longs[0];
+			LongBuffer versions = longs[1];
+			IntBuffer salaries = ints[0];
+			for (int row = 0; row < rows; row++)
+				visitor.visit(ids.get(row), strings[0].get(row), strings[1].get(row), salaries.get(row), versions.get(row));
+		}
+
+		public void forEachStudent(StudentVisitor visitor) {
+			check(Table.STUDENT);
+			LongBuffer ids = longs[0];
+			LongBuffer guideIds = longs[1];
+			LongBuffer versions = longs[2];
+			for (int row = 0; row < rows; row++)
+				visitor.visit(ids.get(row), strings[0].get(row), strings[1].get(row), guideIds.get(row), versions.get(row));
+		}
+
+		private void check(Table expected) {
+			if (table != expected) throw new IllegalStateException("block of " + table + ", not " + expected);
+		}
+
+		@Override
+		public String toString() {
+			return "Block [table=" + table + ", rows=" + rows + "]";
+		}
+
+	}
+
+	// Dictionary-encoded strings. Values are decoded the first time they are read
+	private static final class StringColumn {
+
+		private final IntBuffer codes;
+		private final IntBuffer offsets;
+		private final ByteBuffer bytes;
+		private final String[] decoded; // Racy but safe: a String is immutable, two threads may at worst decode the same value
+
+		StringColumn(ByteBuffer buffer, int rows) {
+			codes = slice(buffer, 4 * rows).asIntBuffer();
+			int size = buffer.getInt();
+			offsets = slice(buffer, 4 * (size + 1)).asIntBuffer();
+			bytes = slice(buffer, offsets.get(size));
+			buffer.position(align(buffer.position(), 4));
+			decoded = new String[size];
+		}
+
+		String get(int row) {
+			int code = codes.get(row);
+			if (code == NULL_CODE) return null;
+			String value = decoded[code];
+			if (value == null) {
+				int start = offsets.get(code);
+				byte[] utf8 = new byte[offsets.get(code + 1) - start];
+				ByteBuffer source = bytes.duplicate();
+				source.position(start);
+				source.get(utf8);
+				value = new String(utf8, StandardCharsets.UTF_8);
+				decoded[code] = value;
+			}
+			return value;
+		}
+
+	}
+
+	// The next 'length' bytes of the buffer as a buffer of their own, the position moves past them
+	private static ByteBuffer slice(ByteBuffer buffer, int length) {
+		ByteBuffer slice = buffer.slice();
+		slice.limit(length);
+		buffer.position(buffer.position() + length);
+		return slice.order(ORDER);
+	}
+
+	static int align(int position, int alignment) {
+		return (position + alignment - 1) / alignment * alignment;
+	}
+
+}
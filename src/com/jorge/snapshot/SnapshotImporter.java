@@ -0,0 +1,312 @@
+package com.jorge.snapshot;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceException;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.hibernate.jdbc.ReturningWork;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+
+import com.jorge.cache.QueryResultCache;
+import com.jorge.entity.Guide;
+import com.jorge.entity.Student;
+import com.jorge.ingest.BulkLoader;
+import com.jorge.snapshot.SnapshotFile.Table;
+
+/**
+ * Inserts the guides and students of a snapshot file (SnapshotFile.java) into an empty database, with their ids and versions
+ *
+ * 		long rows = new SnapshotImporter(emf)
+ * 			.setParallelism(4)
+ * 			.load(SnapshotFile.open(path));
+ *
+ * BulkLoader.java goes through em.persist(): an entity per row, the id generator, the persistence context, a query per guide
+ * staffId. Here every block of the file is one transaction of JDBC batches of plain inserts, 'parallelism' blocks at a time,
+ * each one on its own connection. Guides first, then students (foreign key to guide)
+ *
+ * Afterwards:
+ * 		- id_generator: the next ids of Guide and Student are set above the imported ones, so em.persist() doesn't reuse them
+ * 		- Second-level cache and QueryResultCache are dropped: they may have seen the tables before the import
+ * There are no change feed events (ChangeFeed.java): subscribers must reload, as after any bulk operation
+ *
+ * The tables must be empty (rows with the same ids fail the import) and the application must not insert during the import:
+ * the id generators of a running factory keep the ids they already reserved. A failed import leaves the blocks committed
+ * before the failure, delete them before trying again
+ */
+public class SnapshotImporter {
+
+	private static final Logger logger = Logger.getLogger(SnapshotImporter.class.getName());
+
+	private final EntityManagerFactory emf;
+	private final SessionFactoryImplementor factory;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int batchSize = BulkLoader.DEFAULT_BATCH_SIZE * 20; // Plain JDBC: no persistence context to keep small
+
+	public SnapshotImporter(EntityManagerFactory emf) {
+		this.emf = emf;
+		this.factory = emf.unwrap(SessionFactoryImplementor.class);
+	}
+
+	// Blocks inserted at the same time. Not above hibernate.connection.pool.max_size (persistence.xml)
+	public SnapshotImporter setParallelism(int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be > 0: " + parallelism);
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	// Rows per JDBC batch
+	public SnapshotImporter setBatchSize(int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("batchSize must be > 0: " + batchSize);
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * Inserts every row of the snapshot. Returns the number of rows, guides and students
+	 */
+	public long load(SnapshotFile snapshot) {
+		long start = System.nanoTime();
+		AbstractEntityPersister guides = persister(Guide.class);
+		AbstractEntityPersister students = persister(Student.class);
+
+		String guideInsert = insert(guides, "staffId", "name", "salary");
+		String studentInsert = insert(students, "enrollmentId", "name", "guide");
+		long rows = run(snapshot.getBlocks(Table.GUIDE), guideInsert);
+		rows += run(snapshot.getBlocks(Table.STUDENT), studentInsert);
+
+		updateIdGenerator(guides, snapshot, Table.GUIDE);
+		updateIdGenerator(students, snapshot, Table.STUDENT);
+		factory.getCache().evictEntityRegions();
+		factory.getCache().evictCollectionRegions();
+		factory.getCache().evictQueryRegions();
+		QueryResultCache.invalidateAllTables(Arrays.asList(guides.getTableName(), students.getTableName()));
+
+		logger.info("imported " + snapshot + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+		return rows;
+	}
+
+	// insert into <table> (<id>, <string>, <string>, <value>, <version>) values (?, ?, ?, ?, ?), column names from the mapping
+	private static String insert(AbstractEntityPersister persister, String key, String name, String value) {
+		return "insert into " + persister.getTableName() + " (" + persister.getIdentifierColumnNames()[0] + ", "
+				+ persister.getPropertyColumnNames(key)[0] + ", " + persister.getPropertyColumnNames(name)[0] + ", "
+				+ persister.getPropertyColumnNames(value)[0] + ", " + persister.getVersionColumnName() + ") values (?, ?, ?, ?, ?)";
+	}
+
+	// Every block as a task, waits for all of them. The first failure cancels the blocks not started yet
+	private long run(List<SnapshotFile.Block> blocks, String insert) {
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+			private final AtomicInteger threads = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "snapshot-import-" + threads.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		List<Future<Integer>> inserted = new ArrayList<Future<Integer>>();
+		long rows = 0;
+		try {
+			for (SnapshotFile.Block block : blocks)
+				inserted.add(executor.submit(block(block, insert)));
+			for (Future<Integer> future : inserted)
+				rows += future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PersistenceException("snapshot import interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new PersistenceException("snapshot import failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return rows;
+	}
+
+	private Callable<Integer> block(final SnapshotFile.Block block, final String insert) {
+		return new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				EntityManager em = emf.createEntityManager(); // One transaction and one connection per block
+				EntityTransaction txn = em.getTransaction();
+				try {
+					txn.begin();
+					em.unwrap(Session.class).doWork(new Work() {
+						@Override
+						public void execute(Connection connection) throws SQLException {
+							PreparedStatement statement = connection.prepareStatement(insert);
+							try {
+								if (block.getTable() == Table.GUIDE) {
+									insertGuides(block, statement);
+								} else {
+									insertStudents(block, statement);
+								}
+							} finally {
+								statement.close();
+							}
+						}
+					});
+					txn.commit();
+					return block.getRows();
+				} catch (RuntimeException e) {
+					if (txn.isActive()) txn.rollback();
+					throw e;
+				} finally {
+					em.close();
+				}
+			}
+		};
+	}
+
+	private void insertGuides(SnapshotFile.Block block, final PreparedStatement statement) throws SQLException {
+		final SQLException[] failure = new SQLException[1]; // The visitor can't throw it
+		final int[] pending = new int[1];
+		block.forEachGuide(new SnapshotFile.GuideVisitor() {
+			@Override
+			public void visit(long id, String staffId, String name, int salary, long version) {
+				if (failure[0] != null) return;
+				try {
+					statement.setLong(1, id);
+					statement.setString(2, staffId);
+					statement.setString(3, name);
+					if (salary == SnapshotFile.NO_SALARY) {
+						statement.setNull(4, Types.INTEGER);
+					} else {
+						statement.setInt(4, salary);
+					}
+					statement.setLong(5, version);
+					addBatch(statement, pending);
+				} catch (SQLException e) {
+					failure[0] = e;
+				}
+			}
+		});
+		finish(statement, pending, failure);
+	}
+
+	private void insertStudents(SnapshotFile.Block block, final PreparedStatement statement) throws SQLException {
+		final SQLException[] failure = new SQLException[1];
+		final int[] pending = new int[1];
+		block.forEachStudent(new SnapshotFile.StudentVisitor() {
+			@Override
+			public void visit(long id, String enrollmentId, String name, long guideId, long version) {
+				if (failure[0] != null) return;
+				try {
+					statement.setLong(1, id);
+					statement.setString(2, enrollmentId);
+					statement.setString(3, name);
+					if (guideId == SnapshotFile.NO_ID) {
+						statement.setNull(4, Types.BIGINT);
+					} else {
+						statement.setLong(4, guideId);
+					}
+					statement.setLong(5, version);
+					addBatch(statement, pending);
+				} catch (SQLException e) {
+					failure[0] = e;
+				}
+			}
+		});
+		finish(statement, pending, failure);
+	}
+
+	private void addBatch(PreparedStatement statement, int[] pending) throws SQLException {
+		statement.addBatch();
+		if (++pending[0] == batchSize) {
+			statement.executeBatch();
+			pending[0] = 0;
+		}
+	}
+
+	private static void finish(PreparedStatement statement, int[] pending, SQLException[] failure) throws SQLException {
+		if (failure[0] != null) throw failure[0];
+		if (pending[0] > 0) statement.executeBatch();
+	}
+
+	/**
+	 * Moves the pooled table generator (Guide.java, Student.java) past the highest imported id: the pooled optimizer hands out
+	 * [next_val - increment_size, next_val), so next_val must be above max(id) + increment_size
+	 */
+	private void updateIdGenerator(AbstractEntityPersister persister, SnapshotFile snapshot, Table table) {
+		if (!(persister.getIdentifierGenerator() instanceof TableGenerator)) {
+			logger.warn("ids of " + persister.getEntityName() + " don't come from a table generator, not updated");
+			return;
+		}
+		final TableGenerator generator = (TableGenerator) persister.getIdentifierGenerator();
+		long maxId = snapshot.maxId(table);
+		if (maxId == Long.MIN_VALUE) return; // Nothing imported
+
+		final long next = maxId + generator.getIncrementSize() + 1;
+		EntityManager em = emf.createEntityManager();
+		EntityTransaction txn = em.getTransaction();
+		try {
+			txn.begin();
+			em.unwrap(Session.class).doReturningWork(new ReturningWork<Void>() {
+				@Override
+				public Void execute(Connection connection) throws SQLException {
+					PreparedStatement select = connection.prepareStatement("select " + generator.getValueColumnName() + " from " + generator.getTableName()
+							+ " where " + generator.getSegmentColumnName() + " = ?");
+					Long current = null;
+					try {
+						select.setString(1, generator.getSegmentValue());
+						ResultSet rows = select.executeQuery();
+						if (rows.next()) current = rows.getLong(1);
+					} finally {
+						select.close();
+					}
+					if (current != null && current >= next) return null;
+
+					PreparedStatement write = connection.prepareStatement(current == null
+							? "insert into " + generator.getTableName() + " (" + generator.getValueColumnName() + ", " + generator.getSegmentColumnName() + ") values (?, ?)"
+							: "update " + generator.getTableName() + " set " + generator.getValueColumnName() + " = ? where " + generator.getSegmentColumnName() + " = ?");
+					try {
+						write.setLong(1, next);
+						write.setString(2, generator.getSegmentValue());
+						write.executeUpdate();
+					} finally {
+						write.close();
+					}
+					return null;
+				}
+			});
+			txn.commit();
+		} catch (RuntimeException e) {
+			if (txn.isActive()) txn.rollback();
+			throw e;
+		} finally {
+			em.close();
+		}
+		logger.info(generator.getSegmentValue() + " ids continue after " + maxId);
+	}
+
+	private AbstractEntityPersister persister(Class<?> entity) {
+		return (AbstractEntityPersister) factory.getEntityPersister(entity.getName());
+	}
+
+}
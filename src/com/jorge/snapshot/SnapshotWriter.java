@@ -0,0 +1,242 @@
+package com.jorge.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.jorge.snapshot.SnapshotFile.Table;
+
+/**
+ * Writes a snapshot file (format in SnapshotFile.java) through a FileChannel, one block at a time
+ *
+ * 		SnapshotWriter writer = new SnapshotWriter(path, 65536);
+ * 		writer.addGuide(id, staffId, name, salary, version);	Rows of both tables in any order
+ * 		writer.addStudent(id, enrollmentId, name, guideId, version);
+ * 		writer.close();											Footer written, file renamed to 'path'
+ *
+ * Rows are buffered in columns until a block of their table is full, then the block is encoded into a direct buffer and written.
+ * Memory is bounded by 2 blocks, whatever the number of rows. The file is written as 'path'.tmp and renamed when it is complete,
+ * so a reader never sees half a snapshot. discard() deletes it after a failure
+ *
+ * Not thread-safe: one writer thread (SnapshotExporter.java hands it the rows of its parallel scans on the caller's thread)
+ */
+public class SnapshotWriter implements Closeable {
+
+	public static final int DEFAULT_BLOCK_ROWS = 65536;
+
+	private static final Logger logger = Logger.getLogger(SnapshotWriter.class.getName());
+
+	private final Path path;
+	private final Path tmp;
+	private final FileChannel channel;
+	private final BlockBuilder guides;
+	private final BlockBuilder students;
+	private final List<long[]> footer = new ArrayList<long[]>(); // {offset, table, rows} of every block written
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(SnapshotFile.ORDER);
+	private long position;
+	private boolean closed;
+
+	public SnapshotWriter(Path path, int blockRows) throws IOException {
+		if (blockRows <= 0) {
+			throw new IllegalArgumentException("blockRows must be > 0: " + blockRows);
+		}
+		this.path = path;
+		this.tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		this.channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.guides = new BlockBuilder(Table.GUIDE, blockRows);
+		this.students = new BlockBuilder(Table.STUDENT, blockRows);
+
+		buffer.putInt(SnapshotFile.MAGIC).putInt(SnapshotFile.FORMAT_VERSION);
+		write();
+	}
+
+	public void addGuide(long id, String staffId, String name, Integer salary, long version) throws IOException {
+		int row = guides.size;
+		guides.longs[0][row] = id;
+		guides.longs[1][row] = version;
+		guides.ints[0][row] = salary == null ? SnapshotFile.NO_SALARY : salary;
+		guides.code(0, row, staffId);
+		guides.code(1, row, name);
+		if (++guides.size == guides.capacity) flush(guides);
+	}
+
+	public void addStudent(long id, String enrollmentId, String name, Long guideId, long version) throws IOException {
+		int row = students.size;
+		students.longs[0][row] = id;
+		students.longs[1][row] = guideId == null ? SnapshotFile.NO_ID : guideId;
+		students.longs[2][row] = version;
+		students.code(0, row, enrollmentId);
+		students.code(1, row, name);
+		if (++students.size == students.capacity) flush(students);
+	}
+
+	/**
+	 * Writes the last blocks and the footer, forces the file to disk and renames it to 'path'
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		flush(guides);
+		flush(students);
+
+		long footerOffset = position;
+		ensureCapacity(4 + 16 * footer.size() + SnapshotFile.TRAILER_BYTES);
+		buffer.putInt(footer.size());
+		for (long[] block : footer)
+			buffer.putLong(block[0]).putInt((int) block[1]).putInt((int) block[2]);
+		buffer.putLong(footerOffset).putInt(SnapshotFile.MAGIC);
+		write();
+
+		channel.force(true);
+		channel.close();
+		closed = true;
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		logger.info("snapshot written: " + path + ", " + footer.size() + " blocks, " + position + " bytes");
+	}
+
+	/**
+	 * Stops writing and deletes the incomplete file
+	 */
+	public void discard() {
+		closed = true;
+		try {
+			channel.close();
+			Files.deleteIfExists(tmp);
+		} catch (IOException e) {
+			logger.warn("cannot delete " + tmp, e);
+		}
+	}
+
+	public long getBytesWritten() {
+		return position;
+	}
+
+	private void flush(BlockBuilder block) throws IOException {
+		if (block.size == 0) return;
+		Table table = block.table;
+		int rows = block.size;
+		List<byte[][]> dictionaries = new ArrayList<byte[][]>();
+		int bytes = 8 + 8 * rows * table.longColumns + 4 * rows * table.intColumns;
+		for (int i = 0; i < table.stringColumns; i++) {
+			byte[][] dictionary = block.dictionary(i);
+			dictionaries.add(dictionary);
+			int data = 0;
+			for (byte[] value : dictionary)
+				data += value.length;
+			bytes += SnapshotFile.align(4 * rows + 4 + 4 * (dictionary.length + 1) + data, 4);
+		}
+		bytes = SnapshotFile.align(bytes, 8); // The long columns of the next block stay aligned
+
+		ensureCapacity(bytes);
+		buffer.putInt(table.ordinal()).putInt(rows);
+		for (long[] column : block.longs) {
+			buffer.asLongBuffer().put(column, 0, rows); // A view: it doesn't move the position of 'buffer'
+			buffer.position(buffer.position() + 8 * rows);
+		}
+		for (int[] column : block.ints) {
+			buffer.asIntBuffer().put(column, 0, rows);
+			buffer.position(buffer.position() + 4 * rows);
+		}
+		for (int i = 0; i < table.stringColumns; i++) {
+			byte[][] dictionary = dictionaries.get(i);
+			buffer.asIntBuffer().put(block.codes[i], 0, rows);
+			buffer.position(buffer.position() + 4 * rows);
+			buffer.putInt(dictionary.length);
+			int offset = 0;
+			buffer.putInt(offset);
+			for (byte[] value : dictionary)
+				buffer.putInt(offset += value.length);
+			for (byte[] value : dictionary)
+				buffer.put(value);
+			while (buffer.position() % 4 != 0)
+				buffer.put((byte) 0);
+		}
+		while (buffer.position() < bytes)
+			buffer.put((byte) 0);
+
+		footer.add(new long[] { position, table.ordinal(), rows });
+		write();
+		block.reset();
+	}
+
+	private void ensureCapacity(int bytes) {
+		if (buffer.capacity() < bytes) buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(bytes - 1) << 1).order(SnapshotFile.ORDER);
+		buffer.clear();
+	}
+
+	private void write() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			position += channel.write(buffer);
+		buffer.clear();
+	}
+
+	// Rows of one table waiting for their block to be written
+	private static final class BlockBuilder {
+
+		final Table table;
+		final int capacity;
+		final long[][] longs;
+		final int[][] ints;
+		final int[][] codes;
+		final List<Map<String, Integer>> dictionaries = new ArrayList<Map<String, Integer>>();
+		final List<List<String>> values = new ArrayList<List<String>>();
+		int size;
+
+		BlockBuilder(Table table, int capacity) {
+			this.table = table;
+			this.capacity = capacity;
+			longs = new long[table.longColumns][capacity];
+			ints = new int[table.intColumns][capacity];
+			codes = new int[table.stringColumns][capacity];
+			for (int i = 0; i < table.stringColumns; i++) {
+				dictionaries.add(new HashMap<String, Integer>());
+				values.add(new ArrayList<String>());
+			}
+		}
+
+		void code(int column, int row, String value) {
+			if (value == null) {
+				codes[column][row] = SnapshotFile.NULL_CODE;
+				return;
+			}
+			Integer code = dictionaries.get(column).get(value);
+			if (code == null) {
+				code = values.get(column).size();
+				dictionaries.get(column).put(value, code);
+				values.get(column).add(value);
+			}
+			codes[column][row] = code;
+		}
+
+		byte[][] dictionary(int column) {
+			List<String> distinct = values.get(column);
+			byte[][] utf8 = new byte[distinct.size()][];
+			for (int i = 0; i < utf8.length; i++)
+				utf8[i] = distinct.get(i).getBytes(StandardCharsets.UTF_8);
+			return utf8;
+		}
+
+		void reset() {
+			size = 0;
+			for (int i = 0; i < table.stringColumns; i++) {
+				dictionaries.get(i).clear();
+				values.get(i).clear();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.jorge.work;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.OptimisticLockException;
+
+import org.hibernate.StaleStateException;
+import org.hibernate.dialect.lock.OptimisticEntityLockException;
+
+/**
+ * How many times UnitOfWorkExecutor runs a unit of work that lost an optimistic locking race, and how long it waits in between
+ *
+ * 		executor.submit(new UnitOfWork<Void>() {
+ * 			public Void execute(EntityManager em) {
+ * 				Guide guide = em.find(Guide.class, id);
+ * 				guide.setSalary(guide.getSalary() + 100);		Commit: update guide set ..., version=8 where id=? and version=7
+ * 				return null;
+ * 			}
+ * 		}, RetryPolicy.optimistic());
+ *
+ * Guide and Student have a @Version: no row lock is held between the read and the commit, and when two transactions change
+ * the same row the second commit fails (OptimisticLockException). The whole unit of work is run again with a new entity manager,
+ * so it reads the row the other transaction committed. It must have no side effects outside the database
+ *
+ * Backoff: before attempt n it waits a random time between 0 and initialBackoff * 2^(n-2), at most maxBackoff ("full jitter").
+ * Writers that collided wait different times, so they don't collide again at once. Any other failure is not retried
+ *
+ * Counters that many writers increment (a salary...) conflict on every commit: SalaryDeltas.java adds to them without reading them
+ */
+public class RetryPolicy {
+
+	// One attempt: conflicts fail at once
+	public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, TimeUnit.MILLISECONDS);
+
+	private final int maxAttempts;
+	private final long initialBackoffNanos;
+	private final long maxBackoffNanos;
+
+	public RetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff, TimeUnit unit) {
+		if (maxAttempts <= 0) throw new IllegalArgumentException("maxAttempts must be > 0: " + maxAttempts);
+		if (initialBackoff < 0 || maxBackoff < initialBackoff) throw new IllegalArgumentException("backoff must be 0 <= initial <= max: " + initialBackoff + ", " + maxBackoff);
+		this.maxAttempts = maxAttempts;
+		this.initialBackoffNanos = unit.toNanos(initialBackoff);
+		this.maxBackoffNanos = unit.toNanos(maxBackoff);
+	}
+
+	/**
+	 * 10 attempts, backoff from up to 1 ms to up to 100 ms
+	 */
+	public static RetryPolicy optimistic() {
+		return new RetryPolicy(10, 1, 100, TimeUnit.MILLISECONDS);
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	// Random wait before attempt 'attempt' (2, 3...)
+	public long backoffNanos(int attempt) {
+		if (attempt <= 1 || initialBackoffNanos == 0) return 0;
+		int doublings = Math.min(attempt - 2, 30);
+		long ceiling = Math.min(maxBackoffNanos, initialBackoffNanos << doublings);
+		if (ceiling < 0) ceiling = maxBackoffNanos; // Overflow
+		return ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	/**
+	 * true if 'failure' (or its cause) means another transaction committed a new version of a row this one had read:
+	 * JPA OptimisticLockException (thrown by flush, or as the cause of the RollbackException of commit), Hibernate
+	 * StaleObjectStateException / StaleStateException, or a failed LockModeType.OPTIMISTIC version check
+	 */
+	public static boolean isConflict(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof OptimisticLockException || cause instanceof StaleStateException || cause instanceof OptimisticEntityLockException) return true;
+			if (cause.getCause() == cause) break;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "RetryPolicy [maxAttempts=" + maxAttempts + ", initialBackoff=" + TimeUnit.NANOSECONDS.toMillis(initialBackoffNanos)
+				+ " ms, maxBackoff=" + TimeUnit.NANOSECONDS.toMillis(maxBackoffNanos) + " ms]";
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.jorge.work;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded lock-free queue for many producers and one consumer (MPSC), the buffer of AsyncFileAppender.java and EnrollmentBuffer.java
+ *
+ * Every element gets a sequence number. Slot i is free for the producer of sequence s when sequences[i] == s, and ready for the
+ * consumer when sequences[i] == s + 1:
+ * 		producer	claims the next sequence with a compare-and-set of 'tail', stores the element, publishes it (sequences[i] = s + 1)
+ * 		consumer	reads the published elements from 'head' on and frees their slots for the producers of the next lap (s + capacity)
+ * A producer never waits for another one: a claimed slot that is not published yet only stops the consumer, until it is
+ *
+ * offer() returns -1 when the buffer is full: what to do then (wait, drop, reject) is the caller's decision. A producer that
+ * waits calls awaitSpace(), which sleeps until the consumer frees a slot: no polling. The lock behind it is only taken
+ * when the buffer is full. peek(), readable() and poll() must only be called from the consumer thread
+ *
+ * @param <E> Elements, never null
+ */
+public class RingBuffer<E> {
+
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong(); // Next sequence for a producer
+	private long head; // Next sequence for the consumer, only used by it
+	private volatile long publishedHead; // head, as seen by the producers
+	private final AtomicInteger waitingProducers = new AtomicInteger(); // In awaitSpace()
+	private final ReentrantLock spaceLock = new ReentrantLock();
+	private final Condition space = spaceLock.newCondition();
+
+	// 'capacity' is rounded up to a power of two: slot = sequence & mask
+	public RingBuffer(int capacity) {
+		if (capacity <= 0) throw new IllegalArgumentException("capacity must be > 0: " + capacity);
+		int slots = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		elements = new AtomicReferenceArray<E>(slots);
+		sequences = new AtomicLongArray(slots);
+		for (int i = 0; i < slots; i++)
+			sequences.set(i, i);
+		mask = slots - 1;
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Sequence of the element, -1 if the buffer is full
+	 */
+	public long offer(E element) {
+		while (true) {
+			long sequence = tail.get();
+			int slot = (int) (sequence & mask);
+			long available = sequences.get(slot);
+			if (available < sequence) return -1; // The consumer hasn't freed it yet: full
+			if (available == sequence && tail.compareAndSet(sequence, sequence + 1)) {
+				elements.set(slot, element);
+				sequences.set(slot, sequence + 1); // Publishes the element to the consumer
+				return sequence;
+			}
+			// Another producer took this sequence, try the next one
+		}
+	}
+
+	/**
+	 * Producer: waits until the consumer frees a slot, wakeProducers() is called or 'timeoutNanos' have passed, then
+	 * the caller tries offer() again. Returns at once if the buffer is not full. Interrupts are kept for the caller
+	 */
+	public void awaitSpace(long timeoutNanos) {
+		waitingProducers.incrementAndGet(); // Before the check: poll() frees a slot then looks at waitingProducers, one of both sees the other
+		spaceLock.lock();
+		try {
+			if (pending() >= capacity() && timeoutNanos > 0) space.awaitNanos(timeoutNanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			spaceLock.unlock();
+			waitingProducers.decrementAndGet();
+		}
+	}
+
+	// Producers in awaitSpace() return now, e.g. when the consumer is closing
+	public void wakeProducers() {
+		spaceLock.lock();
+		try {
+			space.signalAll();
+		} finally {
+			spaceLock.unlock();
+		}
+	}
+
+	// Elements claimed and not consumed yet, published or not. From any thread
+	public long pending() {
+		return tail.get() - publishedHead;
+	}
+
+	// Elements consumed so far, from any thread: the producer of 'sequence' sees sequence + 1 - consumed() elements waiting, its own included
+	public long consumed() {
+		return publishedHead;
+	}
+
+	// Consumer thread: the next element if it is published, without removing it
+	public E peek() {
+		int slot = (int) (head & mask);
+		return sequences.get(slot) == head + 1 ? elements.get(slot) : null;
+	}
+
+	// Consumer thread: elements published one after the other from the next one, at most 'max'
+	public int readable(int max) {
+		int ready = 0;
+		while (ready < max && sequences.get((int) ((head + ready) & mask)) == head + ready + 1)
+			ready++;
+		return ready;
+	}
+
+	// Consumer thread: removes and returns the next element, null if it is not published yet
+	public E poll() {
+		int slot = (int) (head & mask);
+		if (sequences.get(slot) != head + 1) return null; // Empty, or claimed and not published yet
+		E element = elements.get(slot);
+		elements.set(slot, null);
+		sequences.set(slot, head + mask + 1); // Free for the producer one lap later
+		publishedHead = ++head;
+		if (waitingProducers.get() > 0) wakeProducers();
+		return element;
+	}
+
+	// Consumer thread: true if no element is claimed, not even one still being published
+	public boolean isDrained() {
+		return tail.get() == head;
+	}
+
+}
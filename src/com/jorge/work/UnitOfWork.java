@@ -0,0 +1,16 @@
+package com.jorge.work;
+
+import javax.persistence.EntityManager;
+
+/**
+ * One request: what Main.java does between txn.begin() and txn.commit(), with its own entity manager
+ *
+ * The entity manager is only valid inside execute(). Return DTOs or detached entities, never keep the entity manager
+ *
+ * @param <T> Result of the unit of work
+ */
+public interface UnitOfWork<T> {
+
+	T execute(EntityManager em) throws Exception;
+
+}
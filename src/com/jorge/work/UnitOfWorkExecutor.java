@@ -0,0 +1,264 @@
+package com.jorge.work;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+import org.apache.log4j.Logger;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import com.jorge.pool.PooledConnectionProvider;
+
+/**
+ * Runs units of work concurrently, each one like the main() of Main.java: its own entity manager, begin, execute, commit
+ * (rollback if it fails), close
+ *
+ * 		UnitOfWorkExecutor executor = new UnitOfWorkExecutor(emf);
+ * 		Future<List<Guide>> guides = executor.submit(new UnitOfWork<List<Guide>>() {
+ * 			public List<Guide> execute(EntityManager em) {
+ * 				return queries.createQuery(em, "findByGuide", Guide.class).setParameter("name", name).getResultList();
+ * 			}
+ * 		});
+ * 		...
+ * 		executor.close();
+ *
+ * Threads:
+ * 		- Java 21 or later: one virtual thread per unit of work. Thousands of units can wait for the database at the same time,
+ * 		  a virtual thread blocked on JDBC doesn't hold a platform thread
+ * 		- Older Java: a pool of platform threads, as many as the concurrency limit. The other units wait in the queue of the pool
+ *
+ * Concurrency is limited by a semaphore with as many permits as connections in the pool (PooledConnectionProvider max size),
+ * not by the number of threads: at most that many units have an entity manager, and so a connection, at the same time.
+ * The others wait for a permit before creating their entity manager, so they never wait inside the pool holding nothing useful
+ * and never reach its acquire timeout. submit() never blocks, the permit is taken by the thread that runs the unit.
+ * A unit of work must not open a second entity manager: it would need a second connection and, with every permit taken,
+ * the pool could run out
+ *
+ * Pinning (a virtual thread inside a synchronized block can't leave its platform thread while it waits, Java 21 to 23):
+ * 		- This class and PooledConnectionProvider only use java.util.concurrent: waiting for a permit or a connection doesn't pin
+ * 		- EntityTransaction begin/commit/rollback are JDBC calls on the connection of the unit, no Hibernate lock is held
+ * 		- MySQL Connector/J 5.1 executes every statement inside synchronized(connection mutex): the JDBC call itself pins.
+ * 		  Connector/J 8.0.33 or later replaced them with ReentrantLock. With 5.1 every unit blocked on the database pins a
+ * 		  platform thread, which is still fine because at most 'permits' units are in the database at the same time
+ * 		- log4j 1.2 Category.callAppenders() is synchronized: keep the AsyncFileAppender (log4j.properties) so the lock is short
+ * Java 24 or later doesn't pin in synchronized blocks any more (JEP 491)
+ */
+public class UnitOfWorkExecutor implements AutoCloseable {
+
+	private static final Logger logger = Logger.getLogger(UnitOfWorkExecutor.class.getName());
+	private static final int DEFAULT_CONCURRENCY = 20; // PooledConnectionProvider default max size
+
+	private final EntityManagerFactory emf;
+	private final Semaphore permits;
+	private final int maxConcurrency;
+	private final ExecutorService threads;
+	private final boolean virtualThreads;
+
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong conflicts = new AtomicLong();
+
+	/**
+	 * Concurrency = max size of the connection pool of the persistence unit (20 if it doesn't use PooledConnectionProvider)
+	 */
+	public UnitOfWorkExecutor(EntityManagerFactory emf) {
+		this(emf, poolSize(emf));
+	}
+
+	public UnitOfWorkExecutor(EntityManagerFactory emf, int maxConcurrency) {
+		if (maxConcurrency <= 0) throw new IllegalArgumentException("maxConcurrency must be > 0: " + maxConcurrency);
+		this.emf = emf;
+		this.maxConcurrency = maxConcurrency;
+		this.permits = new Semaphore(maxConcurrency, true); // Fair: units get their entity manager in the order they were submitted
+
+		ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+		virtualThreads = virtual != null;
+		threads = virtualThreads ? virtual : Executors.newFixedThreadPool(maxConcurrency, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "unit-of-work-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		logger.info("unit of work executor: " + maxConcurrency + " concurrent units, " + (virtualThreads ? "virtual threads" : "platform threads"));
+	}
+
+	public <T> Future<T> submit(UnitOfWork<T> work) {
+		return submit(work, RetryPolicy.NONE);
+	}
+
+	/**
+	 * Same, but a unit that fails with an optimistic locking conflict is run again (new entity manager, new transaction)
+	 * as 'retry' says. The permit is released while it waits, so the connection goes to other units meanwhile
+	 */
+	public <T> Future<T> submit(final UnitOfWork<T> work, final RetryPolicy retry) {
+		return threads.submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				return run(work, retry);
+			}
+		});
+	}
+
+	/**
+	 * Submits every unit and waits for all of them. Results in the same order. The first failure is thrown once all have finished
+	 */
+	public <T> List<T> invokeAll(List<? extends UnitOfWork<T>> works) throws InterruptedException, ExecutionException {
+		List<Future<T>> futures = new ArrayList<Future<T>>(works.size());
+		for (UnitOfWork<T> work : works)
+			futures.add(submit(work));
+
+		List<T> results = new ArrayList<T>(works.size());
+		ExecutionException failure = null;
+		for (Future<T> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException e) {
+				if (failure == null) failure = e;
+				results.add(null);
+			}
+		}
+		if (failure != null) throw failure;
+		return results;
+	}
+
+	private <T> T run(UnitOfWork<T> work, RetryPolicy retry) throws Exception {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				T result = attempt(work);
+				completed.incrementAndGet();
+				return result;
+			} catch (Exception e) {
+				if (attempt >= retry.getMaxAttempts() || !RetryPolicy.isConflict(e)) {
+					failed.incrementAndGet();
+					throw e;
+				}
+				conflicts.incrementAndGet();
+				long backoff = retry.backoffNanos(attempt + 1);
+				if (logger.isDebugEnabled()) {
+					logger.debug("optimistic locking conflict, attempt " + attempt + " of " + retry.getMaxAttempts() + ", retrying in " + backoff / 1000 + " us");
+				}
+				if (backoff > 0) TimeUnit.NANOSECONDS.sleep(backoff);
+			}
+		}
+	}
+
+	// Same as Main.java: begin, work, commit, rollback if anything fails, close
+	private <T> T attempt(UnitOfWork<T> work) throws Exception {
+		permits.acquire();
+		active.incrementAndGet();
+		EntityManager em = null;
+		EntityTransaction txn = null;
+		try {
+			em = emf.createEntityManager();
+			txn = em.getTransaction();
+			txn.begin();
+			T result = work.execute(em);
+			txn.commit();
+			return result;
+		} catch (Exception e) {
+			if (txn != null && txn.isActive()) {
+				try {
+					txn.rollback();
+				} catch (RuntimeException rollbackFailure) {
+					logger.error("rollback failed: " + rollbackFailure.getMessage()); // The original exception is the one thrown
+				}
+			}
+			throw e;
+		} finally {
+			if (em != null) em.close(); // Returns the connection to the pool before the permit is released
+			active.decrementAndGet();
+			permits.release();
+		}
+	}
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	public boolean usesVirtualThreads() {
+		return virtualThreads;
+	}
+
+	// Units with an entity manager right now
+	public int getActive() {
+		return active.get();
+	}
+
+	// Units waiting for a permit right now (with platform threads, plus the ones still in the queue of the pool)
+	public int getWaiting() {
+		return permits.getQueueLength();
+	}
+
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	// Attempts that lost an optimistic locking race and were run again
+	public long getConflicts() {
+		return conflicts.get();
+	}
+
+	/**
+	 * No new units are accepted, waits up to 'timeout' for the submitted ones to finish
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		threads.shutdown();
+		return threads.awaitTermination(timeout, unit);
+	}
+
+	@Override
+	public void close() {
+		try {
+			if (!shutdown(1, TimeUnit.MINUTES))
+				logger.warn("unit of work executor closed with units still running: " + active.get() + " active, " + getWaiting() + " waiting");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static int poolSize(EntityManagerFactory emf) {
+		ConnectionProvider provider = emf.unwrap(SessionFactoryImplementor.class).getServiceRegistry().getService(ConnectionProvider.class);
+		return provider instanceof PooledConnectionProvider ? ((PooledConnectionProvider) provider).getMaxSize() : DEFAULT_CONCURRENCY;
+	}
+
+	/**
+	 * Executors.newVirtualThreadPerTaskExecutor() exists from Java 21. The sources are Java 8, so it is looked up by reflection.
+	 * null on older JVMs: the caller uses platform threads (ParallelScan.java too)
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null; // Java 20 or older
+		} catch (Exception e) {
+			logger.warn("virtual threads not available, using platform threads: " + e);
+			return null;
+		}
+	}
+
+}